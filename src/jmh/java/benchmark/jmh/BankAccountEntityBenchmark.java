@@ -0,0 +1,95 @@
+package benchmark.jmh;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Currency;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations of BankAccountEntity on an account with given number of pending transfers. Every changing operation
+ * works on a fresh copy of the same account, so the number of pending transfers stays the same.
+ * Run with -prof gc to see allocation rate next to throughput.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BankAccountEntityBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int pendingTransfers;
+
+    private final BankAccountNumber targetAccount = new BankAccountNumber("REV2");
+
+    private final Money money = Money.polish(1);
+
+    private BankAccountEntity bankAccount;
+
+    private UUID[] pendingTransferIds;
+
+    private UUID[] newTransferIds;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bankAccount = new BankAccountEntity(UUID.randomUUID(), new BankAccountNumber("REV1"), Currency.getInstance("PLN"));
+        bankAccount.receiveMoneyTransfer(Money.polish(Integer.MAX_VALUE / 2));
+        pendingTransferIds = new UUID[pendingTransfers];
+        for (int i = 0; i < pendingTransfers; i++) {
+            pendingTransferIds[i] = UUID.randomUUID();
+            bankAccount.startMoneyTransfer(pendingTransferIds[i], targetAccount, money);
+        }
+        bankAccount.freeze();
+        newTransferIds = new UUID[1024];
+        for (int i = 0; i < newTransferIds.length; i++) {
+            newTransferIds[i] = UUID.randomUUID();
+        }
+    }
+
+    @Benchmark
+    public BankAccountEntity startMoneyTransfer() {
+        BankAccountEntity copy = bankAccount.copy();
+        copy.startMoneyTransfer(newTransferIds[next++ & 1023], targetAccount, money);
+        return copy;
+    }
+
+    @Benchmark
+    public BankAccountEntity confirmMoneyTransfer() {
+        BankAccountEntity copy = bankAccount.copy();
+        copy.confirmMoneyTransfer(pendingTransferIds[next++ % pendingTransfers]);
+        return copy;
+    }
+
+    @Benchmark
+    public BankAccountEntity copy() {
+        return bankAccount.copy();
+    }
+
+    @Benchmark
+    public BankAccountEntity newRevisionCopy() {
+        return bankAccount.newRevisionCopy(newTransferIds[next++ & 1023]);
+    }
+
+    @Benchmark
+    public Money getBlockedMoney() {
+        return bankAccount.getBlockedMoney();
+    }
+}
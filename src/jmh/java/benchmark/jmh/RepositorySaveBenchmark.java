@@ -0,0 +1,97 @@
+package benchmark.jmh;
+
+import domain.control.BankAccountRepository;
+import domain.control.JournalRecord;
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ConcurrentModificationException;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BankAccountRepository.saveBankAccount (read copy, change, save, retry on ConcurrentModificationException) when all
+ * threads change the same account and when every thread has it's own account.
+ * main runs it with 1 to N threads (-Dthreads=N, default number of CPUs) and GC profiler:
+ * java -cp target/benchmarks.jar benchmark.jmh.RepositorySaveBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepositorySaveBenchmark {
+
+    @Param({"same", "disjoint"})
+    public String accounts;
+
+    private final Money money = Money.polish(0);
+
+    private BankAccountRepository repository;
+
+    private BankAccountNumber[] accountNumbers;
+
+    @Setup
+    public void setUp(BenchmarkParams params) {
+        repository = new BankAccountRepository();
+        accountNumbers = new BankAccountNumber[params.getThreads()];
+        for (int i = 0; i < accountNumbers.length; i++) {
+            accountNumbers[i] = repository.generateNewBankAccountNumber();
+            BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), accountNumbers[i], money.currency);
+            repository.saveBankAccount(bankAccount, JournalRecord.accountCreated(accountNumbers[i], money));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadAccount {
+        BankAccountNumber accountNumber;
+        long retries;
+
+        @Setup
+        public void setUp(RepositorySaveBenchmark benchmark, ThreadParams threadParams) {
+            accountNumber = benchmark.accountNumbers["same".equals(benchmark.accounts) ? 0 : threadParams.getThreadIndex()];
+        }
+    }
+
+    @Benchmark
+    public long saveBankAccount(ThreadAccount threadAccount) {
+        while (true) {
+            BankAccountEntity bankAccount = repository.getBankAccount(threadAccount.accountNumber);
+            bankAccount.receiveMoneyTransfer(money);
+            try {
+                return repository.saveBankAccount(bankAccount);
+            } catch (ConcurrentModificationException e) {
+                threadAccount.retries++;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = Integer.getInteger("threads", Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            new Runner(new OptionsBuilder()
+                .include(RepositorySaveBenchmark.class.getSimpleName())
+                .threads(threads)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+        }
+    }
+}
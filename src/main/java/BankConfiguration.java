@@ -0,0 +1,623 @@
+import domain.boundary.ExecutionMode;
+import domain.entity.ExchangeRates;
+import domain.entity.Money;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Startup options of the application, read from system properties (-Dbank.xxx=...).
+ */
+public class BankConfiguration {
+
+    private Path journalDirectory;
+
+    private int initialAccounts = 2;
+
+    private Duration snapshotInterval = Duration.ofMinutes(5);
+
+    private ExecutionMode executionMode = ExecutionMode.OPTIMISTIC;
+
+    private int transferIdCapacity = 1 << 18;
+
+    private int eventConsumers = Runtime.getRuntime().availableProcessors();
+
+    private int eventCapacity = 1 << 14;
+
+    private int eventBatchSize = 256;
+
+    private Duration transferIdRetention = Duration.ofHours(24);
+
+    private int historyRetention = 1 << 14;
+
+    private boolean blockingHandlers = false;
+
+    private int blockingThreads = 16;
+
+    private boolean metricsEnabled = true;
+
+    private boolean ledgerEnabled = true;
+
+    private Duration ledgerRetention = Duration.ofDays(31);
+
+    private boolean virtualThreads = false;
+
+    private int eventMaxAttempts = 8;
+
+    private Duration redeliveryDelay = Duration.ofMillis(100);
+
+    private Duration maxRedeliveryDelay = Duration.ofSeconds(30);
+
+    private int deadLetterCapacity = 10_000;
+
+    private int pendingEventsInMemory = 1 << 14;
+
+    private int pendingEventsDrainRate = 10_000;
+
+    private int accountCacheCapacity = 1 << 14;
+
+    private ExchangeRates exchangeRates = ExchangeRates.of(Money.polishCurrency);
+
+    private int clearingBatchSize = 256;
+
+    private Duration clearingLinger = Duration.ofMillis(2);
+
+    private int clearingInFlight = 4;
+
+    private Duration clearingLatency = Duration.ZERO;
+
+    private double clearingFailureRate = 0;
+
+    private double clearingRejectionRate = 0;
+
+    private int shardIndex = 0;
+
+    private List<InetSocketAddress> shardAddresses = Collections.emptyList();
+
+    public static BankConfiguration fromSystemProperties() {
+        BankConfiguration configuration = new BankConfiguration();
+        String journalDirectory = System.getProperty("bank.journal.dir");
+        if (journalDirectory != null) {
+            configuration.journalDirectory(Paths.get(journalDirectory));
+        }
+        String initialAccounts = System.getProperty("bank.accounts.initial");
+        if (initialAccounts != null) {
+            configuration.initialAccounts(Integer.parseInt(initialAccounts));
+        }
+        String snapshotIntervalSeconds = System.getProperty("bank.snapshot.interval.seconds");
+        if (snapshotIntervalSeconds != null) {
+            configuration.snapshotInterval(Duration.ofSeconds(Long.parseLong(snapshotIntervalSeconds)));
+        }
+        String executionMode = System.getProperty("bank.execution.mode");
+        if (executionMode != null) {
+            configuration.executionMode(ExecutionMode.valueOf(executionMode.toUpperCase()));
+        }
+        String eventConsumers = System.getProperty("bank.events.consumers");
+        if (eventConsumers != null) {
+            configuration.eventConsumers(Integer.parseInt(eventConsumers));
+        }
+        String eventCapacity = System.getProperty("bank.events.capacity");
+        if (eventCapacity != null) {
+            configuration.eventCapacity(Integer.parseInt(eventCapacity));
+        }
+        String eventBatchSize = System.getProperty("bank.events.batch");
+        if (eventBatchSize != null) {
+            configuration.eventBatchSize(Integer.parseInt(eventBatchSize));
+        }
+        String transferIdCapacity = System.getProperty("bank.transferIds.capacity");
+        if (transferIdCapacity != null) {
+            configuration.transferIdCapacity(Integer.parseInt(transferIdCapacity));
+        }
+        String transferIdRetentionHours = System.getProperty("bank.transferIds.retention.hours");
+        if (transferIdRetentionHours != null) {
+            configuration.transferIdRetention(Duration.ofHours(Long.parseLong(transferIdRetentionHours)));
+        }
+        String historyRetention = System.getProperty("bank.history.retention");
+        if (historyRetention != null) {
+            configuration.historyRetention(Integer.parseInt(historyRetention));
+        }
+        String blockingHandlers = System.getProperty("bank.handlers.blocking");
+        if (blockingHandlers != null) {
+            configuration.blockingHandlers(Boolean.parseBoolean(blockingHandlers));
+        }
+        String blockingThreads = System.getProperty("bank.blocking.threads");
+        if (blockingThreads != null) {
+            configuration.blockingThreads(Integer.parseInt(blockingThreads));
+        }
+        String eventMaxAttempts = System.getProperty("bank.events.maxAttempts");
+        if (eventMaxAttempts != null) {
+            configuration.eventMaxAttempts(Integer.parseInt(eventMaxAttempts));
+        }
+        String redeliveryDelayMillis = System.getProperty("bank.events.redelivery.delay.ms");
+        if (redeliveryDelayMillis != null) {
+            configuration.redeliveryDelay(Duration.ofMillis(Long.parseLong(redeliveryDelayMillis)));
+        }
+        String maxRedeliveryDelayMillis = System.getProperty("bank.events.redelivery.maxDelay.ms");
+        if (maxRedeliveryDelayMillis != null) {
+            configuration.maxRedeliveryDelay(Duration.ofMillis(Long.parseLong(maxRedeliveryDelayMillis)));
+        }
+        String deadLetterCapacity = System.getProperty("bank.deadLetters.capacity");
+        if (deadLetterCapacity != null) {
+            configuration.deadLetterCapacity(Integer.parseInt(deadLetterCapacity));
+        }
+        String pendingEventsInMemory = System.getProperty("bank.pending.memory");
+        if (pendingEventsInMemory != null) {
+            configuration.pendingEventsInMemory(Integer.parseInt(pendingEventsInMemory));
+        }
+        String pendingEventsDrainRate = System.getProperty("bank.pending.drainRate");
+        if (pendingEventsDrainRate != null) {
+            configuration.pendingEventsDrainRate(Integer.parseInt(pendingEventsDrainRate));
+        }
+        String accountCacheCapacity = System.getProperty("bank.cache.accounts");
+        if (accountCacheCapacity != null) {
+            configuration.accountCacheCapacity(Integer.parseInt(accountCacheCapacity));
+        }
+        String clearingBatchSize = System.getProperty("bank.clearing.batch");
+        if (clearingBatchSize != null) {
+            configuration.clearingBatchSize(Integer.parseInt(clearingBatchSize));
+        }
+        String clearingLingerMillis = System.getProperty("bank.clearing.linger.ms");
+        if (clearingLingerMillis != null) {
+            configuration.clearingLinger(Duration.ofMillis(Long.parseLong(clearingLingerMillis)));
+        }
+        String clearingInFlight = System.getProperty("bank.clearing.inFlight");
+        if (clearingInFlight != null) {
+            configuration.clearingInFlight(Integer.parseInt(clearingInFlight));
+        }
+        String clearingLatencyMillis = System.getProperty("bank.clearing.stub.latency.ms");
+        if (clearingLatencyMillis != null) {
+            configuration.clearingLatency(Duration.ofMillis(Long.parseLong(clearingLatencyMillis)));
+        }
+        String clearingFailureRate = System.getProperty("bank.clearing.stub.failureRate");
+        if (clearingFailureRate != null) {
+            configuration.clearingFailureRate(Double.parseDouble(clearingFailureRate));
+        }
+        String clearingRejectionRate = System.getProperty("bank.clearing.stub.rejectionRate");
+        if (clearingRejectionRate != null) {
+            configuration.clearingRejectionRate(Double.parseDouble(clearingRejectionRate));
+        }
+        String shardIndex = System.getProperty("bank.shard.index");
+        if (shardIndex != null) {
+            configuration.shardIndex(Integer.parseInt(shardIndex));
+        }
+        String shardPeers = System.getProperty("bank.shard.peers");
+        if (shardPeers != null) {
+            List<InetSocketAddress> shardAddresses = new ArrayList<>();
+            for (String peer : shardPeers.split(",")) {
+                int colon = peer.trim().lastIndexOf(':');
+                shardAddresses.add(new InetSocketAddress(peer.trim().substring(0, colon), Integer.parseInt(peer.trim().substring(colon + 1))));
+            }
+            configuration.shardAddresses(shardAddresses);
+        }
+        String exchangeRates = System.getProperty("bank.fx.rates");
+        if (exchangeRates != null) {
+            configuration.exchangeRates(ExchangeRates.parse(Money.polishCurrency, exchangeRates));
+        }
+        String virtualThreads = System.getProperty("bank.threads.virtual");
+        if (virtualThreads != null) {
+            configuration.virtualThreads(Boolean.parseBoolean(virtualThreads));
+        }
+        String ledgerEnabled = System.getProperty("bank.ledger.enabled");
+        if (ledgerEnabled != null) {
+            configuration.ledgerEnabled(Boolean.parseBoolean(ledgerEnabled));
+        }
+        String ledgerRetentionDays = System.getProperty("bank.ledger.retention.days");
+        if (ledgerRetentionDays != null) {
+            configuration.ledgerRetention(Duration.ofDays(Long.parseLong(ledgerRetentionDays)));
+        }
+        String metricsEnabled = System.getProperty("bank.metrics.enabled");
+        if (metricsEnabled != null) {
+            configuration.metricsEnabled(Boolean.parseBoolean(metricsEnabled));
+        }
+        return configuration;
+    }
+
+    /**
+     * Directory of the EventJournal - without it all state is held only in memory.
+     */
+    public BankConfiguration journalDirectory(Path journalDirectory) {
+        this.journalDirectory = journalDirectory;
+        return this;
+    }
+
+    public Optional<Path> getJournalDirectory() {
+        return Optional.ofNullable(journalDirectory);
+    }
+
+    /**
+     * Number of accounts with 1000 PLN each created at start when there are none (nothing was recovered from journal).
+     */
+    public BankConfiguration initialAccounts(int initialAccounts) {
+        this.initialAccounts = initialAccounts;
+        return this;
+    }
+
+    public int getInitialAccounts() {
+        return initialAccounts;
+    }
+
+    /**
+     * How often snapshot of all accounts is written (into 'snapshots' sub directory of journal), zero disables snapshots.
+     */
+    public BankConfiguration snapshotInterval(Duration snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+        return this;
+    }
+
+    public Optional<Path> getSnapshotDirectory() {
+        return snapshotInterval.isZero() ? Optional.empty() : getJournalDirectory().map(directory -> directory.resolve("snapshots"));
+    }
+
+    public Duration getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public BankConfiguration executionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * How many processed transfer ids fit into one generation of TransferIdIndex (memory is about 32 bytes per id).
+     */
+    public BankConfiguration transferIdCapacity(int transferIdCapacity) {
+        this.transferIdCapacity = transferIdCapacity;
+        return this;
+    }
+
+    public int getTransferIdCapacity() {
+        return transferIdCapacity;
+    }
+
+    /**
+     * Minimal time a processed transfer id is remembered for, unless capacity runs out earlier.
+     */
+    public BankConfiguration transferIdRetention(Duration transferIdRetention) {
+        this.transferIdRetention = transferIdRetention;
+        return this;
+    }
+
+    public Duration getTransferIdRetention() {
+        return transferIdRetention;
+    }
+
+    /**
+     * Number of threads handling Domain Events, each with it's own ring buffer.
+     */
+    public BankConfiguration eventConsumers(int eventConsumers) {
+        this.eventConsumers = eventConsumers;
+        return this;
+    }
+
+    public int getEventConsumers() {
+        return eventConsumers;
+    }
+
+    /**
+     * Size of each event ring buffer - also the maximum number of transfers in progress, more are rejected.
+     */
+    public BankConfiguration eventCapacity(int eventCapacity) {
+        this.eventCapacity = eventCapacity;
+        return this;
+    }
+
+    public int getEventCapacity() {
+        return eventCapacity;
+    }
+
+    public BankConfiguration eventBatchSize(int eventBatchSize) {
+        this.eventBatchSize = eventBatchSize;
+        return this;
+    }
+
+    public int getEventBatchSize() {
+        return eventBatchSize;
+    }
+
+    /**
+     * Number of the latest transfer history records kept per account.
+     */
+    public BankConfiguration historyRetention(int historyRetention) {
+        this.historyRetention = historyRetention;
+        return this;
+    }
+
+    public int getHistoryRetention() {
+        return historyRetention;
+    }
+
+    /**
+     * Whether handlers call the service on Ratpack's blocking executor (the way it was done before PromiseBankService).
+     */
+    public BankConfiguration blockingHandlers(boolean blockingHandlers) {
+        this.blockingHandlers = blockingHandlers;
+        return this;
+    }
+
+    public boolean isBlockingHandlers() {
+        return blockingHandlers;
+    }
+
+    /**
+     * Threads of non blocking handlers for waits that really block - durable journal writes and full event dispatcher.
+     */
+    public BankConfiguration blockingThreads(int blockingThreads) {
+        this.blockingThreads = blockingThreads;
+        return this;
+    }
+
+    public int getBlockingThreads() {
+        return blockingThreads;
+    }
+
+    /**
+     * Whether counters and histograms are recorded and written at admin/metrics - disabled ones are no-ops.
+     */
+    public BankConfiguration metricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Whether every credit and debit is kept in AccountLedger for statements and balances as of past times.
+     */
+    public BankConfiguration ledgerEnabled(boolean ledgerEnabled) {
+        this.ledgerEnabled = ledgerEnabled;
+        return this;
+    }
+
+    public boolean isLedgerEnabled() {
+        return ledgerEnabled;
+    }
+
+    /**
+     * Minimal time entries of AccountLedger are kept for, older ones are dropped segment by segment.
+     */
+    public BankConfiguration ledgerRetention(Duration ledgerRetention) {
+        this.ledgerRetention = ledgerRetention;
+        return this;
+    }
+
+    public Duration getLedgerRetention() {
+        return ledgerRetention;
+    }
+
+    /**
+     * Failed attempts to handle an event after which it's dead lettered.
+     */
+    public BankConfiguration eventMaxAttempts(int eventMaxAttempts) {
+        this.eventMaxAttempts = eventMaxAttempts;
+        return this;
+    }
+
+    public int getEventMaxAttempts() {
+        return eventMaxAttempts;
+    }
+
+    /**
+     * Delay of the first redelivery of failed event, every next one waits twice as long (up to maxRedeliveryDelay).
+     */
+    public BankConfiguration redeliveryDelay(Duration redeliveryDelay) {
+        this.redeliveryDelay = redeliveryDelay;
+        return this;
+    }
+
+    public Duration getRedeliveryDelay() {
+        return redeliveryDelay;
+    }
+
+    public BankConfiguration maxRedeliveryDelay(Duration maxRedeliveryDelay) {
+        this.maxRedeliveryDelay = maxRedeliveryDelay;
+        return this;
+    }
+
+    public Duration getMaxRedeliveryDelay() {
+        return maxRedeliveryDelay;
+    }
+
+    /**
+     * Dead letters held in memory, older ones are spilled to disk.
+     */
+    public BankConfiguration deadLetterCapacity(int deadLetterCapacity) {
+        this.deadLetterCapacity = deadLetterCapacity;
+        return this;
+    }
+
+    public int getDeadLetterCapacity() {
+        return deadLetterCapacity;
+    }
+
+    /**
+     * Dead letters are spilled into 'dead-letters' sub directory of journal, without journal into a temporary directory.
+     */
+    public Optional<Path> getDeadLetterDirectory() {
+        return getJournalDirectory().map(directory -> directory.resolve("dead-letters"));
+    }
+
+    /**
+     * Events held back on heap while event sending is suspended, more overflow to disk.
+     */
+    public BankConfiguration pendingEventsInMemory(int pendingEventsInMemory) {
+        this.pendingEventsInMemory = pendingEventsInMemory;
+        return this;
+    }
+
+    public int getPendingEventsInMemory() {
+        return pendingEventsInMemory;
+    }
+
+    /**
+     * Held back events sent per second after event sending is resumed, 0 for no limit.
+     */
+    public BankConfiguration pendingEventsDrainRate(int pendingEventsDrainRate) {
+        this.pendingEventsDrainRate = pendingEventsDrainRate;
+        return this;
+    }
+
+    public int getPendingEventsDrainRate() {
+        return pendingEventsDrainRate;
+    }
+
+    /**
+     * Held back events overflow into 'pending-events' sub directory of journal, without journal into a temporary directory.
+     */
+    public Optional<Path> getPendingEventsDirectory() {
+        return getJournalDirectory().map(directory -> directory.resolve("pending-events"));
+    }
+
+    /**
+     * Event consumers and blocking operations (waits of non blocking handlers, or whole calls of blocking handlers)
+     * run on virtual threads - needs Java 21 or later, platform threads are used otherwise.
+     */
+    public BankConfiguration virtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Serialized account details kept for repeated reads of the same revision, 0 serializes every response.
+     */
+    public BankConfiguration accountCacheCapacity(int accountCacheCapacity) {
+        this.accountCacheCapacity = accountCacheCapacity;
+        return this;
+    }
+
+    public int getAccountCacheCapacity() {
+        return accountCacheCapacity;
+    }
+
+    /**
+     * Initial exchange rates against PLN, only PLN by default.
+     */
+    public BankConfiguration exchangeRates(ExchangeRates exchangeRates) {
+        this.exchangeRates = exchangeRates;
+        return this;
+    }
+
+    public ExchangeRates getExchangeRates() {
+        return exchangeRates;
+    }
+
+    /**
+     * Most transfers to external banks sent to clearing in one request.
+     */
+    public BankConfiguration clearingBatchSize(int clearingBatchSize) {
+        this.clearingBatchSize = clearingBatchSize;
+        return this;
+    }
+
+    public int getClearingBatchSize() {
+        return clearingBatchSize;
+    }
+
+    /**
+     * Longest wait of a clearing batch for more transfers, 0 sends it as soon as a request is free.
+     */
+    public BankConfiguration clearingLinger(Duration clearingLinger) {
+        this.clearingLinger = clearingLinger;
+        return this;
+    }
+
+    public Duration getClearingLinger() {
+        return clearingLinger;
+    }
+
+    /**
+     * Clearing requests sent without waiting for the previous ones.
+     */
+    public BankConfiguration clearingInFlight(int clearingInFlight) {
+        this.clearingInFlight = clearingInFlight;
+        return this;
+    }
+
+    public int getClearingInFlight() {
+        return clearingInFlight;
+    }
+
+    /**
+     * Average latency of a request to the stub clearing service.
+     */
+    public BankConfiguration clearingLatency(Duration clearingLatency) {
+        this.clearingLatency = clearingLatency;
+        return this;
+    }
+
+    public Duration getClearingLatency() {
+        return clearingLatency;
+    }
+
+    /**
+     * Probability that a request to the stub clearing service fails as a whole.
+     */
+    public BankConfiguration clearingFailureRate(double clearingFailureRate) {
+        this.clearingFailureRate = clearingFailureRate;
+        return this;
+    }
+
+    public double getClearingFailureRate() {
+        return clearingFailureRate;
+    }
+
+    /**
+     * Probability that the stub clearing service rejects a single transfer.
+     */
+    public BankConfiguration clearingRejectionRate(double clearingRejectionRate) {
+        this.clearingRejectionRate = clearingRejectionRate;
+        return this;
+    }
+
+    public double getClearingRejectionRate() {
+        return clearingRejectionRate;
+    }
+
+    /**
+     * Number of shard run by this application, accounts REVn with (n - 1) % shardCount equal to it are held here.
+     */
+    public BankConfiguration shardIndex(int shardIndex) {
+        this.shardIndex = shardIndex;
+        return this;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    /**
+     * Addresses of all shards in order of their numbers (this one included), shards talk over SocketShardLink.
+     * Empty (the default) runs the whole bank in this application.
+     */
+    public BankConfiguration shardAddresses(List<InetSocketAddress> shardAddresses) {
+        this.shardAddresses = shardAddresses;
+        return this;
+    }
+
+    public List<InetSocketAddress> getShardAddresses() {
+        return shardAddresses;
+    }
+
+    public boolean isSharded() {
+        return shardAddresses.size() > 1;
+    }
+
+    public int getShardCount() {
+        return Math.max(1, shardAddresses.size());
+    }
+}
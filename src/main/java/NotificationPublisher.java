@@ -0,0 +1,114 @@
+import domain.boundary.TransferNotification;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Publishes TransferNotifications of one subscription to one Subscriber (eg. a server-sent events connection).
+ * Notifications come from event handling threads and are only queued there, they are delivered as the Subscriber
+ * requests them. Queue is bounded - a Subscriber that falls behind gets an error and is unsubscribed.
+ */
+class NotificationPublisher implements Publisher<TransferNotification> {
+
+    private final Function<Consumer<TransferNotification>, AutoCloseable> subscribe;
+
+    private final int maxQueued;
+
+    /**
+     * @param subscribe subscribes given callback to notifications, returned subscription is closed on cancel
+     */
+    NotificationPublisher(Function<Consumer<TransferNotification>, AutoCloseable> subscribe, int maxQueued) {
+        this.subscribe = subscribe;
+        this.maxQueued = maxQueued;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super TransferNotification> subscriber) {
+        NotificationSubscription subscription = new NotificationSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start(subscribe);
+    }
+
+    private final class NotificationSubscription implements Subscription {
+        private final Subscriber<? super TransferNotification> subscriber;
+        private final Queue<TransferNotification> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong requested = new AtomicLong();
+        // only one thread drains at a time, others just make it loop again
+        private final AtomicInteger drains = new AtomicInteger();
+        private volatile AutoCloseable notifications;
+        private volatile boolean overflowed;
+        private volatile boolean cancelled;
+
+        NotificationSubscription(Subscriber<? super TransferNotification> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void start(Function<Consumer<TransferNotification>, AutoCloseable> subscribe) {
+            notifications = subscribe.apply(this::offer);
+            if (cancelled) {
+                unsubscribe();
+            }
+        }
+
+        private void offer(TransferNotification notification) {
+            if (queued.incrementAndGet() > maxQueued) {
+                overflowed = true;
+            } else {
+                queue.offer(notification);
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            unsubscribe();
+        }
+
+        private void drain() {
+            if (drains.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                while (!cancelled && requested.get() > 0) {
+                    TransferNotification notification = queue.poll();
+                    if (notification == null) {
+                        break;
+                    }
+                    queued.decrementAndGet();
+                    requested.decrementAndGet();
+                    subscriber.onNext(notification);
+                }
+                if (overflowed && !cancelled) {
+                    cancel();
+                    subscriber.onError(new IllegalStateException("More than " + maxQueued + " notifications waiting, subscriber is too slow"));
+                }
+            } while (drains.decrementAndGet() != 0);
+        }
+
+        private void unsubscribe() {
+            AutoCloseable subscription = notifications;
+            if (subscription != null) {
+                try {
+                    subscription.close();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+}
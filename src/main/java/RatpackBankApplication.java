@@ -1,29 +1,222 @@
+import domain.boundary.DispatcherStatistics;
+import domain.boundary.EventRedelivery;
+import domain.boundary.OutboundGateway;
+import domain.boundary.PendingEvents;
+import domain.boundary.PromiseBankService;
+import domain.boundary.RingBufferEventDispatcher;
 import domain.boundary.SimpleBankService;
+import domain.boundary.SocketShardLink;
+import domain.boundary.StubClearingService;
+import domain.boundary.TransferNotification;
+import domain.boundary.TransferResult;
+import domain.boundary.VirtualThreads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import domain.entity.BankAccountEntity;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import domain.control.AccountBalance;
+import domain.control.AccountLedger;
+import domain.control.BankAccountRepository;
+import domain.control.DeadLetter;
+import domain.control.DeadLetterStore;
+import domain.control.EventJournal;
+import domain.control.Metrics;
+import domain.control.Reconciliation;
+import domain.control.SnapshotStore;
+import domain.control.TransferHistory;
+import domain.control.TransferIdIndex;
 import domain.entity.BankAccountNumber;
+import domain.entity.ExchangeRates;
 import domain.entity.Money;
 import domain.entity.MoneyTransfer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ratpack.error.ServerErrorHandler;
+import ratpack.exec.Blocking;
+import ratpack.exec.ExecController;
 import ratpack.exec.Promise;
 import ratpack.func.Action;
-import ratpack.func.BiAction;
 import ratpack.handling.Chain;
 import ratpack.handling.Context;
+import ratpack.handling.Handler;
+import ratpack.http.ResponseChunks;
 import ratpack.jackson.Jackson;
 import ratpack.server.RatpackServer;
+import ratpack.sse.ServerSentEvents;
+import ratpack.stream.Streams;
+import ratpack.stream.TransformablePublisher;
 
+import java.math.BigDecimal;
 import java.time.Duration;
-import java.util.ConcurrentModificationException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 /**
  * Handles creation of Ratpack Server and setup of all endpoints by defining Ratpack handlers.
  */
 public class RatpackBankApplication {
 
-    private final SimpleBankService simpleBankService = new SimpleBankService();
+    private static final long maxBatchBytes = 1024L * 1024 * 1024;
+
+    private static final int batchChunkSize = 1000;
+
+    private static final int listChunkSize = 256;
+
+    private static final int maxQueuedNotifications = 1024;
+
+    private static final Duration maxWait = Duration.ofSeconds(60);
+
+    private static final int maxQueuedBlockingWaits = 4096;
+
+    private static final int maxVirtualThreads = 1 << 16;
+
+    private static final int deadLettersPageSize = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Metrics metrics;
+
+    // configured and available
+    private final boolean virtualThreads;
+
+    private final BankConfiguration configuration;
+
+    private final EventJournal eventJournal;
+
+    private final BankAccountRepository bankAccountRepository;
+
+    private final SimpleBankService simpleBankService;
+
+    private final PromiseBankService promiseBankService;
+
+    // null when account details are serialized for every response
+    private final ResponseCache accountDetailsCache;
+
+    RatpackBankApplication() {
+        this(BankConfiguration.fromSystemProperties());
+    }
+
+    RatpackBankApplication(BankConfiguration configuration) {
+        this.configuration = configuration;
+        this.virtualThreads = configuration.isVirtualThreads() && VirtualThreads.isAvailable();
+        if (configuration.isVirtualThreads() && !virtualThreads) {
+            logger.warn("Virtual threads are not available on Java " + System.getProperty("java.version") + ", using platform threads");
+        }
+        this.metrics = new Metrics(configuration.isMetricsEnabled());
+        this.eventJournal = configuration.getJournalDirectory().map(EventJournal::new).orElse(null);
+        this.bankAccountRepository = new BankAccountRepository(eventJournal,
+            configuration.getSnapshotDirectory().map(SnapshotStore::new).orElse(null),
+            new TransferIdIndex(configuration.getTransferIdCapacity(), configuration.getTransferIdRetention().toMillis()),
+            new TransferHistory(configuration.getHistoryRetention()), metrics,
+            configuration.getShardIndex(), configuration.getShardCount(), configuration.isLedgerEnabled() ? new AccountLedger(configuration.getLedgerRetention().toMillis()) : null);
+        this.simpleBankService = new SimpleBankService(bankAccountRepository, configuration.getExecutionMode(),
+            new RingBufferEventDispatcher(configuration.getEventConsumers(), configuration.getEventCapacity(), configuration.getEventBatchSize(),
+                threadFactory("event-dispatcher-")),
+            metrics,
+            new EventRedelivery(configuration.getEventMaxAttempts(), configuration.getRedeliveryDelay().toMillis(),
+                configuration.getMaxRedeliveryDelay().toMillis(),
+                new DeadLetterStore(configuration.getDeadLetterCapacity(), configuration.getDeadLetterDirectory().orElse(null))),
+            new PendingEvents(configuration.getPendingEventsInMemory(), configuration.getPendingEventsDirectory().orElse(null),
+                configuration.getPendingEventsDrainRate()),
+            new OutboundGateway(new StubClearingService(configuration.getClearingLatency().toMillis(), configuration.getClearingFailureRate(),
+                configuration.getClearingRejectionRate()),
+                configuration.getClearingBatchSize(), configuration.getClearingLinger().toMillis(), configuration.getClearingInFlight()));
+        simpleBankService.updateExchangeRates(configuration.getExchangeRates());
+        this.accountDetailsCache = configuration.getAccountCacheCapacity() > 0 ? new ResponseCache(configuration.getAccountCacheCapacity()) : null;
+        if (accountDetailsCache != null) {
+            metrics.functionCounter("bank_account_details_cache_hits_total", "Account details sent from cache", accountDetailsCache::hitsCount);
+            metrics.functionCounter("bank_account_details_cache_misses_total", "Account details serialized because cache had no current revision",
+                accountDetailsCache::missesCount);
+            metrics.gauge("bank_account_details_cache_size", "Accounts with cached details", accountDetailsCache::size);
+        }
+        if (virtualThreads) {
+            this.promiseBankService = configuration.isBlockingHandlers()
+                ? PromiseBankService.blockingOnVirtualThreads(simpleBankService, maxVirtualThreads)
+                : PromiseBankService.virtual(simpleBankService, maxVirtualThreads);
+        } else {
+            this.promiseBankService = configuration.isBlockingHandlers()
+                ? PromiseBankService.blocking(simpleBankService)
+                : PromiseBankService.nonBlocking(simpleBankService, configuration.getBlockingThreads(), maxQueuedBlockingWaits);
+        }
+    }
+
+    private ThreadFactory threadFactory(String namePrefix) {
+        return virtualThreads ? VirtualThreads.factory(namePrefix) : VirtualThreads.platformFactory(namePrefix);
+    }
+
+    /**
+     * Starts listening for other shards and links the service to them, when the application runs as one shard.
+     */
+    void linkShards() {
+        if (!configuration.isSharded()) {
+            return;
+        }
+        SocketShardLink shardLink = new SocketShardLink(configuration.getShardIndex(), configuration.getShardAddresses());
+        shardLink.listen(simpleBankService);
+        simpleBankService.linkShards(shardLink,
+            new RingBufferEventDispatcher(configuration.getEventConsumers(), configuration.getEventCapacity(), configuration.getEventBatchSize(),
+                threadFactory("shard-dispatcher-")));
+        logger.info("Running shard " + configuration.getShardIndex() + " of " + configuration.getShardCount());
+    }
+
+    /**
+     * Recovers Bank Accounts from journal (if configured) and creates the initial accounts when there are none.
+     */
+    void recoverOrCreateInitialBankAccounts() {
+        if (eventJournal != null) {
+            simpleBankService.recover();
+        }
+        if (simpleBankService.hasNoBankAccounts()) {
+            for (int i = 0; i < configuration.getInitialAccounts(); i++) {
+                simpleBankService.newBankAccount(Money.polish(1000));
+            }
+        }
+    }
+
+    /**
+     * Periodically snapshots all accounts on a background thread - saves of accounts are not stopped by it.
+     */
+    void scheduleSnapshots() {
+        if (!configuration.getSnapshotDirectory().isPresent()) {
+            return;
+        }
+        long intervalMillis = configuration.getSnapshotInterval().toMillis();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                long start = System.nanoTime();
+                bankAccountRepository.writeSnapshot();
+                logger.info("Snapshot written in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            } catch (RuntimeException e) {
+                logger.warn("Snapshot failed", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
 
     void createTwoBankAccounts() {
         simpleBankService.newBankAccount(Money.polish(1000));
@@ -32,69 +225,537 @@ public class RatpackBankApplication {
 
     Action<Chain> chain() {
         return chain -> chain
-            .register(r -> r.add(ServerErrorHandler.class, (ctx, throwable) -> ctx.getResponse().status(400).send(throwable.getMessage())))
+            .register(r -> r.add(ServerErrorHandler.class, (ctx, throwable) -> ctx.getResponse()
+                .status(throwable instanceof RejectedExecutionException ? 503 : 400).send(throwable.getMessage())))
             .put("admin/suspension", this::suspendEventSending)
-            .get("accounts/:accountNumber", this::accountDetails)
-            .get("accounts/:accountNumber/transfers", this::accountTransfers)
-            .put("accounts/:accountNumber/transfers/:transferId", this::moneyTransfer)
+            .get("admin/events", this::eventStatistics)
+            .get("admin/metrics", this::metrics)
+            .path("admin/fx-rates", ctx -> ctx.byMethod(method -> method
+                .get(this::exchangeRates)
+                .put(this::updateExchangeRates)))
+            .path("admin/reconciliation", ctx -> ctx.byMethod(method -> method
+                .get(this::reconciliation)
+                .post(this::startReconciliation)))
+            .get("admin/dead-letters", this::deadLetters)
+            .post("admin/dead-letters/replay", this::replayDeadLetters)
+            .get("accounts/:accountNumber", timed("GET accounts/:accountNumber", this::accountDetails))
+            .get("accounts/:accountNumber/transfers", timed("GET accounts/:accountNumber/transfers", this::accountTransfers))
+            .get("accounts/:accountNumber/history", timed("GET accounts/:accountNumber/history", this::accountHistory))
+            .get("accounts/:accountNumber/balance", timed("GET accounts/:accountNumber/balance", this::accountBalanceAt))
+            .get("accounts/:accountNumber/statement", timed("GET accounts/:accountNumber/statement", this::accountStatement))
+            .get("accounts/:accountNumber/notifications", this::accountNotifications)
+            .path("accounts/:accountNumber/transfers/:transferId", ctx -> ctx.byMethod(method -> method
+                .get(timed("GET accounts/:accountNumber/transfers/:transferId", this::transferStatus))
+                .put(timed("PUT accounts/:accountNumber/transfers/:transferId", this::moneyTransfer))))
+            .post("transfers/batch", timed("POST transfers/batch", this::batchTransfers))
+            .post("transfers/binary", timed("POST transfers/binary", this::binaryTransfers))
             ;
     }
 
+    /**
+     * Records latency of the endpoint from the start of handling until the response is fully sent, streamed
+     * responses included. Returns the handler itself when metrics are disabled.
+     */
+    private Handler timed(String endpoint, Handler handler) {
+        if (!metrics.isEnabled()) {
+            return handler;
+        }
+        Metrics.Histogram latency = metrics.histogram("bank_http_request_seconds", "Latency of requests by endpoint", "endpoint", endpoint);
+        Metrics.Counter errors = metrics.counter("bank_http_errors_total", "Requests answered with 4xx or 5xx status by endpoint", "endpoint", endpoint);
+        return ctx -> {
+            long start = latency.start();
+            ctx.onClose(outcome -> {
+                latency.recordSince(start);
+                if (outcome.getResponse().getStatus().getCode() >= 400) {
+                    errors.increment();
+                }
+            });
+            handler.handle(ctx);
+        };
+    }
+
+    void metrics(Context ctx) {
+        if (!metrics.isEnabled()) {
+            ctx.clientError(404);
+            return;
+        }
+        StringBuilder out = new StringBuilder(16 * 1024);
+        metrics.writeTo(out);
+        ctx.getResponse().contentType("text/plain; version=0.0.4; charset=utf-8").send(out.toString());
+    }
+
+    void exchangeRates(Context ctx) {
+        ExchangeRates exchangeRates = simpleBankService.exchangeRates();
+        ObjectNode rates = JsonNodeFactory.instance.objectNode();
+        exchangeRates.rates().forEach((currency, rate) -> rates.put(currency.getCurrencyCode(), rate));
+        ctx.render(Jackson.json(JsonNodeFactory.instance.objectNode()
+            .put("base", exchangeRates.baseCurrency.getCurrencyCode())
+            .set("rates", rates)));
+    }
+
+    /**
+     * Replaces all exchange rates with the ones in body, eg. {"EUR": "4.2950", "USD": 3.9875} - prices in the base currency.
+     */
+    void updateExchangeRates(Context ctx) {
+        ctx.parse(Jackson.jsonNode())
+            .map(jsonNode -> {
+                Map<Currency, BigDecimal> rates = new LinkedHashMap<>();
+                jsonNode.fields().forEachRemaining(rate -> rates.put(Currency.getInstance(rate.getKey()), new BigDecimal(rate.getValue().asText())));
+                return ExchangeRates.of(simpleBankService.exchangeRates().baseCurrency, rates);
+            })
+            .then(exchangeRates -> {
+                simpleBankService.updateExchangeRates(exchangeRates);
+                exchangeRates(ctx);
+            });
+    }
+
+    /**
+     * Starts reconciliation of all accounts in background (unless one is running) and answers 202 with it's progress.
+     */
+    void startReconciliation(Context ctx) {
+        Reconciliation reconciliation = simpleBankService.startReconciliation();
+        ctx.getResponse().status(202);
+        ctx.render(Jackson.json(reconciliationJson(reconciliation)));
+    }
+
+    void reconciliation(Context ctx) {
+        Optional<Reconciliation> reconciliation = simpleBankService.lastReconciliation();
+        if (!reconciliation.isPresent()) {
+            ctx.clientError(404);
+            return;
+        }
+        ctx.render(Jackson.json(reconciliationJson(reconciliation.get())));
+    }
+
+    private static ObjectNode reconciliationJson(Reconciliation reconciliation) {
+        ObjectNode response = JsonNodeFactory.instance.objectNode()
+            .put("state", reconciliation.state().toString())
+            .put("progress", reconciliation.progress())
+            .put("cut", reconciliation.cut())
+            .put("startedAt", reconciliation.startedAt() == 0 ? null : Instant.ofEpochMilli(reconciliation.startedAt()).toString())
+            .put("scanMillis", TimeUnit.NANOSECONDS.toMillis(reconciliation.scanNanos()))
+            .put("durationMillis", TimeUnit.NANOSECONDS.toMillis(reconciliation.durationNanos()));
+        if (reconciliation.error() != null) {
+            response.put("error", reconciliation.error());
+        }
+        Reconciliation.Report report = reconciliation.report();
+        if (report == null) {
+            return response;
+        }
+        response.put("accounts", report.accounts)
+            .put("consistent", report.isConsistent())
+            .put("violationsCount", report.violationsCount);
+        ArrayNode violations = response.putArray("violations");
+        report.violations.forEach(violations::add);
+        ObjectNode currencies = response.putObject("currencies");
+        report.totals.forEach((currency, totals) -> currencies.putObject(currency.getCurrencyCode())
+            .put("accounts", totals.accounts)
+            .put("balance", totals.balance)
+            .put("blocked", totals.blocked)
+            .put("money", totals.money())
+            .put("netInflow", totals.netInflow)
+            .put("pendingTransfers", totals.pendingTransfers)
+            .put("inFlightTransfers", totals.inFlightTransfers)
+            .put("inFlightAmount", totals.inFlightAmount)
+            .put("creditedTransfers", totals.creditedTransfers)
+            .put("creditedAmount", totals.creditedAmount)
+            .put("convertedTransfers", totals.convertedTransfers)
+            .put("convertedAmount", totals.convertedAmount)
+            .put("outboundTransfers", totals.outboundTransfers)
+            .put("outboundAmount", totals.outboundAmount));
+        return response;
+    }
+
     void suspendEventSending(Context ctx) {
-        Promise.value(Boolean.parseBoolean(ctx.getRequest().getQueryParams().getOrDefault("suspend", "false")))
-            .blockingOp(simpleBankService::suspendEventSending)
+        promiseBankService.suspendEventSending(Boolean.parseBoolean(ctx.getRequest().getQueryParams().getOrDefault("suspend", "false")))
             .map(x -> "SUSPEND: " + x)
             .then(ctx::render);
     }
 
+    void eventStatistics(Context ctx) {
+        DispatcherStatistics statistics = simpleBankService.eventDispatcherStatistics();
+        ctx.render(Jackson.json(JsonNodeFactory.instance.objectNode()
+            .put("queueDepth", statistics.queueDepth)
+            .put("capacity", statistics.capacity)
+            .put("reservedChains", statistics.reservedChains)
+            .put("batches", statistics.batches)
+            .put("events", statistics.events)
+            .put("averageBatchSize", statistics.averageBatchSize())
+            .put("maxBatchSize", statistics.maxBatchSize)
+            .put("failedEvents", simpleBankService.failedEventsCount())
+            .put("pendingEvents", simpleBankService.pendingEventsCount())
+            .put("startedTransfers", simpleBankService.startedTransfersCount())
+            .put("retriedTransfers", simpleBankService.retriedTransfersCount())
+            .put("clearingBatches", simpleBankService.outboundGateway().batchesCount())
+            .put("clearingTransfers", simpleBankService.outboundGateway().transfersCount())
+            .put("clearingAverageBatchSize", simpleBankService.outboundGateway().averageBatchSize())
+            .put("notificationSubscribers", simpleBankService.transferNotifications().subscriberCount())));
+    }
+
+    void deadLetters(Context ctx) {
+        int limit = ctx.getRequest().getQueryParams().containsKey("limit") ? limit(ctx) : deadLettersPageSize;
+        Blocking.get(() -> {
+            ObjectNode response = JsonNodeFactory.instance.objectNode()
+                .put("count", simpleBankService.failedEventsCount());
+            ArrayNode deadLetters = response.putArray("deadLetters");
+            for (DeadLetter deadLetter : simpleBankService.deadLetters(limit)) {
+                deadLetters.addObject()
+                    .put("id", deadLetter.id)
+                    .put("type", deadLetter.type.toString())
+                    .put("transferId", deadLetter.moneyTransfer.transferId.toString())
+                    .put("sourceAccount", deadLetter.moneyTransfer.accountNumber.toString())
+                    .put("targetAccount", deadLetter.moneyTransfer.targetBankAccountNumber.toString())
+                    .put("money", deadLetter.moneyTransfer.money.toString())
+                    .put("attempts", deadLetter.attempts)
+                    .put("failedAt", Instant.ofEpochMilli(deadLetter.failedAt).toString())
+                    .put("error", deadLetter.error);
+            }
+            return response;
+        }).then(response -> ctx.render(Jackson.json(response)));
+    }
+
+    void replayDeadLetters(Context ctx) {
+        int limit = limit(ctx);
+        Blocking.get(() -> simpleBankService.replayDeadLetters(limit))
+            .then(replayed -> ctx.render(Jackson.json(JsonNodeFactory.instance.objectNode()
+                .put("replayed", replayed)
+                .put("remaining", simpleBankService.failedEventsCount()))));
+    }
+
+    /**
+     * Details of the same revision of the account are serialized once and then sent from accountDetailsCache.
+     */
     void accountDetails(Context ctx) {
-        Promise.value(accountNumber(ctx))
-            .blockingMap(simpleBankService::bankAccount)
-            .map(bankAccount -> Jackson.json(JsonNodeFactory.instance.objectNode()
-                .put("balance", bankAccount.getAccountBalance().toString())
-                .put("blockedMoney", bankAccount.getBlockedMoney().toString())
-                ))
-            .then(ctx::render);
+        BankAccountNumber bankAccountNumber = accountNumber(ctx);
+        promiseBankService.readAccountBalance(bankAccountNumber, new AccountBalance())
+            .then(accountBalance -> {
+                ByteBuf body = accountDetailsCache == null ? null : accountDetailsCache.get(bankAccountNumber, accountBalance.revision);
+                if (body == null) {
+                    byte[] json = ctx.get(ObjectMapper.class).writeValueAsBytes(JsonNodeFactory.instance.objectNode()
+                        .put("balance", accountBalance.balance + " " + accountBalance.currency)
+                        .put("blockedMoney", accountBalance.blocked + " " + accountBalance.currency));
+                    body = ctx.get(ByteBufAllocator.class).directBuffer(json.length).writeBytes(json);
+                    if (accountDetailsCache != null) {
+                        body = accountDetailsCache.put(bankAccountNumber, accountBalance.revision, body);
+                    }
+                }
+                ctx.getResponse().send("application/json", body);
+            });
     }
 
+    /**
+     * Streams pending transfers of the account as JSON array, starting after transfer given by "after" query parameter
+     * and ending after "limit" transfers (all by default) - transferId of the last one is the cursor of the next page.
+     */
     void accountTransfers(Context ctx) {
-        Promise.value(accountNumber(ctx))
-            .blockingMap(simpleBankService::bankAccount)
-            .map(BankAccountEntity::getPendingTransfers)
-            .map(pendingTransfers -> Jackson.json(JsonNodeFactory.instance.arrayNode()
-                .addAll(pendingTransfers.stream()
-                    .map(transfer -> JsonNodeFactory.instance.objectNode()
+        String afterTransferId = ctx.getRequest().getQueryParams().get("after");
+        UUID[] cursor = {afterTransferId == null ? null : UUID.fromString(afterTransferId)};
+        int limit = limit(ctx);
+        promiseBankService.bankAccount(accountNumber(ctx))
+            .then(bankAccount -> ctx.render(ResponseChunks.stringChunks("application/json",
+                jsonArrayChunks(limit, (max, items) -> bankAccount.forEachPendingTransfer(cursor[0], transfer -> {
+                    cursor[0] = transfer.transferId;
+                    items.add(JsonNodeFactory.instance.objectNode()
                         .put("transferId", transfer.transferId.toString())
-                        .put("blockedMoney", transfer.money.toString()))
-                    .collect(Collectors.toList()))))
-            .then(ctx::render);
+                        .put("targetAccount", transfer.targetBankAccountNumber.toString())
+                        .put("blockedMoney", transfer.money.toString()));
+                    return items.size() < max;
+                })))));
     }
 
-    void moneyTransfer(Context ctx) {
+    /**
+     * Streams transfer history of the account (blocked, received and confirmed transfers) as JSON array, starting after
+     * cursor given by "after" query parameter and ending after "limit" records - cursor of the last one starts the next page.
+     * With "wait" (seconds) it's a long-poll: when there is nothing after the cursor it waits for the next transfer change.
+     */
+    void accountHistory(Context ctx) {
+        long[] cursor = {Long.parseLong(ctx.getRequest().getQueryParams().getOrDefault("after", "0"))};
+        int limit = limit(ctx);
+        BankAccountNumber accountNumber = accountNumber(ctx);
+        promiseBankService.bankAccount(accountNumber)
+            .flatMap(bankAccount -> awaitNotification(ctx, subscriber -> simpleBankService.transferNotifications().subscribe(accountNumber, subscriber),
+                notification -> true, () -> simpleBankService.lastTransferHistoryCursor(accountNumber) > cursor[0]))
+            .then(changed -> ctx.render(ResponseChunks.stringChunks("application/json",
+                jsonArrayChunks(limit, (max, items) -> cursor[0] = simpleBankService.readTransferHistory(accountNumber,
+                    cursor[0], max, (record, recordCursor) -> items.add(JsonNodeFactory.instance.objectNode()
+                        .put("cursor", recordCursor)
+                        .put("type", record.type.name())
+                        .put("transferId", record.transferId.toString())
+                        .put("counterpartyAccount", record.targetAccountNumber.toString())
+                        .put("money", record.money.toString())
+                        .put("timestamp", record.timestamp)))))));
+    }
+
+    /**
+     * Balance of the account as of time "at" (epoch millis or ISO-8601 instant, now by default), from it's ledger.
+     */
+    void accountBalanceAt(Context ctx) {
+        Optional<AccountLedger> accountLedger = simpleBankService.accountLedger();
+        if (!accountLedger.isPresent()) {
+            ctx.clientError(404);
+            return;
+        }
+        long at = time(ctx, "at", System.currentTimeMillis());
+        BankAccountNumber accountNumber = accountNumber(ctx);
+        promiseBankService.bankAccount(accountNumber)
+            .then(bankAccount -> ctx.render(Jackson.json(JsonNodeFactory.instance.objectNode()
+                .put("balance", accountLedger.get().balanceAt(accountNumber, at) + " " + bankAccount.getAccountCurrency())
+                .put("at", at))));
+    }
+
+    /**
+     * Credits and debits of the account with time in [from, to) - epoch millis or ISO-8601 instants, everything by
+     * default - each with balance after it, streamed as JSON array; cursor of the last entry is the "after" of next page.
+     */
+    void accountStatement(Context ctx) {
+        Optional<AccountLedger> accountLedger = simpleBankService.accountLedger();
+        if (!accountLedger.isPresent()) {
+            ctx.clientError(404);
+            return;
+        }
+        long from = time(ctx, "from", Long.MIN_VALUE);
+        long to = time(ctx, "to", Long.MAX_VALUE);
+        long[] cursor = {Long.parseLong(ctx.getRequest().getQueryParams().getOrDefault("after", "0"))};
+        int limit = limit(ctx);
+        BankAccountNumber accountNumber = accountNumber(ctx);
+        promiseBankService.bankAccount(accountNumber)
+            .then(bankAccount -> ctx.render(ResponseChunks.stringChunks("application/json",
+                jsonArrayChunks(limit, (max, items) -> cursor[0] = accountLedger.get().read(accountNumber, from, to, cursor[0], max,
+                    (entryCursor, timestamp, amount, balance, transferId, counterparty) -> {
+                        ObjectNode entry = JsonNodeFactory.instance.objectNode()
+                            .put("cursor", entryCursor)
+                            .put("timestamp", timestamp)
+                            .put("type", amount < 0 ? "DEBIT" : "CREDIT")
+                            .put("amount", Math.abs(amount) + " " + bankAccount.getAccountCurrency())
+                            .put("balance", balance + " " + bankAccount.getAccountCurrency());
+                        if (!counterparty.toString().isEmpty()) {
+                            entry.put("transferId", transferId.toString()).put("counterpartyAccount", counterparty.toString());
+                        }
+                        items.add(entry);
+                    })))));
+    }
+
+    private static long time(Context ctx, String parameter, long defaultTime) {
+        String time = ctx.getRequest().getQueryParams().get(parameter);
+        if (time == null) {
+            return defaultTime;
+        }
+        return time.chars().allMatch(Character::isDigit) ? Long.parseLong(time) : Instant.parse(time).toEpochMilli();
+    }
+
+    /**
+     * Server-sent events with progress of transfers from and to the account (RECEIVED, TRANSFERRED or FAILED), as long as
+     * the client stays connected.
+     */
+    void accountNotifications(Context ctx) {
+        BankAccountNumber accountNumber = accountNumber(ctx);
+        promiseBankService.bankAccount(accountNumber)
+            .then(bankAccount -> ctx.render(ServerSentEvents.serverSentEvents(Streams.bindExec(new NotificationPublisher(
+                subscriber -> simpleBankService.transferNotifications().subscribe(accountNumber, subscriber), maxQueuedNotifications)),
+                event -> event
+                    .id(notification -> notification.moneyTransfer.transferId.toString())
+                    .event(notification -> notification.status.name())
+                    .data(notification -> JsonNodeFactory.instance.objectNode()
+                        .put("transferId", notification.moneyTransfer.transferId.toString())
+                        .put("sourceAccount", notification.moneyTransfer.accountNumber.toString())
+                        .put("targetAccount", notification.moneyTransfer.targetBankAccountNumber.toString())
+                        .put("money", notification.moneyTransfer.money.toString())
+                        .put("status", notification.status.name())
+                        .toString()))));
+    }
+
+    /**
+     * Status of transfer started from or received by the account - PENDING while it's money is blocked, then TRANSFERRED,
+     * 404 for transfers of other accounts (or not started yet).
+     * With "wait" (seconds) it's a long-poll: pending transfer is answered when it's transferred or failed, or after the wait.
+     */
+    void transferStatus(Context ctx) {
         UUID transferId = UUID.fromString(ctx.getPathTokens().get("transferId"));
         BankAccountNumber accountNumber = accountNumber(ctx);
+        if (!simpleBankService.isTransferOfAccount(accountNumber, transferId)) {
+            ctx.clientError(404);
+            return;
+        }
+        awaitNotification(ctx, subscriber -> simpleBankService.transferNotifications().subscribe(transferId, subscriber),
+            TransferNotification::isFinal, () -> !simpleBankService.isTransferPending(accountNumber, transferId))
+            .then(changed -> ctx.render(Jackson.json(JsonNodeFactory.instance.objectNode()
+                .put("transferId", transferId.toString())
+                .put("status", simpleBankService.isTransferPending(accountNumber, transferId) ? "PENDING" : "TRANSFERRED"))));
+    }
 
-        ctx.parse(Jackson.jsonNode())
-            .map(jsonNode -> new MoneyTransfer(transferId, accountNumber,
-                new BankAccountNumber(jsonNode.get("targetAccount").asText()),
-                Money.polish(jsonNode.get("money").asInt())))
-            .fork()
-            .blockingMap(simpleBankService::startMoneyTransfer)
-            .onError(e -> !(e instanceof ConcurrentModificationException), e -> ctx.error(e))
-            .retry(10, Duration.ZERO, BiAction.noop())
+    /**
+     * Completes with true right away when ready, otherwise after the first notification accepted by filter, or with false
+     * after "wait" seconds given in the query (no waiting by default). No thread is held while waiting - subscription
+     * only completes the promise and the timeout is scheduled on the event loop. Subscription is made before readiness
+     * is checked, so a notification can't be missed in between.
+     */
+    private static Promise<Boolean> awaitNotification(Context ctx, Function<Consumer<TransferNotification>, AutoCloseable> subscribe,
+                                                      Predicate<TransferNotification> filter, BooleanSupplier ready) {
+        String waitSeconds = ctx.getRequest().getQueryParams().get("wait");
+        Duration wait = waitSeconds == null ? Duration.ZERO : Duration.ofSeconds(Long.parseLong(waitSeconds));
+        if (wait.compareTo(maxWait) > 0) {
+            wait = maxWait;
+        }
+        if (wait.isZero()) {
+            return Promise.sync(ready::getAsBoolean);
+        }
+        long waitMillis = wait.toMillis();
+        ScheduledExecutorService eventLoop = ctx.get(ExecController.class).getExecutor();
+        AtomicBoolean completed = new AtomicBoolean();
+        AutoCloseable[] subscription = {null};
+        ScheduledFuture<?>[] timeout = {null};
+        return Promise.<Boolean>async(downstream -> {
+            subscription[0] = subscribe.apply(notification -> {
+                if (filter.test(notification) && completed.compareAndSet(false, true)) {
+                    downstream.success(true);
+                }
+            });
+            if (ready.getAsBoolean()) {
+                if (completed.compareAndSet(false, true)) {
+                    downstream.success(true);
+                }
+            } else {
+                timeout[0] = eventLoop.schedule(() -> {
+                    if (completed.compareAndSet(false, true)) {
+                        downstream.success(false);
+                    }
+                }, waitMillis, TimeUnit.MILLISECONDS);
+            }
+        }).wiretap(result -> {
+            // execution continues only after the upstream returned, so both are already set here
+            completed.set(true);
+            subscription[0].close();
+            if (timeout[0] != null) {
+                timeout[0].cancel(false);
+            }
+        });
+    }
+
+    /**
+     * JSON array streamed in chunks - next chunk of items is read only when the previous one was sent to the client,
+     * so neither the whole list nor it's JSON is ever held in memory.
+     */
+    private static TransformablePublisher<String> jsonArrayChunks(int limit, BiConsumer<Integer, List<ObjectNode>> readItems) {
+        int[] remaining = {limit};
+        boolean[] finished = {false};
+        return Streams.yield(request -> {
+            if (finished[0]) {
+                return null;
+            }
+            List<ObjectNode> items = new ArrayList<>();
+            int max = Math.min(listChunkSize, remaining[0]);
+            if (max > 0) {
+                readItems.accept(max, items);
+            }
+            remaining[0] -= items.size();
+            StringBuilder chunk = new StringBuilder(request.getRequestNum() == 0 ? "[" : "");
+            for (ObjectNode item : items) {
+                if (chunk.length() != 1 || request.getRequestNum() != 0) {
+                    chunk.append(',');
+                }
+                chunk.append(item.toString());
+            }
+            if (items.size() < max || max == 0) {
+                finished[0] = true;
+                chunk.append(']');
+            }
+            return chunk.toString();
+        });
+    }
+
+    private static int limit(Context ctx) {
+        return Integer.parseInt(ctx.getRequest().getQueryParams().getOrDefault("limit", String.valueOf(Integer.MAX_VALUE)));
+    }
+
+    void moneyTransfer(Context ctx) {
+        UUID transferId = TransferCodec.parseUuid(ctx.getPathTokens().get("transferId"));
+        BankAccountNumber accountNumber = accountNumber(ctx);
+
+        ctx.getRequest().getBody()
+            .map(body -> TransferCodec.parseTransfer(transferId, accountNumber, body.getBuffer()))
+            .flatMap(promiseBankService::startMoneyTransfer)
             .then(moneyBlockedEvent -> ctx.render("transfer from " + moneyBlockedEvent.moneyTransfer.accountNumber + " money: " + moneyBlockedEvent.moneyTransfer.money));
     }
 
+    /**
+     * Starts transfers streamed as NDJSON and streams back NDJSON result of every line as soon as it's chunk is applied.
+     */
+    void batchTransfers(Context ctx) {
+        TransformablePublisher<String> results = ctx.getRequest().getBodyStream(maxBatchBytes)
+            .streamMap(new TransferBatchMapper(batchChunkSize))
+            .flatMap(chunk -> Blocking.get(() -> startMoneyTransfers(chunk)));
+        ctx.render(ResponseChunks.stringChunks("application/x-ndjson", results));
+    }
+
+    /**
+     * Starts transfers streamed as fixed size binary frames (TransferCodec) and streams back binary result of every frame.
+     */
+    void binaryTransfers(Context ctx) {
+        ByteBufAllocator allocator = ctx.get(ByteBufAllocator.class);
+        TransformablePublisher<ByteBuf> results = ctx.getRequest().getBodyStream(maxBatchBytes)
+            .streamMap(new TransferFrameMapper(batchChunkSize))
+            .flatMap(chunk -> Blocking.get(() -> startFramedTransfers(chunk, allocator)));
+        ctx.render(ResponseChunks.bufferChunks("application/octet-stream", results));
+    }
+
+    private ByteBuf startFramedTransfers(List<TransferBatchMapper.TransferLine> chunk, ByteBufAllocator allocator) {
+        Iterator<TransferResult> results = startMoneyTransfersOf(chunk);
+        ByteBuf response = allocator.directBuffer(chunk.size() * 3);
+        for (TransferBatchMapper.TransferLine line : chunk) {
+            if (line.moneyTransfer == null) {
+                TransferCodec.encodeResult(line.error, response);
+            } else {
+                TransferCodec.encodeResult(results.next().error, response);
+            }
+        }
+        return response;
+    }
+
+    private Iterator<TransferResult> startMoneyTransfersOf(List<TransferBatchMapper.TransferLine> chunk) {
+        List<MoneyTransfer> moneyTransfers = new ArrayList<>(chunk.size());
+        for (TransferBatchMapper.TransferLine line : chunk) {
+            if (line.moneyTransfer != null) {
+                moneyTransfers.add(line.moneyTransfer);
+            }
+        }
+        return simpleBankService.startMoneyTransfers(moneyTransfers).iterator();
+    }
+
+    private String startMoneyTransfers(List<TransferBatchMapper.TransferLine> chunk) {
+        Iterator<TransferResult> results = startMoneyTransfersOf(chunk);
+
+        StringBuilder response = new StringBuilder(chunk.size() * 80);
+        for (TransferBatchMapper.TransferLine line : chunk) {
+            ObjectNode result = JsonNodeFactory.instance.objectNode().put("line", line.lineNumber);
+            if (line.moneyTransfer == null) {
+                result.put("status", "REJECTED").put("error", line.error);
+            } else {
+                TransferResult transferResult = results.next();
+                result.put("transferId", line.moneyTransfer.transferId.toString());
+                if (transferResult.isBlocked()) {
+                    result.put("status", "BLOCKED");
+                } else {
+                    result.put("status", "REJECTED").put("error", transferResult.error);
+                }
+            }
+            response.append(result.toString()).append('\n');
+        }
+        return response.toString();
+    }
+
     private BankAccountNumber accountNumber(Context ctx) {
         return new BankAccountNumber(ctx.getPathTokens().get("accountNumber"));
     }
 
 
     public static void main(String[] args) throws Exception {
-        RatpackBankApplication application = new RatpackBankApplication();
-        application.createTwoBankAccounts();
+        RatpackBankApplication application = new RatpackBankApplication(BankConfiguration.fromSystemProperties());
+        application.linkShards();
+        application.recoverOrCreateInitialBankAccounts();
+        application.scheduleSnapshots();
 
         RatpackServer.start(server -> server
+            .serverConfig(config -> config.sysProps())
             .handlers(application.chain())
         );
     }
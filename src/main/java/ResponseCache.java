@@ -0,0 +1,116 @@
+import domain.entity.BankAccountNumber;
+import io.netty.buffer.ByteBuf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serialized responses keyed by account and it's revision - a response is valid while the account keeps the revision,
+ * so saves of accounts never touch the cache (stale response is replaced on the next read of the account).
+ * Bounded by LRU eviction in segments hashed by account, so readers of different accounts rarely share a lock.
+ * Bodies are kept in pooled direct buffers and sent as retained duplicates - a hit neither serializes nor copies.
+ */
+class ResponseCache {
+
+    private static final int segmentCount = 16;
+
+    private final Segment[] segments = new Segment[segmentCount];
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    ResponseCache(int capacity) {
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(Math.max(1, capacity / segmentCount));
+        }
+    }
+
+    /**
+     * Body cached for given revision of the account, to be sent (released) by the caller - null when there is none.
+     */
+    ByteBuf get(BankAccountNumber bankAccountNumber, long revision) {
+        Segment segment = segmentOf(bankAccountNumber);
+        synchronized (segment) {
+            CachedResponse entry = segment.get(bankAccountNumber);
+            if (entry != null && entry.revision == revision) {
+                hits.increment();
+                return entry.body.retainedDuplicate();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches body of given revision of the account, unless a later revision is cached already.
+     * @return body to be sent (released) by the caller
+     */
+    ByteBuf put(BankAccountNumber bankAccountNumber, long revision, ByteBuf body) {
+        Segment segment = segmentOf(bankAccountNumber);
+        synchronized (segment) {
+            CachedResponse entry = segment.get(bankAccountNumber);
+            if (entry != null && entry.revision > revision) {
+                return body;
+            }
+            CachedResponse replaced = segment.put(bankAccountNumber, new CachedResponse(revision, body));
+            if (replaced != null) {
+                replaced.body.release();
+            }
+            return body.retainedDuplicate();
+        }
+    }
+
+    long hitsCount() {
+        return hits.sum();
+    }
+
+    long missesCount() {
+        return misses.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentOf(BankAccountNumber bankAccountNumber) {
+        return segments[Math.floorMod(bankAccountNumber.hashCode(), segmentCount)];
+    }
+
+    private static final class Segment extends LinkedHashMap<BankAccountNumber, CachedResponse> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BankAccountNumber, CachedResponse> eldest) {
+            if (size() > capacity) {
+                eldest.getValue().body.release();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static final class CachedResponse {
+        final long revision;
+        final ByteBuf body;
+
+        CachedResponse(long revision, ByteBuf body) {
+            this.revision = revision;
+            this.body = body;
+        }
+    }
+}
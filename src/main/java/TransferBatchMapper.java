@@ -0,0 +1,169 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import io.netty.buffer.ByteBuf;
+import org.reactivestreams.Subscription;
+import ratpack.stream.StreamMapper;
+import ratpack.stream.WriteStream;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Turns NDJSON request body into chunks of parsed transfer lines, one line is
+ * {"transferId": "...", "sourceAccount": "REV1", "targetAccount": "REV2", "money": 100} with optional "currency" (PLN by default).
+ * At most one chunk is emitted per received buffer (more of the body is requested when a buffer has too few lines),
+ * so the body is read as fast as results are written and it's never held in memory as a whole.
+ */
+class TransferBatchMapper implements StreamMapper<ByteBuf, List<TransferBatchMapper.TransferLine>> {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private static final int maxLineLength = 64 * 1024;
+
+    private final int minChunkSize;
+
+    TransferBatchMapper(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    /**
+     * Transfer parsed from one line of the body, or the reason it couldn't be parsed.
+     */
+    static class TransferLine {
+        final int lineNumber;
+        final MoneyTransfer moneyTransfer;
+        final String error;
+
+        TransferLine(int lineNumber, MoneyTransfer moneyTransfer, String error) {
+            this.lineNumber = lineNumber;
+            this.moneyTransfer = moneyTransfer;
+            this.error = error;
+        }
+    }
+
+    @Override
+    public WriteStream<ByteBuf> map(Subscription subscription, WriteStream<List<TransferLine>> down) {
+        return new WriteStream<ByteBuf>() {
+            private List<TransferLine> chunk = new ArrayList<>();
+            private byte[] pending = new byte[1024];
+            private int pendingLength = 0;
+            private int lineNumber = 0;
+
+            @Override
+            public void item(ByteBuf buffer) {
+                try {
+                    append(buffer);
+                } finally {
+                    buffer.release();
+                }
+                int lineStart = 0;
+                for (int i = 0; i < pendingLength; i++) {
+                    if (pending[i] == '\n') {
+                        addLine(lineStart, i - lineStart);
+                        lineStart = i + 1;
+                    }
+                }
+                System.arraycopy(pending, lineStart, pending, 0, pendingLength - lineStart);
+                pendingLength -= lineStart;
+                if (pendingLength > maxLineLength) {
+                    chunk.add(new TransferLine(++lineNumber, null, "Line longer than " + maxLineLength + " bytes"));
+                    pendingLength = 0;
+                }
+
+                if (chunk.size() >= minChunkSize) {
+                    down.item(chunk);
+                    chunk = new ArrayList<>();
+                } else {
+                    subscription.request(1);
+                }
+            }
+
+            private void append(ByteBuf buffer) {
+                int length = buffer.readableBytes();
+                if (pendingLength + length > pending.length) {
+                    byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + length)];
+                    System.arraycopy(pending, 0, grown, 0, pendingLength);
+                    pending = grown;
+                }
+                buffer.readBytes(pending, pendingLength, length);
+                pendingLength += length;
+            }
+
+            private void addLine(int offset, int length) {
+                lineNumber++;
+                if (length > 0 && pending[offset + length - 1] == '\r') {
+                    length--;
+                }
+                if (length > 0) {
+                    chunk.add(parse(lineNumber, pending, offset, length));
+                }
+            }
+
+            @Override
+            public void error(Throwable throwable) {
+                down.error(throwable);
+            }
+
+            @Override
+            public void complete() {
+                if (pendingLength > 0) {
+                    addLine(0, pendingLength);
+                    pendingLength = 0;
+                }
+                if (!chunk.isEmpty()) {
+                    down.item(chunk);
+                }
+                down.complete();
+            }
+        };
+    }
+
+    static TransferLine parse(int lineNumber, byte[] bytes, int offset, int length) {
+        String transferId = null;
+        String sourceAccount = null;
+        String targetAccount = null;
+        int money = -1;
+        Currency currency = Money.polishCurrency;
+        try (JsonParser parser = jsonFactory.createParser(bytes, offset, length)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return new TransferLine(lineNumber, null, "Line is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "transferId":
+                        transferId = parser.getText();
+                        break;
+                    case "sourceAccount":
+                        sourceAccount = parser.getText();
+                        break;
+                    case "targetAccount":
+                        targetAccount = parser.getText();
+                        break;
+                    case "money":
+                        money = parser.getIntValue();
+                        break;
+                    case "currency":
+                        currency = Currency.getInstance(parser.getText());
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            if (transferId == null || sourceAccount == null || targetAccount == null || money < 0) {
+                return new TransferLine(lineNumber, null, "transferId, sourceAccount, targetAccount and money are required");
+            }
+            return new TransferLine(lineNumber, new MoneyTransfer(TransferCodec.parseUuid(transferId), new BankAccountNumber(sourceAccount),
+                new BankAccountNumber(targetAccount), new Money(currency, money)), null);
+        } catch (Exception e) {
+            return new TransferLine(lineNumber, null, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * Decoding of transfer requests without intermediate trees: JSON body of a single transfer is read by Jackson's
+ * streaming parser straight into the domain objects, and binary transfers have a fixed layout of frameLength bytes
+ * (big endian): transferId (two longs), source account and target account (accountLength bytes of US-ASCII each,
+ * padded with zeros) and money (int, amount in PLN). Result of every frame is a status byte, for rejected frames
+ * followed by the error (short length and UTF-8 bytes).
+ */
+final class TransferCodec {
+
+    static final int accountLength = 16;
+
+    static final int frameLength = 16 + 2 * accountLength + 4;
+
+    static final byte blocked = 0;
+
+    static final byte rejected = 1;
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private TransferCodec() {
+    }
+
+    /**
+     * Parses {"targetAccount": "REV2", "money": 100} body of transfer from source account, other fields are skipped.
+     * Optional "currency" (PLN by default) has to be the one of the source account.
+     */
+    static MoneyTransfer parseTransfer(UUID transferId, BankAccountNumber sourceAccount, ByteBuf body) throws IOException {
+        String targetAccount = null;
+        int money = 0;
+        boolean hasMoney = false;
+        Currency currency = Money.polishCurrency;
+        try (JsonParser parser = createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Transfer is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("targetAccount".equals(field)) {
+                    targetAccount = parser.getText();
+                } else if ("money".equals(field)) {
+                    money = parser.getValueAsInt();
+                    hasMoney = true;
+                } else if ("currency".equals(field)) {
+                    currency = Currency.getInstance(parser.getText());
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        if (targetAccount == null || !hasMoney) {
+            throw new IllegalArgumentException("targetAccount and money are required");
+        }
+        return new MoneyTransfer(transferId, sourceAccount, new BankAccountNumber(targetAccount), new Money(currency, money));
+    }
+
+    private static JsonParser createParser(ByteBuf body) throws IOException {
+        if (body.hasArray()) {
+            return jsonFactory.createParser(body.array(), body.arrayOffset() + body.readerIndex(), body.readableBytes());
+        }
+        return jsonFactory.createParser((InputStream) new ByteBufInputStream(body.duplicate()));
+    }
+
+    /**
+     * Same as UUID.fromString but without splitting the text, falls back to it for anything else than the canonical
+     * 36 characters form (so errors are the same).
+     */
+    static UUID parseUuid(String text) {
+        if (text.length() != 36 || text.charAt(8) != '-' || text.charAt(13) != '-' || text.charAt(18) != '-' || text.charAt(23) != '-') {
+            return UUID.fromString(text);
+        }
+        long time = hex(text, 0, 8);
+        long timeMid = hex(text, 9, 13);
+        long timeHigh = hex(text, 14, 18);
+        long sequence = hex(text, 19, 23);
+        long node = hex(text, 24, 36);
+        if (time < 0 || timeMid < 0 || timeHigh < 0 || sequence < 0 || node < 0) {
+            return UUID.fromString(text);
+        }
+        return new UUID(time << 32 | timeMid << 16 | timeHigh, sequence << 48 | node);
+    }
+
+    // value of hex digits, -1 when there is other character
+    private static long hex(String text, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Reads one frame from the buffer, throws IllegalArgumentException for invalid account or money.
+     */
+    static MoneyTransfer decodeFrame(ByteBuf frame) {
+        UUID transferId = new UUID(frame.readLong(), frame.readLong());
+        BankAccountNumber sourceAccount = readAccount(frame);
+        BankAccountNumber targetAccount = readAccount(frame);
+        return new MoneyTransfer(transferId, sourceAccount, targetAccount, Money.polish(frame.readInt()));
+    }
+
+    private static BankAccountNumber readAccount(ByteBuf frame) {
+        int start = frame.readerIndex();
+        int length = 0;
+        while (length < accountLength && frame.getByte(start + length) != 0) {
+            length++;
+        }
+        if (length == 0) {
+            frame.skipBytes(accountLength);
+            throw new IllegalArgumentException("Account number is empty");
+        }
+        String accountNumber = frame.toString(start, length, StandardCharsets.US_ASCII);
+        frame.skipBytes(accountLength);
+        return new BankAccountNumber(accountNumber);
+    }
+
+    /**
+     * Writes transfer as one frame, used by clients of the binary endpoint.
+     */
+    static ByteBuf encodeFrame(MoneyTransfer moneyTransfer, ByteBuf out) {
+        out.writeLong(moneyTransfer.transferId.getMostSignificantBits());
+        out.writeLong(moneyTransfer.transferId.getLeastSignificantBits());
+        writeAccount(moneyTransfer.accountNumber, out);
+        writeAccount(moneyTransfer.targetBankAccountNumber, out);
+        return out.writeInt(moneyTransfer.money.amount);
+    }
+
+    private static void writeAccount(BankAccountNumber bankAccountNumber, ByteBuf out) {
+        byte[] accountNumber = bankAccountNumber.toString().getBytes(StandardCharsets.US_ASCII);
+        if (accountNumber.length > accountLength) {
+            throw new IllegalArgumentException("Account number longer than " + accountLength + " characters: " + bankAccountNumber);
+        }
+        out.writeBytes(accountNumber).writeZero(accountLength - accountNumber.length);
+    }
+
+    /**
+     * Writes result of a frame, error is null when transfer was blocked.
+     */
+    static void encodeResult(String error, ByteBuf out) {
+        if (error == null) {
+            out.writeByte(blocked);
+            return;
+        }
+        byte[] message = error.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(message.length, Short.MAX_VALUE);
+        out.writeByte(rejected).writeShort(length).writeBytes(message, 0, length);
+    }
+}
@@ -0,0 +1,87 @@
+import domain.entity.MoneyTransfer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.reactivestreams.Subscription;
+import ratpack.stream.StreamMapper;
+import ratpack.stream.WriteStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns binary request body of TransferCodec frames into chunks of decoded transfers, numbered from 1 like lines of
+ * NDJSON batch. Frames are decoded from the received buffers in place, only a frame split between two buffers is
+ * copied. Same as with TransferBatchMapper at most one chunk is emitted per received buffer.
+ */
+class TransferFrameMapper implements StreamMapper<ByteBuf, List<TransferBatchMapper.TransferLine>> {
+
+    private final int minChunkSize;
+
+    TransferFrameMapper(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+    }
+
+    @Override
+    public WriteStream<ByteBuf> map(Subscription subscription, WriteStream<List<TransferBatchMapper.TransferLine>> down) {
+        return new WriteStream<ByteBuf>() {
+            private List<TransferBatchMapper.TransferLine> chunk = new ArrayList<>();
+            private final ByteBuf split = Unpooled.buffer(TransferCodec.frameLength);
+            private int frameNumber = 0;
+
+            @Override
+            public void item(ByteBuf buffer) {
+                try {
+                    if (split.isReadable()) {
+                        buffer.readBytes(split, Math.min(split.writableBytes(), buffer.readableBytes()));
+                        if (split.isWritable()) {
+                            subscription.request(1);
+                            return;
+                        }
+                        addFrame(split);
+                        split.clear();
+                    }
+                    while (buffer.readableBytes() >= TransferCodec.frameLength) {
+                        addFrame(buffer.readSlice(TransferCodec.frameLength));
+                    }
+                    buffer.readBytes(split, buffer.readableBytes());
+                } finally {
+                    buffer.release();
+                }
+
+                if (chunk.size() >= minChunkSize) {
+                    down.item(chunk);
+                    chunk = new ArrayList<>();
+                } else {
+                    subscription.request(1);
+                }
+            }
+
+            private void addFrame(ByteBuf frame) {
+                frameNumber++;
+                try {
+                    MoneyTransfer moneyTransfer = TransferCodec.decodeFrame(frame);
+                    chunk.add(new TransferBatchMapper.TransferLine(frameNumber, moneyTransfer, null));
+                } catch (RuntimeException e) {
+                    chunk.add(new TransferBatchMapper.TransferLine(frameNumber, null, e.getMessage()));
+                }
+            }
+
+            @Override
+            public void error(Throwable throwable) {
+                down.error(throwable);
+            }
+
+            @Override
+            public void complete() {
+                if (split.isReadable()) {
+                    chunk.add(new TransferBatchMapper.TransferLine(++frameNumber, null,
+                        "Frame shorter than " + TransferCodec.frameLength + " bytes"));
+                }
+                if (!chunk.isEmpty()) {
+                    down.item(chunk);
+                }
+                down.complete();
+            }
+        };
+    }
+}
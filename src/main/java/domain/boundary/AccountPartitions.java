@@ -0,0 +1,74 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Fixed set of single threaded partitions - all commands for one Bank Account are run by the same partition (hashed by
+ * BankAccountNumber), so they never run concurrently and don't need optimistic locking.
+ */
+public class AccountPartitions implements AutoCloseable {
+
+    private final ExecutorService[] partitions;
+
+    public AccountPartitions(int partitionCount) {
+        this.partitions = new ExecutorService[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            String threadName = "account-partition-" + i;
+            partitions[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    int partitionOf(BankAccountNumber bankAccountNumber) {
+        return Math.floorMod(bankAccountNumber.hashCode(), partitions.length);
+    }
+
+    /**
+     * Runs command on account's partition and waits for it's result. Must not be called from a partition thread.
+     */
+    public <T> T execute(BankAccountNumber bankAccountNumber, Supplier<T> command) {
+        Future<T> result = partitions[partitionOf(bankAccountNumber)].submit(command::get);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + bankAccountNumber, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Runs command on account's partition, returned future completes on the partition thread.
+     */
+    public <T> CompletableFuture<T> executeAsync(BankAccountNumber bankAccountNumber, Supplier<T> command) {
+        return CompletableFuture.supplyAsync(command, partitions[partitionOf(bankAccountNumber)]);
+    }
+
+    /**
+     * Queues command on account's partition without waiting for it.
+     */
+    public void submit(BankAccountNumber bankAccountNumber, Runnable command) {
+        partitions[partitionOf(bankAccountNumber)].execute(command);
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService partition : partitions) {
+            partition.shutdown();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package domain.boundary;
+
+import domain.entity.MoneyTransfer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Clearing system of external banks, transfers are sent to it in batches (see OutboundGateway).
+ */
+public interface ClearingService {
+
+    /**
+     * Clearing that accepts every transfer at once - default when no clearing system is configured.
+     */
+    static ClearingService immediate() {
+        return transfers -> CompletableFuture.completedFuture(Collections.emptyMap());
+    }
+
+    /**
+     * Sends batch of transfers, it must not block.
+     * @return errors of rejected transfers by transfer id (the others are cleared), fails when the whole request failed
+     */
+    CompletableFuture<Map<UUID, String>> clear(List<MoneyTransfer> transfers);
+}
@@ -0,0 +1,38 @@
+package domain.boundary;
+
+/**
+ * Point in time statistics of EventDispatcher.
+ */
+public class DispatcherStatistics {
+
+    public final long queueDepth;
+
+    public final long capacity;
+
+    public final long reservedChains;
+
+    public final long batches;
+
+    public final long events;
+
+    public final int maxBatchSize;
+
+    public DispatcherStatistics(long queueDepth, long capacity, long reservedChains, long batches, long events, int maxBatchSize) {
+        this.queueDepth = queueDepth;
+        this.capacity = capacity;
+        this.reservedChains = reservedChains;
+        this.batches = batches;
+        this.events = events;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public double averageBatchSize() {
+        return batches == 0 ? 0 : (double) events / batches;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("queue depth: %d/%d, reserved chains: %d, batches: %d, events: %d, average batch: %.1f, max batch: %d",
+            queueDepth, capacity, reservedChains, batches, events, averageBatchSize(), maxBatchSize);
+    }
+}
@@ -0,0 +1,55 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyBlockedEvent;
+import domain.entity.MoneyTransfer;
+import domain.entity.MoneyTransferedEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * Binary form of Domain Events when they leave the heap - overflow of PendingEvents and messages between shards.
+ * Layout: [boolean blocked][long][long transferId][UTF source][UTF target][UTF currency][int amount].
+ */
+final class EventCodec {
+
+    private EventCodec() {
+    }
+
+    static byte[] encode(Object event) {
+        boolean blocked = event instanceof MoneyBlockedEvent;
+        MoneyTransfer moneyTransfer = blocked ? ((MoneyBlockedEvent) event).moneyTransfer : ((MoneyTransferedEvent) event).moneyTransfer;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeBoolean(blocked);
+            out.writeLong(moneyTransfer.transferId.getMostSignificantBits());
+            out.writeLong(moneyTransfer.transferId.getLeastSignificantBits());
+            out.writeUTF(moneyTransfer.accountNumber.toString());
+            out.writeUTF(moneyTransfer.targetBankAccountNumber.toString());
+            out.writeUTF(moneyTransfer.money.currency.getCurrencyCode());
+            out.writeInt(moneyTransfer.money.amount);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Object decode(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            boolean blocked = in.readBoolean();
+            MoneyTransfer moneyTransfer = new MoneyTransfer(new UUID(in.readLong(), in.readLong()), new BankAccountNumber(in.readUTF()),
+                new BankAccountNumber(in.readUTF()), new Money(Currency.getInstance(in.readUTF()), in.readInt()));
+            return blocked ? new MoneyBlockedEvent(moneyTransfer) : new MoneyTransferedEvent(moneyTransfer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
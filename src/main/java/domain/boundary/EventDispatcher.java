@@ -0,0 +1,41 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Delivers Domain Events to the handler in batches, all events published for one Bank Account go through the same consumer.
+ * Capacity is bounded: a new chain of events has to reserve room first and every event published within a reservation
+ * is guaranteed to fit, so handlers publishing follow up events never block.
+ */
+public interface EventDispatcher extends AutoCloseable {
+
+    /**
+     * Starts consumers, handler gets batches of events of accounts that share the consumer.
+     */
+    void start(Consumer<List<Object>> handler);
+
+    /**
+     * Reserves room for one chain of events, waiting up to timeout for a chain in flight to finish.
+     * @return false when dispatcher stayed full
+     */
+    boolean reserve(long timeout, TimeUnit unit);
+
+    /**
+     * Releases reservation of a finished chain of events.
+     */
+    void release();
+
+    /**
+     * Publishes event of a reserved chain to the consumer of given account.
+     */
+    void publish(BankAccountNumber bankAccountNumber, Object event);
+
+    DispatcherStatistics statistics();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,113 @@
+package domain.boundary;
+
+import domain.control.DeadLetter;
+import domain.control.DeadLetterStore;
+import domain.entity.MoneyBlockedEvent;
+import domain.entity.MoneyTransfer;
+import domain.entity.MoneyTransferedEvent;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Redelivers Domain Events that failed to be handled - after exponentially growing delay with jitter (half of the
+ * delay is random, so events that failed together are not redelivered together), on a HashedWheelTimer.
+ * Event that failed maxAttempts times goes to DeadLetterStore, where it waits to be replayed by an admin.
+ * Attempts are tracked by transfer id - every transfer has only one event in flight at a time.
+ */
+public class EventRedelivery {
+
+    private final int maxAttempts;
+
+    private final long initialDelayMillis;
+
+    private final long maxDelayMillis;
+
+    private final DeadLetterStore deadLetterStore;
+
+    private final HashedWheelTimer timer;
+
+    // failed attempts of events waiting for redelivery or being redelivered
+    private final Map<UUID, Integer> attempts = new ConcurrentHashMap<>();
+
+    private final LongAdder redeliveries = new LongAdder();
+
+    /**
+     * @param maxAttempts failed attempts after which event is dead lettered, 1 dead letters it at once
+     * @param initialDelayMillis delay of the first redelivery, doubled with every next one up to maxDelayMillis
+     */
+    public EventRedelivery(int maxAttempts, long initialDelayMillis, long maxDelayMillis, DeadLetterStore deadLetterStore) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialDelayMillis = Math.max(1, initialDelayMillis);
+        this.maxDelayMillis = Math.max(this.initialDelayMillis, maxDelayMillis);
+        this.deadLetterStore = deadLetterStore;
+        this.timer = new HashedWheelTimer("event-redelivery", Math.min(100, this.initialDelayMillis), 512);
+    }
+
+    /**
+     * Schedules redelivery of failed event through given publisher, or dead letters it when it failed too many times.
+     * @return false when event was dead lettered
+     */
+    boolean redeliverLater(Object event, String error, Consumer<Object> publisher) {
+        UUID transferId = moneyTransferOf(event).transferId;
+        int failedAttempts = attempts.merge(transferId, 1, Integer::sum);
+        if (failedAttempts >= maxAttempts) {
+            attempts.remove(transferId);
+            deadLetterStore.add(event instanceof MoneyBlockedEvent ? DeadLetter.Type.MONEY_BLOCKED : DeadLetter.Type.MONEY_TRANSFERED,
+                moneyTransferOf(event), failedAttempts, error);
+            return false;
+        }
+        timer.schedule(() -> {
+            redeliveries.increment();
+            publisher.accept(event);
+        }, delayMillis(failedAttempts), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Forgets attempts of handled event - cheap when nothing waits for redelivery.
+     */
+    void delivered(Object event) {
+        if (!attempts.isEmpty()) {
+            attempts.remove(moneyTransferOf(event).transferId);
+        }
+    }
+
+    long delayMillis(int failedAttempts) {
+        long delay = initialDelayMillis << Math.min(failedAttempts - 1, 30);
+        delay = delay <= 0 ? maxDelayMillis : Math.min(delay, maxDelayMillis);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Event of dead letter, to be published again.
+     */
+    static Object eventOf(DeadLetter deadLetter) {
+        return deadLetter.type == DeadLetter.Type.MONEY_BLOCKED
+            ? new MoneyBlockedEvent(deadLetter.moneyTransfer) : new MoneyTransferedEvent(deadLetter.moneyTransfer);
+    }
+
+    private static MoneyTransfer moneyTransferOf(Object event) {
+        return event instanceof MoneyBlockedEvent ? ((MoneyBlockedEvent) event).moneyTransfer : ((MoneyTransferedEvent) event).moneyTransfer;
+    }
+
+    public DeadLetterStore getDeadLetterStore() {
+        return deadLetterStore;
+    }
+
+    /**
+     * Events waiting for redelivery or being redelivered.
+     */
+    public int waitingCount() {
+        return attempts.size();
+    }
+
+    public long redeliveriesCount() {
+        return redeliveries.sum();
+    }
+}
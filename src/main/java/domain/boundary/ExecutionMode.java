@@ -0,0 +1,19 @@
+package domain.boundary;
+
+/**
+ * How SimpleBankService applies concurrent operations on the same Bank Account.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Any thread works on a copy of the account and saves it with compare-and-swap, retrying on ConcurrentModificationException.
+     */
+    OPTIMISTIC,
+
+    /**
+     * Every operation on an account runs on it's AccountPartitions thread and is saved without revision check.
+     * It only serialises writers of the account: they still change a copy of it, as saved revisions are frozen and read
+     * without locks. The only conflict left is the same transfer id started concurrently on another account.
+     */
+    SINGLE_WRITER
+}
@@ -0,0 +1,112 @@
+package domain.boundary;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel - a single thread ticks over a ring of buckets and runs tasks whose deadline has passed, tasks
+ * due after more than one turn of the wheel wait there for their remaining rounds. Scheduling is one lock free queue
+ * offer, so it's cheap even for many delayed tasks; precision is one tick.
+ * Thread is started with the first scheduled task, tasks have to be short (they are run on the timer thread).
+ */
+class HashedWheelTimer {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final String threadName;
+
+    private final long tickNanos;
+
+    private final int mask;
+
+    // touched only by the timer thread
+    private final List<List<Timeout>> wheel;
+
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    HashedWheelTimer(String threadName, long tickMillis, int wheelSize) {
+        this.threadName = threadName;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.wheel = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            wheel.add(new ArrayList<>());
+        }
+    }
+
+    void schedule(Runnable task, long delay, TimeUnit unit) {
+        scheduled.offer(new Timeout(task, System.nanoTime() + unit.toNanos(delay)));
+        if (!started.get() && started.compareAndSet(false, true)) {
+            Thread thread = new Thread(this::run, threadName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void run() {
+        long startTime = System.nanoTime();
+        long tick = 0;
+        while (true) {
+            long deadline = startTime + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            addScheduled(startTime, tick);
+            expire(wheel.get((int) (tick & mask)));
+            tick++;
+        }
+    }
+
+    private void addScheduled(long startTime, long tick) {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            // tick whose bucket is expired once the deadline passed, never one that is already done
+            long dueTick = Math.max(tick, (timeout.deadline - startTime + tickNanos - 1) / tickNanos - 1);
+            timeout.remainingRounds = (dueTick - tick) / wheel.size();
+            wheel.get((int) (dueTick & mask)).add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout> bucket) {
+        for (Iterator<Timeout> timeouts = bucket.iterator(); timeouts.hasNext(); ) {
+            Timeout timeout = timeouts.next();
+            if (timeout.remainingRounds > 0) {
+                timeout.remainingRounds--;
+                continue;
+            }
+            timeouts.remove();
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Timer task failed", e);
+            }
+        }
+    }
+
+    private static final class Timeout {
+        final Runnable task;
+        final long deadline;
+        long remainingRounds;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
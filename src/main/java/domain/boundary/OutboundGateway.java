@@ -0,0 +1,190 @@
+package domain.boundary;
+
+import domain.entity.MoneyTransfer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Gathers transfers to external banks into batches for ClearingService - batch is closed when it has maxBatchSize
+ * transfers or lingerMillis after it's first one, and up to maxInFlight batches are sent without waiting for the
+ * previous ones (pipelined). With linger 0 a batch is closed as soon as there is a free request, so batches are as large
+ * as the load makes them and a single transfer waits for nothing.
+ * Result of every transfer is handed to it's callback, on the thread that completed the clearing request.
+ */
+public class OutboundGateway {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ClearingService clearingService;
+
+    private final int maxBatchSize;
+
+    private final long lingerMillis;
+
+    private final int maxInFlight;
+
+    private final HashedWheelTimer timer;
+
+    // guarded by this
+    private List<Outbound> batch = new ArrayList<>();
+    private long batchNumber;
+    private final Deque<List<Outbound>> closedBatches = new ArrayDeque<>();
+    private int inFlight;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    public OutboundGateway(ClearingService clearingService) {
+        this(clearingService, 256, 0, 4);
+    }
+
+    /**
+     * @param lingerMillis longest wait of a batch for more transfers, 0 for no waiting
+     * @param maxInFlight clearing requests sent at a time, more closed batches wait for them
+     */
+    public OutboundGateway(ClearingService clearingService, int maxBatchSize, long lingerMillis, int maxInFlight) {
+        this.clearingService = clearingService;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerMillis = lingerMillis;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.timer = lingerMillis > 0 ? new HashedWheelTimer("outbound-linger", Math.min(10, lingerMillis), 64) : null;
+    }
+
+    /**
+     * Queues transfer for clearing, callback gets it's error or null when it was cleared.
+     */
+    public void send(MoneyTransfer moneyTransfer, BiConsumer<MoneyTransfer, String> callback) {
+        List<List<Outbound>> sendable;
+        synchronized (this) {
+            batch.add(new Outbound(moneyTransfer, callback));
+            if (batch.size() >= maxBatchSize) {
+                closeBatch();
+            } else if (batch.size() == 1 && timer != null) {
+                long number = batchNumber;
+                timer.schedule(() -> lingerExpired(number), lingerMillis, TimeUnit.MILLISECONDS);
+            }
+            sendable = takeSendable();
+        }
+        sendable.forEach(this::submit);
+    }
+
+    private void lingerExpired(long number) {
+        List<List<Outbound>> sendable;
+        synchronized (this) {
+            if (number != batchNumber || batch.isEmpty()) {
+                // closed already because it was full
+                return;
+            }
+            closeBatch();
+            sendable = takeSendable();
+        }
+        sendable.forEach(this::submit);
+    }
+
+    private void closeBatch() {
+        closedBatches.addLast(batch);
+        batch = new ArrayList<>();
+        batchNumber++;
+    }
+
+    private List<List<Outbound>> takeSendable() {
+        if (timer == null && !batch.isEmpty() && inFlight + closedBatches.size() < maxInFlight) {
+            closeBatch();
+        }
+        if (closedBatches.isEmpty() || inFlight >= maxInFlight) {
+            return Collections.emptyList();
+        }
+        List<List<Outbound>> sendable = new ArrayList<>();
+        while (inFlight < maxInFlight && !closedBatches.isEmpty()) {
+            sendable.add(closedBatches.pollFirst());
+            inFlight++;
+        }
+        return sendable;
+    }
+
+    private void submit(List<Outbound> outbound) {
+        List<MoneyTransfer> moneyTransfers = new ArrayList<>(outbound.size());
+        outbound.forEach(transfer -> moneyTransfers.add(transfer.moneyTransfer));
+        batches.increment();
+        transfers.add(outbound.size());
+        try {
+            clearingService.clear(moneyTransfers).whenComplete((rejected, error) -> completed(outbound, rejected, error));
+        } catch (RuntimeException e) {
+            completed(outbound, null, e);
+        }
+    }
+
+    private void completed(List<Outbound> outbound, Map<UUID, String> rejected, Throwable error) {
+        if (error != null) {
+            failedBatches.increment();
+            logger.info("Clearing of " + outbound.size() + " transfers failed: " + error);
+        }
+        for (Outbound transfer : outbound) {
+            try {
+                transfer.callback.accept(transfer.moneyTransfer, error != null ? error.toString() : rejected.get(transfer.moneyTransfer.transferId));
+            } catch (RuntimeException e) {
+                logger.warn("Handling of clearing result failed", e);
+            }
+        }
+        List<List<Outbound>> sendable;
+        synchronized (this) {
+            inFlight--;
+            sendable = takeSendable();
+        }
+        sendable.forEach(this::submit);
+    }
+
+    public long batchesCount() {
+        return batches.sum();
+    }
+
+    public long transfersCount() {
+        return transfers.sum();
+    }
+
+    public long failedBatchesCount() {
+        return failedBatches.sum();
+    }
+
+    public double averageBatchSize() {
+        long batches = batchesCount();
+        return batches == 0 ? 0 : (double) transfersCount() / batches;
+    }
+
+    /**
+     * Transfers waiting in open and closed batches, not sent yet.
+     */
+    public synchronized int queuedCount() {
+        int queued = batch.size();
+        for (List<Outbound> closedBatch : closedBatches) {
+            queued += closedBatch.size();
+        }
+        return queued;
+    }
+
+    public synchronized int inFlightCount() {
+        return inFlight;
+    }
+
+    private static final class Outbound {
+        final MoneyTransfer moneyTransfer;
+        final BiConsumer<MoneyTransfer, String> callback;
+
+        Outbound(MoneyTransfer moneyTransfer, BiConsumer<MoneyTransfer, String> callback) {
+            this.moneyTransfer = moneyTransfer;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package domain.boundary;
+
+import domain.control.SegmentedFileQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Events held back while event sending is suspended. Up to memoryThreshold events are kept on heap, more overflow
+ * into SegmentedFileQueue (and while anything is there new events follow them, so the order is kept).
+ * Events are drained on their own thread at most drainRate per second, so resuming never stalls the caller.
+ */
+public class PendingEvents {
+
+    private static final long segmentBytes = 16 * 1024 * 1024;
+
+    private static final long maxDrainAheadNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final int memoryThreshold;
+
+    private final int drainRate;
+
+    private final Deque<Object> inMemory = new ArrayDeque<>();
+
+    private final SegmentedFileQueue overflow;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final ExecutorService drainer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pending-events-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param overflowDirectory where overflowing events are written, temporary directory when it's null
+     * @param drainRate events published per second when draining, 0 for no limit
+     */
+    public PendingEvents(int memoryThreshold, Path overflowDirectory, int drainRate) {
+        this.memoryThreshold = memoryThreshold;
+        this.drainRate = drainRate;
+        this.overflow = new SegmentedFileQueue(overflowDirectory, segmentBytes);
+    }
+
+    public synchronized void add(Object event) {
+        if (inMemory.size() < memoryThreshold && overflow.size() == 0) {
+            inMemory.addLast(event);
+        } else {
+            overflow.add(EventCodec.encode(event));
+        }
+    }
+
+    private synchronized Object poll() {
+        Object event = inMemory.pollFirst();
+        if (event == null) {
+            byte[] record = overflow.poll();
+            return record == null ? null : EventCodec.decode(record);
+        }
+        return event;
+    }
+
+    public synchronized long size() {
+        return inMemory.size() + overflow.size();
+    }
+
+    public long overflowCount() {
+        return overflow.size();
+    }
+
+    /**
+     * Starts draining events to publisher on the drain thread unless it's running already, it stops as soon as
+     * suspended says so or there are no more events.
+     */
+    void drain(Consumer<Object> publisher, BooleanSupplier suspended) {
+        if (!draining.compareAndSet(false, true)) {
+            return;
+        }
+        drainer.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                long drained = 0;
+                Object event;
+                while (!suspended.getAsBoolean() && (event = poll()) != null) {
+                    publisher.accept(event);
+                    drained++;
+                    if (drainRate > 0) {
+                        long ahead = start + drained * TimeUnit.SECONDS.toNanos(1) / drainRate - System.nanoTime();
+                        if (ahead > maxDrainAheadNanos) {
+                            LockSupport.parkNanos(ahead);
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Draining of pending events failed", e);
+            } finally {
+                draining.set(false);
+            }
+            // event added just before the flag was cleared would wait for the next resume otherwise
+            if (!suspended.getAsBoolean() && size() > 0) {
+                drain(publisher, suspended);
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package domain.boundary;
+
+import domain.control.AccountBalance;
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.MoneyBlockedEvent;
+import domain.entity.MoneyTransfer;
+import ratpack.exec.Blocking;
+import ratpack.exec.Promise;
+import ratpack.func.Factory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Promise based API of SimpleBankService for Ratpack handlers.
+ * Non blocking one runs in memory operations directly on the compute thread of the request and hands only really
+ * blocking waits (full event dispatcher, durable journal write) to a dedicated bounded executor - when it's full
+ * the request is rejected with RejectedExecutionException.
+ * Virtual one is the non blocking one with waits on virtual threads (Java 21+), so many more of them are affordable.
+ * Blocking one runs every call on Ratpack's blocking executor, ie. two thread hand-offs per call - or on a virtual
+ * thread of it's own, see blockingOnVirtualThreads.
+ */
+public class PromiseBankService implements AutoCloseable {
+
+    private final SimpleBankService simpleBankService;
+
+    // null when every call is run on Ratpack's blocking executor
+    private final ExecutorService blockingExecutor;
+
+    // every call is run on blockingExecutor, not only waits
+    private final boolean blockingCalls;
+
+    private PromiseBankService(SimpleBankService simpleBankService, ExecutorService blockingExecutor) {
+        this(simpleBankService, blockingExecutor, false);
+    }
+
+    private PromiseBankService(SimpleBankService simpleBankService, ExecutorService blockingExecutor, boolean blockingCalls) {
+        this.simpleBankService = simpleBankService;
+        this.blockingExecutor = blockingExecutor;
+        this.blockingCalls = blockingCalls;
+    }
+
+    /**
+     * @param blockingThreads threads waiting for durability or room in the event dispatcher
+     * @param blockingQueue waits queued for them at most, more are rejected
+     */
+    public static PromiseBankService nonBlocking(SimpleBankService simpleBankService, int blockingThreads, int blockingQueue) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor blockingExecutor = new ThreadPoolExecutor(blockingThreads, blockingThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(blockingQueue), runnable -> {
+                Thread thread = new Thread(runnable, "bank-blocking-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        return new PromiseBankService(simpleBankService, blockingExecutor);
+    }
+
+    /**
+     * @param maxBlockingWaits virtual threads waiting at a time, more waits are rejected
+     */
+    public static PromiseBankService virtual(SimpleBankService simpleBankService, int maxBlockingWaits) {
+        return new PromiseBankService(simpleBankService, VirtualThreads.boundedExecutor("bank-blocking-", maxBlockingWaits));
+    }
+
+    public static PromiseBankService blocking(SimpleBankService simpleBankService) {
+        return new PromiseBankService(simpleBankService, null);
+    }
+
+    /**
+     * Blocking one with every call on a virtual thread instead of Ratpack's blocking executor.
+     * @param maxThreads calls running at a time, more are rejected
+     */
+    public static PromiseBankService blockingOnVirtualThreads(SimpleBankService simpleBankService, int maxThreads) {
+        return new PromiseBankService(simpleBankService, VirtualThreads.boundedExecutor("bank-blocking-", maxThreads), true);
+    }
+
+    public SimpleBankService getSimpleBankService() {
+        return simpleBankService;
+    }
+
+    private <T> Promise<T> call(Factory<T> operation) {
+        if (blockingExecutor == null) {
+            return Blocking.get(operation);
+        }
+        if (!blockingCalls) {
+            return Promise.sync(operation);
+        }
+        return Promise.async(downstream -> blockingExecutor.execute(() -> {
+            try {
+                downstream.success(operation.create());
+            } catch (Exception e) {
+                downstream.error(e);
+            }
+        }));
+    }
+
+    public Promise<BankAccountEntity> bankAccount(BankAccountNumber bankAccountNumber) {
+        return call(() -> simpleBankService.bankAccount(bankAccountNumber));
+    }
+
+    public Promise<AccountBalance> readAccountBalance(BankAccountNumber bankAccountNumber, AccountBalance accountBalance) {
+        return call(() -> simpleBankService.readAccountBalance(bankAccountNumber, accountBalance));
+    }
+
+    public Promise<Boolean> suspendEventSending(boolean isSuspended) {
+        return call(() -> {
+            simpleBankService.suspendEventSending(isSuspended);
+            return isSuspended;
+        });
+    }
+
+    public Promise<MoneyBlockedEvent> startMoneyTransfer(MoneyTransfer moneyTransfer) {
+        if (blockingExecutor == null || blockingCalls) {
+            return call(() -> simpleBankService.startMoneyTransferWithRetriesOnConcurrentModification(moneyTransfer));
+        }
+        return Promise.async(downstream -> simpleBankService.startMoneyTransferAsync(moneyTransfer, blockingExecutor)
+            .whenComplete((moneyBlockedEvent, error) -> {
+                if (error == null) {
+                    downstream.success(moneyBlockedEvent);
+                } else {
+                    downstream.error(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                }
+            }));
+    }
+
+    @Override
+    public void close() {
+        if (blockingExecutor != null) {
+            blockingExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * EventDispatcher with fixed number of consumer threads, each draining it's own pre-allocated ring buffer.
+ * Account is mapped to a consumer the same way as in AccountPartitions. Every chain of events holds at most one event
+ * in the rings at a time (consumer frees the slots before handling a batch), so limiting reserved chains to the ring
+ * capacity means a publish always finds a free slot and memory never grows.
+ * Consumers are daemon platform threads unless another ThreadFactory is given (eg. VirtualThreads.factory).
+ */
+public class RingBufferEventDispatcher implements EventDispatcher {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Ring[] rings;
+
+    private final int capacity;
+
+    private final int maxBatchSize;
+
+    private final Semaphore reservations;
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder events = new LongAdder();
+
+    private final AtomicInteger maxObservedBatchSize = new AtomicInteger();
+
+    private final ThreadFactory threadFactory;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param consumers number of consumer threads (and rings)
+     * @param capacity size of each ring, rounded up to power of two - it's also the limit of chains in flight
+     * @param maxBatchSize maximum number of events handed to the handler at once
+     */
+    public RingBufferEventDispatcher(int consumers, int capacity, int maxBatchSize) {
+        this(consumers, capacity, maxBatchSize, VirtualThreads.platformFactory("event-dispatcher-"));
+    }
+
+    public RingBufferEventDispatcher(int consumers, int capacity, int maxBatchSize, ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.maxBatchSize = maxBatchSize;
+        this.reservations = new Semaphore(this.capacity);
+        this.rings = new Ring[consumers];
+        for (int i = 0; i < consumers; i++) {
+            rings[i] = new Ring(this.capacity);
+        }
+    }
+
+    @Override
+    public void start(Consumer<List<Object>> handler) {
+        for (Ring ring : rings) {
+            Thread consumer = threadFactory.newThread(() -> consume(ring, handler));
+            ring.consumer = consumer;
+            consumer.start();
+        }
+    }
+
+    private void consume(Ring ring, Consumer<List<Object>> handler) {
+        List<Object> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            if (ring.drainTo(batch, maxBatchSize) == 0) {
+                ring.waiting = true;
+                if (ring.isEmpty()) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                ring.waiting = false;
+                continue;
+            }
+            batches.increment();
+            events.add(batch.size());
+            maxObservedBatchSize.accumulateAndGet(batch.size(), Math::max);
+            try {
+                handler.accept(batch);
+            } catch (RuntimeException e) {
+                logger.error("Failure in handling batch of events", e);
+            }
+            batch.clear();
+        }
+    }
+
+    @Override
+    public boolean reserve(long timeout, TimeUnit unit) {
+        try {
+            return reservations.tryAcquire(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void release() {
+        reservations.release();
+    }
+
+    @Override
+    public void publish(BankAccountNumber bankAccountNumber, Object event) {
+        Ring ring = rings[Math.floorMod(bankAccountNumber.hashCode(), rings.length)];
+        ring.publish(event);
+        if (ring.waiting) {
+            LockSupport.unpark(ring.consumer);
+        }
+    }
+
+    @Override
+    public DispatcherStatistics statistics() {
+        long queueDepth = 0;
+        for (Ring ring : rings) {
+            queueDepth += ring.size();
+        }
+        return new DispatcherStatistics(queueDepth, (long) capacity * rings.length, capacity - reservations.availablePermits(),
+            batches.sum(), events.sum(), maxObservedBatchSize.get());
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Ring ring : rings) {
+            LockSupport.unpark(ring.consumer);
+        }
+    }
+
+
+    /**
+     * Bounded multi producer, single consumer ring. Every slot has a sequence telling whether it's free for producer
+     * of given position or holds event for the consumer, so nothing is allocated per event.
+     */
+    private static final class Ring {
+        private final AtomicReferenceArray<Object> slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+
+        volatile Thread consumer;
+        volatile boolean waiting;
+
+        Ring(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.sequences = new AtomicLongArray(capacity);
+            this.mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        void publish(Object event) {
+            long position = tail.getAndIncrement();
+            int index = (int) position & mask;
+            // free as long as reservations are respected, otherwise waits for the consumer
+            while (sequences.get(index) != position) {
+                Thread.yield();
+            }
+            slots.lazySet(index, event);
+            sequences.set(index, position + 1);
+        }
+
+        int drainTo(List<Object> batch, int maxBatchSize) {
+            long position = head.get();
+            int count = 0;
+            while (count < maxBatchSize) {
+                int index = (int) position & mask;
+                if (sequences.get(index) != position + 1) {
+                    break;
+                }
+                batch.add(slots.get(index));
+                slots.lazySet(index, null);
+                sequences.set(index, position + mask + 1);
+                position++;
+                count++;
+            }
+            head.lazySet(position);
+            return count;
+        }
+
+        boolean isEmpty() {
+            long position = head.get();
+            return sequences.get((int) position & mask) != position + 1;
+        }
+
+        long size() {
+            return Math.max(0, tail.get() - head.get());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+
+/**
+ * Connection of a shard to the other shards of the bank - accounts REVn are partitioned by (n - 1) % shardCount.
+ * Events of accounts in other shards are sent through it instead of being published locally.
+ */
+public interface ShardLink {
+
+    static int shardOf(BankAccountNumber bankAccountNumber, int shardCount) {
+        return Math.max(0, bankAccountNumber.getInternalNumber() - 1) % shardCount;
+    }
+
+    /**
+     * Whether account is held by this shard, accounts of other banks are handled by the shard of the other account.
+     */
+    boolean isLocal(BankAccountNumber bankAccountNumber);
+
+    /**
+     * Sends event to the shard of given account, it must not block on the receiving shard.
+     */
+    void send(BankAccountNumber bankAccountNumber, Object event);
+}
@@ -0,0 +1,127 @@
+package domain.boundary;
+
+import domain.control.AccountBalance;
+import domain.control.BankAccountRepository;
+import domain.control.Metrics;
+import domain.control.TransferHistory;
+import domain.control.TransferIdIndex;
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyBlockedEvent;
+import domain.entity.MoneyTransfer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Bank partitioned into shards in one JVM - every shard is a SimpleBankService with it's own repository, event
+ * dispatcher and account numbers (see ShardLink). Commands are routed to the shard of the source account, transfers
+ * to another shard are handed to it's inbox thread, so no shard ever runs code on a lock of another one.
+ * Shards in separate JVMs are linked by SocketShardLink instead.
+ */
+public class ShardedBankService {
+
+    private final SimpleBankService[] shards;
+
+    private final ExecutorService[] inboxes;
+
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    public ShardedBankService(int shardCount) {
+        this(shardCount, ExecutionMode.OPTIMISTIC);
+    }
+
+    public ShardedBankService(int shardCount, ExecutionMode executionMode) {
+        this(shardCount, shard -> new SimpleBankService(
+            new BankAccountRepository(null, null, new TransferIdIndex(1 << 16, TimeUnit.DAYS.toMillis(1)),
+                new TransferHistory(1 << 14), Metrics.disabled(), shard, shardCount),
+            executionMode,
+            new RingBufferEventDispatcher(Math.max(1, Runtime.getRuntime().availableProcessors() / shardCount), 1 << 14, 256)));
+    }
+
+    /**
+     * @param shardFactory creates service of given shard, it's repository has to number accounts of that shard
+     */
+    public ShardedBankService(int shardCount, IntFunction<SimpleBankService> shardFactory) {
+        this.shards = new SimpleBankService[shardCount];
+        this.inboxes = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String threadName = "shard-inbox-" + i;
+            shards[i] = shardFactory.apply(i);
+            inboxes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        for (int i = 0; i < shardCount; i++) {
+            shards[i].linkShards(new LocalShardLink(i), new RingBufferEventDispatcher(1, 1 << 12, 256));
+        }
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public SimpleBankService shard(int shard) {
+        return shards[shard];
+    }
+
+    public SimpleBankService shardOf(BankAccountNumber bankAccountNumber) {
+        return shards[ShardLink.shardOf(bankAccountNumber, shards.length)];
+    }
+
+    /**
+     * Creates account in the next shard, round robin.
+     */
+    public BankAccountNumber newBankAccount(Money initialMoney) {
+        return shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)].newBankAccount(initialMoney);
+    }
+
+    public BankAccountEntity bankAccount(BankAccountNumber bankAccountNumber) {
+        return shardOf(bankAccountNumber).bankAccount(bankAccountNumber);
+    }
+
+    public AccountBalance readAccountBalance(BankAccountNumber bankAccountNumber, AccountBalance accountBalance) {
+        return shardOf(bankAccountNumber).readAccountBalance(bankAccountNumber, accountBalance);
+    }
+
+    public MoneyBlockedEvent startMoneyTransferWithRetriesOnConcurrentModification(MoneyTransfer moneyTransfer) {
+        return shardOf(moneyTransfer.accountNumber).startMoneyTransferWithRetriesOnConcurrentModification(moneyTransfer);
+    }
+
+    /**
+     * Sum of transfers in flight in all shards, both started there and coming from other shards.
+     */
+    public long transfersInProgress() {
+        long inProgress = 0;
+        for (SimpleBankService shard : shards) {
+            inProgress += shard.eventDispatcherStatistics().reservedChains + shard.inboundDispatcherStatistics().map(statistics -> statistics.reservedChains).orElse(0L);
+        }
+        return inProgress;
+    }
+
+    private final class LocalShardLink implements ShardLink {
+
+        private final int shard;
+
+        LocalShardLink(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public boolean isLocal(BankAccountNumber bankAccountNumber) {
+            return !bankAccountNumber.isMyBank() || ShardLink.shardOf(bankAccountNumber, shards.length) == shard;
+        }
+
+        @Override
+        public void send(BankAccountNumber bankAccountNumber, Object event) {
+            int target = ShardLink.shardOf(bankAccountNumber, shards.length);
+            inboxes[target].execute(() -> shards[target].receiveFromShard(event));
+        }
+    }
+}
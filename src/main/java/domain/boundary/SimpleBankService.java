@@ -1,133 +1,940 @@
 package domain.boundary;
 
-import com.google.common.eventbus.AllowConcurrentEvents;
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
-import com.google.common.eventbus.Subscribe;
+import domain.control.AccountBalance;
+import domain.control.AccountLedger;
 import domain.control.BankAccountRepository;
+import domain.control.DeadLetter;
+import domain.control.DeadLetterStore;
+import domain.control.JournalRecord;
+import domain.control.Metrics;
+import domain.control.Reconciliation;
+import domain.control.ReplayStatistics;
+import domain.control.TransferIdIndex;
 import domain.entity.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
-import java.util.Queue;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Handles all operations on Bank Accounts - both coming from API and based on Domain Events.
+ * Depending on ExecutionMode operations on the same account are either retried on ConcurrentModificationException
+ * or run one by one on the account's partition thread.
+ * Events go through bounded EventDispatcher, all events of a batch for one account are applied in a single save.
+ * When the dispatcher is full new transfers are rejected with RejectedExecutionException.
+ * Events that fail to be handled are redelivered later by EventRedelivery and dead lettered when they keep failing.
+ * Linked to other shards (see ShardLink) it sends events of their accounts to them: a transfer to another shard travels
+ * there as MoneyBlockedEvent and comes back as MoneyTransferedEvent. Transfers coming from other shards take room in
+ * a separate inbound dispatcher, so shards whose dispatchers are full of their own transfers never wait for each other.
+ * Transfer is made in currency of the source account and converted to currency of the target account when it's
+ * received, by the ExchangeRates snapshot current at that moment (replaced as a whole when rates change).
+ * Retries, handling of events and queues of pending and failed events are recorded in given Metrics.
  */
 public class SimpleBankService {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
-    private final BankAccountRepository bankAccountRepository = new BankAccountRepository();
+    private final BankAccountRepository bankAccountRepository;
 
-    private final EventBus eventBus = new AsyncEventBus(Executors.newCachedThreadPool());
+    private final ExecutionMode executionMode;
+
+    private final AccountPartitions accountPartitions;
+
+    private final EventDispatcher eventDispatcher;
+
+    private final long publishTimeoutMillis = 1000;
 
     private volatile boolean isSuspended = false;
-    private final Queue<Object> pendingEvents = new ConcurrentLinkedQueue<>();
+    private final PendingEvents pendingEvents;
+
+    private final OutboundGateway outboundGateway;
+
+    // both null when this service holds all accounts
+    private volatile ShardLink shardLink;
+    private volatile EventDispatcher inboundDispatcher;
+    // transfers and confirmations received from other shards, a link can deliver an event again after reconnect
+    private volatile TransferIdIndex receivedFromShards;
+    private volatile TransferIdIndex confirmedFromShards;
+
+    private final EventRedelivery eventRedelivery;
+
+    private volatile ExchangeRates exchangeRates = ExchangeRates.of(Money.polishCurrency);
+
+    private final TransferNotifications transferNotifications = new TransferNotifications();
 
-    private final Queue<Object> failedEvents = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<Reconciliation> lastReconciliation = new AtomicReference<>();
+
+    // transfers started through API and those of them that hit ConcurrentModificationException at least once
+    private final LongAdder startedTransfers = new LongAdder();
+    private final LongAdder retriedTransfers = new LongAdder();
+
+    private final Metrics.Counter transferRetries;
+
+    private final Metrics.Counter eventRetries;
+
+    // conflicts of received money with other saves of the account after which it's hot and gets credit cells
+    private final int hotAccountConflicts = 2;
+    private final LongAdder hotAccounts = new LongAdder();
+
+    private final Metrics.Histogram eventHandling;
 
     public SimpleBankService() {
-        eventBus.register(this);
+        this(new BankAccountRepository());
+    }
+
+    public SimpleBankService(BankAccountRepository bankAccountRepository) {
+        this(bankAccountRepository, ExecutionMode.OPTIMISTIC);
     }
 
+    public SimpleBankService(BankAccountRepository bankAccountRepository, ExecutionMode executionMode) {
+        this(bankAccountRepository, executionMode, new RingBufferEventDispatcher(Runtime.getRuntime().availableProcessors(), 1 << 14, 256));
+    }
+
+    public SimpleBankService(BankAccountRepository bankAccountRepository, ExecutionMode executionMode, EventDispatcher eventDispatcher) {
+        this(bankAccountRepository, executionMode, eventDispatcher, Metrics.disabled());
+    }
+
+    public SimpleBankService(BankAccountRepository bankAccountRepository, ExecutionMode executionMode, EventDispatcher eventDispatcher,
+                             Metrics metrics) {
+        this(bankAccountRepository, executionMode, eventDispatcher, metrics,
+            new EventRedelivery(8, 100, TimeUnit.SECONDS.toMillis(30), new DeadLetterStore(10_000, null)),
+            new PendingEvents(1 << 14, null, 10_000));
+    }
+
+    public SimpleBankService(BankAccountRepository bankAccountRepository, ExecutionMode executionMode, EventDispatcher eventDispatcher,
+                             Metrics metrics, EventRedelivery eventRedelivery, PendingEvents pendingEvents) {
+        this(bankAccountRepository, executionMode, eventDispatcher, metrics, eventRedelivery, pendingEvents,
+            new OutboundGateway(ClearingService.immediate()));
+    }
+
+    public SimpleBankService(BankAccountRepository bankAccountRepository, ExecutionMode executionMode, EventDispatcher eventDispatcher,
+                             Metrics metrics, EventRedelivery eventRedelivery, PendingEvents pendingEvents, OutboundGateway outboundGateway) {
+        this.eventRedelivery = eventRedelivery;
+        this.pendingEvents = pendingEvents;
+        this.outboundGateway = outboundGateway;
+        this.transferRetries = metrics.counter("bank_concurrent_modification_retries_total",
+            "Operations retried because account was changed concurrently", "operation", "transfer");
+        this.eventRetries = metrics.counter("bank_concurrent_modification_retries_total",
+            "Operations retried because account was changed concurrently", "operation", "events");
+        this.eventHandling = metrics.histogram("bank_event_handling_seconds", "Handling of a batch of events of one account");
+        metrics.functionCounter("bank_transfers_started_total", "Transfers started through API", startedTransfers::sum);
+        metrics.functionCounter("bank_transfers_retried_total", "Transfers started through API that were retried at least once", retriedTransfers::sum);
+        metrics.functionCounter("bank_hot_accounts_total", "Accounts switched to credit cells", hotAccounts::sum);
+        metrics.gauge("bank_pending_events", "Events held back while event sending is suspended", pendingEvents::size);
+        metrics.gauge("bank_pending_events_overflow", "Held back events overflowed to disk", pendingEvents::overflowCount);
+        metrics.gauge("bank_dead_letters", "Events that failed to be handled too many times", () -> eventRedelivery.getDeadLetterStore().size());
+        metrics.gauge("bank_dead_letters_spilled", "Dead letters spilled to disk", () -> eventRedelivery.getDeadLetterStore().spilledCount());
+        metrics.gauge("bank_events_awaiting_redelivery", "Failed events waiting to be redelivered", eventRedelivery::waitingCount);
+        metrics.functionCounter("bank_event_redeliveries_total", "Redeliveries of failed events", eventRedelivery::redeliveriesCount);
+        metrics.functionCounter("bank_clearing_batches_total", "Batches of external transfers sent to clearing", outboundGateway::batchesCount);
+        metrics.functionCounter("bank_clearing_transfers_total", "External transfers sent to clearing", outboundGateway::transfersCount);
+        metrics.functionCounter("bank_clearing_failed_batches_total", "Clearing requests that failed as a whole", outboundGateway::failedBatchesCount);
+        metrics.gauge("bank_clearing_queued", "External transfers waiting for a clearing request", outboundGateway::queuedCount);
+        metrics.gauge("bank_event_queue_depth", "Events waiting in the event dispatcher", () -> eventDispatcher.statistics().queueDepth);
+        metrics.gauge("bank_transfers_in_progress", "Transfers holding room in the event dispatcher", () -> eventDispatcher.statistics().reservedChains);
+        metrics.functionCounter("bank_events_total", "Events delivered by the event dispatcher", () -> eventDispatcher.statistics().events);
+        metrics.functionCounter("bank_event_batches_total", "Batches delivered by the event dispatcher", () -> eventDispatcher.statistics().batches);
+        this.bankAccountRepository = bankAccountRepository;
+        this.executionMode = executionMode;
+        this.accountPartitions = executionMode == ExecutionMode.SINGLE_WRITER
+            ? new AccountPartitions(Runtime.getRuntime().availableProcessors()) : null;
+        this.eventDispatcher = eventDispatcher;
+        eventDispatcher.start(this::handleEvents);
+    }
+
+    /**
+     * Rebuilds Bank Accounts from journal and publishes again Events of transfers that were in flight when application stopped.
+     */
+    public ReplayStatistics recover() {
+        ReplayStatistics replayStatistics = bankAccountRepository.replayJournal();
+        logger.info("Bank accounts recovered, " + replayStatistics);
+
+        for (BankAccountEntity bankAccount : bankAccountRepository.getAllBankAccounts()) {
+            for (MoneyTransfer pendingTransfer : bankAccount.getPendingTransfers()) {
+                while (!eventDispatcher.reserve(publishTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    logger.info("Waiting for event dispatcher to republish recovered transfers, " + eventDispatcher.statistics());
+                }
+                if (replayStatistics.receivedTransfers.contains(pendingTransfer.transferId)) {
+                    publishEventOrQueue(new MoneyTransferedEvent(pendingTransfer));
+                } else {
+                    publishEventOrQueue(new MoneyBlockedEvent(pendingTransfer));
+                }
+            }
+        }
+        return replayStatistics;
+    }
+
+    /**
+     * Returns read only Bank Account - it is not copied.
+     */
     public BankAccountEntity bankAccount(BankAccountNumber bankAccountNumber) {
-        return bankAccountRepository.getBankAccount(bankAccountNumber);
+        return bankAccountRepository.readBankAccount(bankAccountNumber);
+    }
+
+    /**
+     * Reads balance and blocked money of Bank Account into given holder - cheapest read, it does not allocate.
+     */
+    public AccountBalance readAccountBalance(BankAccountNumber bankAccountNumber, AccountBalance accountBalance) {
+        bankAccountRepository.readAccountBalance(bankAccountNumber, accountBalance);
+        return accountBalance;
+    }
+
+    /**
+     * Passes up to limit transfer history records of Bank Account after given cursor, see TransferHistory.
+     * @return cursor of the last passed record
+     */
+    public long readTransferHistory(BankAccountNumber bankAccountNumber, long afterCursor, int limit, ObjLongConsumer<JournalRecord> consumer) {
+        return bankAccountRepository.getTransferHistory().read(bankAccountNumber, afterCursor, limit, consumer);
+    }
+
+    /**
+     * Cursor of the newest transfer history record of Bank Account, 0 when it has none.
+     */
+    public long lastTransferHistoryCursor(BankAccountNumber bankAccountNumber) {
+        return bankAccountRepository.getTransferHistory().lastCursor(bankAccountNumber);
+    }
+
+    /**
+     * Ledger of balance changes of accounts, for statements and balances as of past times - empty when it's disabled.
+     */
+    public Optional<AccountLedger> accountLedger() {
+        return bankAccountRepository.getAccountLedger();
+    }
+
+    /**
+     * Starts reconciliation of all accounts in the common fork/join pool, or returns the one that is still running.
+     */
+    public Reconciliation startReconciliation() {
+        while (true) {
+            Reconciliation last = lastReconciliation.get();
+            if (last != null && !last.isDone()) {
+                return last;
+            }
+            Reconciliation reconciliation = bankAccountRepository.newReconciliation();
+            if (lastReconciliation.compareAndSet(last, reconciliation)) {
+                ForkJoinPool.commonPool().execute(() -> {
+                    try {
+                        logger.info(reconciliation.run().toString());
+                    } catch (RuntimeException e) {
+                        logger.warn("Reconciliation failed", e);
+                    }
+                });
+                return reconciliation;
+            }
+        }
+    }
+
+    /**
+     * The last started reconciliation, empty when there was none.
+     */
+    public Optional<Reconciliation> lastReconciliation() {
+        return Optional.ofNullable(lastReconciliation.get());
+    }
+
+    /**
+     * Whether transfer of the Bank Account still blocks it's money - false once it's transferred (or when it was never started).
+     */
+    public boolean isTransferPending(BankAccountNumber bankAccountNumber, UUID transferId) {
+        return bankAccountRepository.readBankAccount(bankAccountNumber).isTransferPending(transferId);
+    }
+
+    public boolean isTransferProcessed(UUID transferId) {
+        return bankAccountRepository.isTransferProcessed(transferId);
+    }
+
+    /**
+     * Whether transfer was started from or received by the Bank Account - while it's in the retained history of the account
+     * or still pending on it.
+     */
+    public boolean isTransferOfAccount(BankAccountNumber bankAccountNumber, UUID transferId) {
+        return bankAccountRepository.getTransferHistory().contains(bankAccountNumber, transferId)
+            || isTransferPending(bankAccountNumber, transferId);
+    }
+
+    /**
+     * Notifications about progress of transfers, published while their events are handled.
+     */
+    public TransferNotifications transferNotifications() {
+        return transferNotifications;
+    }
+
+    public boolean hasNoBankAccounts() {
+        return bankAccountRepository.isEmpty();
     }
 
     public BankAccountNumber newBankAccount(Money initialMoney) {
         BankAccountNumber bankAccountNumber = bankAccountRepository.generateNewBankAccountNumber();
         BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), bankAccountNumber, initialMoney.currency);
         bankAccount.receiveMoneyTransfer(initialMoney);
-        bankAccountRepository.saveBankAccount(bankAccount);
+        bankAccountRepository.saveBankAccount(bankAccount, JournalRecord.accountCreated(bankAccountNumber, initialMoney));
 
         return bankAccountNumber;
     }
 
     public MoneyBlockedEvent startMoneyTransfer(MoneyTransfer moneyTransfer) {
-        BankAccountEntity bankAccount = bankAccountRepository.getBankAccount(moneyTransfer.accountNumber);
-        bankAccount.startMoneyTransfer(moneyTransfer.transferId, moneyTransfer.targetBankAccountNumber, moneyTransfer.money);
-        bankAccountRepository.saveBankAccount(bankAccount);
+        Consumer<BankAccountEntity> startTransfer = bankAccount -> startMoneyTransferOn(bankAccount, moneyTransfer);
+        JournalRecord change = JournalRecord.moneyBlocked(moneyTransfer);
+        // room for events of the transfer is reserved before money is blocked, so a full pipeline rejects it cleanly
+        if (!eventDispatcher.reserve(publishTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new RejectedExecutionException("Too many transfers in progress, try again later");
+        }
+        long journalSequence;
+        try {
+            journalSequence = executionMode == ExecutionMode.SINGLE_WRITER
+                ? accountPartitions.execute(moneyTransfer.accountNumber, () -> applyOnBankAccount(moneyTransfer.accountNumber, startTransfer, change))
+                : applyOnBankAccount(moneyTransfer.accountNumber, startTransfer, change);
+        } catch (RuntimeException e) {
+            eventDispatcher.release();
+            throw e;
+        }
+        try {
+            // waiting for durability outside of the partition, so it can go on with other accounts
+            bankAccountRepository.awaitDurable(journalSequence);
+        } catch (RuntimeException e) {
+            // money is blocked, so the transfer goes on even when it's durability is not confirmed to the caller
+            publishMoneyBlocked(moneyTransfer);
+            throw e;
+        }
+        return publishMoneyBlocked(moneyTransfer);
+    }
+
+    /**
+     * Non blocking variant of startMoneyTransfer - runs on the calling thread as far as possible (on account's partition
+     * in single writer mode) and retries on concurrent modification itself. Waiting for room in the dispatcher and for
+     * durability of the journal is handed to blockingExecutor, and only when it would really block (to the common pool
+     * when blockingExecutor rejects it after money was blocked). All failures come through the returned future.
+     */
+    public CompletableFuture<MoneyBlockedEvent> startMoneyTransferAsync(MoneyTransfer moneyTransfer, Executor blockingExecutor) {
+        startedTransfers.increment();
+        if (!eventDispatcher.reserve(0, TimeUnit.MILLISECONDS)) {
+            try {
+                return CompletableFuture.supplyAsync(() -> startMoneyTransferRetrying(moneyTransfer), blockingExecutor);
+            } catch (RuntimeException e) {
+                return failedFuture(e);
+            }
+        }
+        Consumer<BankAccountEntity> startTransfer = bankAccount -> startMoneyTransferOn(bankAccount, moneyTransfer);
+        JournalRecord change = JournalRecord.moneyBlocked(moneyTransfer);
+        CompletableFuture<Long> applied;
+        try {
+            applied = executionMode == ExecutionMode.SINGLE_WRITER
+                ? accountPartitions.executeAsync(moneyTransfer.accountNumber,
+                    () -> applyWithRetriesOnConcurrentModification(moneyTransfer.accountNumber, startTransfer, change))
+                : CompletableFuture.completedFuture(applyWithRetriesOnConcurrentModification(moneyTransfer.accountNumber, startTransfer, change));
+        } catch (RuntimeException e) {
+            eventDispatcher.release();
+            return failedFuture(e);
+        }
+        CompletableFuture<MoneyBlockedEvent> result = new CompletableFuture<>();
+        applied.whenComplete((journalSequence, error) -> {
+            if (error != null) {
+                // money was not blocked
+                eventDispatcher.release();
+                result.completeExceptionally(error);
+            } else if (bankAccountRepository.isDurable(journalSequence)) {
+                result.complete(publishMoneyBlocked(moneyTransfer));
+            } else {
+                // from here on the reservation belongs to the published event, whatever happens to the wait
+                Runnable awaitDurable = () -> {
+                    try {
+                        bankAccountRepository.awaitDurable(journalSequence);
+                    } catch (RuntimeException e) {
+                        publishMoneyBlocked(moneyTransfer);
+                        result.completeExceptionally(e);
+                        return;
+                    }
+                    result.complete(publishMoneyBlocked(moneyTransfer));
+                };
+                try {
+                    blockingExecutor.execute(awaitDurable);
+                } catch (RejectedExecutionException e) {
+                    ForkJoinPool.commonPool().execute(awaitDurable);
+                }
+            }
+        });
+        return result;
+    }
 
+    private MoneyBlockedEvent publishMoneyBlocked(MoneyTransfer moneyTransfer) {
         MoneyBlockedEvent moneyBlockedEvent = new MoneyBlockedEvent(moneyTransfer);
         publishEventOrQueue(moneyBlockedEvent);
-
         return moneyBlockedEvent;
     }
 
-    @Subscribe
-    @AllowConcurrentEvents
-    public void handleMoneyBlockedEvent(MoneyBlockedEvent moneyBlockedEvent) {
-        MoneyTransferedEvent moneyTransferedEvent = new MoneyTransferedEvent(moneyBlockedEvent.moneyTransfer);
+    private static <T> CompletableFuture<T> failedFuture(Throwable error) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(error);
+        return failed;
+    }
 
-        if (moneyBlockedEvent.moneyTransfer.targetBankAccountNumber.isMyBank()) {
-            operationOnBankAccountWithRetriesOnConcurrentModification(
-                moneyBlockedEvent.moneyTransfer.targetBankAccountNumber,
-                bankAccount -> bankAccount.receiveMoneyTransfer(moneyBlockedEvent.moneyTransfer.money),
-                moneyTransferedEvent);
-        } else {
-            // TODO: external bank - I assume it succeeds
-            publishEventOrQueue(moneyTransferedEvent);
+    /**
+     * startMoneyTransfer retried when the account was changed concurrently.
+     */
+    public MoneyBlockedEvent startMoneyTransferWithRetriesOnConcurrentModification(MoneyTransfer moneyTransfer) {
+        startedTransfers.increment();
+        return startMoneyTransferRetrying(moneyTransfer);
+    }
+
+    private MoneyBlockedEvent startMoneyTransferRetrying(MoneyTransfer moneyTransfer) {
+        int retryCount = 10;
+        while (true) {
+            try {
+                return startMoneyTransfer(moneyTransfer);
+            } catch (ConcurrentModificationException ex) {
+                countRetried(retryCount, 1);
+                logger.debug("Retrying operation, retry count: " + retryCount);
+                if (retryCount-- == 0) {
+                    throw new RuntimeException("10 retries failed", ex);
+                }
+            }
+        }
+    }
+
+    private long applyWithRetriesOnConcurrentModification(BankAccountNumber accountNumber, Consumer<BankAccountEntity> operationOnBankAccount,
+                                                          JournalRecord change) {
+        int retryCount = 10;
+        while (true) {
+            try {
+                return applyOnBankAccount(accountNumber, operationOnBankAccount, change);
+            } catch (ConcurrentModificationException ex) {
+                countRetried(retryCount, 1);
+                logger.debug("Retrying operation, retry count: " + retryCount);
+                if (retryCount-- == 0) {
+                    throw new RuntimeException("10 retries failed", ex);
+                }
+            }
+        }
+    }
+
+    // counts every retry, but transfers only on their first one
+    private void countRetried(int retryCount, int transfers) {
+        transferRetries.increment();
+        if (retryCount == 10) {
+            retriedTransfers.add(transfers);
+        }
+    }
+
+    private void startMoneyTransferOn(BankAccountEntity bankAccount, MoneyTransfer moneyTransfer) {
+        // checked on every attempt, id is remembered atomically with the save that started the transfer
+        if (bankAccountRepository.isTransferProcessed(moneyTransfer.transferId)) {
+            throw new IllegalArgumentException("Transfer already processed. " + moneyTransfer.transferId);
+        }
+        bankAccount.startMoneyTransfer(moneyTransfer.transferId, moneyTransfer.targetBankAccountNumber, moneyTransfer.money);
+    }
+
+    /**
+     * Starts many transfers at once - transfers are grouped by source account and each group is applied on one copy
+     * of the account and saved once, durability is awaited once for all of them.
+     * @return result of every transfer, in the order of given transfers
+     */
+    public List<TransferResult> startMoneyTransfers(List<MoneyTransfer> moneyTransfers) {
+        startedTransfers.add(moneyTransfers.size());
+        Map<BankAccountNumber, List<MoneyTransfer>> transfersPerAccount = new LinkedHashMap<>();
+        for (MoneyTransfer moneyTransfer : moneyTransfers) {
+            transfersPerAccount.computeIfAbsent(moneyTransfer.accountNumber, accountNumber -> new ArrayList<>()).add(moneyTransfer);
+        }
+
+        Map<MoneyTransfer, String> errors = new HashMap<>();
+        long journalSequence = 0;
+        for (Map.Entry<BankAccountNumber, List<MoneyTransfer>> accountTransfers : transfersPerAccount.entrySet()) {
+            journalSequence = Math.max(journalSequence,
+                startMoneyTransfersOfBankAccount(accountTransfers.getKey(), accountTransfers.getValue(), errors));
+        }
+        bankAccountRepository.awaitDurable(journalSequence);
+
+        List<TransferResult> results = new ArrayList<>(moneyTransfers.size());
+        for (MoneyTransfer moneyTransfer : moneyTransfers) {
+            String error = errors.get(moneyTransfer);
+            if (error == null) {
+                publishEventOrQueue(new MoneyBlockedEvent(moneyTransfer));
+                results.add(TransferResult.blocked(moneyTransfer));
+            } else {
+                results.add(TransferResult.rejected(moneyTransfer, error));
+            }
+        }
+        return results;
+    }
+
+    private long startMoneyTransfersOfBankAccount(BankAccountNumber accountNumber, List<MoneyTransfer> moneyTransfers,
+                                                  Map<MoneyTransfer, String> errors) {
+        List<MoneyTransfer> reserved = new ArrayList<>(moneyTransfers.size());
+        for (MoneyTransfer moneyTransfer : moneyTransfers) {
+            if (eventDispatcher.reserve(reserved.isEmpty() ? publishTimeoutMillis : 0, TimeUnit.MILLISECONDS)) {
+                reserved.add(moneyTransfer);
+            } else {
+                errors.put(moneyTransfer, "Too many transfers in progress, try again later");
+            }
+        }
+        if (reserved.isEmpty()) {
+            return 0;
+        }
+
+        Map<MoneyTransfer, String> accountErrors = new HashMap<>();
+        long journalSequence = 0;
+        try {
+            journalSequence = executionMode == ExecutionMode.SINGLE_WRITER
+                ? accountPartitions.execute(accountNumber, () -> applyTransfersWithRetriesOnConcurrentModification(accountNumber, reserved, accountErrors))
+                : applyTransfersWithRetriesOnConcurrentModification(accountNumber, reserved, accountErrors);
+        } catch (RuntimeException e) {
+            reserved.forEach(moneyTransfer -> accountErrors.put(moneyTransfer, e.getMessage()));
         }
+        accountErrors.keySet().forEach(moneyTransfer -> eventDispatcher.release());
+        errors.putAll(accountErrors);
+        return journalSequence;
     }
 
-    @Subscribe
-    @AllowConcurrentEvents
-    public void handleMoneyTransferedEvent(MoneyTransferedEvent moneyTransferedEvent) {
-        operationOnBankAccountWithRetriesOnConcurrentModification(
-            moneyTransferedEvent.moneyTransfer.accountNumber,
-            bankAccount -> bankAccount.confirmMoneyTransfer(moneyTransferedEvent.moneyTransfer.transferId),
-            moneyTransferedEvent.moneyTransfer);
+    private long applyTransfersWithRetriesOnConcurrentModification(BankAccountNumber accountNumber, List<MoneyTransfer> moneyTransfers,
+                                                                   Map<MoneyTransfer, String> errors) {
+        int retryCount = 10;
+        while (true) {
+            try {
+                errors.clear();
+                return applyTransfersOnBankAccount(accountNumber, moneyTransfers, errors);
+            } catch (ConcurrentModificationException ex) {
+                countRetried(retryCount, moneyTransfers.size());
+                logger.debug("Retrying operation, retry count: " + retryCount);
+                if (retryCount-- == 0) {
+                    throw new RuntimeException("10 retries failed", ex);
+                }
+            }
+        }
     }
 
+    private long applyTransfersOnBankAccount(BankAccountNumber accountNumber, List<MoneyTransfer> moneyTransfers,
+                                             Map<MoneyTransfer, String> errors) {
+        BankAccountEntity bankAccount = bankAccountRepository.getBankAccount(accountNumber);
+        List<JournalRecord> changes = new ArrayList<>(moneyTransfers.size());
+        for (MoneyTransfer moneyTransfer : moneyTransfers) {
+            try {
+                startMoneyTransferOn(bankAccount, moneyTransfer);
+                changes.add(JournalRecord.moneyBlocked(moneyTransfer));
+            } catch (IllegalArgumentException e) {
+                errors.put(moneyTransfer, e.getMessage());
+            }
+        }
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        JournalRecord[] journalRecords = changes.toArray(new JournalRecord[0]);
+        return executionMode == ExecutionMode.SINGLE_WRITER
+            ? bankAccountRepository.replaceBankAccount(bankAccount, journalRecords)
+            : bankAccountRepository.saveBankAccount(bankAccount, journalRecords);
+    }
+
+    /**
+     * Handles batch of events from EventDispatcher - events are grouped by the account they change.
+     */
+    private void handleEvents(List<Object> events) {
+        Map<BankAccountNumber, List<Object>> eventsPerAccount = new LinkedHashMap<>();
+        for (Object event : events) {
+            eventsPerAccount.computeIfAbsent(accountOf(event), accountNumber -> new ArrayList<>()).add(event);
+        }
+        eventsPerAccount.forEach(this::handleEventsOfBankAccount);
+    }
 
-    void operationOnBankAccountWithRetriesOnConcurrentModification(BankAccountNumber accountNumber,
-                                                                   Consumer<BankAccountEntity> operationOnBankAccount,
-                                                                   Object event) {
+    /**
+     * Account changed by the event - target of blocked money (or source when target is in external bank)
+     * and source of transfered money.
+     */
+    private static BankAccountNumber accountOf(Object event) {
+        if (event instanceof MoneyBlockedEvent) {
+            MoneyTransfer moneyTransfer = ((MoneyBlockedEvent) event).moneyTransfer;
+            return moneyTransfer.targetBankAccountNumber.isMyBank() ? moneyTransfer.targetBankAccountNumber : moneyTransfer.accountNumber;
+        }
+        return ((MoneyTransferedEvent) event).moneyTransfer.accountNumber;
+    }
+
+    private static MoneyTransfer moneyTransferOf(Object event) {
+        return event instanceof MoneyBlockedEvent ? ((MoneyBlockedEvent) event).moneyTransfer : ((MoneyTransferedEvent) event).moneyTransfer;
+    }
+
+    private void handleEventsOfBankAccount(BankAccountNumber accountNumber, List<Object> events) {
+        List<Object> accountEvents = new ArrayList<>(events.size());
+        for (Object event : events) {
+            if (event instanceof MoneyBlockedEvent && !((MoneyBlockedEvent) event).moneyTransfer.targetBankAccountNumber.isMyBank()) {
+                // external bank - confirmed when it's batch is cleared, rejected one is handled as failed event
+                outboundGateway.send(((MoneyBlockedEvent) event).moneyTransfer, (moneyTransfer, error) -> {
+                    if (error == null) {
+                        eventRedelivery.delivered(event);
+                        publishEventOrQueue(new MoneyTransferedEvent(moneyTransfer));
+                    } else {
+                        failed(event, error);
+                    }
+                });
+            } else {
+                accountEvents.add(event);
+            }
+        }
+        if (accountEvents.isEmpty()) {
+            return;
+        }
+
+        EventsOutcome outcome;
+        long start = eventHandling.start();
+        try {
+            outcome = executionMode == ExecutionMode.SINGLE_WRITER
+                ? accountPartitions.execute(accountNumber, () -> applyEventsOnBankAccount(accountNumber, accountEvents))
+                : applyEventsWithRetriesOnConcurrentModification(accountNumber, accountEvents);
+        } catch (RuntimeException e) {
+            logger.info("Failure in handling events of " + accountNumber, e);
+            Map<Object, String> failedEvents = new LinkedHashMap<>();
+            accountEvents.forEach(event -> failedEvents.put(event, e.toString()));
+            outcome = new EventsOutcome(new ArrayList<>(), failedEvents);
+        }
+        eventHandling.recordSince(start);
+
+        outcome.failedEvents.forEach(this::failed);
+        for (Object event : outcome.appliedEvents) {
+            eventRedelivery.delivered(event);
+            if (event instanceof MoneyBlockedEvent) {
+                MoneyTransfer moneyTransfer = ((MoneyBlockedEvent) event).moneyTransfer;
+                publishEventOrQueue(new MoneyTransferedEvent(moneyTransfer));
+                transferNotifications.publish(new TransferNotification(moneyTransfer, TransferNotification.Status.RECEIVED));
+            } else {
+                // transfer confirmed - end of it's chain of events
+                eventDispatcher.release();
+                transferNotifications.publish(new TransferNotification(moneyTransferOf(event), TransferNotification.Status.TRANSFERRED));
+            }
+        }
+    }
+
+    private void failed(Object event, String error) {
+        if (eventRedelivery.redeliverLater(event, error, this::publishEventOrQueue)) {
+            // still in progress, it keeps it's room in the dispatcher
+            return;
+        }
+        dispatcherOf(event).release();
+        transferNotifications.publish(new TransferNotification(moneyTransferOf(event), TransferNotification.Status.FAILED));
+    }
+
+    /**
+     * Account whose received money keeps conflicting with other saves of it is hot: it's switched to credit cells
+     * and receives money without retries from then on.
+     */
+    private EventsOutcome applyEventsWithRetriesOnConcurrentModification(BankAccountNumber accountNumber, List<Object> events) {
+        if (bankAccountRepository.hasCreditCells(accountNumber)) {
+            return applyEventsOnHotBankAccount(accountNumber, events);
+        }
         int retryCount = 10;
-        while(true) {
+        int conflicts = 0;
+        while (true) {
             try {
-                operationOnBankAccount(accountNumber, operationOnBankAccount, event);
-                return;
+                return applyEventsOnBankAccount(accountNumber, events);
             } catch (ConcurrentModificationException ex) {
+                eventRetries.increment();
+                if (++conflicts == hotAccountConflicts && events.stream().anyMatch(event -> event instanceof MoneyBlockedEvent)) {
+                    bankAccountRepository.useCreditCells(accountNumber);
+                    hotAccounts.increment();
+                    logger.info("Bank account " + accountNumber + " is hot, it receives money to credit cells");
+                    return applyEventsOnHotBankAccount(accountNumber, events);
+                }
                 logger.debug("Retrying operation, retry count: " + retryCount);
                 if (retryCount-- == 0) {
                     throw new RuntimeException("10 retries failed", ex);
                 }
+            }
+        }
+    }
+
+    /**
+     * Applies all events on one copy of the account and saves it once with all their journal records.
+     * Event that cannot be applied (eg. different currency) is skipped and reported as failed.
+     */
+    private EventsOutcome applyEventsOnBankAccount(BankAccountNumber accountNumber, List<Object> events) {
+        BankAccountEntity bankAccount = bankAccountRepository.getBankAccount(accountNumber);
+        List<Object> appliedEvents = new ArrayList<>(events.size());
+        Map<Object, String> failedEvents = new LinkedHashMap<>();
+        List<JournalRecord> changes = new ArrayList<>(events.size());
+        for (Object event : events) {
+            try {
+                if (event instanceof MoneyBlockedEvent) {
+                    MoneyTransfer moneyTransfer = ((MoneyBlockedEvent) event).moneyTransfer;
+                    Money receivedMoney = exchangeRates.convert(moneyTransfer.money, bankAccount.getAccountCurrency());
+                    bankAccount.receiveMoneyTransfer(receivedMoney);
+                    changes.add(JournalRecord.moneyReceived(moneyTransfer, receivedMoney));
+                } else {
+                    MoneyTransfer moneyTransfer = ((MoneyTransferedEvent) event).moneyTransfer;
+                    bankAccount.confirmMoneyTransfer(moneyTransfer.transferId);
+                    changes.add(JournalRecord.moneyConfirmed(moneyTransfer));
+                }
+                appliedEvents.add(event);
+            } catch (ConcurrentModificationException e) {
+                throw e;
             } catch (RuntimeException e) {
-                logger.info("Failure in handling MoneyBlockedEvent event", e);
-                failedEvents.add(event);
-                return;
+                logger.info("Failure in handling event of " + accountNumber, e);
+                failedEvents.put(event, e.toString());
             }
         }
+        if (changes.isEmpty()) {
+            return new EventsOutcome(appliedEvents, failedEvents);
+        }
+        JournalRecord[] journalRecords = changes.toArray(new JournalRecord[0]);
+        if (executionMode == ExecutionMode.SINGLE_WRITER) {
+            bankAccountRepository.replaceBankAccount(bankAccount, journalRecords);
+        } else {
+            bankAccountRepository.saveBankAccount(bankAccount, journalRecords);
+        }
+        return new EventsOutcome(appliedEvents, failedEvents);
     }
 
-    private void operationOnBankAccount(BankAccountNumber accountNumber, Consumer<BankAccountEntity> operationOnBankAccount, Object event) {
+    /**
+     * Credits received money to credit cells of hot account, once - credits never conflict. Confirmations of it's
+     * transfers are applied on the account as usual, with retries.
+     */
+    private EventsOutcome applyEventsOnHotBankAccount(BankAccountNumber accountNumber, List<Object> events) {
+        List<Object> appliedEvents = new ArrayList<>(events.size());
+        Map<Object, String> failedEvents = new LinkedHashMap<>();
+        List<Object> confirmations = new ArrayList<>();
+        List<Object> creditEvents = new ArrayList<>(events.size());
+        List<JournalRecord> credits = new ArrayList<>(events.size());
+        Currency currency = bankAccountRepository.currencyOf(accountNumber);
+        for (Object event : events) {
+            if (!(event instanceof MoneyBlockedEvent)) {
+                confirmations.add(event);
+                continue;
+            }
+            try {
+                if (currency == null) {
+                    throw new IllegalArgumentException("Bank account: " + accountNumber + " not found");
+                }
+                MoneyTransfer moneyTransfer = ((MoneyBlockedEvent) event).moneyTransfer;
+                credits.add(JournalRecord.moneyReceived(moneyTransfer, exchangeRates.convert(moneyTransfer.money, currency)));
+                creditEvents.add(event);
+            } catch (RuntimeException e) {
+                logger.info("Failure in handling event of " + accountNumber, e);
+                failedEvents.put(event, e.toString());
+            }
+        }
+        if (!credits.isEmpty()) {
+            bankAccountRepository.creditBankAccount(accountNumber, credits.toArray(new JournalRecord[0]));
+            appliedEvents.addAll(creditEvents);
+        }
+        // credits are applied already, so failure of confirmations fails only them
+        int retryCount = 10;
+        while (!confirmations.isEmpty()) {
+            try {
+                EventsOutcome outcome = applyEventsOnBankAccount(accountNumber, confirmations);
+                appliedEvents.addAll(outcome.appliedEvents);
+                failedEvents.putAll(outcome.failedEvents);
+                break;
+            } catch (ConcurrentModificationException e) {
+                eventRetries.increment();
+                if (retryCount-- == 0) {
+                    confirmations.forEach(event -> failedEvents.put(event, "10 retries failed"));
+                    break;
+                }
+            } catch (RuntimeException e) {
+                logger.info("Failure in handling events of " + accountNumber, e);
+                confirmations.forEach(event -> failedEvents.put(event, e.toString()));
+                break;
+            }
+        }
+        return new EventsOutcome(appliedEvents, failedEvents);
+    }
+
+    /**
+     * Single writer (already running on account's partition) saves without revision check, otherwise save can throw
+     * ConcurrentModificationException. Both throw it when id of a started transfer was started concurrently on another account.
+     * Single writer changes a copy too - stored revision is frozen, readers and snapshots use it without locks.
+     */
+    private long applyOnBankAccount(BankAccountNumber accountNumber, Consumer<BankAccountEntity> operationOnBankAccount, JournalRecord change) {
         BankAccountEntity bankAccount = bankAccountRepository.getBankAccount(accountNumber);
         operationOnBankAccount.accept(bankAccount);
-        bankAccountRepository.saveBankAccount(bankAccount);
+        return executionMode == ExecutionMode.SINGLE_WRITER
+            ? bankAccountRepository.replaceBankAccount(bankAccount, change)
+            : bankAccountRepository.saveBankAccount(bankAccount, change);
+    }
 
-        publishEventOrQueue(event);
+
+    /**
+     * Events that failed to be handled too many times and wait in dead letters.
+     */
+    public long failedEventsCount() {
+        return eventRedelivery.getDeadLetterStore().size();
+    }
+
+    /**
+     * Up to limit oldest dead letters, they are not removed.
+     */
+    public List<DeadLetter> deadLetters(int limit) {
+        return eventRedelivery.getDeadLetterStore().list(limit);
+    }
+
+    /**
+     * Publishes again up to limit oldest dead letters, they get all their attempts again.
+     * Stops early when event dispatcher has no room for them.
+     * @return number of replayed dead letters
+     */
+    public int replayDeadLetters(int limit) {
+        DeadLetterStore deadLetterStore = eventRedelivery.getDeadLetterStore();
+        List<DeadLetter> deadLetters = deadLetterStore.take(limit);
+        int replayed = 0;
+        for (DeadLetter deadLetter : deadLetters) {
+            Object event = EventRedelivery.eventOf(deadLetter);
+            if (!dispatcherOf(event).reserve(replayed == 0 ? publishTimeoutMillis : 0, TimeUnit.MILLISECONDS)) {
+                deadLetterStore.putBack(deadLetter);
+                continue;
+            }
+            publishEventOrQueue(event);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    /**
+     * Transfers started through API so far.
+     */
+    public long startedTransfersCount() {
+        return startedTransfers.sum();
+    }
+
+    /**
+     * Transfers started through API that were retried on ConcurrentModificationException.
+     */
+    public long retriedTransfersCount() {
+        return retriedTransfers.sum();
+    }
+
+    public ExchangeRates exchangeRates() {
+        return exchangeRates;
+    }
+
+    /**
+     * Replaces exchange rates at once, transfers received from now on are converted by the new ones.
+     */
+    public void updateExchangeRates(ExchangeRates exchangeRates) {
+        this.exchangeRates = exchangeRates;
+        logger.info("Exchange rates updated: " + exchangeRates);
     }
 
+    public OutboundGateway outboundGateway() {
+        return outboundGateway;
+    }
+
+    public DispatcherStatistics eventDispatcherStatistics() {
+        return eventDispatcher.statistics();
+    }
 
+    /**
+     * Statistics of dispatcher of transfers coming from other shards, empty when it's not linked to any.
+     */
+    public Optional<DispatcherStatistics> inboundDispatcherStatistics() {
+        EventDispatcher inboundDispatcher = this.inboundDispatcher;
+        return inboundDispatcher == null ? Optional.empty() : Optional.of(inboundDispatcher.statistics());
+    }
+
+    /**
+     * Suspends or resumes sending of events - held back events are then drained in the background, see PendingEvents.
+     */
     public void suspendEventSending(boolean isSuspended) {
         this.isSuspended = isSuspended;
-        while (!isSuspended && !pendingEvents.isEmpty()) {
-            eventBus.post(pendingEvents.remove());
+        if (!isSuspended) {
+            drainPendingEvents();
         }
     }
 
+    public long pendingEventsCount() {
+        return pendingEvents.size();
+    }
+
+    /**
+     * Event has to belong to a chain that reserved room in the dispatcher.
+     */
     private void publishEventOrQueue(Object event) {
         if (isSuspended) {
             pendingEvents.add(event);
+            if (!isSuspended) {
+                // resumed in the meantime, it could have missed the event
+                drainPendingEvents();
+            }
         } else {
-            eventBus.post(event);
+            dispatch(event);
+        }
+    }
+
+    private void drainPendingEvents() {
+        pendingEvents.drain(this::dispatch, () -> isSuspended);
+    }
+
+    private void dispatch(Object event) {
+        BankAccountNumber accountNumber = accountOf(event);
+        ShardLink shardLink = this.shardLink;
+        if (shardLink == null || shardLink.isLocal(accountNumber)) {
+            dispatcherOf(event).publish(accountNumber, event);
+            return;
+        }
+        shardLink.send(accountNumber, event);
+        if (event instanceof MoneyTransferedEvent) {
+            // transfer came from the source shard, the chain goes on there
+            inboundDispatcher.release();
+        }
+    }
+
+    /**
+     * Inbound dispatcher holds chains of transfers started in another shard - from their MoneyBlockedEvent until
+     * MoneyTransferedEvent is sent back.
+     */
+    private EventDispatcher dispatcherOf(Object event) {
+        ShardLink shardLink = this.shardLink;
+        return shardLink != null && event instanceof MoneyBlockedEvent
+            && !shardLink.isLocal(((MoneyBlockedEvent) event).moneyTransfer.accountNumber) ? inboundDispatcher : eventDispatcher;
+    }
+
+    /**
+     * Links this service as one shard of the bank, transfers coming from other shards go through given inbound dispatcher.
+     */
+    public void linkShards(ShardLink shardLink, EventDispatcher inboundDispatcher) {
+        this.receivedFromShards = new TransferIdIndex(1 << 16, TimeUnit.DAYS.toMillis(1));
+        this.confirmedFromShards = new TransferIdIndex(1 << 16, TimeUnit.DAYS.toMillis(1));
+        inboundDispatcher.start(this::handleEvents);
+        this.inboundDispatcher = inboundDispatcher;
+        this.shardLink = shardLink;
+    }
+
+    /**
+     * Handles event sent by another shard - transfer coming from there waits for room in the inbound dispatcher,
+     * confirmation of transfer started here goes on with the room it took. Event received already (by transfer id)
+     * is dropped, so money is not credited twice nor the room released twice.
+     */
+    public void receiveFromShard(Object event) {
+        TransferIdIndex received = event instanceof MoneyBlockedEvent ? receivedFromShards : confirmedFromShards;
+        if (!received.add(moneyTransferOf(event).transferId, System.currentTimeMillis())) {
+            logger.info("Dropped duplicate event from another shard: " + event);
+            return;
+        }
+        if (event instanceof MoneyBlockedEvent) {
+            while (!inboundDispatcher.reserve(publishTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                logger.info("Waiting for inbound event dispatcher to receive transfer from another shard, " + inboundDispatcher.statistics());
+            }
+        }
+        publishEventOrQueue(event);
+    }
+
+    private static class EventsOutcome {
+        final List<Object> appliedEvents;
+        // failed events with their errors
+        final Map<Object, String> failedEvents;
+
+        EventsOutcome(List<Object> appliedEvents, Map<Object, String> failedEvents) {
+            this.appliedEvents = appliedEvents;
+            this.failedEvents = failedEvents;
         }
     }
 }
@@ -0,0 +1,220 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Links shards running in separate JVMs over sockets (meant for loopback) - every shard listens on it's own address
+ * and has one connection with a sender thread to every other shard. Events are framed as [int length][EventCodec bytes],
+ * sender writes all events queued so far and flushes once, so the cost of a syscall is shared by a whole batch.
+ * Queues of senders are not bounded on their own: events are sent only within chains holding room in a dispatcher.
+ * Batch whose write failed is sent again after reconnect, so an event can arrive twice when the connection breaks,
+ * receiving SimpleBankService drops such duplicates by transfer id.
+ */
+public class SocketShardLink implements ShardLink, AutoCloseable {
+
+    private static final long reconnectDelayMillis = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final int shard;
+
+    private final List<InetSocketAddress> addresses;
+
+    private final List<Sender> senders = new ArrayList<>();
+
+    private final List<Socket> connections = new ArrayList<>();
+
+    private ServerSocket serverSocket;
+
+    private volatile boolean closed;
+
+    /**
+     * @param addresses addresses of all shards, in order of their numbers - this one included
+     */
+    public SocketShardLink(int shard, List<InetSocketAddress> addresses) {
+        this.shard = shard;
+        this.addresses = addresses;
+        for (int i = 0; i < addresses.size(); i++) {
+            senders.add(i == shard ? null : new Sender(i));
+        }
+    }
+
+    /**
+     * Starts accepting connections of other shards, their events are handed to given service.
+     */
+    public void listen(SimpleBankService bankService) {
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(addresses.get(shard));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot listen on " + addresses.get(shard), e);
+        }
+        startDaemon("shard-link-accept-" + shard, () -> {
+            while (!closed) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    socket.setTcpNoDelay(true);
+                    synchronized (connections) {
+                        connections.add(socket);
+                    }
+                    startDaemon("shard-link-receive-" + shard, () -> receive(socket, bankService));
+                } catch (IOException e) {
+                    if (!closed) {
+                        logger.warn("Accepting connection of shard failed", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void receive(Socket socket, SimpleBankService bankService) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024))) {
+            while (true) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                bankService.receiveFromShard(EventCodec.decode(frame));
+            }
+        } catch (EOFException e) {
+            logger.info("Shard disconnected from " + socket.getRemoteSocketAddress());
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Receiving from shard failed", e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isLocal(BankAccountNumber bankAccountNumber) {
+        return !bankAccountNumber.isMyBank() || ShardLink.shardOf(bankAccountNumber, addresses.size()) == shard;
+    }
+
+    @Override
+    public void send(BankAccountNumber bankAccountNumber, Object event) {
+        senders.get(ShardLink.shardOf(bankAccountNumber, addresses.size())).send(EventCodec.encode(event));
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            synchronized (connections) {
+                for (Socket connection : connections) {
+                    connection.close();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Closing shard link failed", e);
+        }
+        senders.stream().filter(sender -> sender != null).forEach(Sender::close);
+    }
+
+    private static Thread startDaemon(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private final class Sender {
+
+        private final int target;
+
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+
+        private final Thread thread;
+
+        private Socket socket;
+
+        Sender(int target) {
+            this.target = target;
+            this.thread = startDaemon("shard-link-send-" + shard + "-" + target, this::run);
+        }
+
+        void send(byte[] frame) {
+            queue.add(frame);
+        }
+
+        private void run() {
+            List<byte[]> batch = new ArrayList<>();
+            DataOutputStream out = null;
+            while (!closed) {
+                try {
+                    if (batch.isEmpty()) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch);
+                    }
+                    if (out == null) {
+                        out = connect();
+                    }
+                    for (byte[] frame : batch) {
+                        out.writeInt(frame.length);
+                        out.write(frame);
+                    }
+                    out.flush();
+                    batch.clear();
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    if (closed) {
+                        return;
+                    }
+                    logger.warn("Sending to shard " + target + " failed, reconnecting: " + e);
+                    out = null;
+                    closeSocket();
+                    sleepBeforeReconnect();
+                }
+            }
+        }
+
+        private DataOutputStream connect() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(addresses.get(target));
+            return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+        }
+
+        private void sleepBeforeReconnect() {
+            try {
+                TimeUnit.MILLISECONDS.sleep(reconnectDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void closeSocket() {
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                logger.debug("Closing connection to shard " + target + " failed", e);
+            }
+        }
+
+        void close() {
+            thread.interrupt();
+            closeSocket();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package domain.boundary;
+
+import domain.entity.MoneyTransfer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand in of the clearing system, so outbound batching can be measured offline - every request takes
+ * latencyMillis on average (uniformly from half to one and a half of it), fails as a whole with failureRate
+ * probability and rejects single transfers with rejectionRate probability.
+ */
+public class StubClearingService implements ClearingService {
+
+    private final long latencyMicros;
+
+    private final double failureRate;
+
+    private final double rejectionRate;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "clearing-stub");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder requests = new LongAdder();
+
+    public StubClearingService(long latencyMillis, double failureRate, double rejectionRate) {
+        this.latencyMicros = TimeUnit.MILLISECONDS.toMicros(latencyMillis);
+        this.failureRate = failureRate;
+        this.rejectionRate = rejectionRate;
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, String>> clear(List<MoneyTransfer> transfers) {
+        requests.increment();
+        CompletableFuture<Map<UUID, String>> result = new CompletableFuture<>();
+        if (latencyMicros == 0) {
+            respond(transfers, result);
+        } else {
+            long delayMicros = latencyMicros / 2 + ThreadLocalRandom.current().nextLong(latencyMicros + 1);
+            scheduler.schedule(() -> respond(transfers, result), delayMicros, TimeUnit.MICROSECONDS);
+        }
+        return result;
+    }
+
+    private void respond(List<MoneyTransfer> transfers, CompletableFuture<Map<UUID, String>> result) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            result.completeExceptionally(new IOException("Clearing request failed"));
+            return;
+        }
+        Map<UUID, String> rejected = new HashMap<>();
+        if (rejectionRate > 0) {
+            for (MoneyTransfer transfer : transfers) {
+                if (random.nextDouble() < rejectionRate) {
+                    rejected.put(transfer.transferId, "Rejected by clearing");
+                }
+            }
+        }
+        result.complete(rejected);
+    }
+
+    public long requestsCount() {
+        return requests.sum();
+    }
+}
@@ -0,0 +1,37 @@
+package domain.boundary;
+
+import domain.entity.MoneyTransfer;
+
+/**
+ * Progress of a transfer sent to subscribers of TransferNotifications.
+ */
+public class TransferNotification {
+
+    public enum Status {
+        /**
+         * money was added to the target account
+         */
+        RECEIVED,
+        /**
+         * transfer is confirmed on the source account, blocked money is gone
+         */
+        TRANSFERRED,
+        /**
+         * event of the transfer couldn't be applied, money stays blocked
+         */
+        FAILED
+    }
+
+    public final MoneyTransfer moneyTransfer;
+
+    public final Status status;
+
+    public TransferNotification(MoneyTransfer moneyTransfer, Status status) {
+        this.moneyTransfer = moneyTransfer;
+        this.status = status;
+    }
+
+    public boolean isFinal() {
+        return status != Status.RECEIVED;
+    }
+}
@@ -0,0 +1,82 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Fan-out of TransferNotifications to subscribers of a Bank Account (source or target of the transfer) or of a single transfer.
+ * Subscribers are plain callbacks called on the thread handling the event, so they must only hand the notification
+ * over (eg. to a connection's buffer) - no thread is held per subscriber.
+ */
+public class TransferNotifications {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    // keys are BankAccountNumber or transfer UUID
+    private final ConcurrentHashMap<Object, Set<Consumer<TransferNotification>>> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+
+    /**
+     * @return subscription, closing it stops the notifications
+     */
+    public AutoCloseable subscribe(BankAccountNumber bankAccountNumber, Consumer<TransferNotification> subscriber) {
+        return subscribe((Object) bankAccountNumber, subscriber);
+    }
+
+    /**
+     * @return subscription, closing it stops the notifications
+     */
+    public AutoCloseable subscribe(UUID transferId, Consumer<TransferNotification> subscriber) {
+        return subscribe((Object) transferId, subscriber);
+    }
+
+    private AutoCloseable subscribe(Object key, Consumer<TransferNotification> subscriber) {
+        subscribers.compute(key, (k, keySubscribers) -> {
+            Set<Consumer<TransferNotification>> updated = keySubscribers == null ? ConcurrentHashMap.newKeySet() : keySubscribers;
+            updated.add(subscriber);
+            return updated;
+        });
+        subscriberCount.incrementAndGet();
+        return () -> subscribers.computeIfPresent(key, (k, keySubscribers) -> {
+            if (keySubscribers.remove(subscriber)) {
+                subscriberCount.decrementAndGet();
+            }
+            return keySubscribers.isEmpty() ? null : keySubscribers;
+        });
+    }
+
+    void publish(TransferNotification notification) {
+        if (subscriberCount.get() == 0) {
+            return;
+        }
+        notify(notification.moneyTransfer.accountNumber, notification);
+        notify(notification.moneyTransfer.targetBankAccountNumber, notification);
+        notify(notification.moneyTransfer.transferId, notification);
+    }
+
+    private void notify(Object key, TransferNotification notification) {
+        Set<Consumer<TransferNotification>> keySubscribers = subscribers.get(key);
+        if (keySubscribers == null) {
+            return;
+        }
+        for (Consumer<TransferNotification> subscriber : keySubscribers) {
+            try {
+                subscriber.accept(notification);
+            } catch (RuntimeException e) {
+                logger.warn("Failure in notifying subscriber of " + key, e);
+            }
+        }
+    }
+
+    public int subscriberCount() {
+        return subscriberCount.get();
+    }
+}
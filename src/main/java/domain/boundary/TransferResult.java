@@ -0,0 +1,30 @@
+package domain.boundary;
+
+import domain.entity.MoneyTransfer;
+
+/**
+ * Outcome of one transfer of a batch - either money got blocked or transfer was rejected with the error.
+ */
+public class TransferResult {
+
+    public final MoneyTransfer moneyTransfer;
+
+    public final String error;
+
+    private TransferResult(MoneyTransfer moneyTransfer, String error) {
+        this.moneyTransfer = moneyTransfer;
+        this.error = error;
+    }
+
+    public static TransferResult blocked(MoneyTransfer moneyTransfer) {
+        return new TransferResult(moneyTransfer, null);
+    }
+
+    public static TransferResult rejected(MoneyTransfer moneyTransfer, String error) {
+        return new TransferResult(moneyTransfer, error);
+    }
+
+    public boolean isBlocked() {
+        return error == null;
+    }
+}
@@ -0,0 +1,75 @@
+package domain.boundary;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Virtual threads of Java 21+ reached through reflection, so the application still builds for and runs on Java 8.
+ * They pay off where threads mostly wait (durable journal, room in the dispatcher, blocking handlers), a thread
+ * blocked there costs a few hundred bytes of heap instead of a platform thread with it's stack.
+ */
+public final class VirtualThreads {
+
+    // Thread.Builder.OfVirtual, null when virtual threads are not available
+    private static final Method ofVirtual = ofVirtual();
+
+    private VirtualThreads() {
+    }
+
+    private static Method ofVirtual() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            // preview API of Java 19 and 20 throws without --enable-preview
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Factory of virtual threads named namePrefix0, namePrefix1...
+     * @throws UnsupportedOperationException when virtual threads are not available
+     */
+    public static ThreadFactory factory(String namePrefix) {
+        if (ofVirtual == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later, running on " + System.getProperty("java.version"));
+        }
+        try {
+            Object builder = ofVirtual.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create factory of virtual threads", e);
+        }
+    }
+
+    /**
+     * Factory of daemon platform threads named namePrefix0, namePrefix1...
+     */
+    public static ThreadFactory platformFactory(String namePrefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Executor starting a virtual thread per task, up to maxThreads at a time - more tasks are rejected with
+     * RejectedExecutionException. Idle threads are kept for a while, they are cheap either way.
+     */
+    public static ThreadPoolExecutor boundedExecutor(String namePrefix, int maxThreads) {
+        return new ThreadPoolExecutor(0, maxThreads, 10, TimeUnit.SECONDS, new SynchronousQueue<>(), factory(namePrefix));
+    }
+}
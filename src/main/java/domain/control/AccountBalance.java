@@ -0,0 +1,28 @@
+package domain.control;
+
+import java.util.Currency;
+
+/**
+ * Reusable holder of balance and blocked money of an account, filled by BankAccountRepository without allocation.
+ * Amounts are in minor units of the currency.
+ */
+public class AccountBalance {
+
+    public Currency currency;
+
+    public long balance;
+
+    public long blocked;
+
+    // changes with every save of the account
+    public long revision;
+
+    public long available() {
+        return balance - blocked;
+    }
+
+    @Override
+    public String toString() {
+        return "balance: " + balance + " " + currency + " blockades: " + blocked + " " + currency;
+    }
+}
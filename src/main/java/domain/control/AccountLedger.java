@@ -0,0 +1,284 @@
+package domain.control;
+
+import domain.entity.BankAccountNumber;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per account ledger of every credit (account created, money received) and debit (transfer confirmed) in time order,
+ * for statements and balances as of any time. Entries are kept in compact segments of segmentSize entries (arrays
+ * of timestamps, signed amounts, transfer ids and counterparties) and every segment starts with a checkpoint - balance
+ * before it's first entry - so balance at a time is one binary search over checkpoints plus at most one segment.
+ * Every entry has a cursor (it's position, starting at 1) for paging of statements. Readers never lock.
+ * Timestamps of an account never go back: an entry saved after a later one gets the later timestamp.
+ * Segments whose entries are all older than retention (counted back from the latest entry of the account) are dropped
+ * when a new segment starts, the ledger is then open since the first kept entry with it's checkpoint.
+ * Ledger of an account restored from snapshot opens with it's snapshot balance, older entries are not recovered.
+ */
+public class AccountLedger {
+
+    private static final int segmentShift = 8;
+
+    static final int segmentSize = 1 << segmentShift;
+
+    private static final int segmentMask = segmentSize - 1;
+
+    private final ConcurrentHashMap<BankAccountNumber, Ledger> ledgers = new ConcurrentHashMap<>();
+
+    private final long retentionMillis;
+
+    /**
+     * @param retentionMillis minimal time entries are kept for
+     */
+    public AccountLedger(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    public AccountLedger() {
+        this(TimeUnit.DAYS.toMillis(31));
+    }
+
+    /**
+     * Receives ledger entries of a statement.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        /**
+         * @param amount positive for credit, negative for debit, in minor units
+         * @param balance balance after the entry
+         */
+        void accept(long cursor, long timestamp, long amount, long balance, UUID transferId, BankAccountNumber counterparty);
+    }
+
+    /**
+     * Appends change of it's account when it changes the balance - caller has to be the only writer of the account.
+     */
+    void append(JournalRecord record) {
+        switch (record.type) {
+            case ACCOUNT_CREATED:
+            case MONEY_RECEIVED:
+                ledger(record.accountNumber).append(record.timestamp, record.money.amount, record.transferId, record.targetAccountNumber, retentionMillis);
+                break;
+            case MONEY_CONFIRMED:
+                ledger(record.accountNumber).append(record.timestamp, -record.money.amount, record.transferId, record.targetAccountNumber, retentionMillis);
+                break;
+            default:
+                // blocked money doesn't change the balance
+        }
+    }
+
+    /**
+     * Starts ledger of an account with it's balance at given time, when it has no entries yet.
+     */
+    void open(BankAccountNumber bankAccountNumber, long balance, long timestamp) {
+        ledgers.putIfAbsent(bankAccountNumber, new Ledger(balance, timestamp));
+    }
+
+    private Ledger ledger(BankAccountNumber bankAccountNumber) {
+        return ledgers.computeIfAbsent(bankAccountNumber, accountNumber -> new Ledger(0, Long.MIN_VALUE));
+    }
+
+    /**
+     * Time since which the ledger of the account knows it's balance, Long.MAX_VALUE when it has no ledger.
+     */
+    public long openedAt(BankAccountNumber bankAccountNumber) {
+        Ledger ledger = ledgers.get(bankAccountNumber);
+        return ledger == null ? Long.MAX_VALUE : ledger.segments.openedAt;
+    }
+
+    /**
+     * Balance of the account after all entries with timestamp up to the given one (inclusive).
+     * Throws IllegalArgumentException when the time is before the ledger was opened.
+     */
+    public long balanceAt(BankAccountNumber bankAccountNumber, long timestamp) {
+        Ledger ledger = ledgers.get(bankAccountNumber);
+        if (ledger == null) {
+            throw new IllegalArgumentException("Ledger of " + bankAccountNumber + " has no balance at " + timestamp);
+        }
+        return ledger.balanceAt(bankAccountNumber, timestamp);
+    }
+
+    /**
+     * Passes up to limit entries of the account with timestamps in [from, to) that come after given cursor.
+     * Entries that were dropped are skipped.
+     * @return cursor of the last passed entry, or the given one when there was nothing more
+     */
+    public long read(BankAccountNumber bankAccountNumber, long from, long to, long afterCursor, int limit, EntryConsumer consumer) {
+        Ledger ledger = ledgers.get(bankAccountNumber);
+        return ledger == null ? afterCursor : ledger.read(from, to, afterCursor, limit, consumer);
+    }
+
+
+    private static final class Segment {
+        final long checkpoint;
+        final long[] timestamps = new long[segmentSize];
+        final int[] amounts = new int[segmentSize];
+        final long[] transferIds = new long[2 * segmentSize];
+        final BankAccountNumber[] counterparties = new BankAccountNumber[segmentSize];
+
+        Segment(long checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
+        long balanceAfter(int entry) {
+            long balance = checkpoint;
+            for (int i = 0; i <= entry; i++) {
+                balance += amounts[i];
+            }
+            return balance;
+        }
+    }
+
+    /**
+     * Kept segments with the balance before the first of them, replaced as a whole when segments are dropped or don't
+     * fit, so a reader sees them consistent.
+     */
+    private static final class Segments {
+        // segment number n (entries from n << segmentShift) is array[n - first]
+        final Segment[] array;
+        final long first;
+        final long openedAt;
+        final long openingBalance;
+
+        Segments(Segment[] array, long first, long openedAt, long openingBalance) {
+            this.array = array;
+            this.first = first;
+            this.openedAt = openedAt;
+            this.openingBalance = openingBalance;
+        }
+
+        Segment get(long number) {
+            return array[(int) (number - first)];
+        }
+    }
+
+    private static final class Ledger {
+        // entries at positions [segments.first << segmentShift, size) can be read
+        private volatile Segments segments;
+        private volatile long size;
+
+        // written only by the writer of the account
+        private long balance;
+        private long lastTimestamp;
+
+        Ledger(long openingBalance, long openedAt) {
+            this.segments = new Segments(new Segment[4], 0, openedAt, openingBalance);
+            this.balance = openingBalance;
+            this.lastTimestamp = openedAt;
+        }
+
+        void append(long timestamp, int amount, UUID transferId, BankAccountNumber counterparty, long retentionMillis) {
+            long position = size;
+            long number = position >>> segmentShift;
+            lastTimestamp = Math.max(lastTimestamp, timestamp);
+            Segments segments = this.segments;
+            if ((position & segmentMask) == 0) {
+                segments = withNewSegment(segments, number, retentionMillis);
+                this.segments = segments;
+            }
+            Segment segment = segments.get(number);
+            int entry = (int) position & segmentMask;
+            segment.timestamps[entry] = lastTimestamp;
+            segment.amounts[entry] = amount;
+            segment.transferIds[2 * entry] = transferId.getMostSignificantBits();
+            segment.transferIds[2 * entry + 1] = transferId.getLeastSignificantBits();
+            segment.counterparties[entry] = counterparty;
+            balance += amount;
+            size = position + 1;
+        }
+
+        // segments with new one of given number, leading segments whose entries are all out of retention are dropped
+        private Segments withNewSegment(Segments segments, long number, long retentionMillis) {
+            long first = segments.first;
+            // entries of a segment are not later than the first entry of the next one
+            while (first + 1 < number && lastTimestamp - segments.get(first + 1).timestamps[0] > retentionMillis) {
+                first++;
+            }
+            int needed = (int) (number - first + 1);
+            if (first == segments.first && needed <= segments.array.length) {
+                segments.array[needed - 1] = new Segment(balance);
+                return segments;
+            }
+            Segment[] array = new Segment[Math.max(4, Integer.highestOneBit(needed) << 1)];
+            System.arraycopy(segments.array, (int) (first - segments.first), array, 0, needed - 1);
+            array[needed - 1] = new Segment(balance);
+            return first == segments.first
+                ? new Segments(array, first, segments.openedAt, segments.openingBalance)
+                : new Segments(array, first, array[0].timestamps[0], array[0].checkpoint);
+        }
+
+        long balanceAt(BankAccountNumber bankAccountNumber, long timestamp) {
+            long end = size;
+            Segments segments = this.segments;
+            if (timestamp < segments.openedAt) {
+                throw new IllegalArgumentException("Ledger of " + bankAccountNumber + " has no balance at " + timestamp);
+            }
+            // last segment starting at or before the time, by binary search over the checkpoints
+            long low = segments.first;
+            long high = ((end + segmentMask) >>> segmentShift) - 1;
+            if (high < low || segments.get(low).timestamps[0] > timestamp) {
+                return segments.openingBalance;
+            }
+            while (low < high) {
+                long middle = (low + high + 1) >>> 1;
+                if (segments.get(middle).timestamps[0] <= timestamp) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            Segment segment = segments.get(low);
+            int entries = (int) Math.min(segmentSize, end - (low << segmentShift));
+            long balance = segment.checkpoint;
+            for (int i = 0; i < entries && segment.timestamps[i] <= timestamp; i++) {
+                balance += segment.amounts[i];
+            }
+            return balance;
+        }
+
+        long read(long from, long to, long afterCursor, int limit, EntryConsumer consumer) {
+            long end = size;
+            Segments segments = this.segments;
+            long position = Math.max(afterCursor, firstPositionAt(from, end, segments));
+            int count = 0;
+            long balance = position < end ? balanceBefore(position, segments) : 0;
+            while (position < end && count < limit) {
+                Segment segment = segments.get(position >>> segmentShift);
+                int entry = (int) position & segmentMask;
+                long timestamp = segment.timestamps[entry];
+                if (timestamp >= to) {
+                    break;
+                }
+                balance += segment.amounts[entry];
+                consumer.accept(position + 1, timestamp, segment.amounts[entry], balance,
+                    new UUID(segment.transferIds[2 * entry], segment.transferIds[2 * entry + 1]), segment.counterparties[entry]);
+                position++;
+                count++;
+            }
+            return count == 0 ? afterCursor : position;
+        }
+
+        private static long balanceBefore(long position, Segments segments) {
+            int entry = (int) position & segmentMask;
+            Segment segment = segments.get(position >>> segmentShift);
+            return entry == 0 ? segment.checkpoint : segment.balanceAfter(entry - 1);
+        }
+
+        // position of the first kept entry with timestamp at or after the given one (binary search, timestamps never go back)
+        private static long firstPositionAt(long timestamp, long end, Segments segments) {
+            long low = segments.first << segmentShift;
+            long high = end;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (segments.get(middle >>> segmentShift).timestamps[(int) middle & segmentMask] < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
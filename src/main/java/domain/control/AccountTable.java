@@ -0,0 +1,366 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact table of Bank Accounts of this bank - account REVn lives in slot n of column arrays (struct of arrays),
+ * allocated in chunks as accounts are created. A row keeps revision, balance and blocked money as primitive longs,
+ * so an account without pending transfers takes about 56 bytes and no objects. Only an account with pending transfers
+ * keeps a reference to it's frozen entity, other entities are recreated from the row when they are needed.
+ * Rows are guarded by striped StampedLocks: writers take the write lock, balance reads are optimistic and do not allocate.
+ * Table of one of N shards holds only accounts REVn with (n - 1) % N == shard, packed into consecutive slots.
+ * Every row also keeps sequence of it's last save (in order of all saves of the table) and it's net inflow - money
+ * that came into the account from outside of this table or of it's currency, see Reconciliation.
+ * Row of a hot receiving account has CreditCells, credits waiting there are not in the row until they are folded.
+ */
+class AccountTable {
+
+    private static final int chunkShift = 10;
+    private static final int chunkSize = 1 << chunkShift;
+    private static final int chunkMask = chunkSize - 1;
+    private static final int lockStripes = 1024;
+
+    private final StampedLock[] locks = new StampedLock[lockStripes];
+
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicInteger maxSlot = new AtomicInteger();
+
+    private final int shard;
+
+    private final int shardCount;
+
+    // currency of a row is kept as index to this list, it only grows
+    private volatile Currency[] currencies = new Currency[0];
+
+    AccountTable() {
+        this(0, 1);
+    }
+
+    AccountTable(int shard, int shardCount) {
+        this.shard = shard;
+        this.shardCount = shardCount;
+        for (int i = 0; i < lockStripes; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Slot of the account, 0 or less when it's not an account of this bank or of this shard.
+     */
+    int slotOf(BankAccountNumber bankAccountNumber) {
+        int number = bankAccountNumber.getInternalNumber();
+        if (number <= 0 || (number - 1) % shardCount != shard) {
+            return -1;
+        }
+        return (number - 1) / shardCount + 1;
+    }
+
+    /**
+     * Number of account in given slot.
+     */
+    BankAccountNumber bankAccountNumberOf(int slot) {
+        return new BankAccountNumber(BankAccountNumber.revolutAccountPrefix + ((slot - 1) * shardCount + shard + 1));
+    }
+
+    static UUID revisionId(long revision) {
+        return new UUID(0, revision);
+    }
+
+    StampedLock lock(int slot) {
+        return locks[slot & (lockStripes - 1)];
+    }
+
+    private Chunk chunk(int slot) {
+        Chunk[] chunks = this.chunks;
+        int index = slot >>> chunkShift;
+        return index < chunks.length ? chunks[index] : null;
+    }
+
+    private synchronized Chunk createChunk(int slot) {
+        int index = slot >>> chunkShift;
+        if (index >= chunks.length) {
+            Chunk[] grown = new Chunk[Math.max(index + 1, 2 * chunks.length)];
+            System.arraycopy(chunks, 0, grown, 0, chunks.length);
+            for (int i = chunks.length; i < grown.length; i++) {
+                grown[i] = new Chunk();
+            }
+            chunks = grown;
+        }
+        return chunks[index];
+    }
+
+    private byte currencyIndex(Currency currency) {
+        Currency[] currencies = this.currencies;
+        for (int i = 0; i < currencies.length; i++) {
+            if (currencies[i].equals(currency)) {
+                return (byte) i;
+            }
+        }
+        return addCurrency(currency);
+    }
+
+    private synchronized byte addCurrency(Currency currency) {
+        for (int i = 0; i < currencies.length; i++) {
+            if (currencies[i].equals(currency)) {
+                return (byte) i;
+            }
+        }
+        if (currencies.length == Byte.MAX_VALUE) {
+            throw new IllegalStateException("Too many currencies");
+        }
+        Currency[] grown = new Currency[currencies.length + 1];
+        System.arraycopy(currencies, 0, grown, 0, currencies.length);
+        grown[currencies.length] = currency;
+        currencies = grown;
+        return (byte) (grown.length - 1);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Highest slot that was ever written, slots above it are empty.
+     */
+    int maxSlot() {
+        return maxSlot.get();
+    }
+
+    /**
+     * Revision of account in slot, 0 when there is no such account. Caller holds lock of the slot.
+     */
+    long revision(int slot) {
+        Chunk chunk = chunk(slot);
+        return chunk == null ? 0 : chunk.revisions[slot & chunkMask];
+    }
+
+    /**
+     * Sequence of the last save of the slot, 0 when it was never written. Caller holds lock of the slot.
+     */
+    long saveSequence(int slot) {
+        Chunk chunk = chunk(slot);
+        return chunk == null ? 0 : chunk.saveSequences[slot & chunkMask];
+    }
+
+    /**
+     * Net inflow of the slot. Caller holds lock of the slot.
+     */
+    long netInflow(int slot) {
+        Chunk chunk = chunk(slot);
+        return chunk == null ? 0 : chunk.netInflows[slot & chunkMask];
+    }
+
+    /**
+     * Currency of account in the slot or null when there is no such account. It never changes once the account
+     * is written, so it's read without lock.
+     */
+    Currency currencyOf(int slot) {
+        Chunk chunk = chunk(slot);
+        if (chunk == null || chunk.revisions[slot & chunkMask] == 0) {
+            return null;
+        }
+        return currencies[chunk.currencies[slot & chunkMask]];
+    }
+
+    /**
+     * Writes frozen account as given revision of the slot. Caller holds write lock of the slot.
+     */
+    void write(int slot, BankAccountEntity bankAccount, long revision, long saveSequence, long netInflow) {
+        Chunk chunk = chunk(slot);
+        if (chunk == null) {
+            chunk = createChunk(slot);
+        }
+        int row = slot & chunkMask;
+        if (chunk.revisions[row] == 0) {
+            size.incrementAndGet();
+            maxSlot.accumulateAndGet(slot, Math::max);
+        }
+        chunk.revisions[row] = revision;
+        chunk.balances[row] = bankAccount.getAccountBalance().amount;
+        chunk.blockedAmounts[row] = bankAccount.getBlockedMoney().amount;
+        chunk.journalSequences[row] = bankAccount.getJournalSequence();
+        chunk.currencies[row] = currencyIndex(bankAccount.getAccountCurrency());
+        chunk.pendingAccounts[row] = bankAccount.getPendingTransfersCount() > 0 ? bankAccount : null;
+        chunk.saveSequences[row] = saveSequence;
+        chunk.netInflows[row] = netInflow;
+    }
+
+    /**
+     * Adds to net inflow of existing account in the slot. Caller holds write lock of the slot.
+     */
+    void addNetInflow(int slot, long amount) {
+        chunk(slot).netInflows[slot & chunkMask] += amount;
+    }
+
+    /**
+     * Copy of the row of the slot with credits of it's cells up to given save sequence, it's empty version when there
+     * is no account yet. Caller holds write lock of the slot, or read lock when it has no credit cells.
+     */
+    RowVersion version(int slot, long upToSaveSequence) {
+        Chunk chunk = chunk(slot);
+        int row = slot & chunkMask;
+        if (chunk == null || chunk.revisions[row] == 0) {
+            return RowVersion.empty;
+        }
+        long[] credits = new long[2];
+        CreditCells creditCells = chunk.creditCells[row];
+        if (creditCells != null) {
+            creditCells.sumUpTo(upToSaveSequence, credits);
+        }
+        return new RowVersion(currencies[chunk.currencies[row]], chunk.balances[row] + credits[0], chunk.blockedAmounts[row],
+            chunk.pendingAccounts[row], chunk.saveSequences[row], chunk.netInflows[row] + credits[1]);
+    }
+
+    /**
+     * Credit cells of the account in the slot, null when it's not a hot one. Caller holds lock of the slot, or it
+     * only checks whether there may be credits to fold.
+     */
+    CreditCells creditCells(int slot) {
+        Chunk chunk = chunk(slot);
+        return chunk == null ? null : chunk.creditCells[slot & chunkMask];
+    }
+
+    /**
+     * Gives existing account in the slot credit cells, it keeps them. Caller holds write lock of the slot.
+     */
+    void enableCreditCells(int slot) {
+        Chunk chunk = chunk(slot);
+        int row = slot & chunkMask;
+        if (chunk.creditCells[row] == null) {
+            chunk.creditCells[row] = new CreditCells();
+        }
+    }
+
+    /**
+     * Returns frozen account of the slot or null. Caller holds lock of the slot.
+     */
+    BankAccountEntity read(int slot, BankAccountNumber bankAccountNumber) {
+        Chunk chunk = chunk(slot);
+        int row = slot & chunkMask;
+        if (chunk == null || chunk.revisions[row] == 0) {
+            return null;
+        }
+        BankAccountEntity pendingAccount = chunk.pendingAccounts[row];
+        if (pendingAccount != null) {
+            return pendingAccount;
+        }
+        BankAccountEntity bankAccount = BankAccountEntity.restore(revisionId(chunk.revisions[row]), bankAccountNumber,
+            new Money(currencies[chunk.currencies[row]], (int) chunk.balances[row]), Collections.emptyList(),
+            chunk.journalSequences[row]);
+        bankAccount.freeze();
+        return bankAccount;
+    }
+
+    /**
+     * Reads balance of the slot into given holder under optimistic lock, so it does not allocate nor block writers.
+     * @return false when there is no such account
+     */
+    boolean readBalance(int slot, AccountBalance accountBalance) {
+        Chunk chunk = chunk(slot);
+        if (chunk == null) {
+            return false;
+        }
+        int row = slot & chunkMask;
+        StampedLock lock = lock(slot);
+        long stamp = lock.tryOptimisticRead();
+        boolean found = readBalance(chunk, row, accountBalance);
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                found = readBalance(chunk, row, accountBalance);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return found;
+    }
+
+    private boolean readBalance(Chunk chunk, int row, AccountBalance accountBalance) {
+        if (chunk.revisions[row] == 0) {
+            return false;
+        }
+        // optimistic reader may see index of a currency added by concurrent write, validation then fails anyway
+        Currency[] currencies = this.currencies;
+        int currencyIndex = chunk.currencies[row];
+        accountBalance.currency = currencyIndex < currencies.length ? currencies[currencyIndex] : null;
+        accountBalance.balance = chunk.balances[row];
+        accountBalance.blocked = chunk.blockedAmounts[row];
+        accountBalance.revision = chunk.revisions[row];
+        CreditCells creditCells = chunk.creditCells[row];
+        if (creditCells != null) {
+            // fold drains the cells under write lock, so optimistic reader sees each credit either here or in the row;
+            // count is read first, so a revision never stands for a balance without some of it's credits
+            accountBalance.revision += creditCells.creditedCount();
+            accountBalance.balance += creditCells.amount();
+        }
+        return true;
+    }
+
+    /**
+     * Numbers of all accounts in the table.
+     */
+    List<BankAccountNumber> bankAccountNumbers() {
+        List<BankAccountNumber> bankAccountNumbers = new ArrayList<>(size());
+        int maxSlot = maxSlot();
+        for (int slot = 1; slot <= maxSlot; slot++) {
+            Chunk chunk = chunk(slot);
+            if (chunk != null && chunk.revisions[slot & chunkMask] != 0) {
+                bankAccountNumbers.add(bankAccountNumberOf(slot));
+            }
+        }
+        return bankAccountNumbers;
+    }
+
+
+    private static final class Chunk {
+        final long[] revisions = new long[chunkSize];
+        final long[] balances = new long[chunkSize];
+        final long[] blockedAmounts = new long[chunkSize];
+        final long[] journalSequences = new long[chunkSize];
+        final byte[] currencies = new byte[chunkSize];
+        final BankAccountEntity[] pendingAccounts = new BankAccountEntity[chunkSize];
+        final long[] saveSequences = new long[chunkSize];
+        final long[] netInflows = new long[chunkSize];
+        final CreditCells[] creditCells = new CreditCells[chunkSize];
+    }
+
+    /**
+     * Row of an account as it was at some save - frozen pending account is shared, it's never changed.
+     */
+    static final class RowVersion {
+        static final RowVersion empty = new RowVersion(null, 0, 0, null, 0, 0);
+
+        final Currency currency;
+        final long balance;
+        final long blocked;
+        final BankAccountEntity pendingAccount;
+        final long saveSequence;
+        final long netInflow;
+
+        RowVersion(Currency currency, long balance, long blocked, BankAccountEntity pendingAccount, long saveSequence, long netInflow) {
+            this.currency = currency;
+            this.balance = balance;
+            this.blocked = blocked;
+            this.pendingAccount = pendingAccount;
+            this.saveSequence = saveSequence;
+            this.netInflow = netInflow;
+        }
+
+        boolean isEmpty() {
+            return currency == null;
+        }
+    }
+}
@@ -2,28 +2,150 @@ package domain.control;
 
 import domain.entity.BankAccountEntity;
 import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+import java.util.stream.Collectors;
 
 /**
- * In memory Repository of Bank Accounts.
+ * In memory Repository of Bank Accounts of this bank, held in compact AccountTable.
  * In case of concurrent save of same BankAccount it throws ConcurrentModificationException so Service can retry it's operation on new state.
+ * When EventJournal is given every successful save appends it's changes to the journal, in the same order as saves of the account.
+ * With SnapshotStore the whole repository can be snapshotted without stopping saves, recovery then loads the snapshot
+ * and replays only journal records that came after it.
+ * Ids of started transfers are remembered in TransferIdIndex atomically with the save, so a transfer id is never accepted twice.
+ * Transfer changes are also appended to TransferHistory of the account (history older than the snapshot is not recovered),
+ * and changes of balance to it's AccountLedger when there is one (it's opened with balance of the snapshot on recovery).
+ * Saves are numbered in one sequence, so all accounts can be reconciled as of one point in time, see Reconciliation.
+ * Hot receiving account can be given CreditCells: credits then take only the read lock of it's row and wait in the cells
+ * until the next save of the account (or snapshot) folds them in, reads see them on top of the row without folding,
+ * so they never change revision that saves of the account compare against.
+ * Saves, their conflicts and waits for durability are recorded in given Metrics.
  */
 public class BankAccountRepository {
 
     private final AtomicInteger bankAccountNumberGenerator = new AtomicInteger();
 
-    private final ConcurrentHashMap<BankAccountNumber, BankAccountEntity> bankAccounts = new ConcurrentHashMap<>();
+    private final AccountTable accountTable;
+
+    private final EventJournal eventJournal;
+
+    private final SnapshotStore snapshotStore;
+
+    private final TransferIdIndex transferIdIndex;
+
+    private final TransferHistory transferHistory;
+
+    private final AccountLedger accountLedger;
+
+    // transfers from accounts of this repository already received by target account but not yet confirmed by source account
+    private final ConcurrentHashMap<UUID, ReceivedTransfer> receivedTransfers = new ConcurrentHashMap<>();
+
+    private static final long cutOpen = 1L << 62;
+
+    // sequence of saves, with cutOpen bit while a reconciliation reads accounts as of it's cut
+    private final AtomicLong saveSequence = new AtomicLong();
+
+    private volatile Reconciliation reconciliation;
+
+    private final Metrics.Histogram saveDuration;
+
+    private final Metrics.Counter saveConflicts;
+
+    private final Metrics.Histogram durableWait;
+
+    public BankAccountRepository() {
+        this(null, null);
+    }
+
+    public BankAccountRepository(EventJournal eventJournal) {
+        this(eventJournal, null);
+    }
+
+    public BankAccountRepository(EventJournal eventJournal, SnapshotStore snapshotStore) {
+        this(eventJournal, snapshotStore, new TransferIdIndex(1 << 16, TimeUnit.DAYS.toMillis(1)));
+    }
+
+    public BankAccountRepository(EventJournal eventJournal, SnapshotStore snapshotStore, TransferIdIndex transferIdIndex) {
+        this(eventJournal, snapshotStore, transferIdIndex, new TransferHistory(1 << 14));
+    }
+
+    public BankAccountRepository(EventJournal eventJournal, SnapshotStore snapshotStore, TransferIdIndex transferIdIndex,
+                                 TransferHistory transferHistory) {
+        this(eventJournal, snapshotStore, transferIdIndex, transferHistory, Metrics.disabled());
+    }
+
+    public BankAccountRepository(EventJournal eventJournal, SnapshotStore snapshotStore, TransferIdIndex transferIdIndex,
+                                 TransferHistory transferHistory, Metrics metrics) {
+        this(eventJournal, snapshotStore, transferIdIndex, transferHistory, metrics, 0, 1);
+    }
+
+    /**
+     * Repository of one of shardCount shards - it generates and holds only account numbers of the shard.
+     */
+    public BankAccountRepository(EventJournal eventJournal, SnapshotStore snapshotStore, TransferIdIndex transferIdIndex,
+                                 TransferHistory transferHistory, Metrics metrics, int shard, int shardCount) {
+        this(eventJournal, snapshotStore, transferIdIndex, transferHistory, metrics, shard, shardCount, new AccountLedger());
+    }
+
+    /**
+     * @param accountLedger null when balances as of past times are not needed
+     */
+    public BankAccountRepository(EventJournal eventJournal, SnapshotStore snapshotStore, TransferIdIndex transferIdIndex,
+                                 TransferHistory transferHistory, Metrics metrics, int shard, int shardCount, AccountLedger accountLedger) {
+        this.accountTable = new AccountTable(shard, shardCount);
+        this.eventJournal = eventJournal;
+        this.snapshotStore = snapshotStore;
+        this.transferIdIndex = transferIdIndex;
+        this.transferHistory = transferHistory;
+        this.accountLedger = accountLedger;
+        this.saveDuration = metrics.histogram("bank_account_save_seconds", "Saves of accounts including journal append and waiting for the account's lock");
+        this.saveConflicts = metrics.counter("bank_account_save_conflicts_total", "Saves rejected because account was changed concurrently");
+        this.durableWait = metrics.histogram("bank_journal_durable_wait_seconds", "Waits for journaled changes to become durable");
+        metrics.gauge("bank_accounts", "Bank accounts in repository", accountTable::size);
+        metrics.functionCounter("bank_transfer_id_lookups_total", "Lookups of transfer ids in TransferIdIndex", transferIdIndex::lookups);
+        metrics.functionCounter("bank_transfer_id_hits_total", "Lookups that found already processed transfer id", transferIdIndex::hits);
+        metrics.functionCounter("bank_transfer_id_evictions_total", "Transfer ids dropped with their generation", transferIdIndex::evictions);
+        metrics.functionCounter("bank_transfer_id_early_rotations_total", "Generations rotated because they were full before end of their window",
+            transferIdIndex::earlyRotations);
+        metrics.gauge("bank_transfer_ids", "Transfer ids in TransferIdIndex", transferIdIndex::size);
+        metrics.gauge("bank_transfer_ids_capacity", "Transfer ids that fit into TransferIdIndex", transferIdIndex::capacity);
+    }
 
     public BankAccountNumber generateNewBankAccountNumber() {
-        return new BankAccountNumber(BankAccountNumber.revolutAccountPrefix + bankAccountNumberGenerator.incrementAndGet());
+        return accountTable.bankAccountNumberOf(bankAccountNumberGenerator.incrementAndGet());
     }
 
+    /**
+     * Returns copy of Bank Account to be changed and saved, credits waiting in it's cells are folded into it first
+     * (those that come after are folded by it's save).
+     */
     public BankAccountEntity getBankAccount(BankAccountNumber bankAccountNumber) {
-        BankAccountEntity bankAccount = bankAccounts.get(bankAccountNumber);
+        int slot = accountTable.slotOf(bankAccountNumber);
+        BankAccountEntity bankAccount = slot > 0 && accountTable.creditCells(slot) != null && !accountTable.creditCells(slot).isEmpty()
+            ? foldCredits(slot, bankAccountNumber)
+            : latestRevision(bankAccountNumber, false);
         if (bankAccount == null) {
             throw new IllegalArgumentException("Bank account: " + bankAccountNumber + " not found");
         }
@@ -31,16 +153,577 @@ public class BankAccountRepository {
         return bankAccount.copy();
     }
 
-    public void saveBankAccount(BankAccountEntity bankAccount) throws ConcurrentModificationException {
-        BankAccountEntity previous = bankAccounts.putIfAbsent(bankAccount.bankAccountNumber, bankAccount);
-        if (previous == null) {
-            return;
+    /**
+     * Returns stored (frozen) Bank Account without copying it - for callers that only read it. Credits waiting in it's
+     * cells are applied on a copy of hot account, it's never saved.
+     */
+    public BankAccountEntity readBankAccount(BankAccountNumber bankAccountNumber) {
+        BankAccountEntity bankAccount = latestRevision(bankAccountNumber, true);
+        if (bankAccount == null) {
+            throw new IllegalArgumentException("Bank account: " + bankAccountNumber + " not found");
+        }
+
+        return bankAccount;
+    }
+
+    /**
+     * Reads balance and blocked money of Bank Account into given holder, without allocation and without blocking saves.
+     */
+    public void readAccountBalance(BankAccountNumber bankAccountNumber, AccountBalance accountBalance) {
+        int slot = accountTable.slotOf(bankAccountNumber);
+        if (slot <= 0 || !accountTable.readBalance(slot, accountBalance)) {
+            throw new IllegalArgumentException("Bank account: " + bankAccountNumber + " not found");
+        }
+    }
+
+    /**
+     * Adds money received by a hot account (see useCreditCells) to it's credit cells and journals it, under the read
+     * lock of it's row only - credits don't change revision of the account, so they never conflict with it's saves.
+     * They get to history and ledger of the account right away, one credit at a time. Account without credit cells is saved as usual, so it can throw ConcurrentModificationException.
+     * @return journal sequence of the last change or 0 when there is no journal
+     */
+    public long creditBankAccount(BankAccountNumber bankAccountNumber, JournalRecord... credits) {
+        int slot = accountTable.slotOf(bankAccountNumber);
+        if (slot <= 0 || accountTable.creditCells(slot) == null) {
+            BankAccountEntity bankAccount = getBankAccount(bankAccountNumber);
+            for (JournalRecord credit : credits) {
+                bankAccount.receiveMoneyTransfer(credit.money);
+            }
+            return saveBankAccount(bankAccount, credits);
+        }
+        long start = saveDuration.start();
+        StampedLock lock = accountTable.lock(slot);
+        long stamp = lock.readLock();
+        try {
+            CreditCells creditCells = accountTable.creditCells(slot);
+            Currency currency = accountTable.currencyOf(slot);
+            long sequence = saveSequence.incrementAndGet() & ~cutOpen;
+            long lastSequence = 0;
+            for (JournalRecord credit : credits) {
+                if (credit.type != JournalRecord.Type.MONEY_RECEIVED || !credit.accountNumber.equals(bankAccountNumber)) {
+                    throw new IllegalArgumentException("Not money received by " + bankAccountNumber + ": " + credit);
+                }
+                if (!credit.money.currency.equals(currency)) {
+                    throw new IllegalArgumentException("Money in " + credit.money.currency + " cannot be used on account in " + currency);
+                }
+            }
+            // credits of the account are it's only writers of history and ledger while they hold the read lock
+            synchronized (creditCells) {
+                for (JournalRecord credit : credits) {
+                    trackReceivedTransfer(credit, sequence);
+                    transferHistory.append(credit);
+                    if (accountLedger != null) {
+                        accountLedger.append(credit);
+                    }
+                    if (eventJournal != null) {
+                        lastSequence = eventJournal.append(credit);
+                    }
+                    creditCells.add(new CreditCells.Credit(credit, sequence, lastSequence, netInflowOf(credit)));
+                }
+            }
+            return lastSequence;
+        } finally {
+            lock.unlockRead(stamp);
+            saveDuration.recordSince(start);
+        }
+    }
+
+    /**
+     * Switches hot receiving account to credit cells, it keeps them until restart.
+     */
+    public void useCreditCells(BankAccountNumber bankAccountNumber) {
+        int slot = accountTable.slotOf(bankAccountNumber);
+        if (slot <= 0) {
+            throw new IllegalArgumentException("Bank account: " + bankAccountNumber + " is not an account of this bank");
+        }
+        StampedLock lock = accountTable.lock(slot);
+        long stamp = lock.writeLock();
+        try {
+            if (accountTable.revision(slot) == 0) {
+                throw new IllegalArgumentException("Bank account: " + bankAccountNumber + " not found");
+            }
+            accountTable.enableCreditCells(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public boolean hasCreditCells(BankAccountNumber bankAccountNumber) {
+        int slot = accountTable.slotOf(bankAccountNumber);
+        return slot > 0 && accountTable.creditCells(slot) != null;
+    }
+
+    /**
+     * Saves Bank Account and journals given changes atomically with the save.
+     * @return journal sequence of the last change or 0 when there is no journal
+     */
+    public long saveBankAccount(BankAccountEntity bankAccount, JournalRecord... changes) throws ConcurrentModificationException {
+        return store(bankAccount, true, changes);
+    }
+
+    /**
+     * Saves Bank Account without revision check - only for a caller that is the single writer of this account.
+     * @return journal sequence of the last change or 0 when there is no journal
+     */
+    public long replaceBankAccount(BankAccountEntity bankAccount, JournalRecord... changes) {
+        return store(bankAccount, false, changes);
+    }
+
+    /**
+     * Saves with ids of transfers started by the changes reserved in TransferIdIndex, so the same id started concurrently
+     * on another account is saved only once. The other save throws ConcurrentModificationException, it's retry then
+     * finds the id processed.
+     */
+    private long store(BankAccountEntity bankAccount, boolean checkRevision, JournalRecord[] changes) {
+        int slot = accountTable.slotOf(bankAccount.bankAccountNumber);
+        if (slot <= 0) {
+            throw new IllegalArgumentException("Bank account: " + bankAccount.bankAccountNumber + " is not an account of this bank");
+        }
+        long start = saveDuration.start();
+        StampedLock lock = accountTable.lock(slot);
+        long stamp = lock.writeLock();
+        try {
+            long revision = accountTable.revision(slot);
+            if (checkRevision && revision != 0 && !AccountTable.revisionId(revision).equals(bankAccount.getRevisionId())) {
+                saveConflicts.increment();
+                throw new ConcurrentModificationException();
+            }
+            reserveTransferIds(changes);
+            try {
+                return write(slot, bankAccount, revision, changes);
+            } catch (RuntimeException e) {
+                releaseTransferIds(changes, changes.length);
+                throw e;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+            saveDuration.recordSince(start);
+        }
+    }
+
+    /**
+     * Writes next revision of the account with credits waiting in it's cells folded in. Caller holds write lock of the slot.
+     */
+    private long write(int slot, BankAccountEntity bankAccount, long revision, JournalRecord[] changes) {
+        long sequence = saveSequence.incrementAndGet();
+        Reconciliation reconciliation = (sequence & cutOpen) == 0 ? null : this.reconciliation;
+        sequence &= ~cutOpen;
+        if (reconciliation != null && sequence > reconciliation.cut && accountTable.saveSequence(slot) <= reconciliation.cut) {
+            // first save of the account after the cut keeps the row for the reconciliation
+            reconciliation.cutRows.putIfAbsent(slot, accountTable.version(slot, reconciliation.cut));
+        }
+        CreditCells creditCells = accountTable.creditCells(slot);
+        List<CreditCells.Credit> credits = creditCells == null ? Collections.emptyList() : creditCells.drain();
+        BankAccountEntity saved = bankAccount.newRevisionCopy(AccountTable.revisionId(revision + 1));
+        long netInflow = accountTable.netInflow(slot) + netInflowOf(changes);
+        long lastSequence = 0;
+        // credits came before changes of this save, they are already journaled and in history and ledger
+        for (CreditCells.Credit credit : credits) {
+            saved.receiveMoneyTransfer(credit.record.money);
+            netInflow += credit.netInflow;
+            lastSequence = Math.max(lastSequence, credit.journalSequence);
+        }
+        lastSequence = Math.max(lastSequence, journal(changes, sequence, reconciliation));
+        if (lastSequence > 0) {
+            saved.setJournalSequence(lastSequence);
+        }
+        saved.freeze();
+        accountTable.write(slot, saved, revision + 1, sequence, netInflow);
+        return lastSequence;
+    }
+
+    // transfer ids are reserved before the change is journaled, so snapshot started after the append sees them
+    private void reserveTransferIds(JournalRecord[] changes) {
+        for (int i = 0; i < changes.length; i++) {
+            if (changes[i].type == JournalRecord.Type.MONEY_BLOCKED && !transferIdIndex.add(changes[i].transferId, changes[i].timestamp)) {
+                releaseTransferIds(changes, i);
+                throw new ConcurrentModificationException("Transfer " + changes[i].transferId + " was started concurrently");
+            }
+        }
+    }
+
+    private void releaseTransferIds(JournalRecord[] changes, int count) {
+        for (int i = 0; i < count; i++) {
+            if (changes[i].type == JournalRecord.Type.MONEY_BLOCKED) {
+                transferIdIndex.remove(changes[i].transferId);
+            }
+        }
+    }
+
+    private long journal(JournalRecord[] changes, long saveSequence, Reconciliation reconciliation) {
+        long sequence = 0;
+        for (JournalRecord change : changes) {
+            if (change.type == JournalRecord.Type.MONEY_RECEIVED) {
+                trackReceivedTransfer(change, saveSequence);
+            }
+            transferHistory.append(change);
+            if (accountLedger != null) {
+                accountLedger.append(change);
+            }
+            if (eventJournal != null) {
+                sequence = eventJournal.append(change);
+            }
+            if (change.type == JournalRecord.Type.MONEY_CONFIRMED) {
+                ReceivedTransfer receivedTransfer = receivedTransfers.get(change.transferId);
+                // kept for the reconciliation before it's removed, so it always finds it in one of them
+                if (receivedTransfer != null && reconciliation != null && receivedTransfer.sequence <= reconciliation.cut
+                    && saveSequence > reconciliation.cut) {
+                    reconciliation.confirmedAfterCut.put(change.transferId, receivedTransfer);
+                }
+                receivedTransfers.remove(change.transferId);
+            }
+        }
+        return sequence;
+    }
+
+    private void trackReceivedTransfer(JournalRecord change, long saveSequence) {
+        Currency sourceCurrency = currencyOf(change.targetAccountNumber);
+        if (sourceCurrency != null) {
+            receivedTransfers.put(change.transferId, new ReceivedTransfer(saveSequence, change.targetAccountNumber,
+                change.accountNumber, change.money, !sourceCurrency.equals(change.money.currency)));
         }
+    }
+
+    private long netInflowOf(JournalRecord[] changes) {
+        long netInflow = 0;
+        for (JournalRecord change : changes) {
+            netInflow += netInflowOf(change);
+        }
+        return netInflow;
+    }
+
+    /**
+     * Change of net inflow of the saved account: money that came from outside of this repository or was converted from
+     * other currency, less money that left the same way. A transfer between accounts of this repository in one currency
+     * doesn't change it, so all balances less transfers received and not yet confirmed are always the sum of net inflows.
+     */
+    private long netInflowOf(JournalRecord change) {
+        switch (change.type) {
+            case ACCOUNT_CREATED:
+                return change.money.amount;
+            case MONEY_RECEIVED:
+                return change.money.currency.equals(currencyOf(change.targetAccountNumber)) ? 0 : change.money.amount;
+            case MONEY_CONFIRMED:
+                return change.money.currency.equals(currencyOf(change.targetAccountNumber)) ? 0 : -change.money.amount;
+            default:
+                // blocked money stays in the account
+                return 0;
+        }
+    }
+
+    /**
+     * Currency of account of this repository, null when it's not one.
+     */
+    public Currency currencyOf(BankAccountNumber bankAccountNumber) {
+        int slot = accountTable.slotOf(bankAccountNumber);
+        return slot <= 0 ? null : accountTable.currencyOf(slot);
+    }
+
+    Map<UUID, ReceivedTransfer> receivedTransfers() {
+        return receivedTransfers;
+    }
+
+    /**
+     * New reconciliation of all accounts, it reads them once it's run.
+     */
+    public Reconciliation newReconciliation() {
+        return new Reconciliation(this, accountTable);
+    }
+
+    /**
+     * Opens cut of the reconciliation at the last save so far.
+     * @return highest slot that any account up to the cut can have
+     */
+    synchronized int openCut(Reconciliation reconciliation) {
+        if (this.reconciliation != null) {
+            throw new IllegalStateException("Another reconciliation is running");
+        }
+        while (true) {
+            long sequence = saveSequence.get();
+            reconciliation.cut = sequence;
+            this.reconciliation = reconciliation;
+            // saves that see the bit come after the cut and see the reconciliation
+            if (saveSequence.compareAndSet(sequence, sequence | cutOpen)) {
+                break;
+            }
+        }
+        // numbers are generated before accounts are saved
+        return Math.max(accountTable.maxSlot(), bankAccountNumberGenerator.get());
+    }
+
+    synchronized void closeCut(Reconciliation reconciliation) {
+        if (this.reconciliation == reconciliation) {
+            long sequence;
+            do {
+                sequence = saveSequence.get();
+            } while (!saveSequence.compareAndSet(sequence, sequence & ~cutOpen));
+            this.reconciliation = null;
+        }
+    }
+
+    /**
+     * Whether transfer with given id was already started on any account.
+     */
+    public boolean isTransferProcessed(UUID transferId) {
+        return transferIdIndex.contains(transferId);
+    }
+
+    public TransferIdIndex getTransferIdIndex() {
+        return transferIdIndex;
+    }
+
+    public TransferHistory getTransferHistory() {
+        return transferHistory;
+    }
+
+    public Optional<AccountLedger> getAccountLedger() {
+        return Optional.ofNullable(accountLedger);
+    }
+
+    /**
+     * Blocks until journaled change with given sequence is durable, returns immediately when there is no journal.
+     */
+    public void awaitDurable(long journalSequence) {
+        if (eventJournal != null && journalSequence > 0) {
+            long start = durableWait.start();
+            eventJournal.awaitDurable(journalSequence);
+            durableWait.recordSince(start);
+        }
+    }
+
+    /**
+     * Whether journaled change with given sequence is already durable, so awaitDurable wouldn't block.
+     */
+    public boolean isDurable(long journalSequence) {
+        return eventJournal == null || journalSequence <= eventJournal.getDurableSequence();
+    }
+
+    public boolean isEmpty() {
+        return accountTable.size() == 0;
+    }
+
+    /**
+     * Returns stored (frozen) revisions of all Bank Accounts.
+     */
+    public List<BankAccountEntity> getAllBankAccounts() {
+        return accountTable.bankAccountNumbers().stream().map(bankAccountNumber -> latestRevision(bankAccountNumber, true))
+            .filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Writes snapshot of all accounts and deletes journal segments it covers. Saves are not stopped - each account is read
+     * under it's own row lock only, so a save that already journaled it's change is always visible in the snapshot.
+     * Hot account is read with it's credits folded in.
+     */
+    public Path writeSnapshot() {
+        if (eventJournal == null || snapshotStore == null) {
+            throw new IllegalStateException("Repository has no journal or snapshot store");
+        }
+        long startSequence = eventJournal.getWrittenSequence() + 1;
+        List<UUID> inFlightTransfers = new ArrayList<>(receivedTransfers.keySet());
+        Path snapshot = snapshotStore.write(startSequence, inFlightTransfers, transferIdIndex,
+            () -> accountTable.bankAccountNumbers().stream().map(this::snapshotRevision).filter(Objects::nonNull).iterator());
+        eventJournal.deleteSegmentsBefore(startSequence);
+        return snapshot;
+    }
+
+    /**
+     * Stored revision of the account or null, with credits waiting in it's cells applied on a frozen copy when asked for.
+     * Copy keeps revision of the row, the credits are folded in by the next save.
+     */
+    private BankAccountEntity latestRevision(BankAccountNumber bankAccountNumber, boolean withCredits) {
+        int slot = accountTable.slotOf(bankAccountNumber);
+        if (slot <= 0) {
+            return null;
+        }
+        StampedLock lock = accountTable.lock(slot);
+        long stamp = lock.readLock();
+        try {
+            BankAccountEntity bankAccount = accountTable.read(slot, bankAccountNumber);
+            CreditCells creditCells = accountTable.creditCells(slot);
+            if (withCredits && bankAccount != null && creditCells != null) {
+                // cells are drained only under the write lock, so none of their credits is in the row yet
+                long amount = creditCells.amount();
+                if (amount != 0) {
+                    bankAccount = bankAccount.copy();
+                    bankAccount.receiveMoneyTransfer(new Money(bankAccount.getAccountCurrency(), (int) amount));
+                    bankAccount.freeze();
+                }
+            }
+            return bankAccount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private BankAccountEntity snapshotRevision(BankAccountNumber bankAccountNumber) {
+        int slot = accountTable.slotOf(bankAccountNumber);
+        if (slot <= 0 || accountTable.creditCells(slot) == null) {
+            return latestRevision(bankAccountNumber, false);
+        }
+        return foldCredits(slot, bankAccountNumber);
+    }
+
+    /**
+     * Folds credits waiting in cells of hot account into it and returns it's stored revision. Write lock waits for credits
+     * being journaled, so the account has all credits journaled before.
+     */
+    private BankAccountEntity foldCredits(int slot, BankAccountNumber bankAccountNumber) {
+        StampedLock lock = accountTable.lock(slot);
+        long stamp = lock.writeLock();
+        try {
+            if (!accountTable.creditCells(slot).isEmpty()) {
+                write(slot, accountTable.read(slot, bankAccountNumber), accountTable.revision(slot), new JournalRecord[0]);
+            }
+            return accountTable.read(slot, bankAccountNumber);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Stores recovered account, it's whole balance is it's net inflow until trackReceivedTransfers.
+     */
+    private void put(BankAccountEntity bankAccount) {
+        int slot = accountTable.slotOf(bankAccount.bankAccountNumber);
+        StampedLock lock = accountTable.lock(slot);
+        long stamp = lock.writeLock();
+        try {
+            long revision = accountTable.revision(slot) + 1;
+            BankAccountEntity stored = bankAccount.newRevisionCopy(AccountTable.revisionId(revision));
+            stored.freeze();
+            accountTable.write(slot, stored, revision, saveSequence.incrementAndGet() & ~cutOpen, stored.getAccountBalance().amount);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Tracks recovered transfers that were received but not confirmed, found by their pending transfers. Transfer
+     * received in currency of it's source is counted in both balances, so it's taken off net inflow of it's target.
+     */
+    private void trackReceivedTransfers(Set<UUID> inFlightTransfers) {
+        Map<UUID, MoneyTransfer> pendingTransfers = new HashMap<>();
+        for (BankAccountEntity bankAccount : getAllBankAccounts()) {
+            if (bankAccount.getPendingTransfersCount() > 0) {
+                bankAccount.getPendingTransfers().forEach(pendingTransfer -> pendingTransfers.put(pendingTransfer.transferId, pendingTransfer));
+            }
+        }
+        for (UUID transferId : inFlightTransfers) {
+            MoneyTransfer pendingTransfer = pendingTransfers.get(transferId);
+            Currency targetCurrency = pendingTransfer == null ? null : currencyOf(pendingTransfer.targetBankAccountNumber);
+            if (targetCurrency == null) {
+                // source is in another shard, it's confirmed there
+                continue;
+            }
+            Money money = pendingTransfer.money;
+            boolean converted = !targetCurrency.equals(money.currency);
+            // received amount of a converted transfer isn't known, it's only matched with it's source
+            receivedTransfers.put(transferId, new ReceivedTransfer(0, pendingTransfer.accountNumber,
+                pendingTransfer.targetBankAccountNumber, money, converted));
+            if (!converted) {
+                int slot = accountTable.slotOf(pendingTransfer.targetBankAccountNumber);
+                StampedLock lock = accountTable.lock(slot);
+                long stamp = lock.writeLock();
+                try {
+                    accountTable.addNetInflow(slot, -money.amount);
+                } finally {
+                    lock.unlockWrite(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds repository from the latest snapshot (if there is one) and EventJournal records that came after it.
+     * Records are read sequentially and then applied in parallel per account.
+     */
+    public ReplayStatistics replayJournal() {
+        if (eventJournal == null) {
+            throw new IllegalStateException("Repository has no journal to replay");
+        }
+        long start = System.nanoTime();
+        Set<UUID> inFlightTransfers = new HashSet<>();
+        long startSequence = 0;
+        Optional<Path> snapshot = snapshotStore == null ? Optional.empty() : snapshotStore.latest();
+        if (snapshot.isPresent()) {
+            long snapshotTime = lastModified(snapshot.get());
+            startSequence = snapshotStore.load(snapshot.get(), inFlightTransfers, transferIdIndex, bankAccount -> {
+                put(bankAccount);
+                if (accountLedger != null) {
+                    accountLedger.open(bankAccount.bankAccountNumber, bankAccount.getAccountBalance().amount, snapshotTime);
+                }
+            });
+        }
+        int snapshotAccounts = accountTable.size();
+
+        Map<BankAccountNumber, List<JournalRecord>> recordsPerAccount = new HashMap<>();
+        long[] records = {0};
+        eventJournal.readFrom(startSequence, record -> {
+            records[0]++;
+            recordsPerAccount.computeIfAbsent(record.accountNumber, accountNumber -> new ArrayList<>()).add(record);
+            if (record.type == JournalRecord.Type.MONEY_BLOCKED) {
+                transferIdIndex.add(record.transferId, record.timestamp);
+            } else if (record.type == JournalRecord.Type.MONEY_RECEIVED) {
+                inFlightTransfers.add(record.transferId);
+            } else if (record.type == JournalRecord.Type.MONEY_CONFIRMED) {
+                inFlightTransfers.remove(record.transferId);
+            }
+        });
+
+        recordsPerAccount.entrySet().parallelStream().forEach(accountRecords -> {
+            BankAccountEntity bankAccount = latestRevision(accountRecords.getKey(), false);
+            if (bankAccount != null) {
+                bankAccount = bankAccount.copy();
+            }
+            for (JournalRecord record : accountRecords.getValue()) {
+                if (bankAccount == null || record.sequence > bankAccount.getJournalSequence()) {
+                    bankAccount = record.applyTo(bankAccount);
+                    bankAccount.setJournalSequence(record.sequence);
+                    transferHistory.append(record);
+                    if (accountLedger != null) {
+                        accountLedger.append(record);
+                    }
+                }
+            }
+            put(bankAccount);
+        });
+        advanceBankAccountNumberGenerator(accountTable.maxSlot());
+        trackReceivedTransfers(inFlightTransfers);
+
+        return new ReplayStatistics(snapshotAccounts, records[0], accountTable.size(), System.nanoTime() - start, inFlightTransfers);
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void advanceBankAccountNumberGenerator(int number) {
+        bankAccountNumberGenerator.accumulateAndGet(number, Math::max);
+    }
+
+    /**
+     * Transfer received by it's target and not yet confirmed by it's source, both in this repository.
+     */
+    static final class ReceivedTransfer {
+        // save of the target account that received it
+        final long sequence;
+        final BankAccountNumber sourceAccount;
+        final BankAccountNumber targetAccount;
+        final Money money;
+        // received in other currency than it was sent
+        final boolean converted;
 
-        BankAccountEntity newBankAccount = bankAccount.newRevisionCopy(UUID.randomUUID());
-        boolean success = bankAccounts.replace(bankAccount.bankAccountNumber, bankAccount, newBankAccount);
-        if (!success) {
-            throw new ConcurrentModificationException();
+        ReceivedTransfer(long sequence, BankAccountNumber sourceAccount, BankAccountNumber targetAccount, Money money, boolean converted) {
+            this.sequence = sequence;
+            this.sourceAccount = sourceAccount;
+            this.targetAccount = targetAccount;
+            this.money = money;
+            this.converted = converted;
         }
     }
 
@@ -0,0 +1,113 @@
+package domain.control;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Striped cells of credits received by a hot account and not yet folded into it's row. A crediting thread pushes it's
+ * credit to the stripe of the thread (lock free stack), so credits of different threads don't touch the same memory.
+ * Credits are folded into the account - applied on one copy of it and saved once - by the next change or snapshot of it,
+ * readers see them on top of it's row.
+ */
+final class CreditCells {
+
+    private final AtomicReferenceArray<Credit> stripes;
+
+    private final int stripeMask;
+
+    // credits ever added, folded ones included
+    private final LongAdder credited = new LongAdder();
+
+    CreditCells() {
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+        this.stripes = new AtomicReferenceArray<>(stripes);
+        this.stripeMask = stripes - 1;
+    }
+
+    void add(Credit credit) {
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        Credit head;
+        do {
+            head = stripes.get(stripe);
+            credit.next = head;
+        } while (!stripes.compareAndSet(stripe, head, credit));
+        credited.increment();
+    }
+
+    long creditedCount() {
+        return credited.sum();
+    }
+
+    /**
+     * Sum of credits waiting in the cells, it doesn't allocate.
+     */
+    long amount() {
+        long amount = 0;
+        for (int i = 0; i < stripes.length(); i++) {
+            for (Credit credit = stripes.get(i); credit != null; credit = credit.next) {
+                amount += credit.record.money.amount;
+            }
+        }
+        return amount;
+    }
+
+    boolean isEmpty() {
+        for (int i = 0; i < stripes.length(); i++) {
+            if (stripes.get(i) != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes all credits out of the cells, in order of their saves.
+     */
+    List<Credit> drain() {
+        List<Credit> credits = new ArrayList<>();
+        for (int i = 0; i < stripes.length(); i++) {
+            for (Credit credit = stripes.getAndSet(i, null); credit != null; credit = credit.next) {
+                credits.add(credit);
+            }
+        }
+        credits.sort(Comparator.comparingLong(credit -> credit.saveSequence));
+        return credits;
+    }
+
+    /**
+     * Sums credits with save sequence up to the given one into amounts[0] and their net inflow into amounts[1],
+     * without taking them out.
+     */
+    void sumUpTo(long saveSequence, long[] amounts) {
+        for (int i = 0; i < stripes.length(); i++) {
+            for (Credit credit = stripes.get(i); credit != null; credit = credit.next) {
+                if (credit.saveSequence <= saveSequence) {
+                    amounts[0] += credit.record.money.amount;
+                    amounts[1] += credit.netInflow;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Money received by the account with it's journal record.
+     */
+    static final class Credit {
+        final JournalRecord record;
+        final long saveSequence;
+        final long journalSequence;
+        final long netInflow;
+        Credit next;
+
+        Credit(JournalRecord record, long saveSequence, long journalSequence, long netInflow) {
+            this.record = record;
+            this.saveSequence = saveSequence;
+            this.journalSequence = journalSequence;
+            this.netInflow = netInflow;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package domain.control;
+
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * Domain Event that failed to be handled too many times, kept in DeadLetterStore until it's replayed.
+ */
+public class DeadLetter {
+
+    public enum Type {
+        MONEY_BLOCKED, MONEY_TRANSFERED
+    }
+
+    public final long id;
+    public final Type type;
+    public final MoneyTransfer moneyTransfer;
+    public final int attempts;
+    public final long failedAt;
+    public final String error;
+
+    public DeadLetter(long id, Type type, MoneyTransfer moneyTransfer, int attempts, long failedAt, String error) {
+        this.id = id;
+        this.type = type;
+        this.moneyTransfer = moneyTransfer;
+        this.attempts = attempts;
+        this.failedAt = failedAt;
+        this.error = error;
+    }
+
+    /**
+     * One line of tab separated fields, as it's spilled to disk.
+     */
+    String toLine() {
+        return id + "\t" + type + "\t" + moneyTransfer.transferId + "\t" + moneyTransfer.accountNumber + "\t"
+            + moneyTransfer.targetBankAccountNumber + "\t" + moneyTransfer.money.currency.getCurrencyCode() + "\t"
+            + moneyTransfer.money.amount + "\t" + attempts + "\t" + failedAt + "\t" + error.replaceAll("[\t\r\n]", " ");
+    }
+
+    static DeadLetter fromLine(String line) {
+        String[] fields = line.split("\t", 10);
+        MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.fromString(fields[2]), new BankAccountNumber(fields[3]),
+            new BankAccountNumber(fields[4]), new Money(Currency.getInstance(fields[5]), Integer.parseInt(fields[6])));
+        return new DeadLetter(Long.parseLong(fields[0]), Type.valueOf(fields[1]), moneyTransfer, Integer.parseInt(fields[7]),
+            Long.parseLong(fields[8]), fields[9]);
+    }
+}
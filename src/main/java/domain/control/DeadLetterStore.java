@@ -0,0 +1,191 @@
+package domain.control;
+
+import domain.entity.MoneyTransfer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Dead letters held in memory up to given capacity - when it's reached the oldest half is spilled to a file,
+ * so heap stays bounded however many events fail. Entries are read and taken oldest first, spilled ones before
+ * the ones in memory. Spilled entries are only an overflow, they are dropped on start as recovery publishes
+ * every pending transfer again anyway.
+ * Adding and taking are rare (only failures and admin operations), so the store is simply synchronized.
+ */
+public class DeadLetterStore {
+
+    static final String spillFileName = "dead-letters.tsv";
+
+    private final int capacity;
+
+    private Path directory;
+
+    private final boolean temporaryDirectory;
+
+    private final Deque<DeadLetter> inMemory = new ArrayDeque<>();
+
+    private long spilled;
+
+    private long lastId;
+
+    /**
+     * @param directory where entries are spilled, temporary directory is created on first spill when it's null
+     *                  and deleted again when all spilled entries are taken
+     */
+    public DeadLetterStore(int capacity, Path directory) {
+        this.capacity = Math.max(1, capacity);
+        this.directory = directory;
+        this.temporaryDirectory = directory == null;
+        if (directory != null) {
+            try {
+                Files.createDirectories(directory);
+                Files.deleteIfExists(directory.resolve(spillFileName));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public synchronized DeadLetter add(DeadLetter.Type type, MoneyTransfer moneyTransfer, int attempts, String error) {
+        DeadLetter deadLetter = new DeadLetter(++lastId, type, moneyTransfer, attempts, System.currentTimeMillis(), error);
+        append(deadLetter);
+        return deadLetter;
+    }
+
+    /**
+     * Returns taken entry to the store, eg. when it could not be replayed.
+     */
+    public synchronized void putBack(DeadLetter deadLetter) {
+        append(deadLetter);
+    }
+
+    public synchronized long size() {
+        return spilled + inMemory.size();
+    }
+
+    public synchronized long spilledCount() {
+        return spilled;
+    }
+
+    /**
+     * Up to limit oldest entries, they stay in the store.
+     */
+    public synchronized List<DeadLetter> list(int limit) {
+        List<DeadLetter> deadLetters = new ArrayList<>(spilled > 0 ? readSpilled(limit) : new ArrayList<>());
+        for (DeadLetter deadLetter : inMemory) {
+            if (deadLetters.size() >= limit) {
+                break;
+            }
+            deadLetters.add(deadLetter);
+        }
+        return deadLetters;
+    }
+
+    /**
+     * Removes and returns up to limit oldest entries.
+     */
+    public synchronized List<DeadLetter> take(int limit) {
+        List<DeadLetter> deadLetters = new ArrayList<>();
+        if (spilled > 0) {
+            deadLetters.addAll(takeSpilled(limit));
+        }
+        while (deadLetters.size() < limit && !inMemory.isEmpty()) {
+            deadLetters.add(inMemory.pollFirst());
+        }
+        return deadLetters;
+    }
+
+    private void append(DeadLetter deadLetter) {
+        if (inMemory.size() >= capacity) {
+            spill((inMemory.size() + 1) / 2);
+        }
+        inMemory.addLast(deadLetter);
+    }
+
+    private void spill(int count) {
+        try (BufferedWriter writer = Files.newBufferedWriter(spillFile(), StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(inMemory.peekFirst().toLine());
+                writer.newLine();
+                // removed only once it's written, failed spill keeps it in memory
+                inMemory.pollFirst();
+                spilled++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<DeadLetter> readSpilled(int limit) {
+        List<DeadLetter> deadLetters = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(spillFile(), StandardCharsets.UTF_8)) {
+            String line;
+            while (deadLetters.size() < limit && (line = reader.readLine()) != null) {
+                deadLetters.add(DeadLetter.fromLine(line));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return deadLetters;
+    }
+
+    // rewrites the rest of the spill file - replay is an admin operation done in bulk, so it's rare
+    private List<DeadLetter> takeSpilled(int limit) {
+        Path spillFile = spillFile();
+        Path rest = spillFile.resolveSibling(spillFileName + ".tmp");
+        List<DeadLetter> deadLetters = new ArrayList<>();
+        long remaining = 0;
+        try (BufferedReader reader = Files.newBufferedReader(spillFile, StandardCharsets.UTF_8);
+             BufferedWriter writer = Files.newBufferedWriter(rest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (deadLetters.size() < limit) {
+                    deadLetters.add(DeadLetter.fromLine(line));
+                } else {
+                    writer.write(line);
+                    writer.newLine();
+                    remaining++;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            if (remaining == 0 && temporaryDirectory) {
+                Files.delete(rest);
+                Files.delete(spillFile);
+                Files.delete(directory);
+                directory = null;
+            } else {
+                Files.move(rest, spillFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        spilled = remaining;
+        return deadLetters;
+    }
+
+    private Path spillFile() {
+        if (directory == null) {
+            try {
+                directory = Files.createTempDirectory("bank-dead-letters");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return directory.resolve(spillFileName);
+    }
+}
@@ -0,0 +1,323 @@
+package domain.control;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append only journal of Bank Account changes written to memory mapped segment files.
+ * Append only copies the record into mapped memory - forcing it to disk is done by a separate flusher thread in batches
+ * (group commit), so all callers waiting for durability at the same time share a single force.
+ * Record layout in segment: [int body length][int body crc32][body], zero length marks end of written data.
+ */
+public class EventJournal implements AutoCloseable {
+
+    static final String segmentPrefix = "journal-";
+    static final String segmentSuffix = ".log";
+
+    private static final int recordHeaderSize = 8;
+    private static final long maxFlushDelayMillis = 10;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+    private final int segmentSize;
+
+    private FileChannel segmentChannel;
+    private MappedByteBuffer segment;
+    private final CRC32 crc = new CRC32();
+
+    private long nextSequence;
+    private long writtenSequence;
+    private volatile long durableSequence;
+
+    private final Object durabilityMonitor = new Object();
+    private boolean flushRequested = false;
+    private volatile boolean closed = false;
+    private final Thread flusher;
+
+    public EventJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long lastSequence = lastWrittenSequence();
+        this.nextSequence = lastSequence + 1;
+        this.writtenSequence = lastSequence;
+        this.durableSequence = lastSequence;
+        openSegment(nextSequence);
+
+        this.flusher = new Thread(this::flushLoop, "event-journal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public EventJournal(Path directory) {
+        this(directory, 64 * 1024 * 1024);
+    }
+
+    /**
+     * Copies record into current segment and returns it's sequence. Record is not durable until awaitDurable returns.
+     */
+    public synchronized long append(JournalRecord record) {
+        int bodySize = record.encodedSize();
+        if (segment.remaining() < recordHeaderSize + bodySize + 4) {
+            segment.force();
+            openSegment(nextSequence);
+        }
+
+        long sequence = nextSequence++;
+        int recordPosition = segment.position();
+        segment.position(recordPosition + recordHeaderSize);
+        record.encode(segment, sequence);
+
+        ByteBuffer body = segment.duplicate();
+        body.position(recordPosition + recordHeaderSize).limit(recordPosition + recordHeaderSize + bodySize);
+        crc.reset();
+        crc.update(body);
+        segment.putInt(recordPosition + 4, (int) crc.getValue());
+        // length is written last so a torn record is never visible as valid
+        segment.putInt(recordPosition, bodySize);
+
+        writtenSequence = sequence;
+        return sequence;
+    }
+
+    /**
+     * Blocks until record with given sequence (and all before it) is forced to disk.
+     * Throws IllegalStateException when the journal was closed before that, the record is not durable then.
+     */
+    public void awaitDurable(long sequence) {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (durabilityMonitor) {
+            flushRequested = true;
+            durabilityMonitor.notifyAll();
+            while (durableSequence < sequence && !closed) {
+                try {
+                    durabilityMonitor.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for journal", e);
+                }
+            }
+        }
+        if (durableSequence < sequence) {
+            throw new IllegalStateException("Journal closed before record " + sequence + " was durable");
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            synchronized (durabilityMonitor) {
+                if (!flushRequested) {
+                    try {
+                        durabilityMonitor.wait(maxFlushDelayMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                flushRequested = false;
+            }
+            flush();
+        }
+    }
+
+    private void flush() {
+        MappedByteBuffer toForce;
+        long toBeDurable;
+        synchronized (this) {
+            toForce = segment;
+            toBeDurable = writtenSequence;
+        }
+        if (toBeDurable == durableSequence) {
+            return;
+        }
+        toForce.force();
+        synchronized (durabilityMonitor) {
+            durableSequence = toBeDurable;
+            durabilityMonitor.notifyAll();
+        }
+    }
+
+    /**
+     * Reads all valid records from all segments in sequence order.
+     */
+    public void readAll(Consumer<JournalRecord> consumer) {
+        readFrom(0, consumer);
+    }
+
+    /**
+     * Reads valid records with sequence not lower than given one, segments holding only older records are not read at all.
+     * Invalid record ends the replay only at the tail of the last segment (torn write), anywhere else - or a gap between
+     * segments - would leave records out of the middle of the journal, so it throws IllegalStateException.
+     */
+    public void readFrom(long fromSequence, Consumer<JournalRecord> consumer) {
+        List<Path> segments = segmentFiles();
+        for (int i = 0; i < segments.size(); i++) {
+            boolean last = i + 1 == segments.size();
+            if (!last && segmentFirstSequence(segments.get(i + 1)) <= fromSequence) {
+                continue;
+            }
+            long lastSequence = readSegment(segments.get(i), last, false, record -> {
+                if (record.sequence >= fromSequence) {
+                    consumer.accept(record);
+                }
+            });
+            if (!last && lastSequence != segmentFirstSequence(segments.get(i + 1)) - 1) {
+                throw new IllegalStateException("Journal records missing after " + lastSequence + " in " + segments.get(i));
+            }
+        }
+    }
+
+    /**
+     * Deletes segments that hold only records older than given sequence, eg. already covered by a snapshot.
+     */
+    public void deleteSegmentsBefore(long sequence) {
+        List<Path> segments = segmentFiles();
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (segmentFirstSequence(segments.get(i + 1)) > sequence) {
+                return;
+            }
+            try {
+                Files.delete(segments.get(i));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reads records of segment up to zero length (end of written data). Invalid record ends the last segment,
+     * in other segments it's corruption and throws IllegalStateException.
+     * With repairTail invalid record of the last segment is overwritten by zero length, so the segment stays valid
+     * once it's no longer the last one.
+     * @return sequence of the last record read, or the one before the segment when it has none
+     */
+    private long readSegment(Path segmentPath, boolean lastSegment, boolean repairTail, Consumer<JournalRecord> consumer) {
+        long lastSequence = segmentFirstSequence(segmentPath) - 1;
+        try (FileChannel channel = repairTail
+            ? FileChannel.open(segmentPath, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(repairTail ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 readCrc = new CRC32();
+            while (buffer.remaining() >= recordHeaderSize) {
+                int recordPosition = buffer.position();
+                int bodySize = buffer.getInt();
+                int bodyCrc = buffer.getInt();
+                if (bodySize == 0) {
+                    return lastSequence;
+                }
+                boolean valid = bodySize > 0 && bodySize <= buffer.remaining();
+                ByteBuffer body = null;
+                if (valid) {
+                    body = buffer.slice();
+                    body.limit(bodySize);
+                    readCrc.reset();
+                    readCrc.update(body.duplicate());
+                    valid = (int) readCrc.getValue() == bodyCrc;
+                }
+                if (!valid) {
+                    if (!lastSegment) {
+                        throw new IllegalStateException("Corrupted journal record in " + segmentPath + " at " + recordPosition);
+                    }
+                    logger.warn("Journal ends with invalid record in " + segmentPath + " at " + recordPosition);
+                    if (repairTail) {
+                        buffer.putInt(recordPosition, 0);
+                        buffer.force();
+                    }
+                    return lastSequence;
+                }
+                JournalRecord record = JournalRecord.decode(body);
+                lastSequence = record.sequence;
+                consumer.accept(record);
+                buffer.position(buffer.position() + bodySize);
+            }
+            return lastSequence;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long lastWrittenSequence() {
+        List<Path> segments = segmentFiles();
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        return readSegment(segments.get(segments.size() - 1), true, true, record -> { });
+    }
+
+    List<Path> segmentFiles() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().startsWith(segmentPrefix))
+                .filter(path -> path.getFileName().toString().endsWith(segmentSuffix))
+                .sorted()
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long segmentFirstSequence(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return Long.parseLong(name.substring(segmentPrefix.length(), name.length() - segmentSuffix.length()));
+    }
+
+    private void openSegment(long firstSequence) {
+        try {
+            if (segmentChannel != null) {
+                segmentChannel.close();
+            }
+            Path segmentPath = directory.resolve(String.format("%s%020d%s", segmentPrefix, firstSequence, segmentSuffix));
+            // segment with the same first sequence can exist only when nothing valid was written to it
+            segmentChannel = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized long getWrittenSequence() {
+        return writtenSequence;
+    }
+
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    @Override
+    public void close() {
+        flush();
+        closed = true;
+        flusher.interrupt();
+        synchronized (durabilityMonitor) {
+            durabilityMonitor.notifyAll();
+        }
+        synchronized (this) {
+            try {
+                segmentChannel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+import java.util.UUID;
+
+/**
+ * Single change of one Bank Account as written to the EventJournal.
+ * Every record touches exactly one account so the journal can be replayed in parallel per account.
+ */
+public class JournalRecord {
+
+    public enum Type {
+        ACCOUNT_CREATED, MONEY_BLOCKED, MONEY_RECEIVED, MONEY_CONFIRMED
+    }
+
+    private static final UUID noTransfer = new UUID(0, 0);
+    private static final BankAccountNumber noAccount = new BankAccountNumber("");
+
+    public final Type type;
+    public final long sequence;
+    public final long timestamp;
+    public final BankAccountNumber accountNumber;
+    public final UUID transferId;
+    public final BankAccountNumber targetAccountNumber;
+    public final Money money;
+
+    JournalRecord(Type type, long sequence, long timestamp, BankAccountNumber accountNumber, UUID transferId,
+                  BankAccountNumber targetAccountNumber, Money money) {
+        this.type = type;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.accountNumber = accountNumber;
+        this.transferId = transferId;
+        this.targetAccountNumber = targetAccountNumber;
+        this.money = money;
+    }
+
+    public static JournalRecord accountCreated(BankAccountNumber accountNumber, Money initialMoney) {
+        return new JournalRecord(Type.ACCOUNT_CREATED, 0, System.currentTimeMillis(), accountNumber, noTransfer, noAccount, initialMoney);
+    }
+
+    public static JournalRecord moneyBlocked(MoneyTransfer moneyTransfer) {
+        return new JournalRecord(Type.MONEY_BLOCKED, 0, System.currentTimeMillis(), moneyTransfer.accountNumber,
+            moneyTransfer.transferId, moneyTransfer.targetBankAccountNumber, moneyTransfer.money);
+    }
+
+    public static JournalRecord moneyReceived(MoneyTransfer moneyTransfer) {
+        return moneyReceived(moneyTransfer, moneyTransfer.money);
+    }
+
+    /**
+     * Money received by the target account, in it's currency when the transfer was converted.
+     */
+    public static JournalRecord moneyReceived(MoneyTransfer moneyTransfer, Money receivedMoney) {
+        return new JournalRecord(Type.MONEY_RECEIVED, 0, System.currentTimeMillis(), moneyTransfer.targetBankAccountNumber,
+            moneyTransfer.transferId, moneyTransfer.accountNumber, receivedMoney);
+    }
+
+    public static JournalRecord moneyConfirmed(MoneyTransfer moneyTransfer) {
+        return new JournalRecord(Type.MONEY_CONFIRMED, 0, System.currentTimeMillis(), moneyTransfer.accountNumber,
+            moneyTransfer.transferId, moneyTransfer.targetBankAccountNumber, moneyTransfer.money);
+    }
+
+    /**
+     * Creates new Bank Account for ACCOUNT_CREATED record or applies the change to existing one.
+     */
+    BankAccountEntity applyTo(BankAccountEntity bankAccount) {
+        switch (type) {
+            case ACCOUNT_CREATED:
+                BankAccountEntity created = new BankAccountEntity(UUID.randomUUID(), accountNumber, money.currency);
+                created.receiveMoneyTransfer(money);
+                return created;
+            case MONEY_BLOCKED:
+                bankAccount.startMoneyTransfer(transferId, targetAccountNumber, money);
+                return bankAccount;
+            case MONEY_RECEIVED:
+                bankAccount.receiveMoneyTransfer(money);
+                return bankAccount;
+            case MONEY_CONFIRMED:
+                bankAccount.confirmMoneyTransfer(transferId);
+                return bankAccount;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + type);
+        }
+    }
+
+    public MoneyTransfer moneyTransfer() {
+        return type == Type.MONEY_RECEIVED
+            ? new MoneyTransfer(transferId, targetAccountNumber, accountNumber, money)
+            : new MoneyTransfer(transferId, accountNumber, targetAccountNumber, money);
+    }
+
+
+    // binary layout: type, sequence, timestamp, account, transferId, target account, currency, amount
+
+    int encodedSize() {
+        return 1 + 8 + 8 + stringSize(accountNumber.toString()) + 16 + stringSize(targetAccountNumber.toString())
+            + stringSize(money.currency.getCurrencyCode()) + 4;
+    }
+
+    void encode(ByteBuffer buffer, long sequence) {
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(sequence);
+        buffer.putLong(timestamp);
+        putString(buffer, accountNumber.toString());
+        buffer.putLong(transferId.getMostSignificantBits());
+        buffer.putLong(transferId.getLeastSignificantBits());
+        putString(buffer, targetAccountNumber.toString());
+        putString(buffer, money.currency.getCurrencyCode());
+        buffer.putInt(money.amount);
+    }
+
+    static JournalRecord decode(ByteBuffer buffer) {
+        Type type = Type.values()[buffer.get()];
+        long sequence = buffer.getLong();
+        long timestamp = buffer.getLong();
+        BankAccountNumber accountNumber = new BankAccountNumber(getString(buffer));
+        UUID transferId = new UUID(buffer.getLong(), buffer.getLong());
+        BankAccountNumber targetAccountNumber = new BankAccountNumber(getString(buffer));
+        Currency currency = Currency.getInstance(getString(buffer));
+        Money money = new Money(currency, buffer.getInt());
+        return new JournalRecord(type, sequence, timestamp, accountNumber, transferId, targetAccountNumber, money);
+    }
+
+    static int stringSize(String value) {
+        return 2 + value.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + " " + accountNumber + " " + transferId + " " + money;
+    }
+}
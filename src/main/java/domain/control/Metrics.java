@@ -0,0 +1,227 @@
+package domain.control;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registry of counters, gauges and latency histograms written in Prometheus text format.
+ * Counters and histogram buckets are striped LongAdders, so recording on hot paths never locks and hardly contends,
+ * gauges and function counters are read only when metrics are written. Registration is expected at start.
+ * Disabled registry hands out no-op counters and histograms (histogram does not even read the clock) and writes nothing.
+ */
+public class Metrics {
+
+    // upper bounds of histogram buckets, 1 us to 10 s
+    private static final long[] bucketBoundsNanos = {
+        1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+        1_000_000, 2_500_000, 5_000_000, 10_000_000, 25_000_000, 50_000_000, 100_000_000, 250_000_000, 500_000_000,
+        1_000_000_000, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L};
+
+    private static final String[] bucketLabels = Arrays.stream(bucketBoundsNanos).mapToObj(Metrics::seconds).toArray(String[]::new);
+
+    private static final Metrics disabled = new Metrics(false);
+
+    private final boolean enabled;
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static Metrics disabled() {
+        return disabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param labels label names and values, one after another
+     */
+    public Counter counter(String name, String help, String... labels) {
+        if (!enabled) {
+            return Counter.noop;
+        }
+        return (Counter) series(name, help, "counter", labels, Counter::new);
+    }
+
+    /**
+     * Counter read from given function, eg. from a counter that is kept anyway.
+     */
+    public void functionCounter(String name, String help, LongSupplier value, String... labels) {
+        if (enabled) {
+            series(name, help, "counter", labels, () -> (Sample) (seriesName, seriesLabels, out) -> sample(out, seriesName, seriesLabels, value.getAsLong()));
+        }
+    }
+
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        if (enabled) {
+            series(name, help, "gauge", labels, () -> (Sample) (seriesName, seriesLabels, out) -> sample(out, seriesName, seriesLabels, value.getAsLong()));
+        }
+    }
+
+    /**
+     * Histogram of durations, written in seconds.
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        if (!enabled) {
+            return Histogram.noop;
+        }
+        return (Histogram) series(name, help, "histogram", labels, Histogram::new);
+    }
+
+    /**
+     * Writes all metrics in Prometheus text exposition format (version 0.0.4).
+     */
+    public synchronized void writeTo(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            Family family = entry.getValue();
+            out.append("# HELP ").append(entry.getKey()).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(entry.getKey()).append(' ').append(family.type).append('\n');
+            family.series.forEach((labels, sample) -> sample.write(entry.getKey(), labels, out));
+        }
+    }
+
+    private synchronized Sample series(String name, String help, String type, String[] labels, Supplier<Sample> newSample) {
+        Family family = families.computeIfAbsent(name, familyName -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+        }
+        return family.series.computeIfAbsent(labels(labels), seriesLabels -> newSample.get());
+    }
+
+    private static String labels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels have to be pairs of name and value: " + Arrays.toString(labels));
+        }
+        List<String> pairs = new ArrayList<>();
+        for (int i = 0; i < labels.length; i += 2) {
+            pairs.add(labels[i] + "=\"" + labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"");
+        }
+        return String.join(",", pairs);
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+    }
+
+
+    private interface Sample {
+        void write(String name, String labels, StringBuilder out);
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Sample> series = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    public static class Counter implements Sample {
+        private static final Counter noop = new Counter() {
+            @Override
+            public void add(long value) {
+            }
+        };
+
+        private final LongAdder count = new LongAdder();
+
+        private Counter() {
+        }
+
+        public void increment() {
+            add(1);
+        }
+
+        public void add(long value) {
+            count.add(value);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+
+        @Override
+        public void write(String name, String labels, StringBuilder out) {
+            sample(out, name, labels, get());
+        }
+    }
+
+    public static class Histogram implements Sample {
+        private static final Histogram noop = new Histogram() {
+            @Override
+            public long start() {
+                return 0;
+            }
+
+            @Override
+            public void recordSince(long startNanos) {
+            }
+
+            @Override
+            public void record(long nanos) {
+            }
+        };
+
+        // last one counts values over the highest bound
+        private final LongAdder[] buckets = new LongAdder[bucketBoundsNanos.length + 1];
+
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Start time to be passed to recordSince.
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public void record(long nanos) {
+            int index = Arrays.binarySearch(bucketBoundsNanos, nanos);
+            buckets[index >= 0 ? index : -index - 1].increment();
+            sumNanos.add(nanos);
+        }
+
+        @Override
+        public void write(String name, String labels, StringBuilder out) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                count += buckets[i].sum();
+                sample(out, name + "_bucket", prefix + "le=\"" + (i < bucketLabels.length ? bucketLabels[i] : "+Inf") + "\"", count);
+            }
+            sample(out, name + "_sum", labels, seconds(sumNanos.sum()));
+            sample(out, name + "_count", labels, count);
+        }
+    }
+}
@@ -0,0 +1,415 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.MoneyTransfer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Reconciliation of all accounts of a BankAccountRepository as they were at one point in time - the cut - while saves go on.
+ * Every save has a sequence and the cut is the last sequence before the reconciliation started: the save that moves
+ * an account past the cut first keeps it's row as it was (copy on write), so the reconciliation reads every account
+ * as of the cut. Sequences follow causality (a transfer received before it's confirmed), so the cut is consistent -
+ * each transfer is seen in one state on both of it's accounts.
+ * Accounts are read in parallel by fork/join tasks over ranges of slots, each under lock of it's row only. Credits
+ * waiting in CreditCells of a hot account are added to it's row when they came up to the cut.
+ * It totals balances, blocked money and in flight transfers per currency, and flags:
+ * <ul>
+ * <li>account with negative balance, blocking more than it's balance or blocking other amount than it's pending transfers</li>
+ * <li>transfer credited to it's target but not blocked on it's source account (money created)</li>
+ * <li>money of a currency - balances less transfers counted on both accounts - that differs from net inflow
+ * of the currency (money created or lost), see AccountTable</li>
+ * </ul>
+ */
+public class Reconciliation {
+
+    public enum State {
+        NEW, RUNNING, COMPLETED, FAILED
+    }
+
+    private static final int slotsPerTask = 4096;
+
+    static final int maxViolations = 100;
+
+    private final BankAccountRepository bankAccountRepository;
+
+    private final AccountTable accountTable;
+
+    // written before the cut is opened, never changed after
+    long cut;
+
+    // rows as they were at the cut, of accounts saved since
+    final ConcurrentHashMap<Integer, AccountTable.RowVersion> cutRows = new ConcurrentHashMap<>();
+
+    // transfers received before the cut and confirmed after it
+    final ConcurrentHashMap<UUID, BankAccountRepository.ReceivedTransfer> confirmedAfterCut = new ConcurrentHashMap<>();
+
+    private final AtomicInteger scannedSlots = new AtomicInteger();
+
+    private volatile int slots;
+
+    private volatile State state = State.NEW;
+
+    private volatile long startedAt;
+
+    private volatile long scanNanos;
+
+    private volatile long durationNanos;
+
+    private volatile Report report;
+
+    private volatile String error;
+
+    Reconciliation(BankAccountRepository bankAccountRepository, AccountTable accountTable) {
+        this.bankAccountRepository = bankAccountRepository;
+        this.accountTable = accountTable;
+    }
+
+    /**
+     * Reconciles all accounts in the common fork/join pool, it can run only once.
+     */
+    public Report run() {
+        return run(ForkJoinPool.commonPool());
+    }
+
+    public Report run(ForkJoinPool forkJoinPool) {
+        synchronized (this) {
+            if (state != State.NEW) {
+                throw new IllegalStateException("Reconciliation already " + state);
+            }
+            state = State.RUNNING;
+        }
+        startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            slots = bankAccountRepository.openCut(this);
+            try {
+                Scan scan = forkJoinPool.invoke(new ScanTask(1, slots + 1));
+                scanNanos = System.nanoTime() - start;
+                // every save up to the cut has finished by now - each waited for (or was waited by) it's row read
+                report = matchTransfers(scan);
+            } finally {
+                bankAccountRepository.closeCut(this);
+            }
+            state = State.COMPLETED;
+            return report;
+        } catch (RuntimeException e) {
+            error = e.toString();
+            state = State.FAILED;
+            throw e;
+        } finally {
+            durationNanos = System.nanoTime() - start;
+        }
+    }
+
+    public State state() {
+        return state;
+    }
+
+    public boolean isDone() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    /**
+     * Part of accounts already read, from 0 to 1.
+     */
+    public double progress() {
+        int slots = this.slots;
+        return state == State.COMPLETED ? 1 : slots == 0 ? 0 : Math.min(1, (double) scannedSlots.get() / slots);
+    }
+
+    /**
+     * Sequence of the last save that is included, 0 before it starts.
+     */
+    public long cut() {
+        return cut;
+    }
+
+    public long startedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Time of reading all accounts in nanoseconds, 0 until it's finished.
+     */
+    public long scanNanos() {
+        return scanNanos;
+    }
+
+    /**
+     * Time of the whole reconciliation in nanoseconds, 0 until it's finished.
+     */
+    public long durationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Report of completed reconciliation, null until then.
+     */
+    public Report report() {
+        return report;
+    }
+
+    /**
+     * Error of failed reconciliation, null otherwise.
+     */
+    public String error() {
+        return error;
+    }
+
+    private AccountTable.RowVersion rowAtCut(int slot) {
+        AccountTable.RowVersion row;
+        StampedLock lock = accountTable.lock(slot);
+        if (accountTable.creditCells(slot) != null) {
+            // credits take the read lock, the write one waits for those in progress
+            long stamp = lock.writeLock();
+            try {
+                row = accountTable.version(slot, cut);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        } else {
+            long stamp = lock.readLock();
+            try {
+                row = accountTable.version(slot, cut);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (row.saveSequence <= cut) {
+            return row;
+        }
+        AccountTable.RowVersion cutRow = cutRows.get(slot);
+        if (cutRow == null) {
+            throw new IllegalStateException("Row of slot " + slot + " was saved after the cut but it wasn't kept");
+        }
+        return cutRow;
+    }
+
+    private void scan(int slot, Scan scan) {
+        AccountTable.RowVersion row = rowAtCut(slot);
+        if (row.isEmpty()) {
+            return;
+        }
+        BankAccountNumber bankAccountNumber = accountTable.bankAccountNumberOf(slot);
+        Totals totals = scan.totals(row.currency);
+        totals.accounts++;
+        totals.balance += row.balance;
+        totals.blocked += row.blocked;
+        totals.netInflow += row.netInflow;
+        if (row.balance < 0) {
+            scan.violation(bankAccountNumber + " has negative balance " + row.balance + " " + row.currency);
+        }
+        if (row.blocked > row.balance) {
+            scan.violation(bankAccountNumber + " blocks " + row.blocked + " " + row.currency + " of it's balance " + row.balance);
+        }
+        long pendingAmount = 0;
+        BankAccountEntity pendingAccount = row.pendingAccount;
+        if (pendingAccount != null) {
+            for (MoneyTransfer moneyTransfer : pendingAccount.getPendingTransfers()) {
+                pendingAmount += moneyTransfer.money.amount;
+                totals.pendingTransfers++;
+                if (bankAccountRepository.currencyOf(moneyTransfer.targetBankAccountNumber) != null) {
+                    scan.pendingToThisBank.put(moneyTransfer.transferId, moneyTransfer);
+                } else {
+                    totals.outboundTransfers++;
+                    totals.outboundAmount += moneyTransfer.money.amount;
+                }
+            }
+        }
+        if (pendingAmount != row.blocked) {
+            scan.violation(bankAccountNumber + " blocks " + row.blocked + " " + row.currency + " but it's pending transfers "
+                + pendingAmount);
+        }
+    }
+
+    private Report matchTransfers(Scan scan) {
+        // confirmation keeps the transfer for the cut before it removes it, so they are read the other way round
+        Map<UUID, BankAccountRepository.ReceivedTransfer> receivedTransfers = new HashMap<>();
+        bankAccountRepository.receivedTransfers().forEach((transferId, receivedTransfer) -> {
+            if (receivedTransfer.sequence <= cut) {
+                receivedTransfers.put(transferId, receivedTransfer);
+            }
+        });
+        receivedTransfers.putAll(confirmedAfterCut);
+        receivedTransfers.forEach((transferId, receivedTransfer) -> {
+            MoneyTransfer pendingTransfer = scan.pendingToThisBank.remove(transferId);
+            if (!receivedTransfer.converted) {
+                Totals totals = scan.totals(receivedTransfer.money.currency);
+                totals.creditedTransfers++;
+                totals.creditedAmount += receivedTransfer.money.amount;
+            }
+            if (pendingTransfer == null) {
+                scan.violation("Transfer " + transferId + " credited " + receivedTransfer.money + " to " + receivedTransfer.targetAccount
+                    + " but it's not blocked on " + receivedTransfer.sourceAccount);
+            } else if (receivedTransfer.converted) {
+                Totals totals = scan.totals(pendingTransfer.money.currency);
+                totals.convertedTransfers++;
+                totals.convertedAmount += pendingTransfer.money.amount;
+            } else if (!pendingTransfer.money.equals(receivedTransfer.money)) {
+                scan.violation("Transfer " + transferId + " credited " + receivedTransfer.money + " to " + receivedTransfer.targetAccount
+                    + " but " + pendingTransfer.money + " is blocked on " + receivedTransfer.sourceAccount);
+            }
+        });
+        // blocked money of transfers not received yet
+        for (MoneyTransfer moneyTransfer : scan.pendingToThisBank.values()) {
+            Totals totals = scan.totals(moneyTransfer.money.currency);
+            totals.inFlightTransfers++;
+            totals.inFlightAmount += moneyTransfer.money.amount;
+        }
+        scan.totals.forEach((currency, totals) -> {
+            long difference = totals.money() - totals.netInflow;
+            if (difference != 0) {
+                scan.violation("Money in " + currency + " " + (difference > 0 ? "created: " : "lost: ") + Math.abs(difference));
+            }
+        });
+        return new Report(cut, scan);
+    }
+
+
+    /**
+     * Totals of a currency at the cut, amounts are in minor units. Transfer amounts are in currency of their source account.
+     */
+    public static final class Totals {
+        public long accounts;
+        public long balance;
+        public long blocked;
+        public long netInflow;
+        public long pendingTransfers;
+        // blocked on source, not received by target in this bank yet
+        public long inFlightTransfers;
+        public long inFlightAmount;
+        // received by target in the same currency, not confirmed by source yet - counted in balances of both
+        public long creditedTransfers;
+        public long creditedAmount;
+        // received by target in other currency, not confirmed by source yet
+        public long convertedTransfers;
+        public long convertedAmount;
+        // blocked on source for another shard or bank
+        public long outboundTransfers;
+        public long outboundAmount;
+
+        /**
+         * Money of the currency in this bank - balances less transfers counted in both of them.
+         */
+        public long money() {
+            return balance - creditedAmount;
+        }
+
+        void add(Totals other) {
+            accounts += other.accounts;
+            balance += other.balance;
+            blocked += other.blocked;
+            netInflow += other.netInflow;
+            pendingTransfers += other.pendingTransfers;
+            inFlightTransfers += other.inFlightTransfers;
+            inFlightAmount += other.inFlightAmount;
+            creditedTransfers += other.creditedTransfers;
+            creditedAmount += other.creditedAmount;
+            convertedTransfers += other.convertedTransfers;
+            convertedAmount += other.convertedAmount;
+            outboundTransfers += other.outboundTransfers;
+            outboundAmount += other.outboundAmount;
+        }
+    }
+
+    /**
+     * Outcome of reconciliation - totals per currency and (up to maxViolations) violated invariants.
+     */
+    public static final class Report {
+        public final long cut;
+        public final long accounts;
+        public final Map<Currency, Totals> totals;
+        public final long violationsCount;
+        public final List<String> violations;
+
+        Report(long cut, Scan scan) {
+            this.cut = cut;
+            this.accounts = scan.totals.values().stream().mapToLong(totals -> totals.accounts).sum();
+            this.totals = Collections.unmodifiableMap(scan.totals);
+            this.violationsCount = scan.violationsCount;
+            this.violations = Collections.unmodifiableList(scan.violations);
+        }
+
+        public boolean isConsistent() {
+            return violationsCount == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Reconciliation at " + cut + " of " + accounts + " accounts, violations: " + violationsCount + " " + violations;
+        }
+    }
+
+    private static final class Scan {
+        final Map<Currency, Totals> totals = new LinkedHashMap<>();
+        final Map<UUID, MoneyTransfer> pendingToThisBank = new HashMap<>();
+        final List<String> violations = new ArrayList<>();
+        long violationsCount;
+
+        Totals totals(Currency currency) {
+            return totals.computeIfAbsent(currency, c -> new Totals());
+        }
+
+        void violation(String violation) {
+            if (violations.size() < maxViolations) {
+                violations.add(violation);
+            }
+            violationsCount++;
+        }
+
+        Scan merge(Scan other) {
+            other.totals.forEach((currency, totals) -> totals(currency).add(totals));
+            pendingToThisBank.putAll(other.pendingToThisBank);
+            for (String violation : other.violations) {
+                if (violations.size() < maxViolations) {
+                    violations.add(violation);
+                }
+            }
+            violationsCount += other.violationsCount;
+            return this;
+        }
+    }
+
+    private final class ScanTask extends RecursiveTask<Scan> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        ScanTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Scan compute() {
+            if (to - from <= slotsPerTask) {
+                Scan scan = new Scan();
+                for (int slot = from; slot < to; slot++) {
+                    scan(slot, scan);
+                }
+                scannedSlots.addAndGet(to - from);
+                return scan;
+            }
+            int middle = (from + to) >>> 1;
+            ScanTask right = new ScanTask(middle, to);
+            right.fork();
+            Scan left = new ScanTask(from, middle).compute();
+            return left.merge(right.join());
+        }
+    }
+}
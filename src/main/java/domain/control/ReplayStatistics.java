@@ -0,0 +1,36 @@
+package domain.control;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of rebuilding BankAccountRepository from snapshot and EventJournal - how much was replayed and how long it took.
+ * Holds also ids of transfers already received by target accounts, so in flight transfers can be resumed.
+ */
+public class ReplayStatistics {
+
+    public final int snapshotAccounts;
+    public final long records;
+    public final int accounts;
+    public final long durationNanos;
+    public final Set<UUID> receivedTransfers;
+
+    public ReplayStatistics(int snapshotAccounts, long records, int accounts, long durationNanos, Set<UUID> receivedTransfers) {
+        this.snapshotAccounts = snapshotAccounts;
+        this.records = records;
+        this.accounts = accounts;
+        this.durationNanos = durationNanos;
+        this.receivedTransfers = receivedTransfers;
+    }
+
+    public long eventsPerSecond() {
+        return durationNanos == 0 ? records : records * TimeUnit.SECONDS.toNanos(1) / durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "loaded " + snapshotAccounts + " accounts from snapshot, replayed " + records + " events, " + accounts
+            + " accounts in " + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms (" + eventsPerSecond() + " events/s)";
+    }
+}
@@ -0,0 +1,162 @@
+package domain.control;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.stream.Stream;
+
+/**
+ * FIFO queue of byte records in segment files - records are appended to the newest segment, read from the oldest one,
+ * and a segment is deleted as soon as it's read. Layout of a segment: [int length][bytes] per record.
+ * It's an overflow of an in memory queue, not a durable store - nothing is synced and segments left from the previous
+ * run are deleted on start. Directory is created on first append (temporary one when none is given, it's deleted
+ * again whenever the queue drains).
+ */
+public class SegmentedFileQueue {
+
+    static final String segmentPrefix = "segment-";
+    static final String segmentSuffix = ".queue";
+
+    private final long segmentBytes;
+
+    private Path directory;
+
+    private final boolean temporaryDirectory;
+
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    private long nextSegmentNumber;
+
+    private long size;
+
+    private DataOutputStream writer;
+
+    private DataInputStream reader;
+
+    public SegmentedFileQueue(Path directory, long segmentBytes) {
+        this.directory = directory;
+        this.temporaryDirectory = directory == null;
+        this.segmentBytes = segmentBytes;
+        if (directory != null && Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.startsWith(segmentPrefix) && name.endsWith(segmentSuffix)) {
+                        Files.delete(file);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public synchronized void add(byte[] record) {
+        try {
+            Segment tail = segments.peekLast();
+            if (tail == null || tail.bytes >= segmentBytes) {
+                tail = newSegment();
+            }
+            writer.writeInt(record.length);
+            writer.write(record);
+            tail.bytes += Integer.BYTES + record.length;
+            tail.written++;
+            size++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Oldest record, null when the queue is empty.
+     */
+    public synchronized byte[] poll() {
+        if (size == 0) {
+            return null;
+        }
+        try {
+            Segment head = segments.peekFirst();
+            if (head == segments.peekLast()) {
+                // reading the segment that is being written
+                writer.flush();
+            }
+            if (reader == null) {
+                reader = new DataInputStream(new BufferedInputStream(Files.newInputStream(head.path), 64 * 1024));
+            }
+            byte[] record = new byte[reader.readInt()];
+            reader.readFully(record);
+            head.read++;
+            size--;
+            if (head.read == head.written && (head != segments.peekLast() || size == 0)) {
+                deleteHead();
+            }
+            return record;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Directory of segments, null before first append and while temporary one is deleted.
+     */
+    synchronized Path directory() {
+        return directory;
+    }
+
+    private Segment newSegment() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        if (directory == null) {
+            directory = Files.createTempDirectory("bank-queue");
+        }
+        Files.createDirectories(directory);
+        Segment segment = new Segment(directory.resolve(String.format("%s%012d%s", segmentPrefix, nextSegmentNumber++, segmentSuffix)));
+        writer = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment.path,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 64 * 1024));
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private void deleteHead() throws IOException {
+        Segment head = segments.pollFirst();
+        reader.close();
+        reader = null;
+        if (segments.isEmpty()) {
+            writer.close();
+            writer = null;
+        }
+        Files.delete(head.path);
+        if (segments.isEmpty() && temporaryDirectory) {
+            Files.delete(directory);
+            directory = null;
+        }
+    }
+
+    private static final class Segment {
+        final Path path;
+        long bytes;
+        long written;
+        long read;
+
+        Segment(Path path) {
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Binary snapshots of all Bank Accounts kept in a directory - only the latest complete snapshot is kept.
+ * Snapshot is streamed to a FileChannel from a reusable buffer and loaded back through mapped windows of the file.
+ * Layout: [int magic][int version][long startSequence][int receivedCount][received transfer ids], then processed
+ * transfer ids [id][long timestamp] terminated by Long.MIN_VALUE timestamp, then account records [int length][account]
+ * terminated by zero length and [int accountCount].
+ */
+public class SnapshotStore {
+
+    static final String snapshotPrefix = "snapshot-";
+    static final String snapshotSuffix = ".snap";
+
+    private static final int magic = 0x52455653;
+    private static final int version = 2;
+    private static final long endOfTransferIds = Long.MIN_VALUE;
+    private static final int writeBufferSize = 1024 * 1024;
+    private static final long mappedWindowSize = 256 * 1024 * 1024;
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes snapshot of given accounts. Journal records from startSequence on are not guaranteed to be in the snapshot,
+     * records of an account with sequence up to it's journalSequence are.
+     */
+    public Path write(long startSequence, Collection<UUID> receivedTransfers, TransferIdIndex transferIdIndex,
+                      Iterable<BankAccountEntity> bankAccounts) {
+        Path snapshot = directory.resolve(String.format("%s%020d%s", snapshotPrefix, startSequence, snapshotSuffix));
+        Path temporary = directory.resolve(snapshot.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SnapshotWriter writer = new SnapshotWriter(channel);
+            writer.reserve(20)
+                .putInt(magic)
+                .putInt(version)
+                .putLong(startSequence)
+                .putInt(receivedTransfers.size());
+            for (UUID transferId : receivedTransfers) {
+                writer.reserve(16).putLong(transferId.getMostSignificantBits()).putLong(transferId.getLeastSignificantBits());
+            }
+            transferIdIndex.forEach((transferId, timestamp) -> {
+                try {
+                    writer.reserve(24).putLong(transferId.getMostSignificantBits())
+                        .putLong(transferId.getLeastSignificantBits()).putLong(timestamp);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.reserve(24).putLong(0).putLong(0).putLong(endOfTransferIds);
+
+            int accountCount = 0;
+            for (BankAccountEntity bankAccount : bankAccounts) {
+                List<MoneyTransfer> pendingTransfers = bankAccount.getPendingTransfers();
+                int size = accountSize(bankAccount, pendingTransfers);
+
+                ByteBuffer buffer = writer.reserve(4 + size).putInt(size);
+                JournalRecord.putString(buffer, bankAccount.bankAccountNumber.toString());
+                JournalRecord.putString(buffer, bankAccount.getAccountCurrency().getCurrencyCode());
+                buffer.putLong(bankAccount.getJournalSequence());
+                buffer.putInt(bankAccount.getAccountBalance().amount);
+                buffer.putInt(pendingTransfers.size());
+                for (MoneyTransfer transfer : pendingTransfers) {
+                    buffer.putLong(transfer.transferId.getMostSignificantBits());
+                    buffer.putLong(transfer.transferId.getLeastSignificantBits());
+                    JournalRecord.putString(buffer, transfer.targetBankAccountNumber.toString());
+                    buffer.putInt(transfer.money.amount);
+                }
+                accountCount++;
+            }
+            writer.reserve(8).putInt(0).putInt(accountCount);
+            writer.flush();
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        try {
+            Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+            for (Path older : snapshotFiles()) {
+                if (!older.equals(snapshot)) {
+                    Files.delete(older);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return snapshot;
+    }
+
+    private static int accountSize(BankAccountEntity bankAccount, List<MoneyTransfer> pendingTransfers) {
+        int size = JournalRecord.stringSize(bankAccount.bankAccountNumber.toString())
+            + JournalRecord.stringSize(bankAccount.getAccountCurrency().getCurrencyCode()) + 8 + 4 + 4;
+        for (MoneyTransfer transfer : pendingTransfers) {
+            size += 16 + JournalRecord.stringSize(transfer.targetBankAccountNumber.toString()) + 4;
+        }
+        return size;
+    }
+
+    public Optional<Path> latest() {
+        List<Path> snapshots = snapshotFiles();
+        return snapshots.isEmpty() ? Optional.empty() : Optional.of(snapshots.get(snapshots.size() - 1));
+    }
+
+    /**
+     * Loads snapshot, passing every account to the consumer and adding in flight transfers to receivedTransfers
+     * and processed transfer ids to transferIdIndex.
+     * @return start sequence of the snapshot - journal has to be replayed from it
+     */
+    public long load(Path snapshot, Set<UUID> receivedTransfers, TransferIdIndex transferIdIndex, Consumer<BankAccountEntity> consumer) {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            SnapshotReader reader = new SnapshotReader(channel);
+            ByteBuffer header = reader.next(20);
+            if (header.getInt() != magic || header.getInt() != version) {
+                throw new IllegalStateException("Not a snapshot file or unsupported version " + snapshot);
+            }
+            long startSequence = header.getLong();
+            int receivedCount = header.getInt();
+            for (int i = 0; i < receivedCount; i++) {
+                ByteBuffer transferId = reader.next(16);
+                receivedTransfers.add(new UUID(transferId.getLong(), transferId.getLong()));
+            }
+            while (true) {
+                ByteBuffer processedTransfer = reader.next(24);
+                UUID transferId = new UUID(processedTransfer.getLong(), processedTransfer.getLong());
+                long timestamp = processedTransfer.getLong();
+                if (timestamp == endOfTransferIds) {
+                    break;
+                }
+                transferIdIndex.add(transferId, timestamp);
+            }
+
+            int size;
+            while ((size = reader.next(4).getInt()) > 0) {
+                consumer.accept(readBankAccount(reader.next(size)));
+            }
+            return startSequence;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BankAccountEntity readBankAccount(ByteBuffer buffer) {
+        BankAccountNumber bankAccountNumber = new BankAccountNumber(JournalRecord.getString(buffer));
+        Currency currency = Currency.getInstance(JournalRecord.getString(buffer));
+        long journalSequence = buffer.getLong();
+        Money accountBalance = new Money(currency, buffer.getInt());
+        int pendingCount = buffer.getInt();
+        List<MoneyTransfer> pendingTransfers = new ArrayList<>(pendingCount);
+        for (int i = 0; i < pendingCount; i++) {
+            UUID transferId = new UUID(buffer.getLong(), buffer.getLong());
+            BankAccountNumber target = new BankAccountNumber(JournalRecord.getString(buffer));
+            pendingTransfers.add(new MoneyTransfer(transferId, bankAccountNumber, target, new Money(currency, buffer.getInt())));
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return BankAccountEntity.restore(new UUID(random.nextLong(), random.nextLong()), bankAccountNumber, accountBalance,
+            pendingTransfers, journalSequence);
+    }
+
+    private List<Path> snapshotFiles() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                .filter(path -> path.getFileName().toString().startsWith(snapshotPrefix))
+                .filter(path -> path.getFileName().toString().endsWith(snapshotSuffix))
+                .sorted()
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    private static class SnapshotWriter {
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(writeBufferSize);
+
+        SnapshotWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ByteBuffer reserve(int size) throws IOException {
+            if (buffer.remaining() < size) {
+                flush();
+                if (buffer.capacity() < size) {
+                    buffer = ByteBuffer.allocateDirect(size);
+                }
+            }
+            return buffer;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads file through mapped windows, so snapshots bigger than a single mapping can be loaded.
+     */
+    private static class SnapshotReader {
+        private final FileChannel channel;
+        private final long fileSize;
+        private long windowStart = 0;
+        private ByteBuffer window = ByteBuffer.allocate(0);
+
+        SnapshotReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+        }
+
+        ByteBuffer next(int size) throws IOException {
+            if (window.remaining() < size) {
+                windowStart += window.position();
+                long windowSize = Math.min(Math.max(mappedWindowSize, size), fileSize - windowStart);
+                if (windowSize < size) {
+                    throw new IllegalStateException("Snapshot file is truncated");
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            }
+            ByteBuffer slice = window.slice();
+            slice.limit(size);
+            window.position(window.position() + size);
+            return slice;
+        }
+    }
+}
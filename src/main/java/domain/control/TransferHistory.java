@@ -0,0 +1,139 @@
+package domain.control;
+
+import domain.entity.BankAccountNumber;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Per account history of transfers - blocked and confirmed outgoing ones and received ones, in the order they were saved.
+ * Every account has an append only log of journal records split into fixed size chunks, so appending never copies
+ * and readers page through it lock free by cursor (position of the record, starting at 1).
+ * Only the latest retained records of each account are kept, the oldest chunk is dropped when a new one is started.
+ */
+public class TransferHistory {
+
+    private static final int chunkShift = 8;
+
+    private static final int chunkSize = 1 << chunkShift;
+
+    private static final int chunkMask = chunkSize - 1;
+
+    private final int chunks;
+
+    private final ConcurrentHashMap<BankAccountNumber, AccountLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * @param retainedRecords minimal number of records kept per account, rounded up to whole chunks
+     */
+    public TransferHistory(int retainedRecords) {
+        this.chunks = (Math.max(1, retainedRecords) + chunkMask) / chunkSize + 1;
+    }
+
+    /**
+     * Appends transfer change of it's account - caller has to be the only writer of the account (ie. hold it's row lock).
+     */
+    void append(JournalRecord record) {
+        if (record.type == JournalRecord.Type.ACCOUNT_CREATED) {
+            return;
+        }
+        logs.computeIfAbsent(record.accountNumber, accountNumber -> new AccountLog(chunks)).append(record);
+    }
+
+    /**
+     * Passes up to limit records of the account that come after given cursor (0 to start from the oldest retained one)
+     * together with their cursors.
+     * @return cursor of the last passed record, or the given one when there was nothing after it
+     */
+    public long read(BankAccountNumber bankAccountNumber, long afterCursor, int limit, ObjLongConsumer<JournalRecord> consumer) {
+        AccountLog log = logs.get(bankAccountNumber);
+        return log == null ? afterCursor : log.read(afterCursor, limit, consumer);
+    }
+
+    /**
+     * Whether one of retained records of the account is of given transfer - it was started from or received by the account.
+     * Newest records are checked first.
+     */
+    public boolean contains(BankAccountNumber bankAccountNumber, UUID transferId) {
+        AccountLog log = logs.get(bankAccountNumber);
+        return log != null && log.contains(transferId);
+    }
+
+    /**
+     * Cursor of the newest record of the account, 0 when it has no history.
+     */
+    public long lastCursor(BankAccountNumber bankAccountNumber) {
+        AccountLog log = logs.get(bankAccountNumber);
+        return log == null ? 0 : log.size;
+    }
+
+
+    private static final class AccountLog {
+        private final AtomicReferenceArray<JournalRecord[]> chunks;
+
+        // records at positions [retainedFrom, size) can be read, record at position p has cursor p + 1
+        private volatile long size;
+
+        private volatile long retainedFrom;
+
+        AccountLog(int chunks) {
+            this.chunks = new AtomicReferenceArray<>(chunks);
+        }
+
+        void append(JournalRecord record) {
+            long position = size;
+            int chunkIndex = chunkIndex(position);
+            JournalRecord[] chunk;
+            if ((position & chunkMask) == 0) {
+                // readers learn about the dropped chunk before it's replaced, new array is used so a reader still
+                // holding the dropped one never sees newer records in it
+                retainedFrom = Math.max(0, (position >>> chunkShift) - (chunks.length() - 1)) << chunkShift;
+                chunk = new JournalRecord[chunkSize];
+                chunks.set(chunkIndex, chunk);
+            } else {
+                chunk = chunks.get(chunkIndex);
+            }
+            chunk[(int) position & chunkMask] = record;
+            size = position + 1;
+        }
+
+        long read(long afterCursor, int limit, ObjLongConsumer<JournalRecord> consumer) {
+            long end = size;
+            long position = Math.max(afterCursor, retainedFrom);
+            int count = 0;
+            while (position < end && count < limit) {
+                JournalRecord record = chunks.get(chunkIndex(position))[(int) position & chunkMask];
+                long oldest = retainedFrom;
+                if (position < oldest) {
+                    // chunk was dropped while reading, continue from what is retained now
+                    position = oldest;
+                    continue;
+                }
+                consumer.accept(record, position + 1);
+                position++;
+                count++;
+            }
+            return count == 0 ? afterCursor : position;
+        }
+
+        boolean contains(UUID transferId) {
+            for (long position = size - 1; position >= 0; position--) {
+                JournalRecord record = chunks.get(chunkIndex(position))[(int) position & chunkMask];
+                if (position < retainedFrom) {
+                    // the chunk and all older ones were dropped
+                    return false;
+                }
+                if (record.transferId.equals(transferId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int chunkIndex(long position) {
+            return (int) ((position >>> chunkShift) % chunks.length());
+        }
+    }
+}
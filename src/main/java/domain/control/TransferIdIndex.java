@@ -0,0 +1,294 @@
+package domain.control;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Exact set of already processed transfer ids with fixed memory - ids are kept as two longs in open addressing tables.
+ * Index is sharded by id, every shard has two generations of fixed capacity: ids are added to the current one and
+ * when it is older than retention window (or full) the previous generation is dropped and the current becomes previous.
+ * So an id is remembered for at least one window unless more ids than capacity came within it (early rotation).
+ * Lookups, hits, evictions, early rotations and occupancy are exported by BankAccountRepository to Metrics.
+ */
+public class TransferIdIndex {
+
+    private final Shard[] shards;
+    // shard is picked by the highest bits of the hash, tables of generations use the lowest ones
+    private final int shardShift;
+    private final long windowMillis;
+    private final int capacityPerShard;
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder earlyRotations = new LongAdder();
+
+    /**
+     * @param capacity maximum number of ids in one generation of all shards
+     * @param windowMillis minimal time an id is remembered for
+     */
+    public TransferIdIndex(int capacity, long windowMillis) {
+        this(capacity, windowMillis, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    TransferIdIndex(int capacity, long windowMillis, int minShards) {
+        int shardCount = Integer.highestOneBit(Math.max(1, minShards));
+        this.shards = new Shard[shardCount];
+        this.shardShift = 64 - Integer.numberOfTrailingZeros(shardCount);
+        this.windowMillis = windowMillis;
+        this.capacityPerShard = Math.max(16, capacity / shardCount);
+        int tableSize = Integer.highestOneBit(capacityPerShard * 4 / 3 - 1) << 1;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(tableSize);
+        }
+    }
+
+    public TransferIdIndex() {
+        this(1 << 20, 24 * 60 * 60 * 1000);
+    }
+
+    private static long mix(long mostSignificantBits, long leastSignificantBits) {
+        long hash = (mostSignificantBits ^ Long.rotateLeft(leastSignificantBits, 32)) * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private Shard shard(long hash) {
+        return shards[(int) (hash >>> shardShift) & (shards.length - 1)];
+    }
+
+    public boolean contains(UUID transferId) {
+        long mostSignificantBits = transferId.getMostSignificantBits();
+        long leastSignificantBits = transferId.getLeastSignificantBits();
+        long hash = mix(mostSignificantBits, leastSignificantBits);
+        lookups.increment();
+        boolean found = shard(hash).contains(hash, mostSignificantBits, leastSignificantBits);
+        if (found) {
+            hits.increment();
+        }
+        return found;
+    }
+
+    /**
+     * Remembers transfer id processed at given time.
+     * @return false when the id was already remembered
+     */
+    public boolean add(UUID transferId, long timestamp) {
+        long mostSignificantBits = transferId.getMostSignificantBits();
+        long leastSignificantBits = transferId.getLeastSignificantBits();
+        long hash = mix(mostSignificantBits, leastSignificantBits);
+        return shard(hash).add(hash, mostSignificantBits, leastSignificantBits, timestamp);
+    }
+
+    /**
+     * Forgets transfer id, eg. when the save that added it failed.
+     */
+    public void remove(UUID transferId) {
+        long mostSignificantBits = transferId.getMostSignificantBits();
+        long leastSignificantBits = transferId.getLeastSignificantBits();
+        long hash = mix(mostSignificantBits, leastSignificantBits);
+        shard(hash).remove(hash, mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Passes every remembered id with start time of it's generation.
+     */
+    public void forEach(BiConsumer<UUID, Long> consumer) {
+        for (Shard shard : shards) {
+            shard.forEach(consumer);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * Number of ids that fit into the index (two generations of all shards).
+     */
+    public long capacity() {
+        return 2L * capacityPerShard * shards.length;
+    }
+
+    public long lookups() {
+        return lookups.sum();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public long earlyRotations() {
+        return earlyRotations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "TransferIdIndex size: " + size() + "/" + capacity() + ", lookups: " + lookups() + ", hits: " + hits()
+            + ", evictions: " + evictions() + ", early rotations: " + earlyRotations();
+    }
+
+
+    private final class Shard {
+        private Generation current;
+        private Generation previous;
+
+        Shard(int tableSize) {
+            this.current = new Generation(tableSize);
+            this.previous = new Generation(tableSize);
+        }
+
+        synchronized boolean contains(long hash, long mostSignificantBits, long leastSignificantBits) {
+            return current.contains(hash, mostSignificantBits, leastSignificantBits)
+                || previous.contains(hash, mostSignificantBits, leastSignificantBits);
+        }
+
+        synchronized boolean add(long hash, long mostSignificantBits, long leastSignificantBits, long timestamp) {
+            // id still in previous generation (eg. from snapshot and again from journal) is not added twice
+            if (current.contains(hash, mostSignificantBits, leastSignificantBits)
+                || previous.contains(hash, mostSignificantBits, leastSignificantBits)) {
+                return false;
+            }
+            if (current.size == 0) {
+                current.startTimestamp = timestamp;
+            } else if (timestamp - current.startTimestamp >= windowMillis) {
+                rotate(timestamp);
+            } else if (current.size >= capacityPerShard) {
+                earlyRotations.increment();
+                rotate(timestamp);
+            }
+            current.add(hash, mostSignificantBits, leastSignificantBits);
+            return true;
+        }
+
+        synchronized void remove(long hash, long mostSignificantBits, long leastSignificantBits) {
+            if (!current.remove(hash, mostSignificantBits, leastSignificantBits)) {
+                previous.remove(hash, mostSignificantBits, leastSignificantBits);
+            }
+        }
+
+        private void rotate(long timestamp) {
+            evictions.add(previous.size);
+            Generation emptied = previous;
+            emptied.clear();
+            previous = current;
+            current = emptied;
+            current.startTimestamp = timestamp;
+        }
+
+        synchronized void forEach(BiConsumer<UUID, Long> consumer) {
+            previous.forEach(consumer);
+            current.forEach(consumer);
+        }
+
+        synchronized long size() {
+            return current.size + previous.size;
+        }
+    }
+
+    /**
+     * Open addressing table with linear probing, id (0, 0) marks an empty slot and is kept aside.
+     */
+    private static final class Generation {
+        private final long[] slots;
+        private final int mask;
+        private int size;
+        private boolean containsZero;
+        private long startTimestamp;
+
+        Generation(int tableSize) {
+            this.slots = new long[2 * tableSize];
+            this.mask = tableSize - 1;
+        }
+
+        boolean contains(long hash, long mostSignificantBits, long leastSignificantBits) {
+            if (mostSignificantBits == 0 && leastSignificantBits == 0) {
+                return containsZero;
+            }
+            for (int index = (int) hash & mask; ; index = (index + 1) & mask) {
+                long slotMost = slots[2 * index];
+                long slotLeast = slots[2 * index + 1];
+                if (slotMost == mostSignificantBits && slotLeast == leastSignificantBits) {
+                    return true;
+                }
+                if (slotMost == 0 && slotLeast == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long hash, long mostSignificantBits, long leastSignificantBits) {
+            size++;
+            if (mostSignificantBits == 0 && leastSignificantBits == 0) {
+                containsZero = true;
+                return;
+            }
+            int index = (int) hash & mask;
+            while (slots[2 * index] != 0 || slots[2 * index + 1] != 0) {
+                index = (index + 1) & mask;
+            }
+            slots[2 * index] = mostSignificantBits;
+            slots[2 * index + 1] = leastSignificantBits;
+        }
+
+        /**
+         * Removes the id and shifts following ids of it's probe sequence back, so none of them gets unreachable.
+         */
+        boolean remove(long hash, long mostSignificantBits, long leastSignificantBits) {
+            if (mostSignificantBits == 0 && leastSignificantBits == 0) {
+                if (!containsZero) {
+                    return false;
+                }
+                containsZero = false;
+                size--;
+                return true;
+            }
+            int hole = (int) hash & mask;
+            while (slots[2 * hole] != mostSignificantBits || slots[2 * hole + 1] != leastSignificantBits) {
+                if (slots[2 * hole] == 0 && slots[2 * hole + 1] == 0) {
+                    return false;
+                }
+                hole = (hole + 1) & mask;
+            }
+            size--;
+            for (int index = (hole + 1) & mask; slots[2 * index] != 0 || slots[2 * index + 1] != 0; index = (index + 1) & mask) {
+                int home = (int) mix(slots[2 * index], slots[2 * index + 1]) & mask;
+                // id can move to the hole only when the hole is between it's home slot and it's slot
+                if (((index - home) & mask) >= ((index - hole) & mask)) {
+                    slots[2 * hole] = slots[2 * index];
+                    slots[2 * hole + 1] = slots[2 * index + 1];
+                    hole = index;
+                }
+            }
+            slots[2 * hole] = 0;
+            slots[2 * hole + 1] = 0;
+            return true;
+        }
+
+        void clear() {
+            Arrays.fill(slots, 0);
+            size = 0;
+            containsZero = false;
+        }
+
+        void forEach(BiConsumer<UUID, Long> consumer) {
+            if (containsZero) {
+                consumer.accept(new UUID(0, 0), startTimestamp);
+            }
+            for (int index = 0; index < slots.length; index += 2) {
+                if (slots[index] != 0 || slots[index + 1] != 0) {
+                    consumer.accept(new UUID(slots[index], slots[index + 1]), startTimestamp);
+                }
+            }
+        }
+    }
+}
@@ -1,14 +1,13 @@
 package domain.entity;
 
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
-
-import java.nio.charset.Charset;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 /**
  * Aggregate Entity that holds infromation about Bank Account - mainly it's balance and pending money transfers that block part of money.
+ * State is held in persistent (structurally shared) form, so copy of the entity is O(1) and a change allocates only
+ * O(log n) of pending transfers map. Frozen entity (eg. the one stored in repository) can be shared and cannot be changed.
+ * Transfers that are no longer pending are not remembered here - see TransferIdIndex.
  */
 public class BankAccountEntity {
 
@@ -18,22 +17,37 @@ public class BankAccountEntity {
 
     private Money accountBalance;
 
-    private final Map<UUID, OutgoingMoneyTransfer> outgoingMoneyTransfers = new HashMap<>();
+    private PersistentMap<UUID, OutgoingMoneyTransfer> outgoingMoneyTransfers = PersistentMap.empty();
+
+    private int blockedAmount;
 
-    private BloomFilter<String> previousTransfers = BloomFilter.create(Funnels.stringFunnel(Charset.defaultCharset()), 1000);
+    private long journalSequence;
+
+    private boolean frozen = false;
 
     public BankAccountEntity(UUID revisionId, BankAccountNumber bankAccountNumber, Currency accountCurrency) {
+        this(revisionId, bankAccountNumber, new Money(accountCurrency, 0));
+    }
+
+    private BankAccountEntity(UUID revisionId, BankAccountNumber bankAccountNumber, Money accountBalance) {
         this.revisionId = revisionId;
         this.bankAccountNumber = bankAccountNumber;
-        this.accountBalance = new Money(accountCurrency, 0);
+        this.accountBalance = accountBalance;
     }
 
     private void checkCurrency(Money money) {
         if (!accountBalance.sameCurrency(money)) {
-            throw new IllegalArgumentException("Money exchange not supported");
+            throw new IllegalArgumentException("Money in " + money.currency + " cannot be used on account in " + getAccountCurrency());
         }
     }
 
+    /**
+     * Identifies the saved state of this account, it changes with every save.
+     */
+    public UUID getRevisionId() {
+        return revisionId;
+    }
+
     public Money getAccountBalance() {
         return accountBalance;
     }
@@ -43,19 +57,43 @@ public class BankAccountEntity {
     }
 
     public Money getBlockedMoney() {
-        int blockedSum = outgoingMoneyTransfers.values().stream()
-            .mapToInt(transfer -> transfer.moneyAmount.amount).sum();
-        return new Money(getAccountCurrency(), blockedSum);
+        return new Money(getAccountCurrency(), blockedAmount);
     }
 
     public Currency getAccountCurrency() {
         return accountBalance.currency;
     }
 
+    /**
+     * Sequence of the last journaled change applied to this account (0 when journal is not used).
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
+
+    public void setJournalSequence(long journalSequence) {
+        checkNotFrozen();
+        this.journalSequence = journalSequence;
+    }
+
+    /**
+     * After freezing the entity can be safely shared between threads - all changes have to be done on it's copy.
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Bank account " + bankAccountNumber + " is read only, change it's copy");
+        }
+    }
+
 
     public void startMoneyTransfer(UUID transferId, BankAccountNumber targetBankAccountNumber, Money moneyAmount) {
+        checkNotFrozen();
         checkCurrency(moneyAmount);
-        if (previousTransfers.mightContain(transferId.toString())) {
+        if (outgoingMoneyTransfers.get(transferId) != null) {
             throw new IllegalArgumentException("Transfer already processed. " + transferId);
         }
 
@@ -64,29 +102,50 @@ public class BankAccountEntity {
         }
 
         OutgoingMoneyTransfer outgoingMoneyTransfer = new OutgoingMoneyTransfer(targetBankAccountNumber, moneyAmount);
-        outgoingMoneyTransfers.put(transferId, outgoingMoneyTransfer);
+        outgoingMoneyTransfers = outgoingMoneyTransfers.put(transferId, outgoingMoneyTransfer);
+        blockedAmount += moneyAmount.amount;
     }
 
     public void confirmMoneyTransfer(UUID transferId) {
-        OutgoingMoneyTransfer outgoingMoneyTransfer = outgoingMoneyTransfers.remove(transferId);
+        checkNotFrozen();
+        OutgoingMoneyTransfer outgoingMoneyTransfer = outgoingMoneyTransfers.get(transferId);
         if (outgoingMoneyTransfer == null) {
             // we assume it was already confirmed
             return;
         }
-
-        previousTransfers.put(transferId.toString());
+        outgoingMoneyTransfers = outgoingMoneyTransfers.remove(transferId);
+        blockedAmount -= outgoingMoneyTransfer.moneyAmount.amount;
         accountBalance = accountBalance.substract(outgoingMoneyTransfer.moneyAmount);
     }
 
     public void receiveMoneyTransfer(Money receivedMoney) {
+        checkNotFrozen();
         checkCurrency(receivedMoney);
         accountBalance = accountBalance.add(receivedMoney);
     }
 
+    public boolean isTransferPending(UUID transferId) {
+        return outgoingMoneyTransfers.get(transferId) != null;
+    }
+
+    public int getPendingTransfersCount() {
+        return outgoingMoneyTransfers.size();
+    }
+
     public List<MoneyTransfer> getPendingTransfers() {
-        return outgoingMoneyTransfers.entrySet().stream().map(entry ->
-            new MoneyTransfer(entry.getKey(), bankAccountNumber, entry.getValue().targetBankAccountNumber, entry.getValue().moneyAmount))
-            .collect(Collectors.toList());
+        List<MoneyTransfer> pendingTransfers = new ArrayList<>(outgoingMoneyTransfers.size());
+        outgoingMoneyTransfers.forEach((transferId, transfer) ->
+            pendingTransfers.add(new MoneyTransfer(transferId, bankAccountNumber, transfer.targetBankAccountNumber, transfer.moneyAmount)));
+        return pendingTransfers;
+    }
+
+    /**
+     * Passes pending transfers to action in a stable order starting after given transfer (from the first one when it's null),
+     * until action returns false. The transfer doesn't have to be pending any more, so it can serve as a page cursor.
+     */
+    public void forEachPendingTransfer(UUID afterTransferId, Predicate<MoneyTransfer> action) {
+        outgoingMoneyTransfers.forEachAfter(afterTransferId, (transferId, transfer) ->
+            action.test(new MoneyTransfer(transferId, bankAccountNumber, transfer.targetBankAccountNumber, transfer.moneyAmount)));
     }
 
 
@@ -94,11 +153,29 @@ public class BankAccountEntity {
         return newRevisionCopy(revisionId);
     }
 
+    /**
+     * Copy shares all state with this entity, so it costs the same no matter how many transfers are pending.
+     */
     public BankAccountEntity newRevisionCopy(UUID newRevisionId) {
-        BankAccountEntity bankAccount = new BankAccountEntity(newRevisionId, bankAccountNumber, getAccountCurrency());
-        bankAccount.accountBalance = accountBalance;
-        bankAccount.outgoingMoneyTransfers.putAll(outgoingMoneyTransfers);
-        bankAccount.previousTransfers = previousTransfers.copy();
+        BankAccountEntity bankAccount = new BankAccountEntity(newRevisionId, bankAccountNumber, accountBalance);
+        bankAccount.outgoingMoneyTransfers = outgoingMoneyTransfers;
+        bankAccount.blockedAmount = blockedAmount;
+        bankAccount.journalSequence = journalSequence;
+        return bankAccount;
+    }
+
+    /**
+     * Recreates Bank Account from it's snapshot, without any validation of the state.
+     */
+    public static BankAccountEntity restore(UUID revisionId, BankAccountNumber bankAccountNumber, Money accountBalance,
+                                            List<MoneyTransfer> pendingTransfers, long journalSequence) {
+        BankAccountEntity bankAccount = new BankAccountEntity(revisionId, bankAccountNumber, accountBalance);
+        for (MoneyTransfer transfer : pendingTransfers) {
+            bankAccount.outgoingMoneyTransfers = bankAccount.outgoingMoneyTransfers.put(transfer.transferId,
+                new OutgoingMoneyTransfer(transfer.targetBankAccountNumber, transfer.money));
+            bankAccount.blockedAmount += transfer.money.amount;
+        }
+        bankAccount.journalSequence = journalSequence;
         return bankAccount;
     }
 
@@ -1,7 +1,5 @@
 package domain.entity;
 
-import java.util.Objects;
-
 /**
  *
  */
@@ -12,14 +10,42 @@ public class BankAccountNumber {
 
     private final String accountNumber;
 
+    private final int internalNumber;
+
     public BankAccountNumber(String accountNumber) {
         this.accountNumber = accountNumber;
+        this.internalNumber = parseInternalNumber(accountNumber);
     }
 
     public boolean isMyBank() {
         return accountNumber.startsWith(revolutAccountPrefix);
     }
 
+    /**
+     * Number after the prefix of account in this bank (eg. 12 for REV12), or -1 when it's not in canonical form.
+     */
+    public int getInternalNumber() {
+        return internalNumber;
+    }
+
+    private static int parseInternalNumber(String accountNumber) {
+        int length = accountNumber.length();
+        int start = revolutAccountPrefix.length();
+        if (!accountNumber.startsWith(revolutAccountPrefix) || length == start || length - start > 9
+            || accountNumber.charAt(start) == '0') {
+            return -1;
+        }
+        int number = 0;
+        for (int i = start; i < length; i++) {
+            char digit = accountNumber.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return -1;
+            }
+            number = number * 10 + (digit - '0');
+        }
+        return number;
+    }
+
     @Override
     public String toString() {
         return accountNumber;
@@ -30,11 +56,11 @@ public class BankAccountNumber {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         BankAccountNumber that = (BankAccountNumber) o;
-        return Objects.equals(accountNumber, that.accountNumber);
+        return accountNumber.equals(that.accountNumber);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(accountNumber);
+        return accountNumber.hashCode();
     }
 }
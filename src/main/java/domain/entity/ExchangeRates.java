@@ -0,0 +1,147 @@
+package domain.entity;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of exchange rates with cross rates of every pair of it's currencies precomputed, so a conversion
+ * is a lookup in a table plus integer arithmetic on minor units - it takes no lock and allocates nothing but the
+ * converted Money. Rates are prices of one unit of a currency in the base currency; cross rates are kept as minor units
+ * of the target currency per minor unit of the source one, in fixed point with rateScale. Both the cross rates and
+ * converted amounts are rounded half up. New rates mean a new snapshot, never a change of this one.
+ */
+public final class ExchangeRates {
+
+    public static final long rateScale = 1_000_000_000L;
+
+    public final Currency baseCurrency;
+
+    private final Map<Currency, BigDecimal> rates;
+
+    private final Map<Currency, Integer> indexes;
+
+    // [from * currencies + to], scaled by rateScale
+    private final long[] crossRates;
+
+    private ExchangeRates(Currency baseCurrency, Map<Currency, BigDecimal> rates) {
+        this.baseCurrency = baseCurrency;
+        this.rates = Collections.unmodifiableMap(rates);
+        Currency[] currencies = rates.keySet().toArray(new Currency[0]);
+        this.indexes = new HashMap<>();
+        for (int i = 0; i < currencies.length; i++) {
+            indexes.put(currencies[i], i);
+        }
+        this.crossRates = new long[currencies.length * currencies.length];
+        for (int from = 0; from < currencies.length; from++) {
+            for (int to = 0; to < currencies.length; to++) {
+                crossRates[from * currencies.length + to] = crossRate(currencies[from], rates.get(currencies[from]),
+                    currencies[to], rates.get(currencies[to]));
+            }
+        }
+    }
+
+    private static long crossRate(Currency from, BigDecimal fromRate, Currency to, BigDecimal toRate) {
+        return fromRate.scaleByPowerOfTen(fractionDigits(to))
+            .multiply(BigDecimal.valueOf(rateScale))
+            .divide(toRate.scaleByPowerOfTen(fractionDigits(from)), 0, RoundingMode.HALF_UP)
+            .longValueExact();
+    }
+
+    private static int fractionDigits(Currency currency) {
+        return Math.max(0, currency.getDefaultFractionDigits());
+    }
+
+    /**
+     * Only the base currency, every conversion to other currency fails.
+     */
+    public static ExchangeRates of(Currency baseCurrency) {
+        return of(baseCurrency, Collections.emptyMap());
+    }
+
+    /**
+     * @param rates price of one unit of every currency in the base currency, the base one may be left out
+     */
+    public static ExchangeRates of(Currency baseCurrency, Map<Currency, BigDecimal> rates) {
+        Map<Currency, BigDecimal> allRates = new LinkedHashMap<>();
+        allRates.put(baseCurrency, BigDecimal.ONE);
+        rates.forEach((currency, rate) -> {
+            if (rate.signum() <= 0) {
+                throw new IllegalArgumentException("Exchange rate of " + currency + " has to be positive: " + rate);
+            }
+            if (!currency.equals(baseCurrency)) {
+                allRates.put(currency, rate);
+            }
+        });
+        return new ExchangeRates(baseCurrency, allRates);
+    }
+
+    /**
+     * Parses rates written as comma separated CURRENCY=rate pairs, eg. "EUR=4.2950,USD=3.9875".
+     */
+    public static ExchangeRates parse(Currency baseCurrency, String rates) {
+        Map<Currency, BigDecimal> parsed = new LinkedHashMap<>();
+        for (String rate : rates.split(",")) {
+            if (rate.trim().isEmpty()) {
+                continue;
+            }
+            String[] currencyAndRate = rate.split("=");
+            if (currencyAndRate.length != 2) {
+                throw new IllegalArgumentException("Exchange rate has to be CURRENCY=rate: " + rate);
+            }
+            parsed.put(Currency.getInstance(currencyAndRate[0].trim()), new BigDecimal(currencyAndRate[1].trim()));
+        }
+        return of(baseCurrency, parsed);
+    }
+
+    /**
+     * Prices of one unit of every currency in the base currency.
+     */
+    public Map<Currency, BigDecimal> rates() {
+        return rates;
+    }
+
+    public boolean supports(Currency currency) {
+        return indexes.containsKey(currency);
+    }
+
+    /**
+     * Converts money to given currency, returns the same money when it's already in it.
+     * Throws IllegalArgumentException when either currency has no rate and ArithmeticException when the converted
+     * amount is too large.
+     */
+    public Money convert(Money money, Currency currency) {
+        if (money.currency.equals(currency)) {
+            return money;
+        }
+        return new Money(currency, convert(money.amount, money.currency, currency));
+    }
+
+    /**
+     * Converts amount in minor units of one currency to minor units of the other.
+     */
+    public int convert(int amount, Currency from, Currency to) {
+        long crossRate = crossRates[index(from) * indexes.size() + index(to)];
+        // whole and fractional part of the rate apart, so no product overflows unless the result does
+        long converted = Math.multiplyExact((long) amount, crossRate / rateScale)
+            + ((long) amount * (crossRate % rateScale) + rateScale / 2) / rateScale;
+        return Math.toIntExact(converted);
+    }
+
+    private int index(Currency currency) {
+        Integer index = indexes.get(currency);
+        if (index == null) {
+            throw new IllegalArgumentException("No exchange rate of " + currency);
+        }
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "Exchange rates in " + baseCurrency + ": " + rates;
+    }
+}
@@ -0,0 +1,338 @@
+package domain.entity;
+
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * Immutable hash array mapped trie - put and remove return new map sharing all untouched nodes with the old one,
+ * so a change allocates only the path from root to the changed entry (O(log32 n)) and the old map stays valid.
+ */
+final class PersistentMap<K, V> {
+
+    private static final PersistentMap<?, ?> empty = new PersistentMap<>(BitmapNode.empty, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) empty;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        return (V) root.find(0, key.hashCode(), key);
+    }
+
+    PersistentMap<K, V> put(K key, V value) {
+        boolean[] added = {false};
+        Node newRoot = root.put(0, key.hashCode(), key, value, added);
+        return newRoot == root ? this : new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    PersistentMap<K, V> remove(K key) {
+        Node newRoot = root.remove(0, key.hashCode(), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentMap<>(newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    /**
+     * Iterates in the same order as forEach, but starts right after given key (or from the first entry when it's null)
+     * and stops when action returns false. Order depends only on hash codes, so the key doesn't have to be in the map
+     * any more and the start is found in O(log32 n) - only keys with exactly the same hash code as a removed key are
+     * iterated again.
+     * @return false when action stopped the iteration
+     */
+    @SuppressWarnings("unchecked")
+    boolean forEachAfter(K afterKey, BiPredicate<? super K, ? super V> action) {
+        return root.forEachAfter(0, afterKey == null ? 0 : afterKey.hashCode(), afterKey, (BiPredicate<Object, Object>) action);
+    }
+
+    /**
+     * Whether hash comes after afterHash in iteration order - trie compares 5 bit groups from the lowest ones.
+     */
+    private static boolean isAfter(int hash, int afterHash, int shift) {
+        for (int s = shift; s < 32; s += 5) {
+            int group = (hash >>> s) & 31;
+            int afterGroup = (afterHash >>> s) & 31;
+            if (group != afterGroup) {
+                return group > afterGroup;
+            }
+        }
+        return true;
+    }
+
+
+    private interface Node {
+        Object find(int shift, int hash, Object key);
+
+        Node put(int shift, int hash, Object key, Object value, boolean[] added);
+
+        Node remove(int shift, int hash, Object key);
+
+        void forEach(BiConsumer<Object, Object> action);
+
+        boolean forEachAfter(int shift, int afterHash, Object afterKey, BiPredicate<Object, Object> action);
+    }
+
+    /**
+     * Node with up to 32 slots, present slots are marked in bitmap. Every slot takes two array cells:
+     * key and value, or null and sub node.
+     */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode empty = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & 31);
+        }
+
+        private int index(int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = index(bit);
+            Object keyOrNull = array[index];
+            if (keyOrNull == null) {
+                return ((Node) array[index + 1]).find(shift + 5, hash, key);
+            }
+            return key.equals(keyOrNull) ? array[index + 1] : null;
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, index);
+                newArray[index] = key;
+                newArray[index + 1] = value;
+                System.arraycopy(array, index, newArray, index + 2, array.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+
+            Object keyOrNull = array[index];
+            Object valueOrNode = array[index + 1];
+            if (keyOrNull == null) {
+                Node subNode = ((Node) valueOrNode).put(shift + 5, hash, key, value, added);
+                return subNode == valueOrNode ? this : withSlot(index, null, subNode);
+            }
+            if (key.equals(keyOrNull)) {
+                return value == valueOrNode ? this : withSlot(index, key, value);
+            }
+            added[0] = true;
+            return withSlot(index, null, createNode(shift + 5, keyOrNull, valueOrNode, hash, key, value));
+        }
+
+        private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            boolean[] added = {false};
+            return empty.put(shift, hash1, key1, value1, added).put(shift, hash2, key2, value2, added);
+        }
+
+        private BitmapNode withSlot(int index, Object key, Object valueOrNode) {
+            Object[] newArray = array.clone();
+            newArray[index] = key;
+            newArray[index + 1] = valueOrNode;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        private BitmapNode withoutSlot(int bit, int index) {
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object keyOrNull = array[index];
+            if (keyOrNull == null) {
+                Node subNode = (Node) array[index + 1];
+                Node newSubNode = subNode.remove(shift + 5, hash, key);
+                if (newSubNode == subNode) {
+                    return this;
+                }
+                if (newSubNode != null) {
+                    return withSlot(index, null, newSubNode);
+                }
+                return bitmap == bit ? null : withoutSlot(bit, index);
+            }
+            if (!key.equals(keyOrNull)) {
+                return this;
+            }
+            return bitmap == bit ? null : withoutSlot(bit, index);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+
+        @Override
+        public boolean forEachAfter(int shift, int afterHash, Object afterKey, BiPredicate<Object, Object> action) {
+            int afterSlot = afterKey == null ? -1 : (afterHash >>> shift) & 31;
+            int slots = bitmap;
+            for (int i = 0; i < array.length; i += 2) {
+                int slot = Integer.numberOfTrailingZeros(slots);
+                slots &= slots - 1;
+                if (slot < afterSlot) {
+                    continue;
+                }
+                boolean all = slot > afterSlot;
+                if (array[i] == null) {
+                    if (!((Node) array[i + 1]).forEachAfter(shift + 5, afterHash, all ? null : afterKey, action)) {
+                        return false;
+                    }
+                } else if (all || (!afterKey.equals(array[i]) && isAfter(array[i].hashCode(), afterHash, shift + 5))) {
+                    if (!action.test(array[i], array[i + 1])) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Keys with exactly the same hash code, kept in a flat key/value array.
+     */
+    private static final class CollisionNode implements Node {
+        private final int hash;
+        private final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override
+        public Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                return new BitmapNode(1 << ((this.hash >>> shift) & 31), new Object[]{null, this}).put(shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                Object[] newArray = array.clone();
+                newArray[index + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, Object key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+
+        @Override
+        public boolean forEachAfter(int shift, int afterHash, Object afterKey, BiPredicate<Object, Object> action) {
+            int start = 0;
+            if (afterKey != null) {
+                if (hash != afterHash) {
+                    if (!isAfter(hash, afterHash, shift)) {
+                        return true;
+                    }
+                } else {
+                    int index = indexOf(afterKey);
+                    start = index < 0 ? 0 : index + 2;
+                }
+            }
+            for (int i = start; i < array.length; i += 2) {
+                if (!action.test(array[i], array[i + 1])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
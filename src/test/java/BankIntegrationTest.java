@@ -1,10 +1,34 @@
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import org.assertj.core.api.Assertions;
 import org.junit.Test;
 import ratpack.http.client.ReceivedResponse;
 import ratpack.server.RatpackServer;
 import ratpack.test.embed.EmbeddedApp;
+import ratpack.test.http.TestHttpClient;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -13,6 +37,8 @@ public class BankIntegrationTest {
 
     private final RatpackBankApplication application = new RatpackBankApplication();
 
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
     @Test
     public void simpleTest() throws Exception {
         application.createTwoBankAccounts();
@@ -56,9 +82,7 @@ public class BankIntegrationTest {
 
             // all pending Events are send and processed
             client.put("admin/suspension?suspend=false");
-            Thread.sleep(20);
-
-            Assertions.assertThat(client.getText("/accounts/REV1/transfers")).isEqualTo("[]");
+            Assertions.assertThat(awaitText(client, "/accounts/REV1/transfers", "[]")).isEqualTo("[]");
             Assertions.assertThat(client.getText("/accounts/REV1")).contains("\"balance\":\"0 PLN\"");
 
             ReceivedResponse notEnoughFundsWhenNoMoney = client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
@@ -68,4 +92,389 @@ public class BankIntegrationTest {
         });
     }
 
-}
\ No newline at end of file
+    @Test
+    public void batchTransfersTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < 2500; i++) {
+                batch.append("{\"transferId\":\"").append(UUID.randomUUID())
+                    .append("\",\"sourceAccount\":\"REV1\",\"targetAccount\":\"REV2\",\"money\":").append(i < 2000 ? 0 : 1).append("}\n");
+            }
+            batch.append("not json\n");
+            batch.append("{\"transferId\":\"").append(UUID.randomUUID()).append("\",\"sourceAccount\":\"REV1\",\"targetAccount\":\"REV2\",\"money\":2000}");
+
+            ReceivedResponse response = client.request("/transfers/batch",
+                spec -> spec.body(body -> body.type("application/x-ndjson").text(batch.toString())).post());
+            Assertions.assertThat(response.getStatusCode()).isEqualTo(200);
+            String[] results = response.getBody().getText().split("\n");
+            Assertions.assertThat(results).hasSize(2502);
+            Assertions.assertThat(results[0]).startsWith("{\"line\":1,").contains("\"status\":\"BLOCKED\"");
+            Assertions.assertThat(results[2500]).contains("\"line\":2501").contains("\"status\":\"REJECTED\"");
+            Assertions.assertThat(results[2501]).contains("\"status\":\"REJECTED\"").containsIgnoringCase("not enough money");
+
+            Assertions.assertThat(awaitText(client, "/accounts/REV1", "\"balance\":\"500 PLN\"")).contains("\"balance\":\"500 PLN\"");
+            Assertions.assertThat(awaitText(client, "/accounts/REV2", "\"balance\":\"1500 PLN\"")).contains("\"balance\":\"1500 PLN\"");
+        });
+    }
+
+    @Test
+    public void binaryTransfersTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            ByteBuf frames = Unpooled.buffer();
+            UUID transferId = UUID.randomUUID();
+            TransferCodec.encodeFrame(new MoneyTransfer(transferId, new BankAccountNumber("REV1"), new BankAccountNumber("REV2"),
+                Money.polish(300)), frames);
+            TransferCodec.encodeFrame(new MoneyTransfer(UUID.randomUUID(), new BankAccountNumber("REV1"), new BankAccountNumber("REV2"),
+                Money.polish(5000)), frames);
+            frames.writeZero(TransferCodec.frameLength);
+            frames.writeZero(10);
+            byte[] body = new byte[frames.readableBytes()];
+            frames.readBytes(body);
+
+            ReceivedResponse response = client.request("/transfers/binary",
+                spec -> spec.body(request -> request.type("application/octet-stream").bytes(body)).post());
+            Assertions.assertThat(response.getStatusCode()).isEqualTo(200);
+            ByteBuf results = Unpooled.wrappedBuffer(response.getBody().getBytes());
+            Assertions.assertThat(results.readByte()).isEqualTo(TransferCodec.blocked);
+            Assertions.assertThat(results.readByte()).isEqualTo(TransferCodec.rejected);
+            Assertions.assertThat(results.readCharSequence(results.readShort(), StandardCharsets.UTF_8).toString())
+                .containsIgnoringCase("not enough money");
+            Assertions.assertThat(results.readByte()).isEqualTo(TransferCodec.rejected);
+            Assertions.assertThat(results.readCharSequence(results.readShort(), StandardCharsets.UTF_8).toString())
+                .isEqualTo("Account number is empty");
+            Assertions.assertThat(results.readByte()).isEqualTo(TransferCodec.rejected);
+            Assertions.assertThat(results.readCharSequence(results.readShort(), StandardCharsets.UTF_8).toString())
+                .startsWith("Frame shorter than");
+            Assertions.assertThat(results.isReadable()).isFalse();
+
+            Assertions.assertThat(awaitText(client, "/accounts/REV1/transfers/" + transferId, "\"status\":\"TRANSFERRED\""))
+                .contains("\"status\":\"TRANSFERRED\"");
+            Assertions.assertThat(client.getText("/accounts/REV1")).contains("\"balance\":\"700 PLN\"");
+        });
+    }
+
+    @Test
+    public void exchangeRatesTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            Assertions.assertThat(client.getText("/admin/fx-rates")).isEqualTo("{\"base\":\"PLN\",\"rates\":{\"PLN\":1}}");
+            ReceivedResponse updated = client.request("/admin/fx-rates",
+                spec -> spec.body(body -> body.type("application/json").text("{\"EUR\": \"4.2950\", \"USD\": 3.9875}")).put());
+            Assertions.assertThat(updated.getBody().getText()).isEqualTo("{\"base\":\"PLN\",\"rates\":{\"PLN\":1,\"EUR\":4.295,\"USD\":3.9875}}");
+
+            ReceivedResponse invalid = client.request("/admin/fx-rates",
+                spec -> spec.body(body -> body.type("application/json").text("{\"EUR\": -1}")).put());
+            Assertions.assertThat(invalid.getStatusCode()).isEqualTo(400);
+
+            ReceivedResponse otherCurrencyTransfer = client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
+                spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\": \"REV2\", \"money\": 100, \"currency\": \"EUR\"}")).put());
+            Assertions.assertThat(otherCurrencyTransfer.getStatusCode()).isEqualTo(400);
+            Assertions.assertThat(otherCurrencyTransfer.getBody().getText()).contains("Money in EUR cannot be used on account in PLN");
+        });
+    }
+
+    @Test
+    public void reconciliationTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            Assertions.assertThat(client.get("/admin/reconciliation").getStatusCode()).isEqualTo(404);
+            client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
+                spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\" : \"REV2\", \"money\" : 100  }")).put());
+
+            ReceivedResponse started = client.post("/admin/reconciliation");
+            Assertions.assertThat(started.getStatusCode()).isEqualTo(202);
+            String reconciliation = client.getText("/admin/reconciliation");
+            for (int i = 0; i < 100 && !reconciliation.contains("COMPLETED"); i++) {
+                Thread.sleep(10);
+                reconciliation = client.getText("/admin/reconciliation");
+            }
+            Assertions.assertThat(reconciliation).contains("\"progress\":1.0", "\"accounts\":2", "\"consistent\":true", "\"money\":2000");
+        });
+    }
+
+    @Test
+    public void balanceAtTimeAndStatementTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            Thread.sleep(5);
+            Instant beforeTransfers = Instant.now();
+            Thread.sleep(5);
+            for (int i = 0; i < 2; i++) {
+                client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
+                    spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\" : \"REV2\", \"money\" : 100  }")).put());
+            }
+
+            Assertions.assertThat(awaitText(client, "/accounts/REV1/balance", "\"balance\":\"800 PLN\"")).startsWith("{\"balance\":\"800 PLN\"");
+            Assertions.assertThat(client.getText("/accounts/REV1/balance?at=" + beforeTransfers))
+                .isEqualTo("{\"balance\":\"1000 PLN\",\"at\":" + beforeTransfers.toEpochMilli() + "}");
+            Assertions.assertThat(client.getText("/accounts/REV2/balance?at=" + beforeTransfers.toEpochMilli())).startsWith("{\"balance\":\"1000 PLN\"");
+
+            JsonNode statement = objectMapper.readTree(client.getText("/accounts/REV1/statement?from=" + beforeTransfers));
+            Assertions.assertThat(statement).hasSize(2);
+            Assertions.assertThat(statement.get(0).get("type").asText()).isEqualTo("DEBIT");
+            Assertions.assertThat(statement.get(0).get("amount").asText()).isEqualTo("100 PLN");
+            Assertions.assertThat(statement.get(0).get("counterpartyAccount").asText()).isEqualTo("REV2");
+            Assertions.assertThat(statement.get(1).get("balance").asText()).isEqualTo("800 PLN");
+
+            JsonNode lastEntry = objectMapper.readTree(client.getText("/accounts/REV1/statement?limit=1&after=" + statement.get(0).get("cursor").asLong()));
+            Assertions.assertThat(lastEntry).hasSize(1);
+            Assertions.assertThat(lastEntry.get(0).get("cursor").asLong()).isEqualTo(statement.get(1).get("cursor").asLong());
+        });
+    }
+
+    @Test
+    public void transfersAndHistoryPagesTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            client.put("admin/suspension?suspend=true");
+            StringBuilder batch = new StringBuilder();
+            for (int i = 0; i < 600; i++) {
+                batch.append("{\"transferId\":\"").append(UUID.randomUUID())
+                    .append("\",\"sourceAccount\":\"REV1\",\"targetAccount\":\"REV2\",\"money\":1}\n");
+            }
+            client.request("/transfers/batch", spec -> spec.body(body -> body.type("application/x-ndjson").text(batch.toString())).post());
+
+            // pending transfers page by page, transferId of the last one is the cursor
+            Set<String> pendingTransfers = new HashSet<>();
+            String after = "";
+            while (true) {
+                JsonNode page = objectMapper.readTree(client.getText("/accounts/REV1/transfers?limit=250" + after));
+                for (JsonNode transfer : page) {
+                    pendingTransfers.add(transfer.get("transferId").asText());
+                    after = "&after=" + transfer.get("transferId").asText();
+                }
+                if (page.size() < 250) {
+                    break;
+                }
+            }
+            Assertions.assertThat(pendingTransfers).hasSize(600);
+
+            client.put("admin/suspension?suspend=false");
+            Assertions.assertThat(awaitText(client, "/accounts/REV1/transfers", "[]")).isEqualTo("[]");
+
+            JsonNode firstPage = objectMapper.readTree(client.getText("/accounts/REV1/history?limit=1000"));
+            Assertions.assertThat(firstPage).hasSize(1000);
+            Assertions.assertThat(firstPage.get(0).get("type").asText()).isEqualTo("MONEY_BLOCKED");
+            Assertions.assertThat(firstPage.get(0).get("counterpartyAccount").asText()).isEqualTo("REV2");
+            long cursor = firstPage.get(999).get("cursor").asLong();
+            JsonNode lastPage = objectMapper.readTree(client.getText("/accounts/REV1/history?limit=1000&after=" + cursor));
+            Assertions.assertThat(lastPage).hasSize(200);
+            Assertions.assertThat(lastPage.get(199).get("type").asText()).isEqualTo("MONEY_CONFIRMED");
+
+            JsonNode received = objectMapper.readTree(client.getText("/accounts/REV2/history"));
+            Assertions.assertThat(received).hasSize(600);
+            Assertions.assertThat(received.get(0).get("type").asText()).isEqualTo("MONEY_RECEIVED");
+            Assertions.assertThat(received.get(0).get("counterpartyAccount").asText()).isEqualTo("REV1");
+        });
+    }
+
+    @Test
+    public void transferNotificationsTest() throws Exception {
+        application.createTwoBankAccounts();
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            URI address = client.getApplicationUnderTest().getAddress();
+            client.put("admin/suspension?suspend=true");
+            UUID transferId = UUID.randomUUID();
+            client.request("/accounts/REV1/transfers/" + transferId,
+                spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\" : \"REV2\", \"money\" : 100  }")).put());
+            Assertions.assertThat(client.getText("/accounts/REV1/transfers/" + transferId)).contains("\"status\":\"PENDING\"");
+            Assertions.assertThat(client.get("/accounts/REV1/transfers/" + UUID.randomUUID()).getStatusCode()).isEqualTo(404);
+            // status is scoped to the source and target of the transfer
+            Assertions.assertThat(client.get("/accounts/REV3/transfers/" + transferId).getStatusCode()).isEqualTo(404);
+
+            ExecutorService clients = Executors.newFixedThreadPool(2);
+            Future<List<String>> events = clients.submit(() -> {
+                HttpURLConnection connection = (HttpURLConnection) address.resolve("accounts/REV1/notifications").toURL().openConnection();
+                List<String> lines = new ArrayList<>();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null && !line.equals("event: TRANSFERRED")) {
+                        lines.add(line);
+                    }
+                    lines.add(line);
+                }
+                connection.disconnect();
+                return lines;
+            });
+            Future<String> longPoll = clients.submit(() -> {
+                HttpURLConnection connection = (HttpURLConnection) address.resolve("accounts/REV1/transfers/" + transferId + "?wait=10").toURL().openConnection();
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                    return reader.readLine();
+                }
+            });
+            Assertions.assertThat(awaitText(client, "admin/events", "\"notificationSubscribers\":2")).contains("\"notificationSubscribers\":2");
+
+            client.put("admin/suspension?suspend=false");
+            Assertions.assertThat(longPoll.get(5, TimeUnit.SECONDS)).contains("\"status\":\"TRANSFERRED\"");
+            Assertions.assertThat(client.getText("/accounts/REV2/transfers/" + transferId)).contains("\"status\":\"TRANSFERRED\"");
+            Assertions.assertThat(client.get("/accounts/REV3/transfers/" + transferId).getStatusCode()).isEqualTo(404);
+            Assertions.assertThat(events.get(5, TimeUnit.SECONDS))
+                .contains("event: RECEIVED", "event: TRANSFERRED", "id: " + transferId);
+            clients.shutdown();
+            // closed connections unsubscribe
+            Assertions.assertThat(awaitText(client, "admin/events", "\"notificationSubscribers\":0")).contains("\"notificationSubscribers\":0");
+
+            // long-poll of history answers when nothing comes in the wait
+            long start = System.nanoTime();
+            Assertions.assertThat(client.getText("/accounts/REV1/history?after=2&wait=1")).isEqualTo("[]");
+            Assertions.assertThat(System.nanoTime() - start).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(900));
+            Assertions.assertThat(client.getText("/accounts/REV1/history?after=1&wait=1")).contains("MONEY_CONFIRMED");
+        });
+    }
+
+    @Test
+    public void metricsTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            ReceivedResponse transferResponse = client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
+                spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\" : \"REV2\", \"money\" : 100  }")).put());
+            Assertions.assertThat(transferResponse.getStatusCode()).isEqualTo(200);
+            Assertions.assertThat(client.get("/accounts/REV9").getStatusCode()).isEqualTo(400);
+
+            ReceivedResponse metrics = client.get("/admin/metrics");
+            Assertions.assertThat(metrics.getHeaders().get("Content-Type")).startsWith("text/plain; version=0.0.4");
+            // latency is recorded when the connection is done with the response, it can be just after client got it
+            String text = metrics.getBody().getText();
+            for (int i = 0; i < 100 && !text.contains("bank_http_errors_total{endpoint=\"GET accounts/:accountNumber\"} 1"); i++) {
+                Thread.sleep(10);
+                text = client.getText("/admin/metrics");
+            }
+            Assertions.assertThat(text)
+                .contains("# TYPE bank_http_request_seconds histogram")
+                .contains("bank_http_request_seconds_count{endpoint=\"PUT accounts/:accountNumber/transfers/:transferId\"} 1")
+                .contains("bank_http_request_seconds_bucket{endpoint=\"GET accounts/:accountNumber\",le=\"+Inf\"} 1")
+                .contains("bank_http_errors_total{endpoint=\"GET accounts/:accountNumber\"} 1")
+                .contains("bank_transfers_started_total 1")
+                .contains("bank_concurrent_modification_retries_total{operation=\"transfer\"} 0")
+                .contains("bank_accounts 2")
+                .contains("bank_transfer_id_lookups_total")
+                .contains("bank_transfer_ids_capacity");
+        });
+
+        RatpackBankApplication disabled = new RatpackBankApplication(new BankConfiguration().metricsEnabled(false));
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(disabled.chain())
+        )).test(client -> Assertions.assertThat(client.get("/admin/metrics").getStatusCode()).isEqualTo(404));
+    }
+
+    @Test
+    public void accountDetailsAreCachedByRevisionTest() throws Exception {
+        application.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(application.chain())
+        )).test(client -> {
+            Assertions.assertThat(client.getText("/accounts/REV1")).isEqualTo("{\"balance\":\"1000 PLN\",\"blockedMoney\":\"0 PLN\"}");
+            ReceivedResponse cached = client.get("/accounts/REV1");
+            Assertions.assertThat(cached.getBody().getText()).isEqualTo("{\"balance\":\"1000 PLN\",\"blockedMoney\":\"0 PLN\"}");
+            Assertions.assertThat(cached.getHeaders().get("Content-Type")).startsWith("application/json");
+
+            ReceivedResponse transferResponse = client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
+                spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\" : \"EXT1\", \"money\" : 100  }")).put());
+            Assertions.assertThat(transferResponse.getStatusCode()).isEqualTo(200);
+            Assertions.assertThat(awaitText(client, "/accounts/REV1", "\"blockedMoney\":\"0 PLN\"")).isEqualTo("{\"balance\":\"900 PLN\",\"blockedMoney\":\"0 PLN\"}");
+            Assertions.assertThat(client.getText("/admin/metrics"))
+                .doesNotContain("bank_account_details_cache_hits_total 0\n")
+                .contains("bank_account_details_cache_size 1");
+        });
+    }
+
+    @Test
+    public void failedEventsAreRedeliveredAndReplayedFromDeadLettersTest() throws Exception {
+        RatpackBankApplication redeliveringApplication = new RatpackBankApplication(new BankConfiguration()
+            .eventMaxAttempts(3).redeliveryDelay(Duration.ofMillis(10)));
+        redeliveringApplication.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(redeliveringApplication.chain())
+        )).test(client -> {
+            // REV3 does not exist yet, so the transfer can't be received
+            ReceivedResponse transferResponse = client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
+                spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\" : \"REV3\", \"money\" : 100  }")).put());
+            Assertions.assertThat(transferResponse.getStatusCode()).isEqualTo(200);
+
+            JsonNode deadLetters = objectMapper.readTree(client.getText("/admin/dead-letters"));
+            for (int i = 0; i < 200 && deadLetters.get("count").asInt() == 0; i++) {
+                Thread.sleep(10);
+                deadLetters = objectMapper.readTree(client.getText("/admin/dead-letters"));
+            }
+            Assertions.assertThat(deadLetters.get("count").asInt()).isEqualTo(1);
+            JsonNode deadLetter = deadLetters.get("deadLetters").get(0);
+            Assertions.assertThat(deadLetter.get("type").asText()).isEqualTo("MONEY_BLOCKED");
+            Assertions.assertThat(deadLetter.get("targetAccount").asText()).isEqualTo("REV3");
+            Assertions.assertThat(deadLetter.get("attempts").asInt()).isEqualTo(3);
+            Assertions.assertThat(client.getText("/accounts/REV1")).contains("\"blockedMoney\":\"100 PLN\"");
+
+            // once the account exists replay heals the transfer
+            redeliveringApplication.createTwoBankAccounts();
+            Assertions.assertThat(client.post("/admin/dead-letters/replay").getBody().getText()).isEqualTo("{\"replayed\":1,\"remaining\":0}");
+            Assertions.assertThat(awaitText(client, "/accounts/REV1", "\"blockedMoney\":\"0 PLN\"")).contains("\"balance\":\"900 PLN\"").contains("\"blockedMoney\":\"0 PLN\"");
+            Assertions.assertThat(client.getText("/accounts/REV3")).contains("\"balance\":\"1100 PLN\"");
+        });
+    }
+
+    @Test
+    public void pendingEventsOverflowToDiskAndDrainInBackgroundTest() throws Exception {
+        RatpackBankApplication overflowingApplication = new RatpackBankApplication(new BankConfiguration()
+            .pendingEventsInMemory(3).pendingEventsDrainRate(1000));
+        overflowingApplication.createTwoBankAccounts();
+
+        EmbeddedApp.fromServer(RatpackServer.of(server -> server
+            .handlers(overflowingApplication.chain())
+        )).test(client -> {
+            client.put("admin/suspension?suspend=true");
+            for (int i = 0; i < 20; i++) {
+                client.request("/accounts/REV1/transfers/" + UUID.randomUUID(),
+                    spec -> spec.body(body -> body.type("application/json").text("{\"targetAccount\" : \"REV2\", \"money\" : 10  }")).put());
+            }
+            Assertions.assertThat(objectMapper.readTree(client.getText("/admin/events")).get("pendingEvents").asInt()).isEqualTo(20);
+
+            // 20 events drained at 1000 per second take about 20 ms, resume returns before that
+            client.put("admin/suspension?suspend=false");
+            Assertions.assertThat(awaitText(client, "/accounts/REV2", "\"balance\":\"1200 PLN\"")).contains("\"balance\":\"1200 PLN\"");
+            Assertions.assertThat(objectMapper.readTree(client.getText("/admin/events")).get("pendingEvents").asInt()).isEqualTo(0);
+            Assertions.assertThat(client.getText("/accounts/REV1")).contains("\"balance\":\"800 PLN\"").contains("\"blockedMoney\":\"0 PLN\"");
+        });
+    }
+
+    /**
+     * Text of the path once it contains all given parts, polled until 5 s deadline - events are dispatched asynchronously.
+     * After the deadline it's the last text, for the assertion to show what was there.
+     */
+    private static String awaitText(TestHttpClient client, String path, String... parts) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        String text = client.getText(path);
+        while (!Arrays.stream(parts).allMatch(text::contains) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            text = client.getText(path);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,106 @@
+package benchmark;
+
+import domain.boundary.SimpleBankService;
+import domain.control.AccountBalance;
+import domain.control.BankAccountRepository;
+import domain.control.JournalRecord;
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+
+/**
+ * Measures bytes allocated per read and per save of an account with thousands of pending transfers
+ * and retained heap per account of a large book.
+ * Uses per thread allocation counter of HotSpot (com.sun.management.ThreadMXBean).
+ */
+public class AllocationBenchmark {
+
+    private static final int operations = Integer.getInteger("operations", 2000);
+    private static final int accounts = Integer.getInteger("accounts", 1_000_000);
+
+    private static final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        for (int pendingTransfers : new int[]{1, 1000, 5000}) {
+            run(pendingTransfers);
+        }
+        footprint();
+        System.exit(0);
+    }
+
+    private static void run(int pendingTransfers) {
+        BankAccountRepository repository = new BankAccountRepository();
+        SimpleBankService simpleBankService = new SimpleBankService(repository);
+        BankAccountNumber accountNumber = simpleBankService.newBankAccount(Money.polish(1_000_000_000));
+        BankAccountNumber externalAccount = new BankAccountNumber("EXT1");
+        for (int i = 0; i < pendingTransfers; i++) {
+            startTransfer(repository, new MoneyTransfer(UUID.randomUUID(), accountNumber, externalAccount, Money.polish(1)));
+        }
+
+        // warm up and measure
+        long readBytes = 0;
+        long balanceReadBytes = 0;
+        long saveBytes = 0;
+        AccountBalance accountBalance = new AccountBalance();
+        for (int round = 0; round < 2; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < operations; i++) {
+                simpleBankService.bankAccount(accountNumber).getBlockedMoney();
+            }
+            readBytes = (allocatedBytes() - before) / operations;
+
+            before = allocatedBytes();
+            for (int i = 0; i < operations; i++) {
+                simpleBankService.readAccountBalance(accountNumber, accountBalance);
+            }
+            balanceReadBytes = (allocatedBytes() - before) / operations;
+
+            before = allocatedBytes();
+            for (int i = 0; i < operations; i++) {
+                MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), externalAccount, accountNumber, Money.polish(1));
+                BankAccountEntity bankAccount = repository.getBankAccount(accountNumber);
+                bankAccount.receiveMoneyTransfer(moneyTransfer.money);
+                repository.saveBankAccount(bankAccount, JournalRecord.moneyReceived(moneyTransfer));
+            }
+            saveBytes = (allocatedBytes() - before) / operations;
+        }
+        System.out.printf("pending transfers: %5d, bytes per read: %,10d, per balance read: %,6d, per update: %,10d%n",
+            pendingTransfers, readBytes, balanceReadBytes, saveBytes);
+    }
+
+    private static void footprint() {
+        long before = usedHeap();
+        BankAccountRepository repository = new BankAccountRepository();
+        SimpleBankService simpleBankService = new SimpleBankService(repository);
+        for (int i = 0; i < accounts; i++) {
+            simpleBankService.newBankAccount(Money.polish(1000));
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("accounts: %,d, retained bytes per account: %,d%n", accounts, retained / accounts);
+        if (repository.isEmpty()) {
+            throw new IllegalStateException();
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void startTransfer(BankAccountRepository repository, MoneyTransfer moneyTransfer) {
+        BankAccountEntity bankAccount = repository.getBankAccount(moneyTransfer.accountNumber);
+        bankAccount.startMoneyTransfer(moneyTransfer.transferId, moneyTransfer.targetBankAccountNumber, moneyTransfer.money);
+        repository.saveBankAccount(bankAccount, JournalRecord.moneyBlocked(moneyTransfer));
+    }
+
+    private static long allocatedBytes() {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,150 @@
+package benchmark;
+
+import domain.boundary.SimpleBankService;
+import domain.control.BankAccountRepository;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares transfers per second of the NDJSON and binary batch endpoints with single PUT requests and with in memory batch calls.
+ * Transfers are of 0 PLN so the two initial accounts never run out of money.
+ * Binary frames are encoded here the way any client of the endpoint does it, TransferCodec is internal to the application.
+ */
+public class BatchTransferBenchmark {
+
+    private static final int transfers = Integer.getInteger("transfers", 50_000);
+    private static final int singleRequests = Integer.getInteger("singleRequests", 2_000);
+
+    private static final int accountLength = 16;
+    private static final int frameLength = 16 + 2 * accountLength + 4;
+    private static final int blockedStatus = 0;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            inMemory();
+            http();
+        }
+        System.exit(0);
+    }
+
+    private static void inMemory() {
+        SimpleBankService simpleBankService = new SimpleBankService(new BankAccountRepository());
+        BankAccountNumber source = simpleBankService.newBankAccount(Money.polish(1_000_000_000));
+        BankAccountNumber target = simpleBankService.newBankAccount(Money.polish(0));
+        long start = System.nanoTime();
+        List<MoneyTransfer> chunk = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            chunk.add(new MoneyTransfer(UUID.randomUUID(), source, target, Money.polish(1)));
+            if (chunk.size() == 1000) {
+                simpleBankService.startMoneyTransfers(chunk);
+                chunk.clear();
+            }
+        }
+        simpleBankService.startMoneyTransfers(chunk);
+        print("in memory batches", transfers, System.nanoTime() - start);
+    }
+
+    private static void http() throws Exception {
+        System.setProperty("bank.events.capacity", String.valueOf(1 << 17));
+        MainClassApplication application = new MainClassApplication();
+        try {
+            String base = application.getAddress().toString().replaceAll("/$", "");
+
+            long start = System.nanoTime();
+            for (int i = 0; i < singleRequests; i++) {
+                HttpURLConnection connection = (HttpURLConnection) new URL(base + "/accounts/REV1/transfers/" + UUID.randomUUID()).openConnection();
+                connection.setRequestMethod("PUT");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream body = connection.getOutputStream()) {
+                    body.write("{\"targetAccount\" : \"REV2\", \"money\" : 0}".getBytes(StandardCharsets.UTF_8));
+                }
+                connection.getInputStream().close();
+            }
+            print("single PUT requests", singleRequests, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) new URL(base + "/transfers/batch").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(64 * 1024);
+            connection.setRequestProperty("Content-Type", "application/x-ndjson");
+            try (OutputStream body = connection.getOutputStream()) {
+                for (int i = 0; i < transfers; i++) {
+                    body.write(("{\"transferId\":\"" + UUID.randomUUID() + "\",\"sourceAccount\":\"REV1\",\"targetAccount\":\"REV2\",\"money\":0}\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int blocked = 0;
+            try (BufferedReader results = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+                String result;
+                while ((result = results.readLine()) != null) {
+                    if (result.contains("BLOCKED")) {
+                        blocked++;
+                    }
+                }
+            }
+            print("NDJSON batch (" + blocked + " blocked)", transfers, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            connection = (HttpURLConnection) new URL(base + "/transfers/binary").openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(64 * 1024);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            ByteBuffer frame = ByteBuffer.allocate(frameLength);
+            try (OutputStream body = new BufferedOutputStream(connection.getOutputStream(), 64 * 1024)) {
+                for (int i = 0; i < transfers; i++) {
+                    encodeFrame(UUID.randomUUID(), "REV1", "REV2", 0, frame);
+                    body.write(frame.array());
+                }
+            }
+            blocked = 0;
+            try (InputStream results = new BufferedInputStream(connection.getInputStream())) {
+                int status;
+                while ((status = results.read()) >= 0) {
+                    if (status == blockedStatus) {
+                        blocked++;
+                    } else {
+                        results.skip((results.read() << 8) | results.read());
+                    }
+                }
+            }
+            print("binary batch (" + blocked + " blocked)", transfers, System.nanoTime() - start);
+        } finally {
+            application.close();
+        }
+    }
+
+    /**
+     * Frame of the binary endpoint: transferId, source and target account as zero padded ASCII and money, big endian.
+     */
+    private static void encodeFrame(UUID transferId, String sourceAccount, String targetAccount, int money, ByteBuffer frame) {
+        frame.clear();
+        frame.putLong(transferId.getMostSignificantBits()).putLong(transferId.getLeastSignificantBits())
+            .put(Arrays.copyOf(sourceAccount.getBytes(StandardCharsets.US_ASCII), accountLength))
+            .put(Arrays.copyOf(targetAccount.getBytes(StandardCharsets.US_ASCII), accountLength))
+            .putInt(money);
+    }
+
+    private static void print(String name, int count, long durationNanos) {
+        System.out.printf("%-32s transfers/s: %,10d%n", name, count * TimeUnit.SECONDS.toNanos(1) / durationNanos);
+    }
+}
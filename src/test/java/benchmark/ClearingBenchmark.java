@@ -0,0 +1,84 @@
+package benchmark;
+
+import domain.boundary.EventRedelivery;
+import domain.boundary.ExecutionMode;
+import domain.boundary.OutboundGateway;
+import domain.boundary.PendingEvents;
+import domain.boundary.RingBufferEventDispatcher;
+import domain.boundary.SimpleBankService;
+import domain.boundary.StubClearingService;
+import domain.control.BankAccountRepository;
+import domain.control.DeadLetterStore;
+import domain.control.Metrics;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transfers to external banks through OutboundGateway and StubClearingService, offline - transfers per second,
+ * clearing requests and average batch size for several batch sizes and linger times. Stub latency, failure and
+ * rejection rates are -Dlatency.ms (default 5), -DfailureRate and -DrejectionRate (default 0).
+ * Run after 'mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt' with:
+ * java -cp target/classes:target/test-classes:$(cat target/classpath.txt) benchmark.ClearingBenchmark
+ */
+public class ClearingBenchmark {
+
+    private static final int threads = Integer.getInteger("threads", 8);
+    private static final int transfersPerThread = Integer.getInteger("transfers", 10_000);
+    private static final long latencyMillis = Long.getLong("latency.ms", 5);
+    private static final double failureRate = Double.parseDouble(System.getProperty("failureRate", "0"));
+    private static final double rejectionRate = Double.parseDouble(System.getProperty("rejectionRate", "0"));
+    private static final int inFlight = Integer.getInteger("inFlight", 4);
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            run(1, 0);
+            run(16, 0);
+            run(256, 0);
+            run(256, 2);
+        }
+        System.exit(0);
+    }
+
+    private static void run(int batchSize, long lingerMillis) throws Exception {
+        StubClearingService clearingService = new StubClearingService(latencyMillis, failureRate, rejectionRate);
+        OutboundGateway outboundGateway = new OutboundGateway(clearingService, batchSize, lingerMillis, inFlight);
+        SimpleBankService simpleBankService = service(outboundGateway);
+        BankAccountNumber[] accounts = new BankAccountNumber[threads];
+        for (int i = 0; i < threads; i++) {
+            accounts[i] = simpleBankService.newBankAccount(Money.polish(1_000_000_000));
+        }
+
+        CountDownLatch finished = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            BankAccountNumber account = accounts[i];
+            new Thread(() -> {
+                for (int j = 0; j < transfersPerThread; j++) {
+                    simpleBankService.startMoneyTransferWithRetriesOnConcurrentModification(
+                        new MoneyTransfer(UUID.randomUUID(), account, new BankAccountNumber("EXT" + j), Money.polish(1)));
+                }
+                finished.countDown();
+            }).start();
+        }
+        finished.await();
+        while (simpleBankService.eventDispatcherStatistics().reservedChains > 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(60)) {
+            Thread.sleep(1);
+        }
+        long durationNanos = System.nanoTime() - start;
+        long transfers = (long) threads * transfersPerThread;
+        System.out.printf("batch: %3d, linger: %d ms, in flight: %d, transfers/s: %,d, clearing requests: %,d, average batch: %.1f, failed requests: %d, dead letters: %d%n",
+            batchSize, lingerMillis, inFlight, transfers * TimeUnit.SECONDS.toNanos(1) / durationNanos, clearingService.requestsCount(),
+            outboundGateway.averageBatchSize(), outboundGateway.failedBatchesCount(), simpleBankService.failedEventsCount());
+    }
+
+    private static SimpleBankService service(OutboundGateway outboundGateway) {
+        return new SimpleBankService(new BankAccountRepository(), ExecutionMode.OPTIMISTIC,
+            new RingBufferEventDispatcher(Runtime.getRuntime().availableProcessors(), 1 << 14, 256), Metrics.disabled(),
+            new EventRedelivery(8, 10, 1000, new DeadLetterStore(10_000, null)), new PendingEvents(1 << 14, null, 0), outboundGateway);
+    }
+}
@@ -0,0 +1,95 @@
+package benchmark;
+
+import domain.boundary.ExecutionMode;
+import domain.boundary.SimpleBankService;
+import domain.control.BankAccountRepository;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.util.ConcurrentModificationException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compares ExecutionModes when many threads make transfers from and to the same hot account.
+ * Retries on ConcurrentModificationException the same way as the REST handler (up to 10 times).
+ * Run after 'mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt' with:
+ * java -cp target/classes:target/test-classes:$(cat target/classpath.txt) benchmark.ContentionBenchmark
+ */
+public class ContentionBenchmark {
+
+    private static final int threads = Integer.getInteger("threads", 16);
+    private static final int transfersPerThread = Integer.getInteger("transfers", 1000);
+
+    public static void main(String[] args) throws Exception {
+        for (ExecutionMode executionMode : ExecutionMode.values()) {
+            run(executionMode);
+        }
+        for (ExecutionMode executionMode : ExecutionMode.values()) {
+            run(executionMode);
+        }
+        System.exit(0);
+    }
+
+    private static void run(ExecutionMode executionMode) throws Exception {
+        BankAccountRepository bankAccountRepository = new BankAccountRepository();
+        SimpleBankService simpleBankService = new SimpleBankService(bankAccountRepository, executionMode);
+        BankAccountNumber hotAccount = simpleBankService.newBankAccount(Money.polish(1_000_000_000));
+        BankAccountNumber[] otherAccounts = new BankAccountNumber[threads];
+        for (int i = 0; i < threads; i++) {
+            otherAccounts[i] = simpleBankService.newBankAccount(Money.polish(1_000_000_000));
+        }
+
+        LongAdder retries = new LongAdder();
+        LongAdder failures = new LongAdder();
+        LongAdder rejected = new LongAdder();
+        CountDownLatch finished = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            BankAccountNumber otherAccount = otherAccounts[i];
+            new Thread(() -> {
+                for (int j = 0; j < transfersPerThread; j++) {
+                    // half of transfers debit the hot account, half credit it
+                    MoneyTransfer moneyTransfer = j % 2 == 0
+                        ? new MoneyTransfer(UUID.randomUUID(), hotAccount, new BankAccountNumber("EXT1"), Money.polish(1))
+                        : new MoneyTransfer(UUID.randomUUID(), otherAccount, hotAccount, Money.polish(1));
+                    transferWithRetries(simpleBankService, moneyTransfer, retries, failures, rejected);
+                }
+                finished.countDown();
+            }).start();
+        }
+        finished.await();
+        long durationNanos = System.nanoTime() - start;
+        long transfers = (long) threads * transfersPerThread;
+
+        while (!simpleBankService.bankAccount(hotAccount).getPendingTransfers().isEmpty() && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30)) {
+            Thread.sleep(10);
+        }
+        System.out.printf("%-13s threads: %d, transfers/s: %,d, retries: %d (%.1f%%), failed after 10 retries: %d, rejected: %d, failed events: %d%n",
+            executionMode, threads, transfers * TimeUnit.SECONDS.toNanos(1) / durationNanos,
+            retries.sum(), 100.0 * retries.sum() / transfers, failures.sum(), rejected.sum(), simpleBankService.failedEventsCount());
+        System.out.println("    events " + simpleBankService.eventDispatcherStatistics()
+            + ", hot account has credit cells: " + bankAccountRepository.hasCreditCells(hotAccount));
+    }
+
+    private static void transferWithRetries(SimpleBankService simpleBankService, MoneyTransfer moneyTransfer,
+                                            LongAdder retries, LongAdder failures, LongAdder rejected) {
+        for (int attempt = 0; attempt <= 10; attempt++) {
+            try {
+                simpleBankService.startMoneyTransfer(moneyTransfer);
+                return;
+            } catch (ConcurrentModificationException e) {
+                retries.increment();
+            } catch (IllegalArgumentException | RejectedExecutionException e) {
+                // rejected by the account (eg. not enough money) or by full event pipeline
+                rejected.increment();
+                return;
+            }
+        }
+        failures.increment();
+    }
+}
@@ -0,0 +1,119 @@
+package benchmark;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of account reads and transfers (p50, p99, p999) with handlers calling the service through Ratpack's blocking
+ * executor and through non blocking PromiseBankService, without journal and with durable journal.
+ */
+public class LatencyBenchmark {
+
+    private static final int clients = Integer.getInteger("clients", 16);
+    private static final int requestsPerClient = Integer.getInteger("requests", 5_000);
+    private static final int accounts = 100;
+
+    public static void main(String[] args) throws Exception {
+        for (boolean journal : new boolean[]{false, true}) {
+            for (boolean blockingHandlers : new boolean[]{true, false}) {
+                run(blockingHandlers, journal, false);
+                run(blockingHandlers, journal, true);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(boolean blockingHandlers, boolean journal, boolean print) throws Exception {
+        System.setProperty("bank.handlers.blocking", String.valueOf(blockingHandlers));
+        System.setProperty("bank.accounts.initial", String.valueOf(accounts));
+        if (journal) {
+            System.setProperty("bank.journal.dir", Files.createTempDirectory("latency-journal").toString());
+        } else {
+            System.clearProperty("bank.journal.dir");
+        }
+        MainClassApplication application = new MainClassApplication();
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        try {
+            String base = application.getAddress().toString().replaceAll("/$", "");
+            List<Future<long[][]>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                results.add(clientThreads.submit(() -> client(base)));
+            }
+            long[] reads = new long[clients * requestsPerClient / 2];
+            long[] transfers = new long[clients * requestsPerClient / 2];
+            int position = 0;
+            for (Future<long[][]> result : results) {
+                long[][] latencies = result.get();
+                System.arraycopy(latencies[0], 0, reads, position, latencies[0].length);
+                System.arraycopy(latencies[1], 0, transfers, position, latencies[1].length);
+                position += latencies[0].length;
+            }
+            if (print) {
+                String mode = (blockingHandlers ? "blocking" : "non blocking") + (journal ? ", journal" : "");
+                print(mode + " - GET account", reads);
+                print(mode + " - PUT transfer", transfers);
+            }
+        } finally {
+            clientThreads.shutdown();
+            application.close();
+        }
+    }
+
+    private static long[][] client(String base) throws Exception {
+        long[][] latencies = {new long[requestsPerClient / 2], new long[requestsPerClient / 2]};
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] buffer = new byte[4096];
+        for (int i = 0; i < requestsPerClient / 2; i++) {
+            int source = 1 + random.nextInt(accounts);
+            int target = 1 + (source % accounts);
+
+            long start = System.nanoTime();
+            HttpURLConnection read = (HttpURLConnection) new URL(base + "/accounts/REV" + source).openConnection();
+            drain(read.getInputStream(), buffer);
+            latencies[0][i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            HttpURLConnection transfer = (HttpURLConnection) new URL(base + "/accounts/REV" + source + "/transfers/" + UUID.randomUUID()).openConnection();
+            transfer.setRequestMethod("PUT");
+            transfer.setDoOutput(true);
+            transfer.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream body = transfer.getOutputStream()) {
+                body.write(("{\"targetAccount\" : \"REV" + target + "\", \"money\" : 0}").getBytes(StandardCharsets.UTF_8));
+            }
+            drain(transfer.getInputStream(), buffer);
+            latencies[1][i] = System.nanoTime() - start;
+        }
+        return latencies;
+    }
+
+    private static void drain(InputStream inputStream, byte[] buffer) throws Exception {
+        try (InputStream in = inputStream) {
+            while (in.read(buffer) >= 0) {
+                // read fully so the connection is reused
+            }
+        }
+    }
+
+    private static void print(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.printf("%-36s p50: %7.1f us  p99: %8.1f us  p999: %8.1f us%n", name,
+            percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        return sortedLatencies[(int) Math.min(sortedLatencies.length - 1, sortedLatencies.length * percentile)] / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,76 @@
+package benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent latency histogram in microseconds with HDR-style log-linear buckets - values below 128 have their own
+ * bucket, every higher power of two is split into 64 buckets, so any value is off by less than 1/64 (about 1.6 %).
+ * Recording is one atomic increment, there is no limit of the highest value.
+ */
+public class LatencyHistogram {
+
+    private static final int subBucketBits = 6;
+
+    private static final int subBucketCount = 1 << subBucketBits;
+
+    private static final int linearCount = subBucketCount * 2;
+
+    private final AtomicLongArray counts = new AtomicLongArray(linearCount + (64 - subBucketBits - 1) * subBucketCount);
+
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(index(value));
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Highest value of the bucket where given percentile (0.0 - 1.0) of recorded values falls, 0 when empty.
+     */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max());
+            }
+        }
+        return max();
+    }
+
+    private static int index(long value) {
+        if (value < linearCount) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        return linearCount + (shift - 1) * subBucketCount + (int) (value >>> shift) - subBucketCount;
+    }
+
+    private static long highestValue(int index) {
+        if (index < linearCount) {
+            return index;
+        }
+        int shift = (index - linearCount) / subBucketCount + 1;
+        long subBucket = (index - linearCount) % subBucketCount + subBucketCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
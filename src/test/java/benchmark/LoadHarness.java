@@ -0,0 +1,210 @@
+package benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Repeatable load test of the application started by it's main class on ratpack-test server, it runs offline and can gate a release.
+ * Load is open-loop with constant arrival rate - request i is due at start + i / rate no matter how long earlier requests
+ * take, and it's latency is measured from that due time, so a stalled server is not hidden by clients waiting for it
+ * (coordinated omission). Mix of transfers, account reads and transfer listings is recorded in a histogram per endpoint,
+ * share of transfers retried on ConcurrentModificationException comes from admin/events.
+ * Application is configured by the usual bank.* system properties, load by:
+ * -Drate (requests per second, default 2000), -Dduration and -Dwarmup (seconds, default 30 and 5), -Daccounts (default 100),
+ * -Dhot (share of transfers from account REV1, default 0), -Dmix.transfers, -Dmix.reads, -Dmix.listings (weights, default
+ * 50/40/10), -Dclients (connections, default 256), -Dgate.p99.ms (default 0 - not checked) and -Dgate.errors (highest
+ * share of failed requests, default 0.001). Exits with 1 when a gate is not met.
+ */
+public class LoadHarness {
+
+    private static final int rate = Integer.getInteger("rate", 2000);
+    private static final int durationSeconds = Integer.getInteger("duration", 30);
+    private static final int warmupSeconds = Integer.getInteger("warmup", 5);
+    private static final int accounts = Integer.getInteger("accounts", 100);
+    private static final double hot = Double.parseDouble(System.getProperty("hot", "0"));
+    private static final int transfersWeight = Integer.getInteger("mix.transfers", 50);
+    private static final int readsWeight = Integer.getInteger("mix.reads", 40);
+    private static final int listingsWeight = Integer.getInteger("mix.listings", 10);
+    private static final int clients = Integer.getInteger("clients", 256);
+    private static final long gateP99Millis = Long.getLong("gate.p99.ms", 0);
+    private static final double gateErrors = Double.parseDouble(System.getProperty("gate.errors", "0.001"));
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private enum Endpoint {
+        TRANSFER("PUT accounts/:n/transfers/:id"),
+        READ("GET accounts/:n"),
+        LISTING("GET accounts/:n/transfers");
+
+        final String description;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        Endpoint(String description) {
+            this.description = description;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // keep-alive connections of HttpURLConnection, one per client thread
+        System.setProperty("http.maxConnections", String.valueOf(clients));
+        System.setProperty("bank.accounts.initial", String.valueOf(accounts));
+        MainClassApplication application = new MainClassApplication();
+        ExecutorService clientThreads = Executors.newFixedThreadPool(clients);
+        boolean passed;
+        try {
+            passed = run(application.getAddress(), clientThreads);
+        } finally {
+            clientThreads.shutdownNow();
+            application.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean run(URI address, ExecutorService clientThreads) throws Exception {
+        String base = address.toString().replaceAll("/$", "");
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long requests = (long) rate * (warmupSeconds + durationSeconds);
+        long start = System.nanoTime();
+        long measuredFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        JsonNode eventsBefore = null;
+
+        for (long i = 0; i < requests; i++) {
+            long dueTime = start + i * interval;
+            long wait;
+            while ((wait = dueTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (eventsBefore == null && dueTime >= measuredFrom) {
+                eventsBefore = adminEvents(base);
+            }
+            boolean measured = dueTime >= measuredFrom;
+            Endpoint endpoint = nextEndpoint();
+            // pool queue is unbounded, requests waiting for a client thread are late and it's counted in their latency
+            clientThreads.execute(() -> {
+                try {
+                    request(base, endpoint);
+                } catch (Exception e) {
+                    if (measured) {
+                        endpoint.errors.increment();
+                    }
+                }
+                if (measured) {
+                    endpoint.histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - dueTime));
+                }
+            });
+        }
+        clientThreads.shutdown();
+        if (!clientThreads.awaitTermination(60, TimeUnit.SECONDS)) {
+            System.out.println("Requests still running 60 s after the last one was due");
+        }
+        JsonNode eventsAfter = adminEvents(base);
+        if (eventsBefore == null) {
+            eventsBefore = eventsAfter;
+        }
+        return report(eventsBefore, eventsAfter);
+    }
+
+    private static Endpoint nextEndpoint() {
+        int draw = ThreadLocalRandom.current().nextInt(transfersWeight + readsWeight + listingsWeight);
+        return draw < transfersWeight ? Endpoint.TRANSFER
+            : draw < transfersWeight + readsWeight ? Endpoint.READ : Endpoint.LISTING;
+    }
+
+    private static void request(String base, Endpoint endpoint) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int account = 1 + random.nextInt(accounts);
+        switch (endpoint) {
+            case TRANSFER:
+                if (random.nextDouble() < hot) {
+                    account = 1;
+                }
+                int target = 1 + (account % accounts);
+                HttpURLConnection transfer = open(base + "/accounts/REV" + account + "/transfers/" + UUID.randomUUID());
+                transfer.setRequestMethod("PUT");
+                transfer.setDoOutput(true);
+                transfer.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream body = transfer.getOutputStream()) {
+                    body.write(("{\"targetAccount\" : \"REV" + target + "\", \"money\" : 0}").getBytes(StandardCharsets.UTF_8));
+                }
+                drain(transfer);
+                break;
+            case READ:
+                drain(open(base + "/accounts/REV" + account));
+                break;
+            case LISTING:
+                drain(open(base + "/accounts/REV" + account + "/transfers?limit=20"));
+                break;
+        }
+    }
+
+    private static HttpURLConnection open(String url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(10_000);
+        connection.setReadTimeout(60_000);
+        return connection;
+    }
+
+    // read fully so the connection is reused, getInputStream throws on error status
+    private static void drain(HttpURLConnection connection) throws Exception {
+        byte[] buffer = new byte[4096];
+        try (InputStream in = connection.getInputStream()) {
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        }
+    }
+
+    private static JsonNode adminEvents(String base) throws Exception {
+        try (InputStream in = open(base + "/admin/events").getInputStream()) {
+            return objectMapper.readTree(in);
+        }
+    }
+
+    private static boolean report(JsonNode eventsBefore, JsonNode eventsAfter) {
+        System.out.printf("%d requests/s for %d s after %d s of warmup, mix %d/%d/%d, hot account share %.2f%n",
+            rate, durationSeconds, warmupSeconds, transfersWeight, readsWeight, listingsWeight, hot);
+        System.out.printf("%-30s %9s %7s %9s %9s %9s %9s %9s%n", "endpoint", "requests", "errors", "p50 ms", "p90 ms", "p99 ms", "p999 ms", "max ms");
+        List<String> failures = new ArrayList<>();
+        for (Endpoint endpoint : Endpoint.values()) {
+            LatencyHistogram histogram = endpoint.histogram;
+            long count = histogram.count();
+            long errors = endpoint.errors.sum();
+            System.out.printf("%-30s %9d %7d %9.2f %9.2f %9.2f %9.2f %9.2f%n", endpoint.description, count, errors,
+                millis(histogram.percentile(0.5)), millis(histogram.percentile(0.9)), millis(histogram.percentile(0.99)),
+                millis(histogram.percentile(0.999)), millis(histogram.max()));
+            if (count > 0 && errors > gateErrors * count) {
+                failures.add(endpoint.description + " failed " + errors + " of " + count + " requests");
+            }
+            if (gateP99Millis > 0 && millis(histogram.percentile(0.99)) > gateP99Millis) {
+                failures.add(endpoint.description + " p99 over " + gateP99Millis + " ms");
+            }
+        }
+        long started = eventsAfter.path("startedTransfers").asLong() - eventsBefore.path("startedTransfers").asLong();
+        long retried = eventsAfter.path("retriedTransfers").asLong() - eventsBefore.path("retriedTransfers").asLong();
+        System.out.printf("transfers retried on ConcurrentModificationException: %d of %d (%.2f %%)%n",
+            retried, started, started == 0 ? 0.0 : 100.0 * retried / started);
+        failures.forEach(failure -> System.out.println("GATE FAILED: " + failure));
+        return failures.isEmpty();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
@@ -0,0 +1,22 @@
+package benchmark;
+
+import ratpack.impose.ForceServerListenPortImposition;
+import ratpack.impose.ImpositionsSpec;
+import ratpack.test.MainClassApplicationUnderTest;
+
+/**
+ * Application started by it's main class (it's in the default package, so benchmarks can't create it directly) on an
+ * ephemeral port. It's configured by bank.* system properties set before the first getAddress(), and unlike default
+ * impositions of ratpack-test it runs in production mode.
+ */
+class MainClassApplication extends MainClassApplicationUnderTest {
+
+    MainClassApplication() throws ClassNotFoundException {
+        super(Class.forName("RatpackBankApplication"));
+    }
+
+    @Override
+    protected void addDefaultImpositions(ImpositionsSpec impositionsSpec) {
+        impositionsSpec.add(ForceServerListenPortImposition.ephemeral());
+    }
+}
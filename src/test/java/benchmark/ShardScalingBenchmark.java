@@ -0,0 +1,77 @@
+package benchmark;
+
+import domain.boundary.ShardedBankService;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.util.ConcurrentModificationException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput of uniformly random transfers with 1, 2, 4... in process shards (ShardedBankService) - with N shards
+ * (N - 1) / N of transfers cross shards. Scaling is limited by cores, so compare with the number of available processors.
+ * Run after 'mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt' with:
+ * java -cp target/classes:target/test-classes:$(cat target/classpath.txt) -Dshards=1,2,4 benchmark.ShardScalingBenchmark
+ */
+public class ShardScalingBenchmark {
+
+    private static final String shardCounts = System.getProperty("shards", "1,2,4");
+    private static final int threads = Integer.getInteger("threads", 8);
+    private static final int transfersPerThread = Integer.getInteger("transfers", 50_000);
+    private static final int accounts = Integer.getInteger("accounts", 10_000);
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+        for (int round = 0; round < 2; round++) {
+            for (String shardCount : shardCounts.split(",")) {
+                run(Integer.parseInt(shardCount.trim()));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(int shardCount) throws Exception {
+        ShardedBankService bankService = new ShardedBankService(shardCount);
+        BankAccountNumber[] accountNumbers = new BankAccountNumber[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountNumbers[i] = bankService.newBankAccount(Money.polish(1_000_000_000));
+        }
+
+        LongAdder rejected = new LongAdder();
+        CountDownLatch finished = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < transfersPerThread; j++) {
+                    int source = random.nextInt(accounts);
+                    int target = (source + 1 + random.nextInt(accounts - 1)) % accounts;
+                    MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), accountNumbers[source], accountNumbers[target],
+                        Money.polish(1));
+                    try {
+                        bankService.startMoneyTransferWithRetriesOnConcurrentModification(moneyTransfer);
+                    } catch (RejectedExecutionException | ConcurrentModificationException e) {
+                        rejected.increment();
+                    }
+                }
+                finished.countDown();
+            }).start();
+        }
+        finished.await();
+        long startedNanos = System.nanoTime() - start;
+        while (bankService.transfersInProgress() > 0 && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(60)) {
+            Thread.sleep(1);
+        }
+        long completedNanos = System.nanoTime() - start;
+        long transfers = (long) threads * transfersPerThread;
+        System.out.printf("shards: %d, threads: %d, started transfers/s: %,d, completed transfers/s: %,d, rejected: %d%n",
+            shardCount, threads, transfers * TimeUnit.SECONDS.toNanos(1) / startedNanos,
+            transfers * TimeUnit.SECONDS.toNanos(1) / completedNanos, rejected.sum());
+    }
+}
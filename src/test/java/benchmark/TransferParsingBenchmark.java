@@ -0,0 +1,101 @@
+package benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Nanoseconds and bytes allocated per decoded transfer request: JsonNode tree with UUID.fromString (the former PUT
+ * path), streaming parse of TransferCodec and it's binary frame.
+ * Uses per thread allocation counter of HotSpot (com.sun.management.ThreadMXBean).
+ * TransferCodec is package private in the default package of the application, so it's called through method handles
+ * held in static final fields - JIT inlines them like direct calls.
+ */
+public class TransferParsingBenchmark {
+
+    private static final int operations = Integer.getInteger("operations", 2_000_000);
+
+    private static final com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final BankAccountNumber sourceAccount = new BankAccountNumber("REV1");
+
+    private static final MethodHandle parseTransfer = codecMethod("parseTransfer", UUID.class, BankAccountNumber.class, ByteBuf.class);
+
+    private static final MethodHandle parseUuid = codecMethod("parseUuid", String.class);
+
+    private static final MethodHandle decodeFrame = codecMethod("decodeFrame", ByteBuf.class);
+
+    private static final MethodHandle encodeFrame = codecMethod("encodeFrame", MoneyTransfer.class, ByteBuf.class);
+
+    private static long blackhole;
+
+    public static void main(String[] args) throws Throwable {
+        String transferId = UUID.randomUUID().toString();
+        ByteBuf json = Unpooled.copiedBuffer("{\"targetAccount\" : \"REV2\", \"money\" : 100}", StandardCharsets.UTF_8);
+        ByteBuf frame = (ByteBuf) encodeFrame.invokeExact(new MoneyTransfer(UUID.fromString(transferId), sourceAccount,
+            new BankAccountNumber("REV2"), Money.polish(100)), Unpooled.buffer());
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long before = allocatedBytes();
+            for (int i = 0; i < operations; i++) {
+                JsonNode jsonNode = objectMapper.readTree(new ByteBufInputStream(json.duplicate()));
+                consume(new MoneyTransfer(UUID.fromString(transferId), sourceAccount,
+                    new BankAccountNumber(jsonNode.get("targetAccount").asText()), Money.polish(jsonNode.get("money").asInt())));
+            }
+            print("JSON tree", start, before);
+
+            start = System.nanoTime();
+            before = allocatedBytes();
+            for (int i = 0; i < operations; i++) {
+                consume((MoneyTransfer) parseTransfer.invokeExact((UUID) parseUuid.invokeExact(transferId), sourceAccount, json));
+            }
+            print("JSON streaming", start, before);
+
+            start = System.nanoTime();
+            before = allocatedBytes();
+            for (int i = 0; i < operations; i++) {
+                consume((MoneyTransfer) decodeFrame.invokeExact(frame.duplicate()));
+            }
+            print("binary frame", start, before);
+        }
+        System.out.println(blackhole == 42 ? "" : " ");
+    }
+
+    private static MethodHandle codecMethod(String name, Class<?>... parameterTypes) {
+        try {
+            Method method = Class.forName("TransferCodec").getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void consume(MoneyTransfer moneyTransfer) {
+        blackhole += moneyTransfer.money.amount + moneyTransfer.transferId.getLeastSignificantBits();
+    }
+
+    private static void print(String name, long start, long allocatedBefore) {
+        System.out.printf("%-16s ns/transfer: %,6d, bytes/transfer: %,6d%n", name,
+            (System.nanoTime() - start) / operations, (allocatedBytes() - allocatedBefore) / operations);
+    }
+
+    private static long allocatedBytes() {
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
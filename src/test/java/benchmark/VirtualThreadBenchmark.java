@@ -0,0 +1,130 @@
+package benchmark;
+
+import domain.boundary.ExecutionMode;
+import domain.boundary.RingBufferEventDispatcher;
+import domain.boundary.SimpleBankService;
+import domain.boundary.VirtualThreads;
+import domain.control.BankAccountRepository;
+import domain.control.EventJournal;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transfers with durable journal (every one waits for it's group commit) kept at -DinFlight (default 10000) at a time,
+ * each on a thread of: fixed pool of 16 platform threads (the default of non blocking handlers), cached pool of platform
+ * threads, and virtual thread per transfer (Java 21+ only, event consumers are virtual then too).
+ * Prints transfers per second, p50/p99/p999 latency from submission, peak of platform threads and peak resident memory.
+ * Run after 'mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/classpath.txt' on Java 21 with:
+ * java -cp target/classes:target/test-classes:$(cat target/classpath.txt) benchmark.VirtualThreadBenchmark
+ */
+public class VirtualThreadBenchmark {
+
+    private static final int inFlight = Integer.getInteger("inFlight", 10_000);
+    private static final int transfers = Integer.getInteger("transfers", 200_000);
+    private static final int accounts = Integer.getInteger("accounts", 10_000);
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < 2; round++) {
+            run("platform-fixed", new ThreadPoolExecutor(16, 16, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                VirtualThreads.platformFactory("bank-blocking-")), false);
+            run("platform-cached", Executors.newCachedThreadPool(VirtualThreads.platformFactory("bank-blocking-")), false);
+            if (VirtualThreads.isAvailable()) {
+                run("virtual", Executors.newCachedThreadPool(VirtualThreads.factory("bank-blocking-")), true);
+            } else {
+                System.out.println("virtual threads are not available on Java " + System.getProperty("java.version"));
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, ExecutorService executor, boolean virtual) throws Exception {
+        EventJournal journal = new EventJournal(Files.createTempDirectory("bank-virtual-threads"));
+        SimpleBankService simpleBankService = new SimpleBankService(new BankAccountRepository(journal), ExecutionMode.OPTIMISTIC,
+            new RingBufferEventDispatcher(Runtime.getRuntime().availableProcessors(), 1 << 15, 256,
+                virtual ? VirtualThreads.factory("event-dispatcher-") : VirtualThreads.platformFactory("event-dispatcher-")));
+        BankAccountNumber[] accountNumbers = new BankAccountNumber[accounts];
+        for (int i = 0; i < accounts; i++) {
+            accountNumbers[i] = simpleBankService.newBankAccount(Money.polish(1_000_000_000));
+        }
+        System.gc();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        AtomicLong peakResidentKb = new AtomicLong();
+        Thread memorySampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakResidentKb.accumulateAndGet(residentKb(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        memorySampler.setDaemon(true);
+        memorySampler.start();
+
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicLong failed = new AtomicLong();
+        Semaphore permits = new Semaphore(inFlight);
+        long start = System.nanoTime();
+        for (int i = 0; i < transfers; i++) {
+            permits.acquire();
+            long submitted = System.nanoTime();
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int source = random.nextInt(accounts);
+                int target = (source + 1 + random.nextInt(accounts - 1)) % accounts;
+                try {
+                    simpleBankService.startMoneyTransferWithRetriesOnConcurrentModification(new MoneyTransfer(UUID.randomUUID(),
+                        accountNumbers[source], accountNumbers[target], Money.polish(1)));
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                } finally {
+                    latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - submitted));
+                    permits.release();
+                }
+            });
+        }
+        permits.acquire(inFlight);
+        long durationNanos = System.nanoTime() - start;
+        memorySampler.interrupt();
+
+        System.out.printf("%-15s in flight: %,d, transfers/s: %,d, p50: %,d us, p99: %,d us, p999: %,d us, max: %,d us, "
+                + "peak platform threads: %,d, peak resident memory: %,d MB, failed: %d%n",
+            name, inFlight, transfers * TimeUnit.SECONDS.toNanos(1) / durationNanos, latency.percentile(0.5), latency.percentile(0.99),
+            latency.percentile(0.999), latency.max(), threads.getPeakThreadCount(), peakResidentKb.get() / 1024, failed.get());
+        executor.shutdown();
+    }
+
+    // resident set size of the process, 0 where /proc is not available
+    private static long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,88 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class OutboundGatewayTest {
+
+    @Test
+    public void testBatchesAreClosedWhenFullOrAfterLinger() throws Exception {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        Map<UUID, String> results = new ConcurrentHashMap<>();
+        List<MoneyTransfer> moneyTransfers = moneyTransfers(25);
+        UUID rejectedTransferId = moneyTransfers.get(3).transferId;
+        OutboundGateway outboundGateway = new OutboundGateway(transfers -> {
+            batchSizes.add(transfers.size());
+            return CompletableFuture.completedFuture(Collections.singletonMap(rejectedTransferId, "rejected"));
+        }, 10, 20, 4);
+
+        for (MoneyTransfer moneyTransfer : moneyTransfers) {
+            outboundGateway.send(moneyTransfer, (transfer, error) -> results.put(transfer.transferId, error == null ? "cleared" : error));
+        }
+        Assert.assertEquals(Arrays.asList(10, 10), batchSizes);
+        Assert.assertEquals(5, outboundGateway.queuedCount());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (results.size() < 25 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(Arrays.asList(10, 10, 5), batchSizes);
+        Assert.assertEquals("rejected", results.get(rejectedTransferId));
+        Assert.assertEquals("cleared", results.get(moneyTransfers.get(24).transferId));
+        Assert.assertEquals(3, outboundGateway.batchesCount());
+        Assert.assertEquals(25, outboundGateway.transfersCount());
+    }
+
+    @Test
+    public void testWithoutLingerTransfersGatherWhileRequestsAreInFlight() {
+        List<CompletableFuture<Map<UUID, String>>> requests = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        OutboundGateway outboundGateway = new OutboundGateway(transfers -> {
+            CompletableFuture<Map<UUID, String>> request = new CompletableFuture<>();
+            requests.add(request);
+            batchSizes.add(transfers.size());
+            return request;
+        }, 256, 0, 1);
+
+        for (MoneyTransfer moneyTransfer : moneyTransfers(6)) {
+            outboundGateway.send(moneyTransfer, (transfer, error) -> errors.add(error));
+        }
+        Assert.assertEquals(Collections.singletonList(1), batchSizes);
+        Assert.assertEquals(5, outboundGateway.queuedCount());
+
+        requests.get(0).completeExceptionally(new IllegalStateException("clearing down"));
+        Assert.assertEquals(Arrays.asList(1, 5), batchSizes);
+        Assert.assertEquals(1, outboundGateway.failedBatchesCount());
+        requests.get(1).complete(Collections.emptyMap());
+        Assert.assertEquals(6, errors.size());
+        Assert.assertTrue(errors.get(0).contains("clearing down"));
+        Assert.assertNull(errors.get(5));
+    }
+
+    private static List<MoneyTransfer> moneyTransfers(int count) {
+        List<MoneyTransfer> moneyTransfers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            moneyTransfers.add(new MoneyTransfer(UUID.randomUUID(), new BankAccountNumber("REV1"), new BankAccountNumber("EXT" + i),
+                Money.polish(1)));
+        }
+        return moneyTransfers;
+    }
+}
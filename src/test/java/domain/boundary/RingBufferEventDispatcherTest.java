@@ -0,0 +1,77 @@
+package domain.boundary;
+
+import domain.entity.BankAccountNumber;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class RingBufferEventDispatcherTest {
+
+    @Test
+    public void testAllEventsAreDeliveredInOrderPerAccount() throws Exception {
+        assertAllEventsAreDeliveredInOrderPerAccount(new RingBufferEventDispatcher(3, 64, 16));
+    }
+
+    @Test
+    public void testConsumersOnVirtualThreadsDeliverInOrderPerAccount() throws Exception {
+        Assume.assumeTrue("needs Java 21", VirtualThreads.isAvailable());
+        assertAllEventsAreDeliveredInOrderPerAccount(new RingBufferEventDispatcher(3, 64, 16, VirtualThreads.factory("event-dispatcher-")));
+    }
+
+    private static void assertAllEventsAreDeliveredInOrderPerAccount(RingBufferEventDispatcher eventDispatcher) throws Exception {
+        int producers = 4;
+        int eventsPerProducer = 20_000;
+        CountDownLatch delivered = new CountDownLatch(producers * eventsPerProducer);
+        Map<Integer, Integer> lastEventOfProducer = new ConcurrentHashMap<>();
+        try (RingBufferEventDispatcher dispatcher = eventDispatcher) {
+            dispatcher.start(events -> {
+                for (Object event : events) {
+                    int[] producerAndSequence = (int[]) event;
+                    Integer previous = lastEventOfProducer.put(producerAndSequence[0], producerAndSequence[1]);
+                    Assert.assertEquals(previous == null ? 0 : previous + 1, producerAndSequence[1]);
+                    dispatcher.release();
+                    delivered.countDown();
+                }
+            });
+
+            for (int i = 0; i < producers; i++) {
+                int producer = i;
+                BankAccountNumber accountNumber = new BankAccountNumber("REV" + (producer + 1));
+                new Thread(() -> {
+                    for (int j = 0; j < eventsPerProducer; j++) {
+                        while (!dispatcher.reserve(1, TimeUnit.SECONDS)) {
+                            // waits for consumers - backpressure
+                        }
+                        dispatcher.publish(accountNumber, new int[]{producer, j});
+                    }
+                }).start();
+            }
+
+            Assert.assertTrue(delivered.await(30, TimeUnit.SECONDS));
+            DispatcherStatistics statistics = dispatcher.statistics();
+            Assert.assertEquals(producers * eventsPerProducer, statistics.events);
+            Assert.assertTrue(statistics.maxBatchSize <= 16);
+            Assert.assertEquals(0, statistics.reservedChains);
+        }
+    }
+
+    @Test
+    public void testReservationsAreLimitedByCapacity() {
+        try (RingBufferEventDispatcher dispatcher = new RingBufferEventDispatcher(2, 8, 4)) {
+            for (int i = 0; i < 8; i++) {
+                Assert.assertTrue(dispatcher.reserve(0, TimeUnit.MILLISECONDS));
+            }
+            Assert.assertFalse(dispatcher.reserve(10, TimeUnit.MILLISECONDS));
+            dispatcher.release();
+            Assert.assertTrue(dispatcher.reserve(0, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package domain.boundary;
+
+import domain.control.AccountBalance;
+import domain.control.BankAccountRepository;
+import domain.control.Metrics;
+import domain.control.TransferHistory;
+import domain.control.TransferIdIndex;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyBlockedEvent;
+import domain.entity.MoneyTransfer;
+import domain.entity.MoneyTransferedEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class ShardedBankServiceTest {
+
+    @Test
+    public void testTransfersBetweenShardsKeepTotalBalance() throws Exception {
+        ShardedBankService bankService = new ShardedBankService(3);
+        List<BankAccountNumber> accounts = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            accounts.add(bankService.newBankAccount(Money.polish(1000)));
+        }
+        Assert.assertEquals(new BankAccountNumber("REV1"), accounts.get(0));
+        Assert.assertEquals(new BankAccountNumber("REV2"), accounts.get(1));
+        Assert.assertEquals(new BankAccountNumber("REV4"), accounts.get(3));
+        Assert.assertSame(bankService.shard(1), bankService.shardOf(new BankAccountNumber("REV5")));
+
+        for (int i = 0; i < 600; i++) {
+            bankService.startMoneyTransferWithRetriesOnConcurrentModification(new MoneyTransfer(UUID.randomUUID(),
+                accounts.get(i % 6), accounts.get((i * 7 + 1) % 6), Money.polish(1)));
+        }
+        awaitTransfersDone(bankService);
+
+        long total = 0;
+        for (BankAccountNumber account : accounts) {
+            AccountBalance balance = bankService.readAccountBalance(account, new AccountBalance());
+            Assert.assertEquals(0, balance.blocked);
+            total += balance.balance;
+        }
+        Assert.assertEquals(6 * Money.polish(1000).amount, total);
+    }
+
+    @Test
+    public void testEventsReceivedTwiceFromAnotherShardAreAppliedOnce() throws Exception {
+        ShardedBankService bankService = new ShardedBankService(2);
+        BankAccountNumber source = bankService.newBankAccount(Money.polish(1000));
+        BankAccountNumber target = bankService.newBankAccount(Money.polish(1000));
+        MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), source, target, Money.polish(100));
+        bankService.startMoneyTransferWithRetriesOnConcurrentModification(moneyTransfer);
+        awaitTransfersDone(bankService);
+
+        // as when a link sends it's batch again after reconnect
+        bankService.shard(1).receiveFromShard(new MoneyBlockedEvent(moneyTransfer));
+        bankService.shard(0).receiveFromShard(new MoneyTransferedEvent(moneyTransfer));
+        // duplicates are dropped right away, one that got through would hold a reserved chain until it's applied
+        awaitTransfersDone(bankService);
+        Assert.assertEquals(900, bankService.readAccountBalance(source, new AccountBalance()).balance);
+        Assert.assertEquals(1100, bankService.readAccountBalance(target, new AccountBalance()).balance);
+        Assert.assertEquals(0, bankService.shard(0).eventDispatcherStatistics().reservedChains);
+    }
+
+    @Test
+    public void testShardsLinkedBySocketsTransferMoney() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            try (ServerSocket freePort = new ServerSocket(0)) {
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), freePort.getLocalPort()));
+            }
+        }
+        SimpleBankService first = new SimpleBankService(repositoryOfShard(0, 2));
+        SimpleBankService second = new SimpleBankService(repositoryOfShard(1, 2));
+        SocketShardLink firstLink = link(first, 0, addresses);
+        SocketShardLink secondLink = link(second, 1, addresses);
+        try {
+            BankAccountNumber firstAccount = first.newBankAccount(Money.polish(1000));
+            BankAccountNumber secondAccount = second.newBankAccount(Money.polish(1000));
+            Assert.assertEquals(new BankAccountNumber("REV2"), secondAccount);
+
+            first.startMoneyTransferWithRetriesOnConcurrentModification(new MoneyTransfer(UUID.randomUUID(),
+                firstAccount, secondAccount, Money.polish(300)));
+            second.startMoneyTransferWithRetriesOnConcurrentModification(new MoneyTransfer(UUID.randomUUID(),
+                secondAccount, firstAccount, Money.polish(100)));
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ((!first.bankAccount(firstAccount).getPendingTransfers().isEmpty()
+                || !second.bankAccount(secondAccount).getPendingTransfers().isEmpty()) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Money.polish(800).amount, first.readAccountBalance(firstAccount, new AccountBalance()).balance);
+            Assert.assertEquals(Money.polish(1200).amount, second.readAccountBalance(secondAccount, new AccountBalance()).balance);
+        } finally {
+            firstLink.close();
+            secondLink.close();
+        }
+    }
+
+    private static BankAccountRepository repositoryOfShard(int shard, int shardCount) {
+        return new BankAccountRepository(null, null, new TransferIdIndex(1 << 10, TimeUnit.HOURS.toMillis(1)), new TransferHistory(16),
+            Metrics.disabled(), shard, shardCount);
+    }
+
+    private static SocketShardLink link(SimpleBankService bankService, int shard, List<InetSocketAddress> addresses) {
+        SocketShardLink shardLink = new SocketShardLink(shard, addresses);
+        shardLink.listen(bankService);
+        bankService.linkShards(shardLink, new RingBufferEventDispatcher(1, 64, 16));
+        return shardLink;
+    }
+
+    private static void awaitTransfersDone(ShardedBankService bankService) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (bankService.transfersInProgress() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, bankService.transfersInProgress());
+    }
+}
@@ -0,0 +1,96 @@
+package domain.boundary;
+
+import domain.control.AccountBalance;
+import domain.control.BankAccountRepository;
+import domain.control.EventJournal;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyBlockedEvent;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ */
+public class SimpleBankServiceTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testTransferGoesOnWhenBlockingExecutorRejectsWaitForDurability() throws Exception {
+        try (EventJournal eventJournal = new EventJournal(temporaryFolder.newFolder().toPath())) {
+            SimpleBankService simpleBankService = new SimpleBankService(new BankAccountRepository(eventJournal));
+            BankAccountNumber source = simpleBankService.newBankAccount(Money.polish(1000));
+            BankAccountNumber target = simpleBankService.newBankAccount(Money.polish(1000));
+            Executor rejecting = command -> {
+                throw new RejectedExecutionException("full");
+            };
+
+            for (int i = 0; i < 10; i++) {
+                MoneyBlockedEvent moneyBlockedEvent = simpleBankService.startMoneyTransferAsync(
+                    new MoneyTransfer(UUID.randomUUID(), source, target, Money.polish(10)), rejecting).get(10, TimeUnit.SECONDS);
+                Assert.assertEquals(Money.polish(10), moneyBlockedEvent.moneyTransfer.money);
+            }
+
+            AccountBalance balance = new AccountBalance();
+            for (int i = 0; i < 500 && (simpleBankService.readAccountBalance(source, balance).blocked > 0 || balance.balance != 900); i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(900, balance.balance);
+            Assert.assertEquals(0, balance.blocked);
+            Assert.assertEquals(1100, simpleBankService.readAccountBalance(target, new AccountBalance()).balance);
+        }
+    }
+
+    @Test
+    public void testSameTransferIdFromDifferentAccountsAtOnceIsAcceptedOnce() throws Exception {
+        SimpleBankService simpleBankService = new SimpleBankService(new BankAccountRepository());
+        BankAccountNumber target = simpleBankService.newBankAccount(Money.polish(0));
+        int sources = 4;
+        List<BankAccountNumber> sourceAccounts = new ArrayList<>();
+        for (int i = 0; i < sources; i++) {
+            sourceAccounts.add(simpleBankService.newBankAccount(Money.polish(1_000_000)));
+        }
+
+        for (int round = 0; round < 200; round++) {
+            UUID transferId = UUID.randomUUID();
+            CyclicBarrier barrier = new CyclicBarrier(sources);
+            AtomicInteger accepted = new AtomicInteger();
+            AtomicInteger rejected = new AtomicInteger();
+            List<Thread> threads = new ArrayList<>();
+            for (BankAccountNumber source : sourceAccounts) {
+                threads.add(new Thread(() -> {
+                    try {
+                        barrier.await();
+                        simpleBankService.startMoneyTransferWithRetriesOnConcurrentModification(
+                            new MoneyTransfer(transferId, source, target, Money.polish(1)));
+                        accepted.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        rejected.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertEquals(1, accepted.get());
+            Assert.assertEquals(sources - 1, rejected.get());
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package domain.control;
+
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ *
+ */
+public class AccountLedgerTest {
+
+    private final BankAccountNumber account = new BankAccountNumber("REV1");
+    private final BankAccountNumber counterparty = new BankAccountNumber("REV2");
+
+    @Test
+    public void testBalanceAtAnyTimeMatchesSumOfEntriesUpToIt() {
+        AccountLedger accountLedger = new AccountLedger();
+        accountLedger.append(record(JournalRecord.Type.ACCOUNT_CREATED, 1000, 1000));
+        // a few entries per millisecond over many segments, received and confirmed transfers alternate
+        long[] balances = new long[2000];
+        long balance = 1000;
+        for (int i = 0; i < 3000; i++) {
+            long timestamp = 1000 + i / 3;
+            boolean received = i % 2 == 0;
+            accountLedger.append(record(received ? JournalRecord.Type.MONEY_RECEIVED : JournalRecord.Type.MONEY_CONFIRMED, timestamp, i));
+            accountLedger.append(record(JournalRecord.Type.MONEY_BLOCKED, timestamp, 5));
+            balance += received ? i : -i;
+            balances[(int) timestamp - 1000] = balance;
+        }
+
+        Assert.assertEquals(0, accountLedger.balanceAt(account, 999));
+        for (int time = 1000; time < 2000; time++) {
+            Assert.assertEquals("balance at " + time, balances[time - 1000], accountLedger.balanceAt(account, time));
+        }
+        Assert.assertEquals(balance, accountLedger.balanceAt(account, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testStatementPagesThroughTimeRangeWithRunningBalance() {
+        AccountLedger accountLedger = new AccountLedger();
+        accountLedger.open(account, 500, 100);
+        for (int i = 0; i < 600; i++) {
+            accountLedger.append(record(JournalRecord.Type.MONEY_RECEIVED, 100 + i, 10));
+        }
+        // saved out of time order, it gets the latest timestamp of the account
+        accountLedger.append(record(JournalRecord.Type.MONEY_CONFIRMED, 50, 1000));
+
+        List<Long> balances = new ArrayList<>();
+        List<Long> timestamps = new ArrayList<>();
+        long cursor = 0;
+        long previous;
+        do {
+            previous = cursor;
+            cursor = accountLedger.read(account, 200, 1000, cursor, 128, (entryCursor, timestamp, amount, balance, transferId, party) -> {
+                Assert.assertEquals(counterparty, party);
+                balances.add(balance);
+                timestamps.add(timestamp);
+            });
+        } while (cursor != previous);
+
+        Assert.assertEquals(501, balances.size());
+        Assert.assertEquals(Long.valueOf(200), timestamps.get(0));
+        Assert.assertEquals(Long.valueOf(500 + 101 * 10), balances.get(0));
+        Assert.assertEquals(Long.valueOf(500 + 600 * 10 - 1000), balances.get(500));
+        Assert.assertEquals(Long.valueOf(699), timestamps.get(500));
+        Assert.assertEquals(500 + 600 * 10 - 1000, accountLedger.balanceAt(account, 699));
+        Assert.assertEquals(100, accountLedger.openedAt(account));
+        Assert.assertEquals(510, accountLedger.balanceAt(account, 100));
+        try {
+            accountLedger.balanceAt(account, 99);
+            Assert.fail("ledger was opened at 100");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSegmentsOutOfRetentionAreDroppedWithCheckpointKept() {
+        AccountLedger accountLedger = new AccountLedger(1000);
+        // one credit of 1 per millisecond
+        for (int i = 0; i < 3000; i++) {
+            accountLedger.append(record(JournalRecord.Type.MONEY_RECEIVED, 1000 + i, 1));
+        }
+
+        // the newest segment started at 3816, a segment is dropped once the next one started more than 1000 ms before
+        long openedAt = accountLedger.openedAt(account);
+        Assert.assertEquals(1000 + 7 * AccountLedger.segmentSize, openedAt);
+        for (long time = openedAt; time < 4000; time++) {
+            Assert.assertEquals("balance at " + time, time - 1000 + 1, accountLedger.balanceAt(account, time));
+        }
+        try {
+            accountLedger.balanceAt(account, openedAt - 1);
+            Assert.fail("entries before " + openedAt + " were dropped");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        long[] first = new long[3];
+        accountLedger.read(account, 0, Long.MAX_VALUE, 5, 1, (cursor, timestamp, amount, balance, transferId, party) -> {
+            first[0] = cursor;
+            first[1] = timestamp;
+            first[2] = balance;
+        });
+        Assert.assertEquals(7 * AccountLedger.segmentSize + 1, first[0]);
+        Assert.assertEquals(openedAt, first[1]);
+        Assert.assertEquals(7 * AccountLedger.segmentSize + 1, first[2]);
+    }
+
+    private JournalRecord record(JournalRecord.Type type, long timestamp, int amount) {
+        return new JournalRecord(type, 0, timestamp, account, UUID.randomUUID(), counterparty, Money.polish(amount));
+    }
+}
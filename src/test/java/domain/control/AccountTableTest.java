@@ -0,0 +1,61 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.UUID;
+
+/**
+ *
+ */
+public class AccountTableTest {
+
+    @Test
+    public void testInternalNumbersResolveToSlots() {
+        Assert.assertEquals(12, new BankAccountNumber("REV12").getInternalNumber());
+        Assert.assertEquals(-1, new BankAccountNumber("REV012").getInternalNumber());
+        Assert.assertEquals(-1, new BankAccountNumber("REV").getInternalNumber());
+        Assert.assertEquals(-1, new BankAccountNumber("REV1x").getInternalNumber());
+        Assert.assertEquals(-1, new BankAccountNumber("EXT1").getInternalNumber());
+        Assert.assertEquals(new BankAccountNumber("REV12").hashCode(), new BankAccountNumber("REV12").hashCode());
+    }
+
+    @Test
+    public void testRepositoryKeepsBalancesAndRevisionsInTable() {
+        BankAccountRepository repository = new BankAccountRepository();
+        BankAccountNumber accountNumber = new BankAccountNumber("REV5000");
+        BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), accountNumber, Money.polishCurrency);
+        bankAccount.receiveMoneyTransfer(Money.polish(1000));
+        repository.saveBankAccount(bankAccount);
+
+        BankAccountEntity first = repository.getBankAccount(accountNumber);
+        BankAccountEntity second = repository.getBankAccount(accountNumber);
+        first.startMoneyTransfer(UUID.randomUUID(), new BankAccountNumber("EXT1"), Money.polish(300));
+        repository.saveBankAccount(first);
+        try {
+            repository.saveBankAccount(second);
+            Assert.fail("stale revision saved");
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+
+        AccountBalance accountBalance = new AccountBalance();
+        repository.readAccountBalance(accountNumber, accountBalance);
+        Assert.assertEquals(Money.polishCurrency, accountBalance.currency);
+        Assert.assertEquals(1000, accountBalance.balance);
+        Assert.assertEquals(300, accountBalance.blocked);
+        Assert.assertEquals(1, repository.getBankAccount(accountNumber).getPendingTransfers().size());
+        Assert.assertEquals(1, repository.getAllBankAccounts().size());
+
+        try {
+            repository.readAccountBalance(new BankAccountNumber("REV4999"), accountBalance);
+            Assert.fail("missing account found");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
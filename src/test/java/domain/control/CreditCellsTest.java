@@ -0,0 +1,152 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ */
+public class CreditCellsTest {
+
+    private final BankAccountNumber external = new BankAccountNumber("EXT1");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCreditsOfHotAccountAreFoldedIntoItsSavesAndReads() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        BankAccountNumber hotAccount;
+        try (EventJournal eventJournal = new EventJournal(directory)) {
+            BankAccountRepository repository = new BankAccountRepository(eventJournal);
+            hotAccount = repository.generateNewBankAccountNumber();
+            BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), hotAccount, Money.polishCurrency);
+            bankAccount.receiveMoneyTransfer(Money.polish(1000));
+            repository.saveBankAccount(bankAccount, JournalRecord.accountCreated(hotAccount, Money.polish(1000)));
+            repository.useCreditCells(hotAccount);
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        repository.creditBankAccount(hotAccount,
+                            JournalRecord.moneyReceived(new MoneyTransfer(UUID.randomUUID(), external, hotAccount, Money.polish(1))));
+                    }
+                }));
+            }
+            // debits fold credits in, and conflict only with each other
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), hotAccount, external, Money.polish(1));
+                    BankAccountEntity source = repository.getBankAccount(hotAccount);
+                    source.startMoneyTransfer(moneyTransfer.transferId, external, moneyTransfer.money);
+                    source.confirmMoneyTransfer(moneyTransfer.transferId);
+                    repository.saveBankAccount(source, JournalRecord.moneyBlocked(moneyTransfer), JournalRecord.moneyConfirmed(moneyTransfer));
+                }
+            }));
+            AtomicBoolean failed = new AtomicBoolean();
+            threads.forEach(thread -> thread.setUncaughtExceptionHandler((t, e) -> failed.set(true)));
+            threads.forEach(Thread::start);
+            for (int i = 0; i < 5; i++) {
+                Reconciliation.Report report = repository.newReconciliation().run();
+                Assert.assertTrue(report.toString(), report.isConsistent());
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertFalse("no credit nor debit failed", failed.get());
+
+            AccountBalance accountBalance = new AccountBalance();
+            repository.readAccountBalance(hotAccount, accountBalance);
+            Assert.assertEquals(4500, accountBalance.balance);
+            repository.creditBankAccount(hotAccount,
+                JournalRecord.moneyReceived(new MoneyTransfer(UUID.randomUUID(), external, hotAccount, Money.polish(100))));
+            long lastCredit = repository.creditBankAccount(hotAccount,
+                JournalRecord.moneyReceived(new MoneyTransfer(UUID.randomUUID(), external, hotAccount, Money.polish(0))));
+            BankAccountEntity read = repository.readBankAccount(hotAccount);
+            Assert.assertEquals(Money.polish(4600), read.getAccountBalance());
+            // credits get to the ledger as they are journaled
+            Assert.assertEquals(4600, repository.getAccountLedger().get().balanceAt(hotAccount, Long.MAX_VALUE));
+            Assert.assertTrue(repository.newReconciliation().run().isConsistent());
+            repository.awaitDurable(lastCredit);
+            Assert.assertEquals(Money.polish(4600), repository.getBankAccount(hotAccount).getAccountBalance());
+        }
+
+        try (EventJournal eventJournal = new EventJournal(directory)) {
+            BankAccountRepository repository = new BankAccountRepository(eventJournal);
+            repository.replayJournal();
+            Assert.assertEquals(Money.polish(4600), repository.getBankAccount(hotAccount).getAccountBalance());
+        }
+    }
+
+    @Test
+    public void testReadsOfHotAccountDontConflictWithItsSaves() {
+        BankAccountRepository repository = new BankAccountRepository();
+        BankAccountNumber hotAccount = repository.generateNewBankAccountNumber();
+        BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), hotAccount, Money.polishCurrency);
+        bankAccount.receiveMoneyTransfer(Money.polish(1000));
+        repository.saveBankAccount(bankAccount, JournalRecord.accountCreated(hotAccount, Money.polish(1000)));
+        repository.useCreditCells(hotAccount);
+
+        MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), hotAccount, external, Money.polish(100));
+        BankAccountEntity source = repository.getBankAccount(hotAccount);
+        source.startMoneyTransfer(moneyTransfer.transferId, external, moneyTransfer.money);
+        repository.creditBankAccount(hotAccount,
+            JournalRecord.moneyReceived(new MoneyTransfer(UUID.randomUUID(), external, hotAccount, Money.polish(50))));
+
+        Assert.assertEquals(Money.polish(1050), repository.readBankAccount(hotAccount).getAccountBalance());
+        Assert.assertEquals(1, repository.getTransferHistory().lastCursor(hotAccount));
+        Assert.assertEquals(1050, repository.getAccountLedger().get().balanceAt(hotAccount, Long.MAX_VALUE));
+        Assert.assertEquals(1, repository.getAllBankAccounts().size());
+
+        // none of the reads changed the revision the save compares against
+        repository.saveBankAccount(source, JournalRecord.moneyBlocked(moneyTransfer));
+        BankAccountEntity saved = repository.readBankAccount(hotAccount);
+        Assert.assertEquals(Money.polish(1050), saved.getAccountBalance());
+        Assert.assertEquals(Money.polish(100), saved.getBlockedMoney());
+    }
+
+    @Test
+    public void testSnapshotHasAllCreditsJournaledBeforeIt() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (EventJournal eventJournal = new EventJournal(directory, 64 * 1024)) {
+            BankAccountRepository repository = new BankAccountRepository(eventJournal, new SnapshotStore(directory.resolve("snapshots")));
+            BankAccountNumber hotAccount = repository.generateNewBankAccountNumber();
+            BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), hotAccount, Money.polishCurrency);
+            repository.saveBankAccount(bankAccount, JournalRecord.accountCreated(hotAccount, Money.polish(0)));
+            repository.useCreditCells(hotAccount);
+
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        repository.creditBankAccount(hotAccount,
+                            JournalRecord.moneyReceived(new MoneyTransfer(UUID.randomUUID(), external, hotAccount, Money.polish(1))));
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            // recovery starts from the last snapshot taken while credits were journaled
+            while (threads.stream().anyMatch(Thread::isAlive)) {
+                repository.writeSnapshot();
+            }
+            eventJournal.awaitDurable(eventJournal.getWrittenSequence());
+
+            BankAccountRepository recovered = new BankAccountRepository(eventJournal, new SnapshotStore(directory.resolve("snapshots")));
+            recovered.replayJournal();
+            Assert.assertEquals(Money.polish(8000), recovered.getBankAccount(hotAccount).getAccountBalance());
+        }
+    }
+}
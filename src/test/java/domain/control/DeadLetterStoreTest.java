@@ -0,0 +1,57 @@
+package domain.control;
+
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ *
+ */
+public class DeadLetterStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSpillsOldestToDiskAndTakesOldestFirst() throws Exception {
+        DeadLetterStore deadLetterStore = new DeadLetterStore(4, temporaryFolder.getRoot().toPath());
+        for (int i = 0; i < 10; i++) {
+            MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), new BankAccountNumber("REV1"), new BankAccountNumber("REV2"), Money.polish(i));
+            deadLetterStore.add(i % 2 == 0 ? DeadLetter.Type.MONEY_BLOCKED : DeadLetter.Type.MONEY_TRANSFERED, moneyTransfer, 8, "failed\tin\nhandler " + i);
+        }
+        // 4 in memory at most - oldest two spilled three times
+        Assert.assertEquals(10, deadLetterStore.size());
+        Assert.assertEquals(6, deadLetterStore.spilledCount());
+        Assert.assertEquals(6, Files.readAllLines(temporaryFolder.getRoot().toPath().resolve(DeadLetterStore.spillFileName)).size());
+
+        List<DeadLetter> oldest = deadLetterStore.list(8);
+        Assert.assertEquals(8, oldest.size());
+        Assert.assertEquals(10, deadLetterStore.size());
+        DeadLetter first = oldest.get(0);
+        Assert.assertEquals(1, first.id);
+        Assert.assertEquals(DeadLetter.Type.MONEY_BLOCKED, first.type);
+        Assert.assertEquals(Money.polish(0), first.moneyTransfer.money);
+        Assert.assertEquals("failed in handler 0", first.error);
+
+        List<DeadLetter> taken = deadLetterStore.take(3);
+        Assert.assertEquals(1L, taken.get(0).id);
+        Assert.assertEquals(3L, taken.get(2).id);
+        Assert.assertEquals(3, deadLetterStore.spilledCount());
+
+        deadLetterStore.putBack(taken.get(0));
+        taken = deadLetterStore.take(100);
+        Assert.assertEquals(Arrays.asList(4L, 5L, 6L, 7L, 8L, 9L, 10L, 1L),
+            taken.stream().map(deadLetter -> deadLetter.id).collect(Collectors.toList()));
+        Assert.assertEquals(0, deadLetterStore.size());
+    }
+}
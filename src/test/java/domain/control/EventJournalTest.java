@@ -0,0 +1,154 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ *
+ */
+public class EventJournalTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreReadBackInOrderAcrossSegments() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (EventJournal eventJournal = new EventJournal(directory, 1024)) {
+            for (int i = 0; i < 100; i++) {
+                eventJournal.awaitDurable(eventJournal.append(JournalRecord.accountCreated(new BankAccountNumber("REV" + i), Money.polish(i))));
+            }
+            Assert.assertTrue(eventJournal.segmentFiles().size() > 1);
+        }
+
+        try (EventJournal eventJournal = new EventJournal(directory, 1024)) {
+            List<JournalRecord> records = new ArrayList<>();
+            eventJournal.readAll(records::add);
+            Assert.assertEquals(100, records.size());
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(i + 1, records.get(i).sequence);
+                Assert.assertEquals(Money.polish(i), records.get(i).money);
+            }
+            Assert.assertEquals(101, eventJournal.append(JournalRecord.accountCreated(new BankAccountNumber("REV100"), Money.polish(1))));
+        }
+    }
+
+    @Test
+    public void testCorruptedRecordBeforeLastSegmentFailsReplay() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        try (EventJournal eventJournal = new EventJournal(directory, 1024)) {
+            for (int i = 0; i < 100; i++) {
+                eventJournal.append(JournalRecord.accountCreated(new BankAccountNumber("REV" + i), Money.polish(i)));
+            }
+        }
+        EventJournal closed = new EventJournal(directory, 1024);
+        closed.close();
+        try {
+            closed.awaitDurable(closed.append(JournalRecord.accountCreated(new BankAccountNumber("REV100"), Money.polish(1))));
+            Assert.fail("journal was closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        Path firstSegment = closed.segmentFiles().get(0);
+        byte[] bytes = Files.readAllBytes(firstSegment);
+        bytes[10] ^= 1;
+        Files.write(firstSegment, bytes);
+        try (EventJournal eventJournal = new EventJournal(directory, 1024)) {
+            eventJournal.readAll(record -> { });
+            Assert.fail("records after the corrupted one would be replayed without it");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("Corrupted journal record"));
+        }
+    }
+
+    @Test
+    public void testTornTailIsCutOffSoLaterRestartsSucceed() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        Path segment;
+        try (EventJournal eventJournal = new EventJournal(directory, 1024)) {
+            for (int i = 0; i < 3; i++) {
+                eventJournal.awaitDurable(eventJournal.append(JournalRecord.accountCreated(new BankAccountNumber("REV" + i), Money.polish(i))));
+            }
+            Assert.assertEquals(1, eventJournal.segmentFiles().size());
+            segment = eventJournal.segmentFiles().get(0);
+        }
+        // torn write of the last record - length is there, body is not
+        byte[] bytes = Files.readAllBytes(segment);
+        int lastRecord = 0;
+        for (int i = 0; i < 2; i++) {
+            lastRecord += 8 + ByteBuffer.wrap(bytes, lastRecord, 4).getInt();
+        }
+        bytes[lastRecord + 8] ^= 1;
+        Files.write(segment, bytes);
+
+        try (EventJournal eventJournal = new EventJournal(directory, 1024)) {
+            List<JournalRecord> records = new ArrayList<>();
+            eventJournal.readAll(records::add);
+            Assert.assertEquals(2, records.size());
+            eventJournal.awaitDurable(eventJournal.append(JournalRecord.accountCreated(new BankAccountNumber("REV3"), Money.polish(3))));
+        }
+        try (EventJournal eventJournal = new EventJournal(directory, 1024)) {
+            List<JournalRecord> records = new ArrayList<>();
+            eventJournal.readAll(records::add);
+            Assert.assertEquals(3, records.size());
+            Assert.assertEquals(3, records.get(2).sequence);
+            Assert.assertEquals(Money.polish(3), records.get(2).money);
+        }
+    }
+
+    @Test
+    public void testRepositoryIsRebuiltFromJournal() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        BankAccountNumber rev1 = new BankAccountNumber("REV1");
+        BankAccountNumber rev2 = new BankAccountNumber("REV2");
+        MoneyTransfer confirmedTransfer = new MoneyTransfer(UUID.randomUUID(), rev1, rev2, Money.polish(100));
+        MoneyTransfer pendingTransfer = new MoneyTransfer(UUID.randomUUID(), rev1, rev2, Money.polish(50));
+
+        try (EventJournal eventJournal = new EventJournal(directory)) {
+            BankAccountRepository repository = new BankAccountRepository(eventJournal);
+            for (BankAccountNumber accountNumber : new BankAccountNumber[]{repository.generateNewBankAccountNumber(), repository.generateNewBankAccountNumber()}) {
+                BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), accountNumber, Money.polishCurrency);
+                bankAccount.receiveMoneyTransfer(Money.polish(1000));
+                repository.saveBankAccount(bankAccount, JournalRecord.accountCreated(accountNumber, Money.polish(1000)));
+            }
+            for (MoneyTransfer transfer : new MoneyTransfer[]{confirmedTransfer, pendingTransfer}) {
+                BankAccountEntity bankAccount = repository.getBankAccount(rev1);
+                bankAccount.startMoneyTransfer(transfer.transferId, rev2, transfer.money);
+                repository.saveBankAccount(bankAccount, JournalRecord.moneyBlocked(transfer));
+            }
+            BankAccountEntity target = repository.getBankAccount(rev2);
+            target.receiveMoneyTransfer(confirmedTransfer.money);
+            repository.saveBankAccount(target, JournalRecord.moneyReceived(confirmedTransfer));
+            BankAccountEntity source = repository.getBankAccount(rev1);
+            source.confirmMoneyTransfer(confirmedTransfer.transferId);
+            repository.awaitDurable(repository.saveBankAccount(source, JournalRecord.moneyConfirmed(confirmedTransfer)));
+        }
+
+        try (EventJournal eventJournal = new EventJournal(directory)) {
+            BankAccountRepository repository = new BankAccountRepository(eventJournal);
+            ReplayStatistics replayStatistics = repository.replayJournal();
+
+            Assert.assertEquals(6, replayStatistics.records);
+            Assert.assertEquals(2, replayStatistics.accounts);
+            Assert.assertTrue(replayStatistics.receivedTransfers.isEmpty());
+            Assert.assertEquals(Money.polish(900), repository.getBankAccount(rev1).getAccountBalance());
+            Assert.assertEquals(Money.polish(50), repository.getBankAccount(rev1).getBlockedMoney());
+            Assert.assertEquals(Money.polish(1100), repository.getBankAccount(rev2).getAccountBalance());
+            Assert.assertEquals(new BankAccountNumber("REV3"), repository.generateNewBankAccountNumber());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package domain.control;
+
+import domain.boundary.SimpleBankService;
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.ExchangeRates;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Currency;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *
+ */
+public class ReconciliationTest {
+
+    private static final Currency eur = Currency.getInstance("EUR");
+
+    @Test
+    public void testReconciliationsDuringTransfersSeeConsistentState() throws Exception {
+        BankAccountRepository bankAccountRepository = new BankAccountRepository();
+        SimpleBankService simpleBankService = new SimpleBankService(bankAccountRepository);
+        simpleBankService.updateExchangeRates(ExchangeRates.parse(Money.polishCurrency, "EUR=4.30"));
+        List<BankAccountNumber> accounts = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            accounts.add(simpleBankService.newBankAccount(i % 10 == 0 ? new Money(eur, 100_000) : Money.polish(100_000)));
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    BankAccountNumber source = accounts.get(random.nextInt(accounts.size()));
+                    Currency currency = simpleBankService.bankAccount(source).getAccountCurrency();
+                    try {
+                        simpleBankService.startMoneyTransferWithRetriesOnConcurrentModification(new MoneyTransfer(UUID.randomUUID(),
+                            source, accounts.get(random.nextInt(accounts.size())), new Money(currency, 1 + random.nextInt(100))));
+                    } catch (RuntimeException e) {
+                        // dispatcher is full
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        try {
+            long inFlight = 0;
+            for (int i = 0; i < 20; i++) {
+                Reconciliation.Report report = bankAccountRepository.newReconciliation().run();
+                Assert.assertTrue(report.toString(), report.isConsistent());
+                Assert.assertEquals(accounts.size(), report.accounts);
+                Assert.assertEquals(9000, report.totals.get(Money.polishCurrency).accounts);
+                inFlight += report.totals.values().stream().mapToLong(totals -> totals.pendingTransfers).sum();
+            }
+            Assert.assertTrue("transfers were in flight", inFlight > 0);
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+    }
+
+    @Test
+    public void testMoneyCreatedOutsideOfTransfersIsFlagged() {
+        BankAccountRepository bankAccountRepository = new BankAccountRepository();
+        BankAccountNumber source = newBankAccount(bankAccountRepository);
+        BankAccountNumber target = newBankAccount(bankAccountRepository);
+
+        // balance changed without any journal record
+        BankAccountEntity changed = bankAccountRepository.getBankAccount(source);
+        changed.receiveMoneyTransfer(Money.polish(50));
+        bankAccountRepository.replaceBankAccount(changed);
+        // credited to target, never blocked on source
+        MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), source, target, Money.polish(30));
+        BankAccountEntity credited = bankAccountRepository.getBankAccount(target);
+        credited.receiveMoneyTransfer(moneyTransfer.money);
+        bankAccountRepository.replaceBankAccount(credited, JournalRecord.moneyReceived(moneyTransfer));
+
+        Reconciliation reconciliation = bankAccountRepository.newReconciliation();
+        Reconciliation.Report report = reconciliation.run();
+        Assert.assertEquals(Reconciliation.State.COMPLETED, reconciliation.state());
+        Assert.assertEquals(1, reconciliation.progress(), 0);
+        Assert.assertEquals(report.toString(), 2, report.violationsCount);
+        Assert.assertTrue(report.violations.get(0).contains("not blocked on " + source));
+        Assert.assertEquals("Money in PLN created: 50", report.violations.get(1));
+        Reconciliation.Totals totals = report.totals.get(Money.polishCurrency);
+        Assert.assertEquals(2080, totals.balance);
+        Assert.assertEquals(1, totals.creditedTransfers);
+        Assert.assertEquals(2050, totals.money());
+    }
+
+    private static BankAccountNumber newBankAccount(BankAccountRepository bankAccountRepository) {
+        BankAccountNumber bankAccountNumber = bankAccountRepository.generateNewBankAccountNumber();
+        BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), bankAccountNumber, Money.polishCurrency);
+        bankAccount.receiveMoneyTransfer(Money.polish(1000));
+        bankAccountRepository.saveBankAccount(bankAccount, JournalRecord.accountCreated(bankAccountNumber, Money.polish(1000)));
+        return bankAccountNumber;
+    }
+}
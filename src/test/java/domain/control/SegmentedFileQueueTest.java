@@ -0,0 +1,71 @@
+package domain.control;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ *
+ */
+public class SegmentedFileQueueTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testKeepsOrderAcrossSegmentsAndDeletesReadOnes() throws Exception {
+        Path directory = temporaryFolder.getRoot().toPath();
+        Files.write(directory.resolve(SegmentedFileQueue.segmentPrefix + "000000000007" + SegmentedFileQueue.segmentSuffix), new byte[]{1, 2});
+        SegmentedFileQueue queue = new SegmentedFileQueue(directory, 64);
+        Assert.assertEquals(0, Files.list(directory).count());
+        Assert.assertNull(queue.poll());
+
+        int next = 0;
+        int polled = 0;
+        for (int round = 0; round < 5; round++) {
+            // records of 14 bytes, 5 fit into a segment
+            for (int i = 0; i < 17; i++) {
+                queue.add(String.format("record-%03d", next++).getBytes(StandardCharsets.UTF_8));
+            }
+            Assert.assertEquals(Files.list(directory).count(), queue.segmentCount());
+            for (int i = 0; i < 11; i++) {
+                Assert.assertEquals(String.format("record-%03d", polled++), new String(queue.poll(), StandardCharsets.UTF_8));
+            }
+        }
+        Assert.assertEquals(next - polled, queue.size());
+        while (queue.size() > 0) {
+            Assert.assertEquals(String.format("record-%03d", polled++), new String(queue.poll(), StandardCharsets.UTF_8));
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.segmentCount());
+        Assert.assertEquals(0, Files.list(directory).count());
+
+        queue.add(new byte[0]);
+        Assert.assertEquals(0, queue.poll().length);
+    }
+
+    @Test
+    public void testTemporaryDirectoryIsDeletedWhenQueueDrains() {
+        SegmentedFileQueue queue = new SegmentedFileQueue(null, 64);
+        for (int i = 0; i < 20; i++) {
+            queue.add(new byte[]{(byte) i});
+        }
+        Path directory = queue.directory();
+        Assert.assertTrue(Files.isDirectory(directory));
+        while (queue.poll() != null) {
+            Assert.assertEquals(queue.size() > 0, Files.exists(directory));
+        }
+        Assert.assertNull(queue.directory());
+        Assert.assertFalse(Files.exists(directory));
+
+        queue.add(new byte[]{1});
+        Assert.assertTrue(Files.isDirectory(queue.directory()));
+        Assert.assertEquals(1, queue.poll()[0]);
+        Assert.assertNull(queue.directory());
+    }
+}
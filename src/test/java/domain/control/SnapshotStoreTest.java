@@ -0,0 +1,80 @@
+package domain.control;
+
+import domain.entity.BankAccountEntity;
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ConcurrentModificationException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class SnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotTakenDuringSavesPlusJournalTailGivesSameState() throws Exception {
+        Path directory = temporaryFolder.newFolder().toPath();
+        int accounts = 50;
+
+        try (EventJournal eventJournal = new EventJournal(directory, 64 * 1024)) {
+            BankAccountRepository repository = new BankAccountRepository(eventJournal, new SnapshotStore(directory.resolve("snapshots")));
+            for (int i = 0; i < accounts; i++) {
+                BankAccountNumber accountNumber = repository.generateNewBankAccountNumber();
+                BankAccountEntity bankAccount = new BankAccountEntity(UUID.randomUUID(), accountNumber, Money.polishCurrency);
+                bankAccount.receiveMoneyTransfer(Money.polish(1_000_000));
+                repository.saveBankAccount(bankAccount, JournalRecord.accountCreated(accountNumber, Money.polish(1_000_000)));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            for (int i = 0; i < 4; i++) {
+                executor.execute(() -> {
+                    for (int j = 0; j < 2000; j++) {
+                        blockMoney(repository, new BankAccountNumber("REV" + (1 + j % accounts)));
+                    }
+                });
+            }
+            repository.writeSnapshot();
+            executor.shutdown();
+            Assert.assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+            eventJournal.awaitDurable(eventJournal.getWrittenSequence());
+            BankAccountRepository recovered = new BankAccountRepository(eventJournal, new SnapshotStore(directory.resolve("snapshots")));
+            ReplayStatistics replayStatistics = recovered.replayJournal();
+            Assert.assertEquals(accounts, replayStatistics.snapshotAccounts);
+            Assert.assertEquals(repository.getTransferIdIndex().size(), recovered.getTransferIdIndex().size());
+            for (int i = 1; i <= accounts; i++) {
+                BankAccountNumber accountNumber = new BankAccountNumber("REV" + i);
+                Assert.assertEquals(repository.getBankAccount(accountNumber).getBlockedMoney(), recovered.getBankAccount(accountNumber).getBlockedMoney());
+                Assert.assertEquals(repository.getBankAccount(accountNumber).getPendingTransfers().size(),
+                    recovered.getBankAccount(accountNumber).getPendingTransfers().size());
+            }
+        }
+    }
+
+    private static void blockMoney(BankAccountRepository repository, BankAccountNumber accountNumber) {
+        MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), accountNumber, new BankAccountNumber("EXT1"), Money.polish(1));
+        while (true) {
+            try {
+                BankAccountEntity bankAccount = repository.getBankAccount(accountNumber);
+                bankAccount.startMoneyTransfer(moneyTransfer.transferId, moneyTransfer.targetBankAccountNumber, moneyTransfer.money);
+                repository.saveBankAccount(bankAccount, JournalRecord.moneyBlocked(moneyTransfer));
+                return;
+            } catch (ConcurrentModificationException e) {
+                // retry on new revision
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package domain.control;
+
+import domain.entity.BankAccountNumber;
+import domain.entity.Money;
+import domain.entity.MoneyTransfer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ *
+ */
+public class TransferHistoryTest {
+
+    private final BankAccountNumber source = new BankAccountNumber("REV1");
+    private final BankAccountNumber target = new BankAccountNumber("REV2");
+
+    @Test
+    public void testPagesByCursorAndKeepsOnlyRetainedRecords() {
+        TransferHistory transferHistory = new TransferHistory(300);
+        List<UUID> transferIds = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            MoneyTransfer moneyTransfer = new MoneyTransfer(UUID.randomUUID(), source, target, Money.polish(1));
+            transferIds.add(moneyTransfer.transferId);
+            transferHistory.append(JournalRecord.moneyBlocked(moneyTransfer));
+            transferHistory.append(JournalRecord.moneyReceived(moneyTransfer));
+        }
+        Assert.assertEquals(1000, transferHistory.lastCursor(source));
+        Assert.assertEquals(1000, transferHistory.lastCursor(target));
+
+        // 300 records rounded up to two chunks of 256 plus the one being filled
+        List<Long> cursors = new ArrayList<>();
+        long cursor = 0;
+        long previous;
+        do {
+            previous = cursor;
+            cursor = transferHistory.read(source, cursor, 100, (record, recordCursor) -> {
+                Assert.assertEquals(transferIds.get((int) recordCursor - 1), record.transferId);
+                Assert.assertEquals(source, record.accountNumber);
+                cursors.add(recordCursor);
+            });
+        } while (cursor != previous);
+        Assert.assertEquals(1000 - 256, cursors.size());
+        Assert.assertEquals(257, (long) cursors.get(0));
+        Assert.assertEquals(1000, (long) cursors.get(cursors.size() - 1));
+
+        Assert.assertEquals(1000, transferHistory.read(target, 999, 10, (record, recordCursor) ->
+            Assert.assertEquals(JournalRecord.Type.MONEY_RECEIVED, record.type)));
+        Assert.assertEquals(0, transferHistory.read(new BankAccountNumber("REV3"), 0, 10, (record, recordCursor) -> Assert.fail()));
+    }
+
+    @Test
+    public void testFindsTransfersOfAccountOnlyWhileRetained() {
+        TransferHistory transferHistory = new TransferHistory(1);
+        MoneyTransfer first = new MoneyTransfer(UUID.randomUUID(), source, target, Money.polish(1));
+        transferHistory.append(JournalRecord.moneyBlocked(first));
+        transferHistory.append(JournalRecord.moneyReceived(first));
+        Assert.assertTrue(transferHistory.contains(source, first.transferId));
+        Assert.assertTrue(transferHistory.contains(target, first.transferId));
+        Assert.assertFalse(transferHistory.contains(new BankAccountNumber("REV3"), first.transferId));
+        Assert.assertFalse(transferHistory.contains(source, UUID.randomUUID()));
+
+        // one chunk of 256 plus the one being filled
+        for (int i = 0; i < 2 * 256; i++) {
+            transferHistory.append(JournalRecord.moneyBlocked(new MoneyTransfer(UUID.randomUUID(), source, target, Money.polish(1))));
+        }
+        Assert.assertFalse(transferHistory.contains(source, first.transferId));
+        Assert.assertTrue(transferHistory.contains(target, first.transferId));
+    }
+}
@@ -0,0 +1,144 @@
+package domain.control;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ *
+ */
+public class TransferIdIndexTest {
+
+    @Test
+    public void testNoFalsePositivesNorNegativesWithinCapacity() {
+        TransferIdIndex transferIdIndex = new TransferIdIndex(100_000, 60_000);
+        List<UUID> added = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            UUID transferId = UUID.randomUUID();
+            transferIdIndex.add(transferId, 1000);
+            added.add(transferId);
+        }
+        transferIdIndex.add(new UUID(0, 0), 1000);
+
+        for (UUID transferId : added) {
+            Assert.assertTrue(transferIdIndex.contains(transferId));
+        }
+        Assert.assertTrue(transferIdIndex.contains(new UUID(0, 0)));
+        for (int i = 0; i < 50_000; i++) {
+            Assert.assertFalse(transferIdIndex.contains(UUID.randomUUID()));
+        }
+        Assert.assertEquals(50_001, transferIdIndex.size());
+        Assert.assertEquals(0, transferIdIndex.evictions());
+        Assert.assertEquals(0, transferIdIndex.earlyRotations());
+    }
+
+    @Test
+    public void testAllShardsAreUsedWhenThereAreMany() {
+        TransferIdIndex transferIdIndex = new TransferIdIndex(256 * 64, 60_000, 256);
+        List<UUID> added = new ArrayList<>();
+        for (int i = 0; i < 256 * 32; i++) {
+            UUID transferId = UUID.randomUUID();
+            Assert.assertTrue(transferIdIndex.add(transferId, 1000));
+            added.add(transferId);
+        }
+        Assert.assertEquals(0, transferIdIndex.earlyRotations());
+        Assert.assertEquals(0, transferIdIndex.evictions());
+        for (UUID transferId : added) {
+            Assert.assertTrue(transferIdIndex.contains(transferId));
+        }
+    }
+
+    @Test
+    public void testRemovedIdsAreForgottenAndOthersStayFound() {
+        TransferIdIndex transferIdIndex = new TransferIdIndex(1024, 60_000, 1);
+        List<UUID> added = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            UUID transferId = UUID.randomUUID();
+            transferIdIndex.add(transferId, 1000);
+            added.add(transferId);
+        }
+        transferIdIndex.add(new UUID(0, 0), 1000);
+        for (int i = 0; i < added.size(); i += 2) {
+            transferIdIndex.remove(added.get(i));
+        }
+        transferIdIndex.remove(new UUID(0, 0));
+
+        for (int i = 0; i < added.size(); i++) {
+            Assert.assertEquals(i % 2 == 1, transferIdIndex.contains(added.get(i)));
+        }
+        Assert.assertFalse(transferIdIndex.contains(new UUID(0, 0)));
+        Assert.assertEquals(500, transferIdIndex.size());
+        Assert.assertTrue(transferIdIndex.add(added.get(0), 1000));
+    }
+
+    @Test
+    public void testIdsAreRememberedForOneWindowAndEvictedAfterTwo() {
+        TransferIdIndex transferIdIndex = new TransferIdIndex(100_000, 60_000);
+        UUID oldTransferId = UUID.randomUUID();
+        transferIdIndex.add(oldTransferId, 0);
+
+        // ids in every shard so all of them rotate
+        for (int i = 0; i < 10_000; i++) {
+            transferIdIndex.add(UUID.randomUUID(), 60_000);
+        }
+        Assert.assertTrue(transferIdIndex.contains(oldTransferId));
+
+        for (int i = 0; i < 10_000; i++) {
+            transferIdIndex.add(UUID.randomUUID(), 120_000);
+        }
+        Assert.assertFalse(transferIdIndex.contains(oldTransferId));
+        Assert.assertTrue(transferIdIndex.evictions() >= 1);
+    }
+
+    @Test
+    public void testIdOfPreviousGenerationIsNotAddedAgain() {
+        TransferIdIndex transferIdIndex = new TransferIdIndex(100_000, 60_000);
+        UUID transferId = UUID.randomUUID();
+        transferIdIndex.add(transferId, 0);
+        for (int i = 0; i < 10_000; i++) {
+            transferIdIndex.add(UUID.randomUUID(), 60_000);
+        }
+        long size = transferIdIndex.size();
+        transferIdIndex.add(transferId, 60_000);
+        Assert.assertEquals(size, transferIdIndex.size());
+
+        // so it's not kept for another window
+        for (int i = 0; i < 10_000; i++) {
+            transferIdIndex.add(UUID.randomUUID(), 120_000);
+        }
+        Assert.assertFalse(transferIdIndex.contains(transferId));
+    }
+
+    @Test
+    public void testMemoryIsBoundedByEarlyRotation() {
+        TransferIdIndex transferIdIndex = new TransferIdIndex(1000, 60_000);
+        for (int i = 0; i < 100_000; i++) {
+            transferIdIndex.add(UUID.randomUUID(), 0);
+        }
+        Assert.assertTrue(transferIdIndex.size() <= transferIdIndex.capacity());
+        Assert.assertTrue(transferIdIndex.earlyRotations() > 0);
+    }
+
+    @Test
+    public void testForEachReturnsAllIdsForRestore() {
+        TransferIdIndex transferIdIndex = new TransferIdIndex(10_000, 60_000);
+        for (int i = 0; i < 5000; i++) {
+            transferIdIndex.add(UUID.randomUUID(), i * 10);
+        }
+        Map<UUID, Long> entries = new HashMap<>();
+        transferIdIndex.forEach(entries::put);
+
+        TransferIdIndex restored = new TransferIdIndex(10_000, 60_000);
+        entries.forEach(restored::add);
+        Assert.assertEquals(5000, entries.size());
+        Assert.assertEquals(transferIdIndex.size(), restored.size());
+        for (UUID transferId : entries.keySet()) {
+            Assert.assertTrue(restored.contains(transferId));
+        }
+    }
+}
@@ -49,6 +49,32 @@ public class BankAccountTest {
         Assert.assertEquals(bankAccount.getAccountBalance(), Money.ZERO_PLN);
     }
 
+    @Test
+    public void testCopySharesNothingVisible() {
+        BankAccountEntity bankAccount = createPolishEmptyBankAccount();
+        bankAccount.receiveMoneyTransfer(Money.polish(100));
+        UUID transferId = UUID.randomUUID();
+        bankAccount.startMoneyTransfer(transferId, bankAccountNumber2, Money.polish(40));
+        bankAccount.freeze();
+
+        BankAccountEntity copy = bankAccount.copy();
+        copy.confirmMoneyTransfer(transferId);
+        copy.startMoneyTransfer(UUID.randomUUID(), bankAccountNumber2, Money.polish(10));
+
+        Assert.assertEquals(Money.polish(100), bankAccount.getAccountBalance());
+        Assert.assertEquals(Money.polish(40), bankAccount.getBlockedMoney());
+        Assert.assertEquals(1, bankAccount.getPendingTransfers().size());
+        Assert.assertEquals(Money.polish(60), copy.getAccountBalance());
+        Assert.assertEquals(Money.polish(10), copy.getBlockedMoney());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFrozenBankAccountCannotBeChanged() {
+        BankAccountEntity bankAccount = createPolishEmptyBankAccount();
+        bankAccount.freeze();
+        bankAccount.receiveMoneyTransfer(Money.polish(100));
+    }
+
     private BankAccountEntity createPolishEmptyBankAccount() {
         return new BankAccountEntity(UUID.randomUUID(), bankAccountNumber1, Money.polishCurrency);
     }
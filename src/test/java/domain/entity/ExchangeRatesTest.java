@@ -0,0 +1,74 @@
+package domain.entity;
+
+import domain.boundary.SimpleBankService;
+import domain.control.AccountBalance;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Currency;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ */
+public class ExchangeRatesTest {
+
+    private static final Currency eur = Currency.getInstance("EUR");
+    private static final Currency usd = Currency.getInstance("USD");
+    private static final Currency jpy = Currency.getInstance("JPY");
+
+    private final ExchangeRates exchangeRates = ExchangeRates.parse(Money.polishCurrency, "EUR=4.30, USD=4.00, JPY=0.0265");
+
+    @Test
+    public void testCrossRatesConvertMinorUnitsRoundingHalfUp() {
+        Assert.assertEquals(430, exchangeRates.convert(100, eur, Money.polishCurrency));
+        Assert.assertEquals(10750, exchangeRates.convert(10000, eur, usd));
+        // 1 EUR is 162.26 JPY, which has no minor units
+        Assert.assertEquals(162, exchangeRates.convert(100, eur, jpy));
+        // 1 JPY is 0.66 US cent
+        Assert.assertEquals(1, exchangeRates.convert(1, jpy, usd));
+        Assert.assertEquals(0, exchangeRates.convert(1, Money.polishCurrency, jpy));
+        Assert.assertEquals(2_000_000_000, exchangeRates.convert(2_000_000_000, usd, usd));
+
+        Money money = Money.polish(100);
+        Assert.assertSame(money, exchangeRates.convert(money, Money.polishCurrency));
+        Assert.assertEquals(new Money(jpy, 38), exchangeRates.convert(money, jpy));
+    }
+
+    @Test
+    public void testUnknownCurrencyAndTooLargeAmountAreRejected() {
+        try {
+            exchangeRates.convert(100, eur, Currency.getInstance("CHF"));
+            Assert.fail("CHF has no rate");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("CHF"));
+        }
+        try {
+            exchangeRates.convert(Integer.MAX_VALUE, jpy, Money.polishCurrency);
+            Assert.fail("Converted amount doesn't fit int");
+        } catch (ArithmeticException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTransferToAccountInOtherCurrencyIsConverted() throws Exception {
+        SimpleBankService simpleBankService = new SimpleBankService();
+        simpleBankService.updateExchangeRates(exchangeRates);
+        BankAccountNumber polishAccount = simpleBankService.newBankAccount(Money.polish(1000));
+        BankAccountNumber euroAccount = simpleBankService.newBankAccount(new Money(eur, 1000));
+
+        simpleBankService.startMoneyTransferWithRetriesOnConcurrentModification(new MoneyTransfer(UUID.randomUUID(),
+            polishAccount, euroAccount, Money.polish(860)));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (simpleBankService.bankAccount(polishAccount).getPendingTransfersCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        Assert.assertEquals(140, simpleBankService.readAccountBalance(polishAccount, new AccountBalance()).balance);
+        AccountBalance euroBalance = simpleBankService.readAccountBalance(euroAccount, new AccountBalance());
+        Assert.assertEquals(eur, euroBalance.currency);
+        Assert.assertEquals(1200, euroBalance.balance);
+    }
+}
@@ -0,0 +1,103 @@
+package domain.entity;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ *
+ */
+public class PersistentMapTest {
+
+    /**
+     * Key with few distinct hash codes, to exercise collision nodes too.
+     */
+    private static class Key {
+        final int id;
+
+        Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 5000;
+        }
+    }
+
+    @Test
+    public void testBehavesLikeHashMapAndKeepsOldVersions() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+
+        for (int i = 0; i < 100_000; i++) {
+            int id = random.nextInt(20_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(id);
+                map = map.remove(new Key(id));
+            } else {
+                expected.put(id, i);
+                map = map.put(new Key(id), i);
+            }
+        }
+
+        PersistentMap<Key, Integer> old = map;
+        Map<Integer, Integer> oldExpected = new HashMap<>(expected);
+        for (int id = 0; id < 20_000; id += 2) {
+            map = map.remove(new Key(id));
+            expected.remove(id);
+        }
+
+        assertSameContent(expected, map);
+        assertSameContent(oldExpected, old);
+    }
+
+    @Test
+    public void testForEachAfterResumesPagesEvenWhenLastKeyIsRemoved() {
+        Random random = new Random(42);
+        PersistentMap<Integer, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 20_000; i++) {
+            map = map.put(random.nextInt(), i);
+        }
+        List<Integer> expected = new ArrayList<>();
+        map.forEach((key, value) -> expected.add(key));
+
+        List<Integer> paged = new ArrayList<>();
+        Integer after = null;
+        while (true) {
+            List<Integer> page = new ArrayList<>();
+            map.forEachAfter(after, (key, value) -> page.add(key) && page.size() < 97);
+            if (page.isEmpty()) {
+                break;
+            }
+            paged.addAll(page);
+            after = page.get(page.size() - 1);
+            map = map.remove(after);
+        }
+        Assert.assertEquals(expected, paged);
+    }
+
+    private static void assertSameContent(Map<Integer, Integer> expected, PersistentMap<Key, Integer> map) {
+        Assert.assertEquals(expected.size(), map.size());
+        for (int id = 0; id < 20_000; id++) {
+            Assert.assertEquals(expected.get(id), map.get(new Key(id)));
+        }
+        int[] count = {0};
+        map.forEach((key, value) -> {
+            Assert.assertEquals(expected.get(key.id), value);
+            count[0]++;
+        });
+        Assert.assertEquals(expected.size(), count[0]);
+    }
+}